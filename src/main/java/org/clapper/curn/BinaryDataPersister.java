@@ -0,0 +1,1102 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>A {@link DataPersister} that stores the <i>curn</i> data in a compact,
+ * length-prefixed binary file, rather than as XML. The binary file is
+ * written and read in a single streaming pass; no document tree is ever
+ * built, so loading and saving a large cache is considerably faster and
+ * uses far less memory than with {@link XMLDataPersister}.</p>
+ *
+ * <p>This persister uses the same configuration parameters
+ * (<tt>CacheFile</tt> and <tt>TotalCacheBackups</tt>) as
+ * {@link XMLDataPersister}. If the configured cache file turns out to be
+ * an XML cache, it's read with {@link XMLDataPersister}; the next save
+ * then writes it in binary form. {@link CacheFileConverter} can also be
+ * used to convert an XML cache ahead of time.</p>
+ *
+ * <p>The file format is:</p>
+ *
+ * <pre>
+ * file     := magic version base-time record* END
+ * magic    := 'C' 'U' 'R' 'N'
+ * version  := byte
+ * record   := FEED url time metadata
+ *           | ITEM url time pub-date metadata
+ *           | EXTRA metadata
+ * metadata := count (string-ref count (string-ref string)*)*
+ * </pre>
+ *
+ * <p>Each <tt>ITEM</tt> record belongs to the <tt>FEED</tt> record that
+ * precedes it, so a channel URL is stored only once, and all the items
+ * loaded for a feed share the same channel <tt>URL</tt> object. Counts and
+ * times are unsigned variable-length integers (seven bits per byte, low
+ * bits first). Times are stored as zig-zag encoded offsets from the base
+ * time in the header; a publication date of 0 means "none". Strings are a
+ * length followed by that many bytes of UTF-8. Metadata namespaces and
+ * names are stored in a string table that's built as the file is written:
+ * a string reference of 0 is followed by a new string, which is assigned
+ * the next table index; any other value <i>n</i> refers to table entry
+ * <i>n</i>-1.</p>
+ *
+ * @see DataPersisterFactory
+ * @see XMLDataPersister
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class BinaryDataPersister extends DataPersister
+{
+    /*----------------------------------------------------------------------*\
+                               Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int DEF_TOTAL_CACHE_BACKUPS = 0;
+
+    private static final String VAR_CACHE_FILE          = "CacheFile";
+    private static final String VAR_TOTAL_CACHE_BACKUPS = "TotalCacheBackups";
+
+    /**
+     * File header and format version.
+     */
+    private static final byte[] MAGIC = new byte[] {'C', 'U', 'R', 'N'};
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Record types.
+     */
+    private static final int REC_END   = 0;
+    private static final int REC_FEED  = 1;
+    private static final int REC_ITEM  = 2;
+    private static final int REC_EXTRA = 3;
+
+    /**
+     * I/O buffer size
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Suffix for the old cache file, while a new one is moved into place.
+     */
+    private static final String OLD_SUFFIX = ".old";
+
+    /*----------------------------------------------------------------------*\
+                             Private Instance Data
+    \*----------------------------------------------------------------------*/
+
+    private int totalCacheBackups = DEF_TOTAL_CACHE_BACKUPS;
+    private File metadataFile = null;
+
+    /**
+     * Whether the backups have been rolled yet during this run. A run can
+     * save the cache more than once (see <tt>CacheCheckpointer</tt>), but
+     * only the first save rolls the backups.
+     */
+    private boolean backupsRolled = false;
+
+    /**
+     * Output stream, temporary file, base time and string table, used
+     * while saving.
+     */
+    private DataOutputStream out = null;
+    private FileOutputStream fileOut = null;
+    private File tempFile = null;
+    private long saveBaseTime = 0;
+    private Map<String,Integer> saveStringTable = null;
+
+    /**
+     * Input stream, base time and string table, used while loading.
+     */
+    private DataInputStream in = null;
+    private long loadBaseTime = 0;
+    private List<String> loadStringTable = null;
+    private byte[] stringBuf = new byte[256];
+
+    /**
+     * For logging
+     */
+    private static final Logger log = new Logger(BinaryDataPersister.class);
+
+    /*----------------------------------------------------------------------*\
+                                   Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Creates a new instance of BinaryDataPersister
+     */
+    public BinaryDataPersister()
+    {
+    }
+
+    /**
+     * Creates a new instance of BinaryDataPersister that reads and writes
+     * the specified file, without consulting the configuration. Used by
+     * {@link CacheFileConverter}.
+     *
+     * @param metadataFile  the binary metadata (cache) file
+     */
+    BinaryDataPersister(File metadataFile)
+    {
+        this.metadataFile = metadataFile;
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Called when the <tt>DataPersister</tt> is first instantiated. Useful
+     * for retrieving configuration values, etc.
+     *
+     * @param curnConfig  the configuration
+     * @throws CurnException on error
+     */
+    public void init(CurnConfig curnConfig) throws CurnException
+    {
+        try
+        {
+            String cacheFileName =
+                curnConfig.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                                  VAR_CACHE_FILE,
+                                                  null);
+            if (cacheFileName == null)
+            {
+                log.debug("Feed metadata (cache) file is not configured.");
+            }
+
+            else
+            {
+                metadataFile = CurnUtil.mapConfiguredPathName(cacheFileName);
+                log.debug("Feed metadata (cache) file is " + metadataFile);
+                if (metadataFile.isDirectory())
+                {
+                    throw new CurnException
+                        (Constants.BUNDLE_NAME,
+                         "BinaryDataPersister.cacheIsDir",
+                         "Configured cache file \"{0}\" is a directory.",
+                         new Object[] {metadataFile.getPath()});
+                }
+            }
+
+            totalCacheBackups =
+                curnConfig.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                    VAR_TOTAL_CACHE_BACKUPS,
+                                                    DEF_TOTAL_CACHE_BACKUPS);
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                               Protected Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether the data persister subclass is enabled or not (i.e.,
+     * whether or not metadata is to be loaded and saved). The configuration
+     * usually determines whether or not the data persister is enabled.
+     *
+     * @return <tt>true</tt> if enabled, <tt>false</tt> if disabled.
+     */
+    protected boolean isEnabled()
+    {
+        return metadataFile != null;
+    }
+
+    /**
+     * Called at the beginning of the actual save operation to initialize
+     * the save, etc. The data is written to a temporary file, which
+     * replaces the cache file only when the save completes.
+     *
+     * @throws CurnException on error
+     */
+    protected void startSaveOperation() throws CurnException
+    {
+        assert(isEnabled());
+
+        log.debug("Saving feed metadata to \"" + metadataFile.getPath() +
+                  "\". Total backups=" + totalCacheBackups);
+
+        tempFile = new File(metadataFile.getPath() + ".tmp");
+        saveBaseTime = System.currentTimeMillis();
+        saveStringTable = new HashMap<String,Integer>();
+
+        try
+        {
+            fileOut = new FileOutputStream(tempFile);
+            out = new DataOutputStream
+                      (new BufferedOutputStream(fileOut, BUFFER_SIZE));
+            out.write(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            writeVarLong(saveBaseTime);
+        }
+
+        catch (IOException ex)
+        {
+            abortSave();
+            throw saveError(ex);
+        }
+    }
+
+    /**
+     * Called at the end of the actual save operation to flush files, clean
+     * up, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void endSaveOperation() throws CurnException
+    {
+        try
+        {
+            out.writeByte(REC_END);
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            out = null;
+            fileOut = null;
+
+            if (! backupsRolled)
+            {
+                rollBackups();
+                backupsRolled = true;
+            }
+
+            if (! tempFile.renameTo(metadataFile))
+            {
+                // Some platforms won't rename over an existing file. Move
+                // the old file aside, rather than deleting it, so that
+                // there's always a file to load; see recoverMetadataFile().
+
+                File oldFile = new File(metadataFile.getPath() + OLD_SUFFIX);
+                oldFile.delete();
+                if (! metadataFile.renameTo(oldFile))
+                {
+                    throw new IOException("Can't rename \"" +
+                                          metadataFile.getPath() + "\" to \"" +
+                                          oldFile.getPath() + "\"");
+                }
+
+                if (! tempFile.renameTo(metadataFile))
+                {
+                    oldFile.renameTo(metadataFile);
+                    throw new IOException("Can't rename \"" +
+                                          tempFile.getPath() + "\" to \"" +
+                                          metadataFile.getPath() + "\"");
+                }
+
+                oldFile.delete();
+            }
+        }
+
+        catch (IOException ex)
+        {
+            abortSave();
+            throw saveError(ex);
+        }
+
+        finally
+        {
+            saveStringTable = null;
+        }
+    }
+
+    /**
+     * Save the data for one feed, including the items.
+     *
+     * @param feedData  the feed data to be saved
+     *
+     * @throws CurnException on error
+     */
+    protected void saveFeedData(PersistentFeedData feedData)
+        throws CurnException
+    {
+        FeedCacheEntry feedCacheData = feedData.getFeedCacheEntry();
+
+        if (feedCacheData == null)
+            return;
+
+        try
+        {
+            out.writeByte(REC_FEED);
+            writeString(feedCacheData.getChannelURL().toString());
+            writeTime(feedCacheData.getTimestamp());
+            writeMetadata(feedData.getFeedMetadata());
+
+            for (PersistentFeedItemData itemData :
+                     feedData.getPersistentFeedItems())
+            {
+                FeedCacheEntry itemCacheData = itemData.getFeedCacheEntry();
+
+                out.writeByte(REC_ITEM);
+                writeString(itemCacheData.getEntryURL().toString());
+                writeTime(itemCacheData.getTimestamp());
+
+                Date pubDate = itemCacheData.getPublicationDate();
+                if (pubDate == null)
+                    writeVarLong(0);
+                else
+                    writeVarLong(zigZag(pubDate.getTime() - saveBaseTime) + 1);
+
+                writeMetadata(itemData.getItemMetadata());
+            }
+        }
+
+        catch (IOException ex)
+        {
+            abortSave();
+            throw saveError(ex);
+        }
+    }
+
+    /**
+     * Save any extra metadata (i.e., metadata that isn't attached to a
+     * specific feed or a specific item).
+     *
+     * @param metadata the collection of metadata items
+     *
+     * @throws CurnException on error
+     */
+    protected void
+    saveExtraMetadata(Collection<PersistentMetadataGroup> metadata)
+        throws CurnException
+    {
+        if (metadata.size() > 0)
+        {
+            try
+            {
+                out.writeByte(REC_EXTRA);
+                writeMetadata(metadata);
+            }
+
+            catch (IOException ex)
+            {
+                abortSave();
+                throw saveError(ex);
+            }
+        }
+    }
+
+    /**
+     * Called at the beginning of the load operation to initialize
+     * the load.
+     *
+     * @throws CurnException on error
+     */
+    protected void startLoadOperation()
+        throws CurnException
+    {
+         assert(isEnabled());
+         log.debug("Starting load of binary curn data.");
+    }
+
+    /**
+     * Called at the end of the load operation to close files, clean
+     * up, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void endLoadOperation()
+        throws CurnException
+    {
+         log.debug("Load of binary curn data complete.");
+    }
+
+    /**
+     * The actual load method; only called if the object is enabled.
+     *
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected void doLoad(LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+        String filePath = metadataFile.getPath();
+        log.debug("Preparing to load " + metadataFile);
+        recoverMetadataFile();
+        if (! metadataFile.exists())
+        {
+            log.warn("Feed metadata file \"" + filePath + "\" does not exist.");
+        }
+
+        else
+        {
+            log.debug("Reading feed metadata from \"" + filePath + "\"");
+
+            try
+            {
+                in = new DataInputStream
+                         (new BufferedInputStream
+                              (new FileInputStream(metadataFile),
+                               BUFFER_SIZE));
+
+                byte[] header = new byte[MAGIC.length];
+                int total = in.read(header);
+                if ((total == MAGIC.length) && isMagic(header))
+                {
+                    readBinaryMetadata(loadedDataHandler);
+                }
+
+                else if ((total > 0) && looksLikeXML(header[0]))
+                {
+                    log.info("\"" + filePath + "\" is an XML cache file. " +
+                             "Reading it as XML.");
+                    in.close();
+                    in = null;
+                    new XMLDataPersister(metadataFile).doLoad
+                        (loadedDataHandler);
+                }
+
+                else
+                {
+                    throw new CurnException
+                        (Constants.BUNDLE_NAME,
+                         "BinaryDataPersister.badMagic",
+                         "File \"{0}\" is not a curn binary or XML metadata " +
+                         "file.",
+                         new Object[] {filePath});
+                }
+            }
+
+            catch (EOFException ex)
+            {
+                throw new CurnException
+                    (Constants.BUNDLE_NAME,
+                     "BinaryDataPersister.truncated",
+                     "Binary cache file \"{0}\" is truncated.",
+                     new Object[] {filePath},
+                     ex);
+            }
+
+            catch (IOException ex)
+            {
+                throw new CurnException("Failed to read binary cache file \"" +
+                                        filePath + "\"",
+                                        ex);
+            }
+
+            finally
+            {
+                loadStringTable = null;
+                if (in != null)
+                {
+                    try
+                    {
+                        in.close();
+                    }
+
+                    catch (IOException ex)
+                    {
+                        log.error("Failed to close \"" + filePath + "\"", ex);
+                    }
+
+                    in = null;
+                }
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Read the records of a binary metadata file, once the magic number
+     * has been read.
+     *
+     * @param loadedDataHandler the callback to invoke with loaded data
+     *
+     * @throws IOException   read error
+     * @throws CurnException bad data, or error from the callback
+     */
+    private void readBinaryMetadata(final LoadedDataHandler loadedDataHandler)
+        throws IOException,
+               CurnException
+    {
+        String filePath = metadataFile.getPath();
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION)
+        {
+            throw new CurnException
+                (Constants.BUNDLE_NAME,
+                 "BinaryDataPersister.badVersion",
+                 "Binary cache file \"{0}\" has format version {1}, which " +
+                 "this version of curn doesn''t support.",
+                 new Object[] {filePath, String.valueOf(version)});
+        }
+
+        loadBaseTime = readVarLong();
+        loadStringTable = new ArrayList<String>();
+
+        PersistentFeedData feedData = null;
+        URL channelURL = null;
+        int totalFeeds = 0;
+        int totalItems = 0;
+        boolean done = false;
+
+        while (! done)
+        {
+            int recordType = in.readUnsignedByte();
+            switch (recordType)
+            {
+                case REC_FEED:
+                    if (feedData != null)
+                        loadedDataHandler.feedLoaded(feedData);
+
+                    feedData = null;
+                    String sChannelURL = readString();
+                    long timestamp = readTime();
+                    Collection<PersistentMetadataGroup> feedMetadata =
+                        readMetadata();
+
+                    channelURL = parseURL(sChannelURL, "channel");
+                    if (channelURL != null)
+                    {
+                        feedData = new PersistentFeedData
+                            (new FeedCacheEntry(channelURL,
+                                                channelURL,
+                                                null,
+                                                timestamp));
+                        feedData.addFeedMetadata(feedMetadata);
+                        totalFeeds++;
+                    }
+                    break;
+
+                case REC_ITEM:
+                    String sItemURL = readString();
+                    long itemTimestamp = readTime();
+                    long pubTime = readVarLong();
+                    Collection<PersistentMetadataGroup> itemMetadata =
+                        readMetadata();
+
+                    // Items for a feed that couldn't be loaded are skipped.
+
+                    URL itemURL = null;
+                    if (feedData != null)
+                        itemURL = parseURL(sItemURL, "item");
+
+                    if (itemURL != null)
+                    {
+                        Date pubDate = null;
+                        if (pubTime != 0)
+                            pubDate = new Date(loadBaseTime +
+                                               unZigZag(pubTime - 1));
+
+                        PersistentFeedItemData itemData =
+                            new PersistentFeedItemData
+                                (new FeedCacheEntry(channelURL,
+                                                    itemURL,
+                                                    pubDate,
+                                                    itemTimestamp));
+                        itemData.addItemMetadata(itemMetadata);
+                        feedData.addPersistentFeedItem(itemData);
+                        totalItems++;
+                    }
+                    break;
+
+                case REC_EXTRA:
+                    if (feedData != null)
+                        loadedDataHandler.feedLoaded(feedData);
+
+                    feedData = null;
+                    for (PersistentMetadataGroup metadataGroup :
+                             readMetadata())
+                    {
+                        loadedDataHandler.extraMetadataLoaded(metadataGroup);
+                    }
+                    break;
+
+                case REC_END:
+                    if (feedData != null)
+                        loadedDataHandler.feedLoaded(feedData);
+
+                    done = true;
+                    break;
+
+                default:
+                    throw new CurnException
+                        (Constants.BUNDLE_NAME,
+                         "BinaryDataPersister.badRecord",
+                         "Binary cache file \"{0}\" contains unknown " +
+                         "record type {1}.",
+                         new Object[] {filePath, String.valueOf(recordType)});
+            }
+        }
+
+        log.debug("Loaded " + totalFeeds + " feed(s) and " + totalItems +
+                  " item(s) from \"" + filePath + "\"");
+    }
+
+    /**
+     * Write a collection of metadata groups.
+     *
+     * @param metadata  the metadata groups
+     *
+     * @throws IOException on error
+     */
+    private void writeMetadata(Collection<PersistentMetadataGroup> metadata)
+        throws IOException
+    {
+        writeVarLong(metadata.size());
+        for (PersistentMetadataGroup metadataGroup : metadata)
+        {
+            writeStringRef(metadataGroup.getNamespace());
+            Map<String,String> nameValuePairs = metadataGroup.getMetadata();
+            writeVarLong(nameValuePairs.size());
+            for (Map.Entry<String,String> nameValuePair :
+                     nameValuePairs.entrySet())
+            {
+                writeStringRef(nameValuePair.getKey());
+                writeString(nameValuePair.getValue());
+            }
+        }
+    }
+
+    /**
+     * Read a collection of metadata groups.
+     *
+     * @return the metadata groups
+     *
+     * @throws IOException on error
+     */
+    private Collection<PersistentMetadataGroup> readMetadata()
+        throws IOException
+    {
+        int totalGroups = readCount();
+        Collection<PersistentMetadataGroup> result =
+            new ArrayList<PersistentMetadataGroup>(totalGroups);
+
+        for (int i = 0; i < totalGroups; i++)
+        {
+            PersistentMetadataGroup metadataGroup =
+                new PersistentMetadataGroup(readStringRef());
+            int totalPairs = readCount();
+            for (int j = 0; j < totalPairs; j++)
+            {
+                String name = readStringRef();
+                metadataGroup.addMetadataItem(name, readString());
+            }
+
+            result.add(metadataGroup);
+        }
+
+        return result;
+    }
+
+    /**
+     * Write a string as a reference to the string table, adding it to
+     * the table if it isn't there already.
+     *
+     * @param s  the string
+     *
+     * @throws IOException on error
+     */
+    private void writeStringRef(String s)
+        throws IOException
+    {
+        Integer index = saveStringTable.get(s);
+        if (index != null)
+        {
+            writeVarLong(index);
+        }
+
+        else
+        {
+            writeVarLong(0);
+            writeString(s);
+            saveStringTable.put(s, saveStringTable.size() + 1);
+        }
+    }
+
+    /**
+     * Read a string table reference, adding the string to the table if
+     * it's a new one.
+     *
+     * @return the string
+     *
+     * @throws IOException on error
+     */
+    private String readStringRef()
+        throws IOException
+    {
+        String result;
+        int index = readCount();
+
+        if (index == 0)
+        {
+            result = readString();
+            loadStringTable.add(result);
+        }
+
+        else if (index <= loadStringTable.size())
+        {
+            result = loadStringTable.get(index - 1);
+        }
+
+        else
+        {
+            throw new IOException("Bad string table reference " + index);
+        }
+
+        return result;
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string.
+     *
+     * @param s  the string
+     *
+     * @throws IOException on error
+     */
+    private void writeString(String s)
+        throws IOException
+    {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a length-prefixed UTF-8 string.
+     *
+     * @return the string
+     *
+     * @throws IOException on error
+     */
+    private String readString()
+        throws IOException
+    {
+        int length = readCount();
+        if (length > stringBuf.length)
+            stringBuf = new byte[Math.max(length, stringBuf.length * 2)];
+
+        in.readFully(stringBuf, 0, length);
+        return new String(stringBuf, 0, length, "UTF-8");
+    }
+
+    /**
+     * Write a time, as an offset from the base time.
+     *
+     * @param time  the time, in milliseconds
+     *
+     * @throws IOException on error
+     */
+    private void writeTime(long time)
+        throws IOException
+    {
+        writeVarLong(zigZag(time - saveBaseTime));
+    }
+
+    /**
+     * Read a time written by {@link #writeTime}.
+     *
+     * @return the time, in milliseconds
+     *
+     * @throws IOException on error
+     */
+    private long readTime()
+        throws IOException
+    {
+        return loadBaseTime + unZigZag(readVarLong());
+    }
+
+    /**
+     * Write an unsigned variable-length integer.
+     *
+     * @param value  the value
+     *
+     * @throws IOException on error
+     */
+    private void writeVarLong(long value)
+        throws IOException
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read an unsigned variable-length integer.
+     *
+     * @return the value
+     *
+     * @throws IOException on error
+     */
+    private long readVarLong()
+        throws IOException
+    {
+        long result = 0;
+        int  b;
+        int  shift = 0;
+
+        do
+        {
+            if (shift > 63)
+                throw new IOException("Malformed variable-length integer");
+
+            b = in.readUnsignedByte();
+            result |= ((long) (b & 0x7f)) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return result;
+    }
+
+    /**
+     * Read a variable-length integer that's used as a count, length or
+     * index.
+     *
+     * @return the value
+     *
+     * @throws IOException on error, including a value that's out of range
+     */
+    private int readCount()
+        throws IOException
+    {
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE)
+            throw new IOException("Bad count or length " + value);
+
+        return (int) value;
+    }
+
+    private static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static boolean isMagic(byte[] header)
+    {
+        boolean result = true;
+        for (int i = 0; i < MAGIC.length; i++)
+        {
+            if (header[i] != MAGIC[i])
+            {
+                result = false;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Determine whether a file that starts with a particular byte could
+     * be an XML file: i.e., whether the byte is a '&lt;', white space, or
+     * the start of a UTF-8 byte order mark.
+     *
+     * @param b  the first byte of the file
+     *
+     * @return <tt>true</tt> if the file could be XML, <tt>false</tt> if not
+     */
+    private static boolean looksLikeXML(byte b)
+    {
+        return (b == '<') || (b == (byte) 0xef) || Character.isWhitespace(b);
+    }
+
+    /**
+     * Parse a URL from the cache, logging (but otherwise ignoring) a bad
+     * one.
+     *
+     * @param s     the URL string
+     * @param what  what the URL is for, for the log message
+     *
+     * @return the URL, or null if it's bad
+     */
+    private URL parseURL(String s, String what)
+    {
+        URL url = null;
+
+        try
+        {
+            url = new URL(s);
+        }
+
+        catch (MalformedURLException ex)
+        {
+            log.error("Bad " + what + " URL \"" + s + "\" in binary cache " +
+                      "file \"" + metadataFile.getPath() + "\". Skipping " +
+                      "entry.");
+        }
+
+        return url;
+    }
+
+    /**
+     * Move the existing cache file out of the way, keeping up to
+     * <tt>totalCacheBackups</tt> numbered copies (<i>file</i>.0 being the
+     * newest).
+     */
+    private void rollBackups()
+    {
+        if ((totalCacheBackups > 0) && metadataFile.exists())
+        {
+            for (int i = totalCacheBackups - 1; i > 0; i--)
+            {
+                File from = backupFile(i - 1);
+                if (from.exists())
+                {
+                    File to = backupFile(i);
+                    to.delete();
+                    if (! from.renameTo(to))
+                    {
+                        log.error("Can't rename \"" + from + "\" to \"" +
+                                  to + "\"");
+                    }
+                }
+            }
+
+            File backup = backupFile(0);
+            backup.delete();
+            if (! metadataFile.renameTo(backup))
+            {
+                log.error("Can't rename \"" + metadataFile + "\" to \"" +
+                          backup + "\"");
+            }
+        }
+    }
+
+    /**
+     * If a save was interrupted after it moved the old cache file aside
+     * (to <i>file</i><tt>.old</tt>, or to the newest backup), but before
+     * it moved the new one into place, put the old one back. The newest
+     * backup is only used if the save's temporary file is still there,
+     * so a cache file that was deleted on purpose stays deleted.
+     */
+    private void recoverMetadataFile()
+    {
+        File oldFile = new File(metadataFile.getPath() + OLD_SUFFIX);
+
+        if (metadataFile.exists())
+        {
+            oldFile.delete();
+        }
+
+        else
+        {
+            File from = oldFile;
+            if ((! from.exists()) &&
+                (totalCacheBackups > 0) &&
+                new File(metadataFile.getPath() + ".tmp").exists())
+            {
+                from = backupFile(0);
+            }
+
+            if (from.exists())
+            {
+                log.warn("Restoring feed metadata file \"" +
+                         metadataFile.getPath() + "\" from \"" +
+                         from.getPath() + "\".");
+                if (! from.renameTo(metadataFile))
+                {
+                    log.error("Can't rename \"" + from.getPath() +
+                              "\" to \"" + metadataFile.getPath() + "\"");
+                }
+            }
+        }
+    }
+
+    private File backupFile(int index)
+    {
+        return new File(metadataFile.getPath() + "." + index);
+    }
+
+    /**
+     * Close and remove the temporary file after a failed save.
+     */
+    private void abortSave()
+    {
+        if (out != null)
+        {
+            try
+            {
+                out.close();
+            }
+
+            catch (IOException ex)
+            {
+                log.error("Failed to close \"" + tempFile.getPath() + "\"",
+                          ex);
+            }
+
+            out = null;
+        }
+
+        fileOut = null;
+        if ((tempFile != null) && tempFile.exists())
+            tempFile.delete();
+    }
+
+    private CurnException saveError(IOException ex)
+    {
+        return new CurnException("Failed to write binary cache file \"" +
+                                 metadataFile.getPath() + "\"",
+                                 ex);
+    }
+}
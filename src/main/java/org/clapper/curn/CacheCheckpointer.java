@@ -0,0 +1,312 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>Saves the feed cache in the background while the feeds are being
+ * downloaded, so that a run that dies part-way through (or is killed)
+ * doesn't lose everything it learned. Checkpoints are taken every
+ * <tt>CacheCheckpointInterval</tt> seconds, and after every
+ * <tt>CacheCheckpointFeeds</tt> feeds with new items, whichever comes
+ * first. Either trigger can be disabled by setting it to 0; if both are
+ * disabled (the default), the cache is saved only at the end of the
+ * run.</p>
+ *
+ * <p>Checkpoints are written by a single background thread, through the
+ * configured {@link DataPersister}, so the download threads never wait
+ * for one. A checkpoint is skipped if the cache hasn't changed since the
+ * last one. The persisters replace the cache atomically (or append to it),
+ * so an interrupted checkpoint leaves the previous one intact.</p>
+ *
+ * @see DataPersister#saveData
+ * @see FeedCache
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class CacheCheckpointer
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String VAR_CHECKPOINT_INTERVAL =
+        "CacheCheckpointInterval";
+    private static final String VAR_CHECKPOINT_FEEDS = "CacheCheckpointFeeds";
+
+    private static final int DEF_CHECKPOINT_INTERVAL = 0;
+    private static final int DEF_CHECKPOINT_FEEDS    = 0;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final DataPersister persister;
+    private final FeedCache cache;
+    private final long intervalSeconds;
+    private final int feedsPerCheckpoint;
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * Feeds finished since the last checkpoint request, and whether a
+     * checkpoint is waiting to run (so that requests can be coalesced).
+     */
+    private final AtomicInteger feedsFinished = new AtomicInteger(0);
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    /**
+     * Set by {@link #stop}, so that queued checkpoints are dropped.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * The cache's change count as of the last checkpoint. Only used by
+     * the checkpoint thread.
+     */
+    private long savedChangeCount = -1;
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(CacheCheckpointer.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new <tt>CacheCheckpointer</tt>. The checkpointer does
+     * nothing until {@link #start} is called.
+     *
+     * @param config     the configuration
+     * @param persister  the data persister to save the cache with
+     * @param cache      the cache to save
+     *
+     * @throws CurnException bad configuration value
+     */
+    CacheCheckpointer(CurnConfig    config,
+                      DataPersister persister,
+                      FeedCache     cache)
+        throws CurnException
+    {
+        this.persister = persister;
+        this.cache = cache;
+
+        try
+        {
+            intervalSeconds =
+                config.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                VAR_CHECKPOINT_INTERVAL,
+                                                DEF_CHECKPOINT_INTERVAL);
+            feedsPerCheckpoint =
+                config.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                VAR_CHECKPOINT_FEEDS,
+                                                DEF_CHECKPOINT_FEEDS);
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether checkpoints are enabled at all.
+     *
+     * @return <tt>true</tt> if either trigger is configured
+     */
+    boolean isEnabled()
+    {
+        return (intervalSeconds > 0) || (feedsPerCheckpoint > 0);
+    }
+
+    /**
+     * Start the checkpoint thread. Does nothing if checkpoints aren't
+     * enabled.
+     */
+    synchronized void start()
+    {
+        if ((! isEnabled()) || (executor != null))
+            return;
+
+        log.debug("Checkpointing cache every " + intervalSeconds +
+                  " seconds and every " + feedsPerCheckpoint + " feeds.");
+
+        executor = Executors.newSingleThreadScheduledExecutor
+            (new ThreadFactory()
+             {
+                 public Thread newThread(Runnable r)
+                 {
+                     Thread thread = new Thread(r, "curn cache checkpoint");
+                     thread.setDaemon(true);
+                     return thread;
+                 }
+             });
+
+        if (intervalSeconds > 0)
+        {
+            executor.scheduleWithFixedDelay(new Runnable()
+                                            {
+                                                public void run()
+                                                {
+                                                    checkpoint();
+                                                }
+                                            },
+                                            intervalSeconds,
+                                            intervalSeconds,
+                                            TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Note that a feed has been processed. Called by the download threads;
+     * requests a checkpoint every <tt>CacheCheckpointFeeds</tt> feeds, but
+     * never waits for it.
+     */
+    void feedFinished()
+    {
+        if ((feedsPerCheckpoint > 0) &&
+            (feedsFinished.incrementAndGet() >= feedsPerCheckpoint))
+        {
+            feedsFinished.set(0);
+            request();
+        }
+    }
+
+    /**
+     * Stop the checkpoint thread, waiting for a checkpoint in progress (if
+     * any) to finish. Checkpoints that haven't started are dropped, since
+     * the caller is expected to save the cache itself.
+     */
+    synchronized void stop()
+    {
+        if (executor == null)
+            return;
+
+        // Don't interrupt a checkpoint in progress; just keep the
+        // queued ones from running.
+
+        stopped = true;
+        executor.shutdown();
+        try
+        {
+            while (! executor.awaitTermination(1, TimeUnit.SECONDS))
+                log.debug("Waiting for cache checkpoint to finish.");
+        }
+
+        catch (InterruptedException ex)
+        {
+            log.error("Interrupted while waiting for cache checkpoint.", ex);
+            Thread.currentThread().interrupt();
+        }
+
+        executor = null;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Queue a checkpoint, unless one is already queued.
+     */
+    private synchronized void request()
+    {
+        if ((executor != null) && pending.compareAndSet(false, true))
+        {
+            executor.execute(new Runnable()
+                             {
+                                 public void run()
+                                 {
+                                     pending.set(false);
+                                     checkpoint();
+                                 }
+                             });
+        }
+    }
+
+    /**
+     * Take a checkpoint, if the cache has changed since the last one.
+     * Runs on the checkpoint thread. Errors are logged, not thrown: a
+     * failed checkpoint mustn't stop the run, and the cache is saved
+     * again at the end.
+     */
+    private void checkpoint()
+    {
+        if (stopped)
+            return;
+
+        long changeCount = cache.getChangeCount();
+        if (changeCount == savedChangeCount)
+        {
+            log.debug("Cache unchanged since last checkpoint.");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try
+        {
+            persister.saveData(cache);
+            savedChangeCount = changeCount;
+            log.info("Checkpointed cache in " +
+                     (System.currentTimeMillis() - start) + " ms.");
+        }
+
+        catch (CurnException ex)
+        {
+            log.error("Cache checkpoint failed.", ex);
+        }
+
+        catch (RuntimeException ex)
+        {
+            log.error("Cache checkpoint failed.", ex);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * One-shot converter from an XML <i>curn</i> cache file (as written by
+ * {@link XMLDataPersister}) to a binary one (as read by
+ * {@link BinaryDataPersister}). Usage:
+ *
+ * <pre>
+ * java org.clapper.curn.CacheFileConverter xmlCacheFile binaryCacheFile
+ * </pre>
+ *
+ * <p>The data is copied as-is, including any metadata belonging to
+ * plug-ins; no plug-ins need to be loaded. The conversion isn't strictly
+ * necessary: {@link BinaryDataPersister} reads an XML cache file if it
+ * finds one, and writes it back in binary form at the end of the run.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public final class CacheFileConverter
+{
+    /*----------------------------------------------------------------------*\
+                                   Constructor
+    \*----------------------------------------------------------------------*/
+
+    private CacheFileConverter()
+    {
+        // Cannot be instantiated.
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Main program.
+     *
+     * @param args  command-line parameters
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: java " +
+                               CacheFileConverter.class.getName() +
+                               " xmlCacheFile binaryCacheFile");
+            System.exit(1);
+        }
+
+        try
+        {
+            convert(new File(args[0]), new File(args[1]));
+        }
+
+        catch (CurnException ex)
+        {
+            ex.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Convert an XML cache file to a binary one.
+     *
+     * @param xmlFile     the existing XML cache file
+     * @param binaryFile  the binary cache file to write. If it exists,
+     *                    it's overwritten.
+     *
+     * @throws CurnException on error
+     */
+    public static void convert(File xmlFile, File binaryFile)
+        throws CurnException
+    {
+        if (! xmlFile.exists())
+        {
+            throw new CurnException("XML cache file \"" + xmlFile.getPath() +
+                                    "\" does not exist.");
+        }
+
+        final BinaryDataPersister binaryPersister =
+            new BinaryDataPersister(binaryFile);
+        final Collection<PersistentMetadataGroup> extraMetadata =
+            new ArrayList<PersistentMetadataGroup>();
+
+        binaryPersister.startSaveOperation();
+        new XMLDataPersister(xmlFile).doLoad
+            (new DataPersister.LoadedDataHandler()
+        {
+            public void feedLoaded(PersistentFeedData feedData)
+                throws CurnException
+            {
+                binaryPersister.saveFeedData(feedData);
+            }
+
+            public void
+            extraMetadataLoaded(PersistentMetadataGroup metadataGroup)
+                throws CurnException
+            {
+                extraMetadata.add(metadataGroup);
+            }
+        });
+        binaryPersister.saveExtraMetadata(extraMetadata);
+        binaryPersister.endSaveOperation();
+    }
+}
@@ -0,0 +1,121 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persists the values <i>curn</i> uses to detect unchanged feeds: the HTTP
+ * validators (the <tt>ETag</tt> and the raw <tt>Last-Modified</tt> header),
+ * so that the next run can issue a conditional GET (<tt>If-None-Match</tt>
+ * and <tt>If-Modified-Since</tt>), and a hash of the feed content, for
+ * servers that ignore conditional GETs. The values live in the feed's
+ * channel {@link FeedCacheEntry}; this class just moves them to and from
+ * the persistent data store as feed metadata.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+class ConditionalGetDataClient extends AbstractPersistentDataClient
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String ENTITY_TAG    = "etag";
+    private static final String LAST_MODIFIED = "last-modified";
+    private static final String CONTENT_HASH  = "content-hash";
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    ConditionalGetDataClient()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Process a feed metadata item that has been read from the data store.
+     *
+     * @param name     the name associated with the data item
+     * @param value    the (string) value of the data
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     */
+    public void parseFeedMetadata(String         name,
+                                  String         value,
+                                  FeedCacheEntry feedData)
+    {
+        if (name.equals(ENTITY_TAG))
+            feedData.setEntityTag(value);
+
+        else if (name.equals(LAST_MODIFIED))
+            feedData.setLastModifiedHeader(value);
+
+        else if (name.equals(CONTENT_HASH))
+            feedData.setContentHash(value);
+    }
+
+    /**
+     * Get the metadata that is to be saved with a particular feed.
+     *
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     *
+     * @return the validators for the feed, if any
+     */
+    public Map<String,String> getMetadataForFeed(FeedCacheEntry feedData)
+    {
+        Map<String,String> result = new HashMap<String,String>();
+
+        if (feedData != null)
+        {
+            if (feedData.getEntityTag() != null)
+                result.put(ENTITY_TAG, feedData.getEntityTag());
+
+            if (feedData.getLastModifiedHeader() != null)
+                result.put(LAST_MODIFIED, feedData.getLastModifiedHeader());
+
+            if (feedData.getContentHash() != null)
+                result.put(CONTENT_HASH, feedData.getContentHash());
+        }
+
+        return result;
+    }
+}
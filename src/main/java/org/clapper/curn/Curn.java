@@ -44,16 +44,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Properties;
-import java.util.Queue;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.clapper.curn.parser.RSSParserFactory;
@@ -61,6 +62,8 @@ import org.clapper.curn.parser.RSSParser;
 import org.clapper.curn.parser.RSSParserException;
 import org.clapper.curn.parser.RSSChannel;
 
+import org.clapper.util.classutil.ClassUtil;
+import org.clapper.util.classutil.ClassUtilException;
 import org.clapper.util.config.ConfigurationException;
 import org.clapper.util.io.WordWrapWriter;
 import org.clapper.util.logging.Logger;
@@ -90,6 +93,67 @@ public class Curn
                              Private Constants
     \*----------------------------------------------------------------------*/
 
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Keeps one kind of per-feed output plug-in call in configured output
+     * handler order, while the output handlers themselves run in parallel:
+     * for each feed, handler <i>n</i>'s call waits until handler
+     * <i>n-1</i> has made the same call. (For instance, the email plug-in
+     * collects the output for each article in handler order.) The
+     * handlers' tasks are started in order, so a handler that's waiting is
+     * always waiting on one that's running.
+     */
+    private static class FeedOutputTurns
+    {
+        private final int[] feedsDone;
+
+        FeedOutputTurns(int totalHandlers)
+        {
+            feedsDone = new int[totalHandlers];
+        }
+
+        /**
+         * Wait until it's a handler's turn for a feed.
+         *
+         * @param handler the handler's index, in configuration order
+         * @param feed    the feed's index, in output order
+         *
+         * @throws CurnException interrupted while waiting
+         */
+        synchronized void await(int handler, int feed)
+            throws CurnException
+        {
+            try
+            {
+                while ((handler > 0) && (feedsDone[handler - 1] <= feed))
+                    wait();
+            }
+
+            catch (InterruptedException ex)
+            {
+                throw new CurnException("Interrupted while waiting for " +
+                                        "output handler", ex);
+            }
+        }
+
+        /**
+         * Note how many feeds a handler has had its turn for. A handler
+         * that's finished, one way or another, passes
+         * <tt>Integer.MAX_VALUE</tt>.
+         *
+         * @param handler the handler's index, in configuration order
+         * @param total   the number of feeds
+         */
+        synchronized void done(int handler, int total)
+        {
+            feedsDone[handler] = total;
+            notifyAll();
+        }
+    }
+
     /*----------------------------------------------------------------------*\
                             Private Data Items
     \*----------------------------------------------------------------------*/
@@ -100,6 +164,8 @@ public class Curn
     private DataPersister dataPersister = null;
     private boolean abortOnUndefinedVariable = true;
     private PrintWriter err;
+    private FeedDownloadExecutorFactory executorFactory = null;
+    private RunStatistics runStats = new RunStatistics();
 
     private final Collection<ConfiguredOutputHandler> configuredOutputHandlers =
         new ArrayList<ConfiguredOutputHandler>();
@@ -160,6 +226,7 @@ public class Curn
                     final boolean useCache)
         throws CurnException
     {
+        runStats = new RunStatistics();
         metaPlugIn.runStartupPlugIn();
 
         try
@@ -168,6 +235,8 @@ public class Curn
             this.dataPersister = DataPersisterFactory.getInstance();
             loadOutputHandlers(config);
             metaPlugIn.registerPersistentDataClientPlugIns(dataPersister);
+            dataPersister.addPersistentDataClient
+                (new ConditionalGetDataClient());
             processRSSFeeds(useCache);
         }
 
@@ -216,6 +285,31 @@ public class Curn
         abortOnUndefinedVariable = enable;
     }
 
+    /**
+     * Supply the factory for the <tt>ExecutorService</tt> that runs the
+     * feed downloads. A factory set here takes precedence over the
+     * <tt>ExecutionMode</tt> configuration parameter. This method must be
+     * called before {@link #run run()}.
+     *
+     * @param factory  the factory, or null to use the configured
+     *                 execution mode
+     */
+    public void setFeedDownloadExecutorFactory
+        (final FeedDownloadExecutorFactory factory)
+    {
+        this.executorFactory = factory;
+    }
+
+    /**
+     * Get the statistics for the most recent (or current) run.
+     *
+     * @return the statistics
+     */
+    public RunStatistics getRunStatistics()
+    {
+        return runStats;
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
@@ -241,7 +335,7 @@ public class Curn
 
         if (useCache)
         {
-            cache = new FeedCache(config);
+            cache = new FeedCache(config, runStats);
             cache.setCurrentTime(currentTime);
             metaPlugIn.initPlugIn();
             dataPersister.loadData(cache);
@@ -256,19 +350,65 @@ public class Curn
                                              "No configured RSS feed URLs.");
         }
 
-        channels = downloadFeeds(parsingEnabled, cache, config);
+        // Checkpoint the cache in the background while the feeds are
+        // being downloaded, if so configured.
+
+        CacheCheckpointer checkpointer = null;
+        if ((cache != null) && config.mustUpdateFeedMetadata())
+        {
+            checkpointer = new CacheCheckpointer(config, dataPersister, cache);
+            if (! checkpointer.isEnabled())
+                checkpointer = null;
+        }
+
+        if (checkpointer != null)
+            checkpointer.start();
+
+        // Output handlers that can take each channel as soon as it's ready
+        // get it while the remaining feeds are still downloading.
+
+        IncrementalOutput incrementalOutput =
+            new IncrementalOutput(feeds, configuredOutputHandlers);
+        if (incrementalOutput.isEnabled())
+            incrementalOutput.start();
+        else
+            incrementalOutput = null;
+
+        try
+        {
+            channels = downloadFeeds(parsingEnabled, cache, checkpointer,
+                                     incrementalOutput, config);
+            if (incrementalOutput != null)
+                incrementalOutput.finish();
+        }
+
+        finally
+        {
+            if (incrementalOutput != null)
+                incrementalOutput.stop();
+
+            if (checkpointer != null)
+                checkpointer.stop();
+        }
 
         log.debug("After downloading, total (parsed) channels = " +
                   channels.size());
 
-        if (channels.size() > 0)
+        if ((channels.size() > 0) ||
+            ((incrementalOutput != null) &&
+             (incrementalOutput.getTotalChannels() > 0)))
+        {
             outputChannels(channels);
+        }
 
         if ((cache != null) && config.mustUpdateFeedMetadata())
         {
             metaPlugIn.runPreCacheSavePlugIn(cache);
             dataPersister.saveData(cache);
         }
+
+        if (cache != null)
+            cache.close();
     }
 
     private CurnConfig loadConfig(final URL configURL, final String encoding)
@@ -344,86 +484,112 @@ public class Curn
      * @param parsingEnabled <tt>true</tt> if parsing is to be done,
      *                       <tt>false</tt> otherwise
      * @param feedCache      the loaded cache of feed data; may be modified
+     * @param checkpointer   checkpoints the cache as feeds finish, or null
+     * @param incrementalOutput displays the channels as feeds finish, or
+     *                       null
      * @param configuration  the parsed configuration
      *
      * @return a <tt>Map</tt> of <tt>RSSChannel</tt> objects, indexed
-     *         by <tt>FeedInfo</tt>
+     *         by <tt>FeedInfo</tt>. The map is empty if every output
+     *         handler is incremental, since no one needs the channels.
      *
      * @throws RSSParserException error parsing feeds
      * @throws CurnException      some other error
      */
     private Map<FeedInfo,RSSChannel>
-    downloadFeeds (final boolean    parsingEnabled,
-                   final FeedCache  feedCache,
-                   final CurnConfig configuration)
+    downloadFeeds (final boolean           parsingEnabled,
+                   final FeedCache         feedCache,
+                   final CacheCheckpointer checkpointer,
+                   final IncrementalOutput incrementalOutput,
+                   final CurnConfig        configuration)
         throws RSSParserException,
                CurnException
     {
-        int maxThreads = configuration.getMaxThreads();
         Collection<FeedInfo> feeds = configuration.getFeeds();
         int totalFeeds = feeds.size();
+        FeedDownloadExecutorFactory factory =
+            getFeedDownloadExecutorFactory(configuration);
+        int totalWorkers = factory.getTotalWorkers(configuration, totalFeeds);
         final Map<FeedInfo,RSSChannel> channels =
-            new ConcurrentHashMap<FeedInfo,RSSChannel>(totalFeeds,
-                                                       0.75f,
-                                                       maxThreads);
-        final Queue<FeedInfo> feedQueue  = new ConcurrentLinkedQueue<FeedInfo>();
+            new ConcurrentHashMap<FeedInfo,RSSChannel>
+                (totalFeeds, 0.75f, Math.min(totalWorkers, 64));
         final RSSParser parser = (parsingEnabled ? getRSSParser(configuration)
                                                  : null);
 
-        if (maxThreads > totalFeeds)
-            maxThreads = totalFeeds;
-
         log.info("Doing multithreaded download of feeds, using " +
-                 maxThreads + " threads.");
+                 totalWorkers + " workers (" +
+                 factory.getClass().getName() + ").");
 
-        // Fill the feed queue and make it a synchronized list.
+        // Group the feeds by host, for the scheduler.
 
-        for (FeedInfo feedInfo : feeds)
-             feedQueue.offer(feedInfo);
+        final FeedDownloadScheduler scheduler =
+            new FeedDownloadScheduler(feeds,
+                                      configuration.getMaxDownloadsPerHost(),
+                                      configuration.getMaxDownloadsInFlight(),
+                                      configuration.getHostDownloadSpacing());
 
-        if (feedQueue.size() == 0)
+        if (scheduler.getTotalPending() == 0)
         {
             throw new CurnException(Constants.BUNDLE_NAME,
                                     "Curn.allFeedsDisabled",
                                     "All configured RSS feeds are disabled.");
         }
 
-        // Create the thread objects in a concurrent thread pool. They'll pull
-        // feeds off the queue themselves.
+        final FeedDownloader downloader = getFeedDownloader(configuration);
 
-        ExecutorService threadPool;
-        if (maxThreads == 1)
-            threadPool = Executors.newSingleThreadExecutor();
-        else
-            threadPool = Executors.newFixedThreadPool(maxThreads);
+        // The download workers hand each feed they download to the
+        // pipeline, which parses and processes it on its own threads.
+
+        FeedPipeline pipeline = new FeedPipeline(configuration, totalWorkers);
+        pipeline.start();
+
+        // Create the thread objects in a concurrent thread pool. They'll get
+        // feeds from the scheduler themselves.
+
+        ExecutorService threadPool = factory.newExecutor(configuration,
+                                                         totalFeeds);
 
         // Create a FeedDownloadHandler to handle the completion of each
         // feed.
 
+        final boolean keepChannels = (incrementalOutput == null) ||
+                                     (! incrementalOutput.handlesAllOutput());
         final FeedDownloadDoneHandler feedDownloadDoneHandler =
             new FeedDownloadDoneHandler()
         {
             public void feedFinished(FeedInfo feedInfo, RSSChannel channel)
             {
-                channels.put(feedInfo, channel);
+                if (channel != null)
+                {
+                    if (keepChannels)
+                        channels.put(feedInfo, channel);
+                    if (checkpointer != null)
+                        checkpointer.feedFinished();
+                }
+
+                if (incrementalOutput != null)
+                    incrementalOutput.feedFinished(feedInfo, channel);
             }
         };
 
         // Start the download threads.
 
-        log.info("Starting " + maxThreads + " feed-download threads.");
+        log.info("Starting " + totalWorkers + " feed-download workers.");
         log.debug ("Main thread priority is " +
                    Thread.currentThread().getPriority());
 
         // Fill the thread pool with threads.
 
-        for (int i = 0; i < maxThreads; i++)
+        for (int i = 0; i < totalWorkers; i++)
         {
             threadPool.execute(new FeedDownloadThread(parser,
+                                                      downloader,
                                                       feedCache,
                                                       configuration,
-                                                      feedQueue,
-                                                      feedDownloadDoneHandler));
+                                                      scheduler,
+                                                      pipeline,
+                                                      feedDownloadDoneHandler,
+                                                      runStats));
         }
 
         log.info("All feeds have been parceled out to threads.");
@@ -441,6 +607,18 @@ public class Curn
         try
         {
             threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            log.info("Feed download threads are done.");
+
+            // With an asynchronous downloader, the threads can finish
+            // while their last downloads are still running.
+
+            scheduler.awaitAllDone();
+            log.info("Feed downloads are done.");
+
+            // Once the downloads are done, nothing more can enter the
+            // pipeline, so it's safe to let it drain.
+
+            pipeline.finish();
         }
 
         catch (InterruptedException ex)
@@ -448,18 +626,24 @@ public class Curn
             throw new CurnException("Unexpected interruption of main thread", ex);
         }
 
-        log.info("Feed download threads are done.");
+        finally
+        {
+            downloader.shutdown();
+        }
+
+        log.info("Feed pipeline is done.");
+        log.info("Feed statistics: " + runStats.toString());
 
-        // Finally, remove any entries that still have null channels. (This
-        // can happen if there's no new data in a feed.)
+        for (FeedPipeline.StageStatistics stats :
+                 pipeline.getStageStatistics())
+        {
+            log.info("Stage statistics: " + stats.toString());
+        }
 
-        for (Iterator<Map.Entry<FeedInfo,RSSChannel>> it =
-                 channels.entrySet().iterator();
-             it.hasNext(); )
+        for (FeedDownloadScheduler.HostStatistics stats :
+                 scheduler.getHostStatistics())
         {
-            Map.Entry<FeedInfo,RSSChannel> mapEntry = it.next();
-            if (mapEntry.getValue() == null)
-                it.remove();
+            log.info("Download statistics: " + stats.toString());
         }
 
         // Copy the channels to a LinkedHashMap in feed order.
@@ -493,39 +677,122 @@ public class Curn
         return RSSParserFactory.getRSSParser (parserClassName);
     }
 
+    /**
+     * Get the factory for the executor that runs the feed downloads.
+     *
+     * @param configuration the parsed configuration
+     *
+     * @return the factory
+     */
+    private FeedDownloadExecutorFactory
+    getFeedDownloadExecutorFactory(final CurnConfig configuration)
+    {
+        FeedDownloadExecutorFactory result = executorFactory;
+
+        if (result == null)
+        {
+            switch (configuration.getExecutionMode())
+            {
+                case VIRTUAL:
+                    result = new VirtualThreadFeedDownloadExecutorFactory();
+                    break;
+
+                default:
+                    result = new ThreadPoolFeedDownloadExecutorFactory();
+                    break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Get a new, initialized instance of the configured feed downloader.
+     *
+     * @param configuration the parsed configuration
+     *
+     * @return the FeedDownloader
+     *
+     * @throws CurnException error instantiating or initializing the
+     *                       downloader
+     */
+    private FeedDownloader getFeedDownloader(final CurnConfig configuration)
+        throws CurnException
+    {
+        String className = configuration.getFeedDownloaderClassName();
+        FeedDownloader downloader;
+
+        log.info("Getting feed downloader \"" + className + "\"");
+
+        try
+        {
+            downloader = (FeedDownloader) ClassUtil.instantiateClass(className);
+        }
+
+        catch (ClassUtilException ex)
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "Curn.cantLoadDownloader",
+                                    "Can't instantiate feed downloader " +
+                                    "class \"{0}\"",
+                                    new Object[] {className},
+                                    ex);
+        }
+
+        catch (ClassCastException ex)
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "Curn.cantLoadDownloader",
+                                    "Can't instantiate feed downloader " +
+                                    "class \"{0}\"",
+                                    new Object[] {className},
+                                    ex);
+        }
+
+        downloader.init(configuration);
+        return downloader;
+    }
+
     private void outputChannels (final Map<FeedInfo,RSSChannel> channels)
         throws CurnException,
                ConfigurationException
     {
-        OutputHandler             handler;
         Collection<OutputHandler> outputHandlers =
             new ArrayList<OutputHandler>();
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        int totalHandlers = configuredOutputHandlers.size();
+        final FeedOutputTurns preTurns = new FeedOutputTurns(totalHandlers);
+        final FeedOutputTurns postTurns = new FeedOutputTurns(totalHandlers);
 
-        // Dump the output to each output handler
+        // Dump the output to each output handler. Each handler works on
+        // its own copies of the channels, so the handlers are independent
+        // of one another, and can run at the same time.
 
-        for (ConfiguredOutputHandler cfgHandler : configuredOutputHandlers)
+        for (final ConfiguredOutputHandler cfgHandler : configuredOutputHandlers)
         {
-            log.info("Preparing to call output handler \"" +
-                     cfgHandler.getName() +
-                     "\", of type " +
-                     cfgHandler.getClassName());
+            final int turn = outputHandlers.size();
+
+            outputHandlers.add(cfgHandler.getOutputHandler());
+            tasks.add(new Callable<Object>()
+                      {
+                          public Object call()
+                              throws CurnException
+                          {
+                              outputChannels(channels, cfgHandler, turn,
+                                             preTurns, postTurns);
+                              return null;
+                          }
+                      });
+        }
 
-            handler = cfgHandler.getOutputHandler();
-            outputHandlers.add(handler);
+        runOutputHandlers(tasks);
 
-            for (FeedInfo fi : channels.keySet())
-            {
-                // Use a copy of the channel. That way, the plug-ins and
-                // the output handler can modify its content freely, without
-                // affecting anyone else.
-
-                RSSChannel channel = channels.get(fi).makeCopy();
-                metaPlugIn.runPreFeedOutputPlugIn(fi, channel, handler);
-                handler.displayChannel(channel, fi);
-                metaPlugIn.runPostFeedOutputPlugIn(fi, handler);
-            }
+        // Once every handler has been flushed, run the plug-ins that look
+        // at the results, in configuration order.
 
-            handler.flush();
+        for (ConfiguredOutputHandler cfgHandler : configuredOutputHandlers)
+        {
+            OutputHandler handler = cfgHandler.getOutputHandler();
             ReadOnlyOutputHandler ro = new ReadOnlyOutputHandler(handler);
             if (! metaPlugIn.runPostOutputHandlerFlushPlugIn(ro))
                 cfgHandler.disable();
@@ -536,6 +803,157 @@ public class Curn
         outputHandlers = null;
     }
 
+    /**
+     * Display the channels with one output handler, and flush it. May be
+     * called on any thread.
+     *
+     * @param channels   the channels to display
+     * @param cfgHandler the output handler
+     * @param turn       the handler's index, in configuration order
+     * @param preTurns   orders the pre-feed output plug-in calls
+     * @param postTurns  orders the post-feed output plug-in calls
+     *
+     * @throws CurnException output error
+     */
+    private void outputChannels(final Map<FeedInfo,RSSChannel> channels,
+                                final ConfiguredOutputHandler  cfgHandler,
+                                final int                      turn,
+                                final FeedOutputTurns          preTurns,
+                                final FeedOutputTurns          postTurns)
+        throws CurnException
+    {
+        log.info("Preparing to call output handler \"" +
+                 cfgHandler.getName() +
+                 "\", of type " +
+                 cfgHandler.getClassName());
+
+        OutputHandler handler = cfgHandler.getOutputHandler();
+
+        try
+        {
+            // The incremental handlers have already been given their
+            // channels, as the feeds finished.
+
+            if (handler instanceof IncrementalOutputHandler)
+            {
+                log.debug("Output handler \"" + cfgHandler.getName() +
+                          "\" is incremental. Its channels are done.");
+            }
+
+            else
+            {
+                int i = 0;
+                for (FeedInfo fi : channels.keySet())
+                {
+                    // Use a copy of the channel. That way, the plug-ins and
+                    // the output handler can modify its content freely,
+                    // without affecting anyone else.
+
+                    RSSChannel channel = channels.get(fi).makeCopy();
+
+                    preTurns.await(turn, i);
+                    metaPlugIn.runPreFeedOutputPlugIn(fi, channel, handler);
+                    preTurns.done(turn, i + 1);
+
+                    handler.displayChannel(channel, fi);
+
+                    postTurns.await(turn, i);
+                    metaPlugIn.runPostFeedOutputPlugIn(fi, handler);
+                    postTurns.done(turn, i + 1);
+
+                    i++;
+                }
+            }
+        }
+
+        finally
+        {
+            // Whatever happened, don't keep the later handlers waiting.
+
+            preTurns.done(turn, Integer.MAX_VALUE);
+            postTurns.done(turn, Integer.MAX_VALUE);
+        }
+
+        handler.flush();
+    }
+
+    /**
+     * Run the output handlers' tasks on a pool of threads (one per
+     * processor, at most), and wait for them all to finish. A single task
+     * runs on the calling thread.
+     *
+     * @param tasks the tasks, one per output handler
+     *
+     * @throws CurnException the exception thrown by the first (in
+     *                       configuration order) task that failed
+     */
+    private void runOutputHandlers(List<Callable<Object>> tasks)
+        throws CurnException
+    {
+        if (tasks.size() == 0)
+            return;
+
+        if (tasks.size() == 1)
+        {
+            try
+            {
+                tasks.get(0).call();
+            }
+
+            catch (CurnException ex)
+            {
+                throw ex;
+            }
+
+            catch (RuntimeException ex)
+            {
+                throw ex;
+            }
+
+            catch (Exception ex)
+            {
+                throw new CurnException(ex);
+            }
+
+            return;
+        }
+
+        int totalThreads =
+            Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(totalThreads);
+
+        log.debug("Running " + tasks.size() + " output handlers on " +
+                  totalThreads + " threads.");
+
+        try
+        {
+            // invokeAll() waits for every task, so a failing handler
+            // doesn't leave the others running.
+
+            for (Future<Object> future : pool.invokeAll(tasks))
+                future.get();
+        }
+
+        catch (InterruptedException ex)
+        {
+            throw new CurnException("Interrupted while waiting for " +
+                                    "output handlers", ex);
+        }
+
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof CurnException)
+                throw (CurnException) cause;
+            throw new CurnException(cause);
+        }
+
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
     /**
      * Log all system properties and other information about the Java VM, as
      * well as other environmental trivia deemed useful to log.
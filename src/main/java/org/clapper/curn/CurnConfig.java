@@ -41,12 +41,17 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import java.net.URL;
 import java.net.MalformedURLException;
@@ -86,6 +91,16 @@ public class CurnConfig extends Configuration
     public static final String VAR_FORCE_ENCODING    = "ForceEncoding";
     public static final String VAR_FORCE_CHAR_ENCODING = "ForceCharacterEncoding";
     public static final String VAR_DISABLED          = "Disabled";
+    public static final String VAR_DOWNLOADER_CLASS_NAME = "DownloaderClass";
+    public static final String VAR_EXECUTION_MODE    = "ExecutionMode";
+    public static final String VAR_MAX_DOWNLOADS_PER_HOST =
+        "MaxDownloadsPerHost";
+    public static final String VAR_MAX_DOWNLOADS_IN_FLIGHT =
+        "MaxDownloadsInFlight";
+    public static final String VAR_HOST_DOWNLOAD_SPACING =
+        "HostDownloadSpacing";
+    public static final String VAR_MAX_IN_MEMORY_FEED_SIZE =
+        "MaxInMemoryFeedSize";
 
     /**
      * Configuration variable: allow embedded HTML. Not used here. Used by
@@ -104,6 +119,14 @@ public class CurnConfig extends Configuration
     public static final String  DEF_PARSER_CLASS_NAME =
         "org.clapper.curn.parser.rome.RSSParserAdapter";
     public static final int     DEF_MAX_THREADS       = 5;
+    public static final String  DEF_DOWNLOADER_CLASS_NAME =
+        "org.clapper.curn.URLConnectionFeedDownloader";
+    public static final ExecutionMode DEF_EXECUTION_MODE =
+        ExecutionMode.THREADS;
+    public static final int     DEF_MAX_DOWNLOADS_PER_HOST = 2;
+    public static final int     DEF_MAX_DOWNLOADS_IN_FLIGHT = 256;
+    public static final int     DEF_HOST_DOWNLOAD_SPACING  = 0;
+    public static final int     DEF_MAX_IN_MEMORY_FEED_SIZE = 1024 * 1024;
 
     /**
      * Others
@@ -115,6 +138,24 @@ public class CurnConfig extends Configuration
      */
     public static final String MAIN_SECTION = "curn";
 
+    /**
+     * How feed downloads are executed.
+     *
+     * @see #getExecutionMode
+     */
+    public static enum ExecutionMode
+    {
+        /**
+         * A fixed pool of <tt>MaxThreads</tt> platform threads.
+         */
+        THREADS,
+
+        /**
+         * One virtual thread per feed.
+         */
+        VIRTUAL
+    }
+
     /*----------------------------------------------------------------------*\
                              Private Constants
     \*----------------------------------------------------------------------*/
@@ -136,6 +177,74 @@ public class CurnConfig extends Configuration
     private static final String OLD_DEF_PARSER_CLASS_NAME =
         "org.clapper.curn.parser.minirss.MiniRSSParser";
 
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Read-only, <tt>URL</tt>-keyed view of the feed map, returned by
+     * {@link #getFeedInfoMap}. Lookups convert the <tt>URL</tt> to a
+     * {@link FeedKey}, and the entries are never hashed, so the view
+     * never calls <tt>URL.hashCode()</tt> or <tt>URL.equals()</tt>.
+     */
+    private class FeedInfoMapView extends AbstractMap<URL,FeedInfo>
+    {
+        FeedInfoMapView()
+        {
+        }
+
+        public FeedInfo get(Object key)
+        {
+            return (key instanceof URL) ? getFeedInfo((URL) key) : null;
+        }
+
+        public boolean containsKey(Object key)
+        {
+            return get(key) != null;
+        }
+
+        public int size()
+        {
+            return feedMap.size();
+        }
+
+        public Set<Map.Entry<URL,FeedInfo>> entrySet()
+        {
+            return new AbstractSet<Map.Entry<URL,FeedInfo>>()
+            {
+                public int size()
+                {
+                    return feedMap.size();
+                }
+
+                public Iterator<Map.Entry<URL,FeedInfo>> iterator()
+                {
+                    final Iterator<FeedInfo> it = feedMap.values().iterator();
+
+                    return new Iterator<Map.Entry<URL,FeedInfo>>()
+                    {
+                        public boolean hasNext()
+                        {
+                            return it.hasNext();
+                        }
+
+                        public Map.Entry<URL,FeedInfo> next()
+                        {
+                            FeedInfo feedInfo = it.next();
+                            return new SimpleImmutableEntry<URL,FeedInfo>
+                                (feedInfo.getURL(), feedInfo);
+                        }
+
+                        public void remove()
+                        {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
     /*----------------------------------------------------------------------*\
                             Private Data Items
     \*----------------------------------------------------------------------*/
@@ -144,8 +253,14 @@ public class CurnConfig extends Configuration
     private boolean updateCache = true;
     private boolean showRSSFormat = false;
     private Collection<FeedInfo> feeds = new ArrayList<FeedInfo>();
-    private Map<URL,FeedInfo> feedMap = new HashMap<URL,FeedInfo>();
+    private Map<FeedKey,FeedInfo> feedMap = new HashMap<FeedKey,FeedInfo>();
     private String parserClassName = DEF_PARSER_CLASS_NAME;
+    private String downloaderClassName = DEF_DOWNLOADER_CLASS_NAME;
+    private ExecutionMode executionMode = DEF_EXECUTION_MODE;
+    private int maxDownloadsPerHost = DEF_MAX_DOWNLOADS_PER_HOST;
+    private int maxDownloadsInFlight = DEF_MAX_DOWNLOADS_IN_FLIGHT;
+    private long hostDownloadSpacing = DEF_HOST_DOWNLOAD_SPACING;
+    private long maxInMemoryFeedSize = DEF_MAX_IN_MEMORY_FEED_SIZE;
     private List<ConfiguredOutputHandler> outputHandlers
                                  = new ArrayList<ConfiguredOutputHandler>();
     private int maxThreads = DEF_MAX_THREADS;
@@ -188,6 +303,18 @@ public class CurnConfig extends Configuration
         return parserClassName;
     }
 
+    /**
+     * Get the name of the {@link FeedDownloader} class to use. The caller is
+     * responsible for loading the returned class name and verifying that it
+     * implements the appropriate interface.
+     *
+     * @return the full class name
+     */
+    public String getFeedDownloaderClassName()
+    {
+        return downloaderClassName;
+    }
+
     /**
      * Gets the list of output handlers from the configuration, in the order
      * they appeared in the configuration.
@@ -237,6 +364,61 @@ public class CurnConfig extends Configuration
         return maxThreads;
     }
 
+    /**
+     * Get the configured execution mode for feed downloads.
+     *
+     * @return the execution mode
+     */
+    public ExecutionMode getExecutionMode()
+    {
+        return executionMode;
+    }
+
+    /**
+     * Get the maximum number of feeds to download simultaneously from any
+     * one host.
+     *
+     * @return the per-host limit, or 0 for no limit
+     */
+    public int getMaxDownloadsPerHost()
+    {
+        return maxDownloadsPerHost;
+    }
+
+    /**
+     * Get the maximum number of feeds being downloaded at once, across
+     * all hosts. Only an asynchronous {@link FeedDownloader} can have more
+     * feeds in flight than there are download threads.
+     *
+     * @return the limit, or 0 for no limit
+     */
+    public int getMaxDownloadsInFlight()
+    {
+        return maxDownloadsInFlight;
+    }
+
+    /**
+     * Get the minimum interval between the starts of successive downloads
+     * from the same host.
+     *
+     * @return the interval, in milliseconds
+     */
+    public long getHostDownloadSpacing()
+    {
+        return hostDownloadSpacing;
+    }
+
+    /**
+     * Get the largest downloaded feed, in bytes, that is kept in memory
+     * rather than spilled to a temporary file.
+     *
+     * @return the size, or 0 to always use temporary files
+     */
+    public long getMaxInMemoryFeedSize()
+    {
+        return maxInMemoryFeedSize;
+    }
+
     /**
      * Set the maximum number of concurrent threads to spawn when retrieving
      * RSS feeds.
@@ -332,11 +514,45 @@ public class CurnConfig extends Configuration
      */
     public boolean hasFeed(final URL url)
     {
-        return feedMap.containsKey(url.toString());
+        return feedMap.containsKey(new FeedKey(url));
+    }
+
+    /**
+     * Get the {@link FeedInfo} object for a configured feed.
+     *
+     * @param url  the feed's URL
+     *
+     * @return the <tt>FeedInfo</tt> object, or null if the URL isn't one
+     *         of the configured feeds
+     *
+     * @see #hasFeed
+     */
+    public FeedInfo getFeedInfo(final URL url)
+    {
+        return feedMap.get(new FeedKey(url));
+    }
+
+    /**
+     * Get the {@link FeedInfo} object for a configured feed, by key.
+     *
+     * @param key  the feed's key
+     *
+     * @return the <tt>FeedInfo</tt> object, or null if the key isn't one
+     *         of the configured feeds
+     *
+     * @see FeedInfo#getKey
+     */
+    public FeedInfo getFeedInfo(final FeedKey key)
+    {
+        return feedMap.get(key);
     }
 
     /**
-     * Get the {@link FeedInfo} map.
+     * Get the {@link FeedInfo} map. The map is read-only, and is only a
+     * view of the configured feeds that accepts <tt>URL</tt> keys; unlike
+     * a real <tt>Map</tt> keyed by <tt>URL</tt>, it never does DNS lookups.
+     * Use {@link #getFeedInfo(URL)} or {@link #getFeedInfo(FeedKey)}
+     * instead.
      *
      * @return A <tt>Map</tt> of {@link FeedInfo} objects, indexed by
      *         channel (or feed) URL.
@@ -347,7 +563,7 @@ public class CurnConfig extends Configuration
      */
     public Map<URL,FeedInfo> getFeedInfoMap()
     {
-        return feedMap;
+        return new FeedInfoMapView();
     }
 
     /**
@@ -635,6 +851,72 @@ public class CurnConfig extends Configuration
             val = String.valueOf(parserClassName);
         }
 
+        else if (varName.equals(VAR_DOWNLOADER_CLASS_NAME))
+        {
+            downloaderClassName =
+                getOptionalStringValue(MAIN_SECTION,
+                                       varName,
+                                       DEF_DOWNLOADER_CLASS_NAME);
+            val = downloaderClassName;
+        }
+
+        else if (varName.equals(VAR_EXECUTION_MODE))
+        {
+            val = getOptionalStringValue(MAIN_SECTION,
+                                         varName,
+                                         DEF_EXECUTION_MODE.toString());
+            try
+            {
+                executionMode =
+                    ExecutionMode.valueOf(val.toUpperCase(Locale.US));
+            }
+
+            catch (IllegalArgumentException ex)
+            {
+                throw new ConfigurationException
+                    (Constants.BUNDLE_NAME, "CurnConfig.badVarValue",
+                     "Section \"{0}\" in the configuration file has a bad " +
+                     "value (\"{1}\") for the \"{2}\" parameter",
+                     new Object[] {MAIN_SECTION, val, VAR_EXECUTION_MODE});
+            }
+        }
+
+        else if (varName.equals(VAR_MAX_DOWNLOADS_PER_HOST))
+        {
+            maxDownloadsPerHost =
+                getOptionalCardinalValue(MAIN_SECTION,
+                                         varName,
+                                         DEF_MAX_DOWNLOADS_PER_HOST);
+            val = String.valueOf(maxDownloadsPerHost);
+        }
+
+        else if (varName.equals(VAR_MAX_DOWNLOADS_IN_FLIGHT))
+        {
+            maxDownloadsInFlight =
+                getOptionalCardinalValue(MAIN_SECTION,
+                                         varName,
+                                         DEF_MAX_DOWNLOADS_IN_FLIGHT);
+            val = String.valueOf(maxDownloadsInFlight);
+        }
+
+        else if (varName.equals(VAR_HOST_DOWNLOAD_SPACING))
+        {
+            hostDownloadSpacing =
+                getOptionalCardinalValue(MAIN_SECTION,
+                                         varName,
+                                         DEF_HOST_DOWNLOAD_SPACING);
+            val = String.valueOf(hostDownloadSpacing);
+        }
+
+        else if (varName.equals(VAR_MAX_IN_MEMORY_FEED_SIZE))
+        {
+            maxInMemoryFeedSize =
+                getOptionalCardinalValue(MAIN_SECTION,
+                                         varName,
+                                         DEF_MAX_IN_MEMORY_FEED_SIZE);
+            val = String.valueOf(maxInMemoryFeedSize);
+        }
+
         else if (varName.equals(VAR_MAX_THREADS))
         {
             int maxThreads = getOptionalCardinalValue(MAIN_SECTION,
@@ -765,7 +1047,7 @@ public class CurnConfig extends Configuration
         if (keepFeed)
         {
             feeds.add(feedInfo);
-            feedMap.put(url, feedInfo);
+            feedMap.put(feedInfo.getKey(), feedInfo);
         }
     }
 
@@ -116,12 +116,19 @@ public class CurnUtil
      *
      * @param url  The URL to normalize.
      *
-     * @return a new <tt>URL</tt> object representing the normalized URL
+     * @return a <tt>URL</tt> object representing the normalized URL. If
+     *         <tt>url</tt> is already normalized, it's returned as is.
      *
      * @see #normalizeURL(String)
      */
     public static URL normalizeURL (URL url)
     {
+        // Most URLs (including any URL that's already been normalized)
+        // are already in normal form. Don't build a new URL for them.
+
+        if (isNormalized(url))
+            return url;
+
         try
         {
             String protocol = url.getProtocol().toLowerCase();
@@ -173,7 +180,36 @@ public class CurnUtil
      */
     public static String urlToLookupKey (final URL url)
     {
-        return CurnUtil.normalizeURL(url).toExternalForm();
+        return normalizeURL(url).toExternalForm();
+    }
+
+    /**
+     * Compute a 64-bit fingerprint of a lookup key: a 64-bit FNV-1a hash
+     * of its characters, with a final mixing step so that all the bits are
+     * well distributed. The fingerprint is never zero.
+     *
+     * @param key  the lookup key
+     *
+     * @return the fingerprint
+     *
+     * @see #urlToLookupKey
+     */
+    public static long fingerprint(final String key)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, len = key.length(); i < len; i++)
+        {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+
+        return (h == 0) ? 1 : h;
     }
 
     /**
@@ -400,4 +436,40 @@ public class CurnUtil
 
         return result;
     }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether normalizing a URL would leave it unchanged.
+     *
+     * @param url  the URL
+     *
+     * @return <tt>true</tt> if the URL is already in normal form,
+     *         <tt>false</tt> if {@link #normalizeURL(URL)} must rebuild it
+     */
+    private static boolean isNormalized(final URL url)
+    {
+        String host      = url.getHost();
+        String authority = url.getAuthority();
+
+        return (url.getPort() == -1) &&
+               (! "".equals(url.getRef())) &&
+               isLowerCase(url.getProtocol()) &&
+               isLowerCase(host) &&
+               ((authority == null) || authority.equals(host));
+    }
+
+    private static boolean isLowerCase(final String s)
+    {
+        for (int i = 0, len = s.length(); i < len; i++)
+        {
+            char c = s.charAt(i);
+            if (Character.toLowerCase(c) != c)
+                return false;
+        }
+
+        return true;
+    }
 }
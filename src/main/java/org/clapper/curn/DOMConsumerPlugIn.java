@@ -0,0 +1,71 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+/**
+ * <p>A plug-in that looks at the JDOM document object model (DOM) of a
+ * parsed feed, via {@link org.clapper.curn.parser.RSSChannel#getDOM}.
+ * Some parsers (e.g., the StAX parser) don't build a DOM while parsing;
+ * they keep the raw feed data, instead, and build the DOM from it if it's
+ * asked for. Holding on to the raw data for every feed, until output,
+ * costs memory, so <i>curn</i> only asks the parser to keep it for feeds
+ * that some plug-in implementing this interface says it needs the DOM
+ * for. A plug-in that calls <tt>getDOM()</tt> without implementing this
+ * interface may find that the DOM isn't available.</p>
+ *
+ * @see MetaPlugIn#needsDOM
+ * @see org.clapper.curn.parser.LazyDOMParser
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface DOMConsumerPlugIn extends PlugIn
+{
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether this plug-in will want the DOM for a feed. Called
+     * after configuration is complete, possibly from several download
+     * threads at once.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     *
+     * @return <tt>true</tt> if the plug-in will call <tt>getDOM()</tt> on
+     *         the feed's parsed channel, <tt>false</tt> if not
+     */
+    public boolean needsDOM(FeedInfo feedInfo);
+}
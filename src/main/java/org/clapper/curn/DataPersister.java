@@ -39,6 +39,8 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
 import org.clapper.util.logging.Logger;
 
@@ -81,6 +83,59 @@ public abstract class DataPersister
             throws CurnException;
     }
 
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Receives loaded data on behalf of a {@link FeedCache}. Feed data is
+     * either added to the cache right away or, if the cache is loaded on
+     * demand, held by the cache until it's needed.
+     */
+    private class CacheLoader implements LoadedDataHandler
+    {
+        private final FeedCache feedCache;
+
+        CacheLoader(FeedCache feedCache)
+        {
+            this.feedCache = feedCache;
+        }
+
+        public void feedLoaded(PersistentFeedData feedData)
+            throws CurnException
+        {
+            if (feedCache.isLoadedOnDemand())
+                feedCache.deferFeed(feedData);
+            else
+                processLoadedFeed(feedData, feedCache);
+        }
+
+        public void extraMetadataLoaded(PersistentMetadataGroup metadataGroup)
+            throws CurnException
+        {
+            String namespace = metadataGroup.getNamespace();
+            PersistentDataClient client = persistentDataClients.get(namespace);
+            if (client == null)
+            {
+                log.warn("No plug-in or other class has registered " +
+                         "interest in extra metadata namespace \"" +
+                         namespace + "\". " + "Ignoring the metadata.");
+            }
+
+            else
+            {
+                Map<String,String> nameValuePairs =
+                    metadataGroup.getMetadata();
+                for (Map.Entry<String,String> entry :
+                     nameValuePairs.entrySet())
+                {
+                    client.parseExtraMetadata(entry.getKey(),
+                                              entry.getValue());
+                }
+            }
+        }
+    }
+
     /*----------------------------------------------------------------------*\
                             Private Data Items
     \*----------------------------------------------------------------------*/
@@ -91,6 +146,11 @@ public abstract class DataPersister
     private Map<String, PersistentDataClient> persistentDataClients =
         new HashMap<String,PersistentDataClient>();
 
+    /**
+     * Serializes saves. See {@link #saveData}.
+     */
+    private final Object saveLock = new Object();
+
     /**
      * For logging
      */
@@ -111,7 +171,10 @@ public abstract class DataPersister
     /**
      * Save the feed metadata. The configuration is passed in, so that
      * the persister can obtain, from the configuration, whatever
-     * data it needs to find the persisted metadata to read.
+     * data it needs to find the persisted metadata to read. The cache
+     * may be saved more than once during a run, while feeds are still
+     * being added to it (see {@link CacheCheckpointer}); each save writes
+     * a snapshot of the cache, and saves don't overlap.
      *
      * @param feedCache {@link FeedCache} object to save
      *
@@ -122,56 +185,34 @@ public abstract class DataPersister
     {
         if (isEnabled())
         {
-            // First, retrieve all entries from the cache and reorganize them.
-
-            Collection<FeedCacheEntry> cacheEntries = feedCache.getAllEntries();
-            Map<URL, PersistentFeedData> cacheDataByFeed =
-                getCacheDataByFeed(cacheEntries);
-
-            // Now that everything's in the right order, gather the additional
-            // metadata for each feed and its items. We don't need the map
-            // any more.
-
-            Collection<PersistentFeedData> persistentDataByFeed =
-                cacheDataByFeed.values();
-            cacheDataByFeed = null;
-
-            for (PersistentFeedData feedData : persistentDataByFeed)
-                getFeedMetadataForFeed(feedData);
+            // Saves are serialized on a lock of their own. The snapshot
+            // locks the cache's on-demand state, and an on-demand load
+            // holds that lock while it calls back into this object (see
+            // loadFeedOnDemand()), so the snapshot must not be taken while
+            // holding this object's monitor.
 
-            // Now, gather any extra metadata that isn't attached to a feed or
-            // item.
-
-            Collection<PersistentMetadataGroup> extraMetadata =
-                new ArrayList<PersistentMetadataGroup>();
-
-            for (PersistentDataClient client : persistentDataClients.values())
+            synchronized (saveLock)
             {
-                String namespace = client.getMetatdataNamespace();
-                PersistentMetadataGroup metadata;
-                Map<String,String> nameValuePairs = client.getExtraFeedMetadata();
-                if ((nameValuePairs != null) && (nameValuePairs.size() > 0))
-                {
-                    metadata = new PersistentMetadataGroup(namespace);
-                    metadata.addMetadata(nameValuePairs);
-                    extraMetadata.add(metadata);
-                }
-            }
-
-            // Let the saving begin.
-
-            startSaveOperation();
+                // First, retrieve all entries from the cache. If the cache
+                // was loaded on demand, feeds that were never loaded are
+                // saved just as they were loaded.
 
-            for (PersistentFeedData feedData : persistentDataByFeed)
-                saveFeedData(feedData);
+                Collection<FeedCacheEntry> cacheEntries =
+                    new ArrayList<FeedCacheEntry>();
+                Collection<PersistentFeedData> deferredFeeds =
+                    new ArrayList<PersistentFeedData>();
+                feedCache.snapshotPersistentData(cacheEntries, deferredFeeds);
 
-            saveExtraMetadata(extraMetadata);
-            endSaveOperation();
+                saveSnapshot(feedCache, cacheEntries, deferredFeeds);
+            }
         }
     }
 
     /**
-     * Load the cache and metadata.
+     * Load the cache and metadata. If the cache is to be loaded on demand
+     * (see {@link FeedCache#isLoadedOnDemand}), the feed data is only
+     * handed to the cache, which asks for it to be processed, via
+     * {@link #loadFeedOnDemand}, when the feed is needed.
      *
      * @param feedCache the {@link FeedCache} object to fill
      *
@@ -184,45 +225,24 @@ public abstract class DataPersister
         {
             startLoadOperation();
 
-            doLoad(new LoadedDataHandler()
+            if (feedCache.isLoadedOnDemand())
             {
-                public void feedLoaded(PersistentFeedData feedData)
-                    throws CurnException
-                {
-                    processLoadedFeed(feedData, feedCache);
-                }
-
-                public void
-                extraMetadataLoaded(PersistentMetadataGroup metadataGroup)
-                    throws CurnException
-                {
-                    String namespace = metadataGroup.getNamespace();
-                    PersistentDataClient client =
-                        persistentDataClients.get(namespace);
-                    if (client == null)
-                    {
-                        log.warn("No plug-in or other class has registered " +
-                                 "interest in extra metadata namespace \"" +
-                                 namespace + "\". " + "Ignoring the metadata.");
-                    }
+                doDeferredLoad(new CacheLoader(feedCache));
+                feedCache.setOnDemandPersister(this);
+            }
 
-                    else
-                    {
-                        Map<String,String> nameValuePairs =
-                            metadataGroup.getMetadata();
-                        for (Map.Entry<String,String> entry :
-                             nameValuePairs.entrySet())
-                        {
-                            client.parseExtraMetadata(entry.getKey(),
-                                                      entry.getValue());
-                        }
-                    }
-                }
-            });
+            else
+            {
+                doLoad(new CacheLoader(feedCache));
+            }
 
             endLoadOperation();
-            feedCache.optimizeAfterLoad();
         }
+
+        // Prune even if nothing was loaded, since the cache may have an
+        // index of its own.
+
+        feedCache.optimizeAfterLoad();
     }
 
     /**
@@ -250,6 +270,30 @@ public abstract class DataPersister
     public abstract void init(CurnConfig curnConfig)
         throws CurnException;
 
+    /*----------------------------------------------------------------------*\
+                            Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Load the data for one feed into a cache that's loaded on demand.
+     * Called by the {@link FeedCache} the first time the feed is needed;
+     * the cache serializes the calls.
+     *
+     * @param feedURL   the feed's URL
+     * @param feedCache the {@link FeedCache} object to fill
+     *
+     * @throws CurnException on error
+     */
+    void loadFeedOnDemand(URL feedURL, FeedCache feedCache)
+        throws CurnException
+    {
+        doLoadFeed(feedURL, new CacheLoader(feedCache));
+
+        PersistentFeedData feedData = feedCache.takeDeferredFeed(feedURL);
+        if (feedData != null)
+            processLoadedFeed(feedData, feedCache);
+    }
+
     /*----------------------------------------------------------------------*\
                               Protected Methods
     \*----------------------------------------------------------------------*/
@@ -291,6 +335,41 @@ public abstract class DataPersister
     protected abstract void doLoad(LoadedDataHandler loadedDataHandler)
         throws CurnException;
 
+    /**
+     * Called, instead of {@link #doLoad}, when the cache is loaded on
+     * demand; only called if the object is enabled. Must load the extra
+     * metadata. Feed data passed to the handler is held until the feed
+     * is needed, so a subclass may instead leave some feeds unloaded, and
+     * load them in {@link #doLoadFeed}. This default implementation simply
+     * calls {@link #doLoad}.
+     *
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected void doDeferredLoad(LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+        doLoad(loadedDataHandler);
+    }
+
+    /**
+     * Load the data for a feed that {@link #doDeferredLoad} left unloaded,
+     * passing it (and, if convenient, the data for other feeds) to the
+     * handler. May be called more than once for the same feed, and for
+     * feeds that have no data. This default implementation does nothing,
+     * since the default {@link #doDeferredLoad} loads everything.
+     *
+     * @param feedURL           the feed's URL
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected void doLoadFeed(URL feedURL, LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+    }
+
     /**
      * Called at the beginning of the actual save operation to initialize
      * the save, etc.
@@ -335,6 +414,83 @@ public abstract class DataPersister
                                 Private Methods
     \*----------------------------------------------------------------------*/
 
+    /**
+     * Save a snapshot of the cache, taken by {@link #saveData}.
+     *
+     * @param feedCache     the cache
+     * @param cacheEntries  the entries to save
+     * @param deferredFeeds the held data for feeds that weren't loaded
+     *
+     * @throws CurnException on error
+     */
+    private synchronized void
+    saveSnapshot(FeedCache                      feedCache,
+                 Collection<FeedCacheEntry>     cacheEntries,
+                 Collection<PersistentFeedData> deferredFeeds)
+        throws CurnException
+    {
+        // Reorganize the entries by feed.
+
+        Map<FeedKey, PersistentFeedData> cacheDataByFeed =
+            getCacheDataByFeed(cacheEntries);
+
+        // Now that everything's in the right order, gather the additional
+        // metadata for each feed and its items. We don't need the map
+        // any more.
+
+        Collection<PersistentFeedData> persistentDataByFeed =
+            cacheDataByFeed.values();
+
+        for (PersistentFeedData feedData : persistentDataByFeed)
+            getFeedMetadataForFeed(feedData);
+
+        getMetadataForIndexedItems(feedCache.getIndexedEntries(),
+                                   cacheDataByFeed);
+
+        for (Iterator<PersistentFeedData> it = deferredFeeds.iterator();
+             it.hasNext(); )
+        {
+            URL channelURL =
+                it.next().getFeedCacheEntry().getChannelURL();
+            if (cacheDataByFeed.containsKey(new FeedKey(channelURL)))
+                it.remove();
+        }
+
+        cacheDataByFeed = null;
+
+        // Now, gather any extra metadata that isn't attached to a feed or
+        // item.
+
+        Collection<PersistentMetadataGroup> extraMetadata =
+            new ArrayList<PersistentMetadataGroup>();
+
+        for (PersistentDataClient client : persistentDataClients.values())
+        {
+            String namespace = client.getMetatdataNamespace();
+            PersistentMetadataGroup metadata;
+            Map<String,String> nameValuePairs = client.getExtraFeedMetadata();
+            if ((nameValuePairs != null) && (nameValuePairs.size() > 0))
+            {
+                metadata = new PersistentMetadataGroup(namespace);
+                metadata.addMetadata(nameValuePairs);
+                extraMetadata.add(metadata);
+            }
+        }
+
+        // Let the saving begin.
+
+        startSaveOperation();
+
+        for (PersistentFeedData feedData : persistentDataByFeed)
+            saveFeedData(feedData);
+
+        for (PersistentFeedData feedData : deferredFeeds)
+            saveFeedData(feedData);
+
+        saveExtraMetadata(extraMetadata);
+        endSaveOperation();
+    }
+
     /**
      * Get the persistent metadata for one feed. Also handles getting
      * the data for the items.
@@ -381,21 +537,101 @@ public abstract class DataPersister
         }
     }
 
-    private Map<URL,PersistentFeedData>
+    /**
+     * Get the persistent metadata for the items kept in the cache index.
+     * The index saves the items themselves, so they aren't otherwise
+     * written to the cache; but their metadata can only be saved here. An
+     * indexed item that has metadata is added to its feed's data, so that
+     * it's saved along with the metadata. (On load, the cache index wins,
+     * so the item isn't duplicated.) Items of feeds that aren't being saved
+     * from memory (e.g., feeds that weren't loaded on demand) are skipped;
+     * their held data already carries their metadata.
+     *
+     * @param indexedEntries  the item entries in the cache index
+     * @param cacheDataByFeed the data being saved, by feed
+     *
+     * @throws CurnException on error
+     */
+    private void
+    getMetadataForIndexedItems(Collection<FeedCacheEntry>      indexedEntries,
+                               Map<FeedKey,PersistentFeedData> cacheDataByFeed)
+        throws CurnException
+    {
+        if (persistentDataClients.isEmpty())
+            return;
+
+        Map<URL,PersistentFeedData> cacheDataByURLObject =
+            new IdentityHashMap<URL,PersistentFeedData>();
+
+        for (FeedCacheEntry itemCacheEntry : indexedEntries)
+        {
+            URL channelURL = itemCacheEntry.getChannelURL();
+            PersistentFeedData feedData =
+                cacheDataByURLObject.get(channelURL);
+            if (feedData == null)
+            {
+                feedData = cacheDataByFeed.get(new FeedKey(channelURL));
+                if (feedData == null)
+                    continue;
+
+                cacheDataByURLObject.put(channelURL, feedData);
+            }
+
+            FeedCacheEntry feedCacheEntry = feedData.getFeedCacheEntry();
+            PersistentFeedItemData itemData = null;
+
+            for (PersistentDataClient client : persistentDataClients.values())
+            {
+                Map<String,String> nameValuePairs =
+                    client.getMetadataForItem(itemCacheEntry, feedCacheEntry);
+                if ((nameValuePairs != null) && (nameValuePairs.size() > 0))
+                {
+                    if (itemData == null)
+                    {
+                        itemData = new PersistentFeedItemData(itemCacheEntry);
+                        feedData.addPersistentFeedItem(itemData);
+                    }
+
+                    PersistentMetadataGroup metadata =
+                        new PersistentMetadataGroup
+                            (client.getMetatdataNamespace());
+                    metadata.addMetadata(nameValuePairs);
+                    itemData.addItemMetadataGroup(metadata);
+                }
+            }
+        }
+    }
+
+    private Map<FeedKey,PersistentFeedData>
     getCacheDataByFeed(final Collection<FeedCacheEntry> cacheEntries)
     {
 
-        Map<URL,PersistentFeedData> cacheDataByFeed =
-            new HashMap<URL, PersistentFeedData>();
+        Map<FeedKey,PersistentFeedData> cacheDataByFeed =
+            new HashMap<FeedKey, PersistentFeedData>();
+
+        // Most of a feed's entries share one channel URL object, so look
+        // the URL object up by identity first, to avoid making a key for
+        // every entry.
+
+        Map<URL,PersistentFeedData> cacheDataByURLObject =
+            new IdentityHashMap<URL,PersistentFeedData>();
 
         for (FeedCacheEntry entry : cacheEntries)
         {
             URL channelURL = entry.getChannelURL();
-            PersistentFeedData feedData = cacheDataByFeed.get(channelURL);
+            PersistentFeedData feedData =
+                cacheDataByURLObject.get(channelURL);
             if (feedData == null)
             {
-                feedData = new PersistentFeedData();
-                cacheDataByFeed.put(channelURL, feedData);
+                FeedKey feedKey = new FeedKey(channelURL);
+                feedData = cacheDataByFeed.get(feedKey);
+                if (feedData == null)
+                {
+                    feedData = new PersistentFeedData();
+                    cacheDataByFeed.put(feedKey, feedData);
+                }
+
+                cacheDataByURLObject.put(channelURL, feedData);
             }
 
             if (entry.isChannelEntry())
@@ -468,7 +704,7 @@ public abstract class DataPersister
 
             // Now process the metadata.
 
-            for (PersistentMetadataGroup mg : feedData.getFeedMetadata())
+            for (PersistentMetadataGroup mg : itemData.getItemMetadata())
             {
                 String namespace = mg.getNamespace();
                 PersistentDataClient client =
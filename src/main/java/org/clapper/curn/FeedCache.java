@@ -35,22 +35,45 @@
 
 package org.clapper.curn;
 
+import java.io.File;
 import java.net.URL;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.clapper.curn.parser.RSSItem;
 import org.clapper.curn.parser.RSSLink;
+import org.clapper.util.config.ConfigurationException;
 import org.clapper.util.logging.Logger;
 
 /**
- * Defines the in-memory format of the <i>curn</i> cache, and provides
- * methods for saving and restoring the cache.
+ * <p>Defines the in-memory format of the <i>curn</i> cache, and provides
+ * methods for saving and restoring the cache.</p>
+ *
+ * <p>If the <tt>CacheIndexFile</tt> configuration item is set, item
+ * entries are kept off the heap, in a {@link MappedFeedCacheIndex}, and
+ * only channel entries are kept in memory (and handed to the
+ * {@link DataPersister}). The index file persists on its own, so item
+ * entries don't have to be loaded at startup.</p>
+ *
+ * <p>If the <tt>LoadCacheOnDemand</tt> configuration item is set, the
+ * data for each feed is held, as loaded by the {@link DataPersister}, until
+ * a feed download thread first asks for it (via
+ * {@link #loadFeedOnDemand}). Only then are the feed's entries added to the
+ * cache, and its metadata passed to the plug-ins. The data for feeds that
+ * aren't touched during the run is saved as it was loaded.</p>
+ *
+ * <p>Once loaded, the cache may be read and updated by any number of
+ * threads at once.</p>
  *
  * @see Curn
  * @see org.clapper.curn.parser.RSSChannel
@@ -63,10 +86,170 @@ public class FeedCache
                              Private Constants
     \*----------------------------------------------------------------------*/
 
+    private static final String VAR_CACHE_INDEX_FILE     = "CacheIndexFile";
+    private static final String VAR_LOAD_CACHE_ON_DEMAND = "LoadCacheOnDemand";
+
+    /**
+     * Minimum number of entries to size the seen-item filter for.
+     */
+    private static final int MIN_FILTER_ENTRIES = 1024;
+
+    /**
+     * Width of a bucket in the loaded-entry expiry wheel.
+     */
+    private static final long MS_PER_DAY = 24L * 60L * 60L * 1000L;
+
     /*----------------------------------------------------------------------*\
                               Private Classes
     \*----------------------------------------------------------------------*/
 
+    /**
+     * A read-only view of the in-memory entries followed by the indexed
+     * ones.
+     */
+    private static class CombinedEntries
+        extends AbstractCollection<FeedCacheEntry>
+    {
+        private final Collection<FeedCacheEntry> first;
+        private final Collection<FeedCacheEntry> second;
+
+        CombinedEntries(Collection<FeedCacheEntry> first,
+                        Collection<FeedCacheEntry> second)
+        {
+            this.first  = first;
+            this.second = second;
+        }
+
+        public int size()
+        {
+            return first.size() + second.size();
+        }
+
+        public Iterator<FeedCacheEntry> iterator()
+        {
+            return new Iterator<FeedCacheEntry>()
+            {
+                private Iterator<FeedCacheEntry> it = first.iterator();
+                private boolean onSecond = false;
+
+                public boolean hasNext()
+                {
+                    if ((! it.hasNext()) && (! onSecond))
+                    {
+                        it = second.iterator();
+                        onSecond = true;
+                    }
+
+                    return it.hasNext();
+                }
+
+                public FeedCacheEntry next()
+                {
+                    hasNext();
+                    return it.next();
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * The loaded entries for one feed, bucketed by the day of their
+     * timestamps, so that whole days' worth of expired entries can be
+     * dropped at once.
+     */
+    private static class LoadedFeed
+    {
+        final URL channelURL;
+        final FeedKey feedKey;
+        final SortedMap<Long,List<FeedCacheEntry>> entriesByDay =
+            new TreeMap<Long,List<FeedCacheEntry>>();
+        int total = 0;
+
+        private long lastDay = Long.MIN_VALUE;
+        private List<FeedCacheEntry> lastBucket = null;
+
+        LoadedFeed(URL channelURL, FeedKey feedKey)
+        {
+            this.channelURL = channelURL;
+            this.feedKey = feedKey;
+        }
+
+        void add(FeedCacheEntry entry)
+        {
+            long day = dayOf(entry.getTimestamp());
+
+            // Entries for a feed tend to arrive in timestamp order, so
+            // the last bucket is usually the right one.
+
+            if ((lastBucket == null) || (day != lastDay))
+            {
+                lastBucket = entriesByDay.get(day);
+                if (lastBucket == null)
+                {
+                    lastBucket = new ArrayList<FeedCacheEntry>();
+                    entriesByDay.put(day, lastBucket);
+                }
+
+                lastDay = day;
+            }
+
+            lastBucket.add(entry);
+            total++;
+        }
+
+        /**
+         * Drop the entries whose timestamps are earlier than a cutoff.
+         * Only the entries in the cutoff's own bucket are examined one by
+         * one; earlier buckets are dropped whole.
+         *
+         * @param cutoff the cutoff time
+         *
+         * @return the number of entries dropped
+         */
+        int expire(long cutoff)
+        {
+            long cutoffDay = dayOf(cutoff);
+            int dropped = 0;
+
+            SortedMap<Long,List<FeedCacheEntry>> expired =
+                entriesByDay.headMap(cutoffDay);
+            for (List<FeedCacheEntry> bucket : expired.values())
+                dropped += bucket.size();
+            expired.clear();
+
+            List<FeedCacheEntry> bucket = entriesByDay.get(cutoffDay);
+            if (bucket != null)
+            {
+                for (Iterator<FeedCacheEntry> it = bucket.iterator();
+                     it.hasNext(); )
+                {
+                    if (it.next().getTimestamp() < cutoff)
+                    {
+                        it.remove();
+                        dropped++;
+                    }
+                }
+            }
+
+            lastBucket = null;
+            total -= dropped;
+            return dropped;
+        }
+
+        private static long dayOf(long time)
+        {
+            long day = time / MS_PER_DAY;
+            if ((time < 0) && ((day * MS_PER_DAY) != time))
+                day--;
+            return day;
+        }
+    }
+
     /*----------------------------------------------------------------------*\
                             Private Data Items
     \*----------------------------------------------------------------------*/
@@ -77,15 +260,68 @@ public class FeedCache
     private final CurnConfig config;
 
     /**
-     * The actual cache, indexed by unique ID.
+     * The actual cache, indexed by unique ID. Feed download threads read
+     * and update it concurrently. It's replaced wholesale (before those
+     * threads start) when the cache is loaded.
+     */
+    private volatile Map<ItemKey,FeedCacheEntry> cacheByURL =
+        new ConcurrentHashMap<ItemKey,FeedCacheEntry>();
+
+    /**
+     * The off-heap index of item entries, if configured.
+     */
+    private MappedFeedCacheIndex itemIndex = null;
+
+    /**
+     * Filter for quickly answering "not in the cache." Built when the
+     * cache is loaded; null until then.
+     */
+    private volatile SeenItemFilter seenFilter = null;
+
+    /**
+     * Where to record seen-item filter statistics, or null.
+     */
+    private final RunStatistics runStats;
+
+    /**
+     * Loaded feed entries, grouped by feed and indexed by the feed's key;
+     * used only during load. When loading on demand, also serves as the
+     * lock for on-demand loads.
+     */
+    private final Map<FeedKey,LoadedFeed> loadedFeeds =
+        new HashMap<FeedKey,LoadedFeed>();
+
+    /**
+     * The group most recently added to, during load.
+     */
+    private LoadedFeed lastLoadedFeed = null;
+
+    /**
+     * Total number of entries in loadedFeeds.
+     */
+    private int totalLoaded = 0;
+
+    /**
+     * Whether feed data is to be loaded on demand.
+     */
+    private boolean loadOnDemand = false;
+
+    /**
+     * Feed data that has been loaded, but not yet processed, indexed by
+     * the feed's key. Only used when loading on demand.
      */
-    private Map<String,FeedCacheEntry> cacheByURL = null;
+    private final Map<FeedKey,PersistentFeedData> deferredFeeds =
+        new ConcurrentHashMap<FeedKey,PersistentFeedData>();
 
     /**
-     * A list of feed entries, used only during load.
+     * The persister to ask for feed data on demand, or null.
      */
-    private List<FeedCacheEntry> loadedEntries =
-        new LinkedList<FeedCacheEntry>();
+    private volatile DataPersister onDemandPersister = null;
+
+    /**
+     * Number of changes made to the cache since it was loaded.
+     */
+    private final AtomicLong changeCount = new AtomicLong(0);
 
     /**
      * Current time
@@ -102,19 +338,92 @@ public class FeedCache
     \*----------------------------------------------------------------------*/
 
     /**
-     * Construct a new, empty cache object.
+     * Construct a new, empty cache object. If a cache index file is
+     * configured, it's opened (or created) here; it's mapped privately if
+     * the configuration says the cache isn't to be updated.
+     *
+     * @param config    the <i>curn</i> configuration
+     * @param runStats  where to record statistics, or null
      *
-     * @param config  the <i>curn</i> configuration
+     * @throws CurnException  can't open the cache index
      */
-    FeedCache (CurnConfig config)
+    FeedCache (CurnConfig config, RunStatistics runStats)
+        throws CurnException
     {
-        this.config = config;
+        this.config   = config;
+        this.runStats = runStats;
+
+        try
+        {
+            String indexFileName =
+                config.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                              VAR_CACHE_INDEX_FILE,
+                                              null);
+            if (indexFileName != null)
+            {
+                File indexFile = CurnUtil.mapConfiguredPathName(indexFileName);
+                log.debug("Cache index file is " + indexFile);
+                itemIndex = MappedFeedCacheIndex.open
+                    (indexFile, ! config.mustUpdateFeedMetadata());
+            }
+
+            loadOnDemand =
+                config.getOptionalBooleanValue(CurnConfig.MAIN_SECTION,
+                                               VAR_LOAD_CACHE_ON_DEMAND,
+                                               false);
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
     }
 
     /*----------------------------------------------------------------------*\
                               Public Methods
     \*----------------------------------------------------------------------*/
 
+    /**
+     * Get the key under which an item is (or would be) cached: the
+     * canonical key for the item's URL. The key is computed once, and
+     * kept with the item (see {@link RSSItem#setCacheKey}), so that
+     * checking an item against the cache, adding it to the cache, and
+     * looking it up again later (e.g., from a plug-in) don't normalize the
+     * URL every time. If the item's URL has changed since the key was
+     * stored, a new key is computed.
+     *
+     * @param item  the item
+     *
+     * @return the key, or null if the item has no URL
+     */
+    public static ItemKey getItemKey(final RSSItem item)
+    {
+        ItemKey key  = null;
+        RSSLink link = item.getURL();
+
+        if (link != null)
+        {
+            URL url = link.getURL();
+            if (url != null)
+            {
+                Object stored = item.getCacheKey();
+                if ((stored instanceof ItemKey) &&
+                    (((ItemKey) stored).getURL() == url))
+                {
+                    key = (ItemKey) stored;
+                }
+
+                else
+                {
+                    key = new ItemKey(url);
+                    item.setCacheKey(key);
+                }
+            }
+        }
+
+        return key;
+    }
+
     /**
      * Determine whether the cache contains the specified URL.
      *
@@ -124,16 +433,31 @@ public class FeedCache
      *         <tt>false</tt> if not
      */
     public boolean containsURL(final URL url)
+    {
+        return containsKey(new ItemKey(url));
+    }
+
+    /**
+     * Determine whether the cache contains the specified key.
+     *
+     * @param urlKey  the key to check
+     *
+     * @return <tt>true</tt> if the key is present in the cache,
+     *         <tt>false</tt> if not
+     *
+     * @see #getItemKey
+     */
+    public boolean containsKey(final ItemKey urlKey)
     {
         boolean hasURL = false;
 
-        if (cacheByURL != null)
-        {
-            String  urlKey = CurnUtil.urlToLookupKey(url);
-            hasURL = cacheByURL.containsKey(urlKey);
-            log.debug("Cache contains \"" + urlKey + "\"? " + hasURL);
-        }
+        hasURL = cacheByURL.containsKey(urlKey);
+
+        if ((! hasURL) && (itemIndex != null))
+            hasURL = itemIndex.contains(urlKey);
 
+        if (log.isDebugEnabled())
+            log.debug("Cache contains \"" + urlKey + "\"? " + hasURL);
         return hasURL;
     }
 
@@ -147,10 +471,25 @@ public class FeedCache
      */
     public FeedCacheEntry getEntryByURL(final URL url)
     {
-        FeedCacheEntry result = null;
+        return getEntryByKey(new ItemKey(url));
+    }
+
+    /**
+     * Get an entry from the cache by its key.
+     *
+     * @param urlKey the key
+     *
+     * @return the corresponding <tt>FeedCacheEntry</tt> object, or null if
+     *         not found
+     *
+     * @see #getItemKey
+     */
+    public FeedCacheEntry getEntryByKey(final ItemKey urlKey)
+    {
+        FeedCacheEntry result = cacheByURL.get(urlKey);
 
-        if (cacheByURL != null)
-            result = cacheByURL.get(CurnUtil.urlToLookupKey(url));
+        if ((result == null) && (itemIndex != null))
+            result = itemIndex.get(urlKey);
 
         return result;
     }
@@ -158,7 +497,10 @@ public class FeedCache
     /**
      * Get an entry for an {@link RSSItem} from the cache. This method
      * attempts to find the item by its unique ID. If the item has no ID,
-     * then this method attempts to find the item by its URL.
+     * then this method attempts to find the item by its URL, using the
+     * item's cache key (see {@link #getItemKey}). Once the cache
+     * is loaded, items that were never cached are usually weeded out by a
+     * Bloom filter ({@link SeenItemFilter}), without a cache lookup.
      *
      * @param item the {@link RSSItem} to find in the cache
      *
@@ -167,24 +509,33 @@ public class FeedCache
      */
     public FeedCacheEntry getEntryForItem(RSSItem item)
     {
-        FeedCacheEntry entry    = null;
-        RSSLink        itemLink = item.getURL();
-        URL            itemURL  = null;
+        FeedCacheEntry entry  = null;
+        ItemKey        urlKey = getItemKey(item);
 
-        if (itemLink != null)
-        {
-            itemURL = itemLink.getURL();
-            if (itemURL != null)
-                itemURL = CurnUtil.normalizeURL(itemURL);
-        }
-
-        if (itemURL == null)
+        if (urlKey == null)
             log.info("Item has no URL. Ignoring it.");
 
         else
         {
-            log.debug("Locating item by URL: " + itemURL.toString());
-            entry = getEntryByURL(itemURL);
+            if (log.isDebugEnabled())
+                log.debug("Locating item by URL: " + urlKey);
+
+            SeenItemFilter filter = seenFilter;
+            if (filter == null)
+                entry = getEntryByKey(urlKey);
+
+            else if (! filter.mightContain(urlKey.getFingerprint()))
+            {
+                if (runStats != null)
+                    runStats.itemFilteredAsNew();
+            }
+
+            else
+            {
+                entry = getEntryByKey(urlKey);
+                if (runStats != null)
+                    runStats.itemPassedFilter(entry != null);
+            }
         }
 
         return entry;
@@ -204,40 +555,78 @@ public class FeedCache
                            final Date     pubDate,
                            final FeedInfo parentFeed)
     {
-        synchronized (this)
-        {
-            if (cacheByURL == null)
-                cacheByURL = new HashMap<String,FeedCacheEntry>();
-        }
+        addToCache(new ItemKey(url), pubDate, parentFeed);
+    }
 
+    /**
+     * Add (or replace) a cached URL, by key.
+     *
+     * @param urlKey     the key for the URL to cache. May be the key for an
+     *                   individual item URL, or for the URL of an entire
+     *                   feed.
+     * @param pubDate    the publication date, if known; or null
+     * @param parentFeed the associated feed
+     *
+     * @see #getItemKey
+     */
+    public void addToCache(final ItemKey  urlKey,
+                           final Date     pubDate,
+                           final FeedInfo parentFeed)
+    {
         URL parentURL = parentFeed.getURL();
         FeedCacheEntry entry = new FeedCacheEntry(parentURL,
-                                                  url,
+                                                  urlKey.getURL(),
                                                   pubDate,
                                                   System.currentTimeMillis());
 
-        log.debug ("Adding cache entry for URL \"" +
-                   entry.getEntryURL().toExternalForm() +
-                   "\", channel URL: \"" +
-                   entry.getChannelURL().toExternalForm() +
-                   "\"");
+        if (log.isDebugEnabled())
+        {
+            log.debug ("Adding cache entry for URL \"" +
+                       entry.getEntryURL().toExternalForm() +
+                       "\", channel URL: \"" +
+                       entry.getChannelURL().toExternalForm() +
+                       "\"");
+        }
+
+        SeenItemFilter filter = seenFilter;
+        if (filter != null)
+            filter.add(urlKey.getFingerprint());
 
-        cacheByURL.put(CurnUtil.urlToLookupKey(url), entry);
+        changeCount.incrementAndGet();
+
+        if ((itemIndex != null) && (! entry.isChannelEntry()))
+        {
+            try
+            {
+                itemIndex.put(urlKey, entry);
+                cacheByURL.remove(urlKey);
+                return;
+            }
+
+            catch (CurnException ex)
+            {
+                log.error("Can't add \"" + urlKey + "\" to the cache " +
+                          "index. Keeping it in memory.", ex);
+            }
+        }
+
+        cacheByURL.put(urlKey, entry);
     }
 
     /**
-     * Get all entries in the cache, in no particular order.
+     * Get all entries in the cache, in no particular order. When the cache
+     * is loaded on demand, the entries for feeds that haven't been loaded
+     * yet aren't included.
      *
      * @return a <tt>Collection</tt> of entries
      */
     public Collection<FeedCacheEntry> getAllEntries()
     {
-        Collection<FeedCacheEntry> result = null;
+        Collection<FeedCacheEntry> result =
+            Collections.unmodifiableCollection(cacheByURL.values());
 
-        if (cacheByURL != null)
-            result = Collections.unmodifiableCollection(cacheByURL.values());
-        else
-            result = new ArrayList<FeedCacheEntry>();
+        if (itemIndex != null)
+            result = new CombinedEntries(result, itemIndex.entries());
 
         return result;
     }
@@ -267,11 +656,30 @@ public class FeedCache
      */
     void loadFeedCacheEntry(FeedCacheEntry entry)
     {
-        // Load onto the end of a list, for speed. pruneCache()
-        // will sift through the list when we're done.
+        // Just file it with the rest of its feed's entries, for speed.
+        // pruneCache() will sift through them when we're done. A feed's
+        // entries are normally loaded together, usually sharing one URL
+        // object.
 
-        loadedEntries.add(entry);
-   }
+        URL channelURL = entry.getChannelURL();
+        LoadedFeed loadedFeed = lastLoadedFeed;
+
+        if ((loadedFeed == null) || (loadedFeed.channelURL != channelURL))
+        {
+            FeedKey feedKey = new FeedKey(channelURL);
+            loadedFeed = loadedFeeds.get(feedKey);
+            if (loadedFeed == null)
+            {
+                loadedFeed = new LoadedFeed(channelURL, feedKey);
+                loadedFeeds.put(feedKey, loadedFeed);
+            }
+
+            lastLoadedFeed = loadedFeed;
+        }
+
+        loadedFeed.add(entry);
+        totalLoaded++;
+    }
 
     /**
      * Signify that the cache is finished loading (i.e., that all calls to
@@ -282,10 +690,229 @@ public class FeedCache
         pruneCache();
     }
 
+    /**
+     * Determine whether feed data is to be loaded on demand.
+     *
+     * @return <tt>true</tt> if the <tt>DataPersister</tt> should hand
+     *         loaded feed data to {@link #deferFeed}, <tt>false</tt> if
+     *         it should add it to the cache right away
+     */
+    boolean isLoadedOnDemand()
+    {
+        return loadOnDemand;
+    }
+
+    /**
+     * Hold the loaded data for a feed until the feed is needed.
+     *
+     * @param feedData  the feed data, as loaded
+     */
+    void deferFeed(PersistentFeedData feedData)
+    {
+        URL channelURL = feedData.getFeedCacheEntry().getChannelURL();
+        deferredFeeds.put(new FeedKey(channelURL), feedData);
+    }
+
+    /**
+     * Set the {@link DataPersister} that loads feed data on demand.
+     *
+     * @param persister  the persister
+     */
+    void setOnDemandPersister(DataPersister persister)
+    {
+        this.onDemandPersister = persister;
+    }
+
+    /**
+     * Remove and return the held data for a feed.
+     *
+     * @param feedURL  the feed's URL
+     *
+     * @return the feed data, or null if there isn't any
+     */
+    PersistentFeedData takeDeferredFeed(URL feedURL)
+    {
+        return deferredFeeds.remove(new FeedKey(feedURL));
+    }
+
+    /**
+     * Get the held data for the feeds that were never loaded, so that it
+     * can be saved as is. Data for feeds that are no longer configured
+     * is dropped.
+     *
+     * @return the feed data
+     */
+    Collection<PersistentFeedData> getDeferredFeeds()
+    {
+        Collection<PersistentFeedData> result =
+            new ArrayList<PersistentFeedData>();
+
+        for (Map.Entry<FeedKey,PersistentFeedData> mapEntry :
+                 deferredFeeds.entrySet())
+        {
+            if (config.getFeedInfo(mapEntry.getKey()) != null)
+                result.add(mapEntry.getValue());
+
+            else
+            {
+                log.debug("Feed \"" + mapEntry.getKey() + "\" no longer " +
+                          "corresponds to a configured feed. Tossing its " +
+                          "cached data.");
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Make sure the data for a feed is in the cache, asking the
+     * {@link DataPersister} for it, if this is the first request for it.
+     * Feed download threads call this method before they process a feed.
+     * It does nothing unless the cache is loaded on demand.
+     *
+     * @param feedURL  the feed's URL
+     *
+     * @throws CurnException on error
+     */
+    void loadFeedOnDemand(URL feedURL)
+        throws CurnException
+    {
+        DataPersister persister = onDemandPersister;
+
+        if (persister != null)
+        {
+            synchronized (loadedFeeds)
+            {
+                persister.loadFeedOnDemand(feedURL, this);
+                if (totalLoaded > 0)
+                {
+                    log.debug("Loaded " + totalLoaded + " cache " +
+                              "entries on demand for feed \"" + feedURL +
+                              "\"");
+                    pruneLoadedEntries(cacheByURL);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the entries that the {@link DataPersister} must save. Normally,
+     * that's all of them. When there's a cache index, the index saves the
+     * item entries itself, so only the in-memory entries are returned.
+     *
+     * @return a <tt>Collection</tt> of entries
+     */
+    Collection<FeedCacheEntry> getPersistentEntries()
+    {
+        Collection<FeedCacheEntry> result;
+
+        if (itemIndex == null)
+            result = getAllEntries();
+        else
+            result = Collections.unmodifiableCollection(cacheByURL.values());
+
+        return result;
+    }
+
+    /**
+     * Get the item entries kept in the cache index, if there is one. The
+     * {@link DataPersister} doesn't save these entries itself, but it must
+     * save any plug-in metadata for them.
+     *
+     * @return a <tt>Collection</tt> of entries, which is empty if there's
+     *         no cache index
+     */
+    Collection<FeedCacheEntry> getIndexedEntries()
+    {
+        MappedFeedCacheIndex index = itemIndex;
+        Collection<FeedCacheEntry> result;
+
+        if (index == null)
+            result = Collections.emptyList();
+        else
+            result = index.entries();
+
+        return result;
+    }
+
+    /**
+     * Take a snapshot of everything the {@link DataPersister} must save:
+     * the entries returned by {@link #getPersistentEntries}, and the held
+     * data for feeds that haven't been loaded (see
+     * {@link #getDeferredFeeds}). The snapshot is consistent with respect
+     * to on-demand loads, so a feed is never caught between the two,
+     * even if the cache is being saved while feeds are being downloaded.
+     *
+     * @param entries        where to put the entries
+     * @param deferredFeeds  where to put the held feed data
+     */
+    void snapshotPersistentData(Collection<FeedCacheEntry>     entries,
+                                Collection<PersistentFeedData> deferredFeeds)
+    {
+        synchronized (loadedFeeds)
+        {
+            entries.addAll(getPersistentEntries());
+            deferredFeeds.addAll(getDeferredFeeds());
+        }
+    }
+
+    /**
+     * Get the number of changes (i.e., calls to {@link #addToCache}) made
+     * to the cache since it was loaded. Used to skip checkpoints when
+     * nothing has changed.
+     *
+     * @return the change count
+     */
+    long getChangeCount()
+    {
+        return changeCount.get();
+    }
+
+    /**
+     * Close the cache, flushing the cache index (if any) to disk. The
+     * cache must not be used afterwards.
+     *
+     * @throws CurnException on error
+     */
+    void close()
+        throws CurnException
+    {
+        if (itemIndex != null)
+        {
+            MappedFeedCacheIndex index = itemIndex;
+            itemIndex = null;
+            index.close();
+        }
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
 
+    /**
+     * Build the seen-item filter from the contents of the cache, leaving
+     * room for as many new entries again.
+     */
+    private void buildSeenFilter()
+    {
+        int total = cacheByURL.size();
+        if (itemIndex != null)
+            total += itemIndex.size();
+        for (PersistentFeedData feedData : deferredFeeds.values())
+            total += feedData.getPersistentFeedItems().size() + 1;
+
+        SeenItemFilter filter =
+            new SeenItemFilter(Math.max(total * 2, MIN_FILTER_ENTRIES));
+        for (ItemKey urlKey : cacheByURL.keySet())
+            filter.add(urlKey.getFingerprint());
+        if (itemIndex != null)
+            itemIndex.addFingerprintsTo(filter);
+
+        log.debug("Seen-item filter built with " + filter.getEntries() +
+                  " entries, sized for " + filter.getExpectedEntries());
+        seenFilter = filter;
+    }
+
     /**
      * Prune the loaded cache of out-of-date data.
      */
@@ -294,93 +921,156 @@ public class FeedCache
         log.debug ("PRUNING CACHE");
         log.debug ("Cache's notion of current time: " +
                    new Date (currentTime));
-        Map<URL,FeedInfo> feedInfoMap = config.getFeedInfoMap();
 
-        int maxEntries = loadedEntries.size();
+        int maxEntries = totalLoaded;
         if (maxEntries == 0)
             maxEntries = 100;
 
-        // Use default load factor (0.75), and rely on the HashMap class's
-        // documented behavior: "If the initial capacity is greater than the
-        // maximum number of entries divided by the load factor, no rehash
-        // operations will ever occur."
+        // Use the default load factor (0.75), and size the map so that
+        // it won't have to be resized during the load.
 
         int initialCapacity = (int) (((float) maxEntries) / 0.75f);
 
-        log.debug("HashMap sizing: Max entries=" + maxEntries + ", " +
+        log.debug("Map sizing: Max entries=" + maxEntries + ", " +
                   "initialCapacity=" +  initialCapacity);
-        cacheByURL = new HashMap<String,FeedCacheEntry>(initialCapacity);
 
-        for (FeedCacheEntry entry : loadedEntries)
+        // Build the new map privately, and publish it when it's complete.
+
+        Map<ItemKey,FeedCacheEntry> newCache =
+            new ConcurrentHashMap<ItemKey,FeedCacheEntry>(initialCapacity);
+
+        pruneLoadedEntries(newCache);
+        cacheByURL = newCache;
+
+        if (itemIndex != null)
         {
-            boolean removed = false;
-            URL channelURL = entry.getChannelURL();
-            String itemKey = entry.getEntryURL().toString();
+            try
+            {
+                itemIndex.prune(config, currentTime);
+            }
 
-            if (log.isDebugEnabled())
-                dumpCacheEntry (itemKey, entry, "");
+            catch (CurnException ex)
+            {
+                log.error("Can't prune the cache index.", ex);
+            }
 
-            FeedInfo feedInfo = feedInfoMap.get(channelURL);
+            log.debug("Cache index has " + itemIndex.size() + " elements.");
+        }
+
+        buildSeenFilter();
+
+        log.debug("Cache now has " + cacheByURL.size() + " elements.");
+        log.debug("DONE PRUNING CACHE");
+    }
+
+    /**
+     * Prune the loaded entries, moving the survivors into a cache map (or
+     * the cache index), and adding them to the seen-item filter, if there
+     * is one yet. The work is done a feed at a time: entries for feeds
+     * that are no longer configured are dropped as a group, and expired
+     * entries are dropped a day's worth at a time.
+     *
+     * @param cache the map to receive the surviving entries
+     */
+    private void pruneLoadedEntries(Map<ItemKey,FeedCacheEntry> cache)
+    {
+        SeenItemFilter filter = seenFilter;
+
+        for (LoadedFeed loadedFeed : loadedFeeds.values())
+        {
+            URL channelURL = loadedFeed.channelURL;
+            FeedInfo feedInfo = config.getFeedInfo(loadedFeed.feedKey);
 
             if (feedInfo == null)
             {
                 // Cached URL no longer corresponds to a configured site
-                // URL. Kill it.
+                // URL. Kill all its entries.
 
-                log.debug ("Cached item \"" + itemKey +
-                           "\", with base URL \"" + channelURL.toString() +
+                log.debug ("Base URL \"" + channelURL.toString() +
                            "\" no longer corresponds to a configured feed. " +
-                           "Tossing it.");
-                removed = true;
+                           "Tossing its " + loadedFeed.total +
+                           " cached items.");
+                continue;
             }
 
-            else
+            long maxCacheMS = feedInfo.getMillisecondsToCache();
+            int expired = loadedFeed.expire(currentTime - maxCacheMS);
+
+            if (log.isDebugEnabled())
             {
-                long timestamp  = entry.getTimestamp();
-                long maxCacheMS = feedInfo.getMillisecondsToCache();
-                long expires    = timestamp + maxCacheMS;
+                log.debug ("Feed \"" + channelURL.toString() + "\": " +
+                           "Cache time: " + feedInfo.getDaysToCache() +
+                           " days (" + maxCacheMS + " ms). " + expired +
+                           " expired cache entries deleted.");
+            }
 
-                if (log.isDebugEnabled())
-                {
-                    log.debug ("    Cache time: " + feedInfo.getDaysToCache() +
-                               " days (" + maxCacheMS + " ms)");
-                    log.debug ("    Expires: " +
-                               new Date (expires).toString());
-                }
+            for (List<FeedCacheEntry> bucket :
+                     loadedFeed.entriesByDay.values())
+            {
+                for (FeedCacheEntry entry : bucket)
+                    admitLoadedEntry(entry, cache, filter);
+            }
+        }
 
-                if (timestamp > currentTime)
-                {
-                    log.debug ("Cache time for item \"" + itemKey +
-                               "\" is in the future, relative to cache's " +
-                               "notion of current time. Setting its " +
-                               "timestamp to the current time.");
-                    entry.setTimestamp (currentTime);
-                }
+        loadedFeeds.clear();
+        lastLoadedFeed = null;
+        totalLoaded = 0;
+    }
 
-                else if (expires < currentTime)
-                {
-                    log.debug ("Cache time for item \"" + itemKey +
-                               "\" has expired. Deleting cache entry.");
-                    removed = true;
-                }
+    /**
+     * Move an unexpired loaded entry into a cache map (or the cache
+     * index).
+     *
+     * @param entry  the entry
+     * @param cache  the map to receive the entry
+     * @param filter the seen-item filter, or null
+     */
+    private void admitLoadedEntry(FeedCacheEntry              entry,
+                                  Map<ItemKey,FeedCacheEntry> cache,
+                                  SeenItemFilter              filter)
+    {
+        ItemKey urlKey = new ItemKey(entry.getEntryURL());
+
+        if (log.isDebugEnabled())
+            dumpCacheEntry (urlKey, entry, "");
+
+        if (entry.getTimestamp() > currentTime)
+        {
+            log.debug ("Cache time for item \"" + urlKey +
+                       "\" is in the future, relative to cache's " +
+                       "notion of current time. Setting its " +
+                       "timestamp to the current time.");
+            entry.setTimestamp (currentTime);
+        }
+
+        if ((itemIndex != null) && (! entry.isChannelEntry()))
+        {
+            // An item entry from a cache saved before the index was
+            // configured. The index wins if it already has the item.
+
+            try
+            {
+                if (! itemIndex.contains(urlKey))
+                    itemIndex.put(urlKey, entry);
+                if (filter != null)
+                    filter.add(urlKey.getFingerprint());
+                return;
             }
 
-            if (! removed)
+            catch (CurnException ex)
             {
-                // Add to URL cache.
-
-                URL url = CurnUtil.normalizeURL(entry.getEntryURL());
-                String strURL = url.toString();
-                log.debug("Loading entry for URL \"" + strURL +
-                          "\" into in-memory URL lookup cache.");
-                cacheByURL.put(strURL, entry);
-                log.debug("Loading entry for URL \"" + strURL +
-                          "\" into in-memory ID lookup cache.");
+                log.error("Can't add \"" + urlKey + "\" to the cache " +
+                          "index. Keeping it in memory.", ex);
             }
         }
 
-        log.debug("Cache now has " + cacheByURL.size() + " elements.");
-        log.debug("DONE PRUNING CACHE");
+        // Add to URL cache.
+
+        log.debug("Loading entry for URL \"" + urlKey +
+                  "\" into in-memory URL lookup cache.");
+        cache.put(urlKey, entry);
+        if (filter != null)
+            filter.add(urlKey.getFingerprint());
     }
 
     /**
@@ -57,11 +57,17 @@ public class FeedCacheEntry
                             Private Data Items
     \*----------------------------------------------------------------------*/
 
-    private       long    timestamp = 0;
-    private final URL     entryURL;
-    private final URL     channelURL;
-    private final Date    publicationDate;
-    private       boolean sticky = false;
+    // The mutable fields are volatile, since the entry may be updated by
+    // one feed download thread and read by another.
+
+    private volatile long    timestamp = 0;
+    private final    URL     entryURL;
+    private final    URL     channelURL;
+    private final    Date    publicationDate;
+    private volatile boolean sticky = false;
+    private volatile String  entityTag = null;
+    private volatile String  lastModifiedHeader = null;
+    private volatile String  contentHash = null;
 
     /*----------------------------------------------------------------------*\
                                 Constructor
@@ -186,4 +192,80 @@ public class FeedCacheEntry
     {
         this.sticky = sticky;
     }
+
+    /**
+     * Get the HTTP entity tag (the <tt>ETag</tt> header) the server
+     * returned the last time the feed was downloaded. Only meaningful for
+     * channel entries.
+     *
+     * @return the entity tag, exactly as the server sent it, or null
+     */
+    public String getEntityTag()
+    {
+        return entityTag;
+    }
+
+    /**
+     * Set the HTTP entity tag for the feed. Only meaningful for channel
+     * entries.
+     *
+     * @param entityTag  the entity tag, or null
+     *
+     * @see #getEntityTag
+     */
+    public void setEntityTag(String entityTag)
+    {
+        this.entityTag = entityTag;
+    }
+
+    /**
+     * Get the <tt>Last-Modified</tt> header the server returned the last
+     * time the feed was downloaded. Only meaningful for channel entries.
+     * The value is kept as a string, exactly as the server sent it, so
+     * that it can be sent back verbatim in an <tt>If-Modified-Since</tt>
+     * header.
+     *
+     * @return the header value, or null
+     */
+    public String getLastModifiedHeader()
+    {
+        return lastModifiedHeader;
+    }
+
+    /**
+     * Set the <tt>Last-Modified</tt> header for the feed. Only meaningful
+     * for channel entries.
+     *
+     * @param lastModifiedHeader  the header value, or null
+     *
+     * @see #getLastModifiedHeader
+     */
+    public void setLastModifiedHeader(String lastModifiedHeader)
+    {
+        this.lastModifiedHeader = lastModifiedHeader;
+    }
+
+    /**
+     * Get the hash of the feed content the last time the feed was
+     * downloaded. Only meaningful for channel entries.
+     *
+     * @return the hash, or null if not known
+     */
+    public String getContentHash()
+    {
+        return contentHash;
+    }
+
+    /**
+     * Set the hash of the feed content. Only meaningful for channel
+     * entries.
+     *
+     * @param contentHash  the hash, or null
+     *
+     * @see #getContentHash
+     */
+    public void setContentHash(String contentHash)
+    {
+        this.contentHash = contentHash;
+    }
 }
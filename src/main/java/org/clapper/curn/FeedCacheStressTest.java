@@ -0,0 +1,238 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.PrintWriter;
+
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hammers a {@link FeedCache} from many threads at once, the way feed
+ * download threads do. Each thread adds its own set of unique item URLs,
+ * checking that each one can be read back right away and looking up the
+ * URLs another thread is adding. Afterwards, every URL must be in the
+ * cache. The test is run once with the entries on the heap, and once
+ * with a cache index (see <tt>CacheIndexFile</tt>). Usage:
+ *
+ * <pre>
+ * java org.clapper.curn.FeedCacheStressTest [threads [urlsPerThread]]
+ * </pre>
+ *
+ * The defaults are 16 threads and 20,000 URLs per thread. The program
+ * exits with a non-zero status if any entries are lost.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class FeedCacheStressTest
+{
+    private static final String FEED_URL = "http://feeds.example.com/rss";
+
+    private FeedCacheStressTest()
+    {
+        // Nothing to do
+    }
+
+    public static void main(String args[])
+    {
+        int failures = 0;
+
+        try
+        {
+            int totalThreads = (args.length > 0) ? Integer.parseInt(args[0])
+                                                 : 16;
+            int urlsPerThread = (args.length > 1) ? Integer.parseInt(args[1])
+                                                  : 20000;
+
+            failures += runTest(null, totalThreads, urlsPerThread);
+
+            File indexFile = File.createTempFile("curn", ".idx");
+            indexFile.delete();
+            try
+            {
+                failures += runTest(indexFile, totalThreads, urlsPerThread);
+            }
+
+            finally
+            {
+                indexFile.delete();
+            }
+        }
+
+        catch (Exception ex)
+        {
+            ex.printStackTrace();   // NOPMD
+            System.exit(1);
+        }
+
+        System.exit((failures == 0) ? 0 : 1);
+    }
+
+    /**
+     * Run the test against one cache.
+     *
+     * @param indexFile     the cache index file, or null for none
+     * @param totalThreads  how many threads to run
+     * @param urlsPerThread how many URLs each thread adds
+     *
+     * @return the number of lost entries
+     *
+     * @throws Exception on error
+     */
+    private static int runTest(File      indexFile,
+                               final int totalThreads,
+                               final int urlsPerThread)
+        throws Exception
+    {
+        StringBuilder configText = new StringBuilder();
+        configText.append("[" + CurnConfig.MAIN_SECTION + "]\n");
+        if (indexFile != null)
+            configText.append("CacheIndexFile: " + indexFile.getPath() + "\n");
+        configText.append("[Feed1]\n");
+        configText.append(CurnConfig.VAR_FEED_URL + ": " + FEED_URL + "\n");
+        configText.append(CurnConfig.VAR_DAYS_TO_CACHE + ": 30\n");
+
+        CurnConfig config = new CurnConfig(new PrintWriter(System.err, true));
+        config.load(new ByteArrayInputStream
+                        (configText.toString().getBytes("UTF-8")),
+                    "UTF-8");
+        final FeedInfo feedInfo = config.getFeeds().iterator().next();
+
+        final FeedCache cache = new FeedCache(config, null);
+        cache.optimizeAfterLoad();
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(totalThreads);
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        int lost = 0;
+        long start;
+
+        try
+        {
+            for (int i = 0; i < totalThreads; i++)
+            {
+                final int thread = i;
+                results.add(threadPool.submit(new Callable<Integer>()
+                {
+                    public Integer call() throws Exception
+                    {
+                        int neighbor = (thread + 1) % totalThreads;
+                        int lostHere = 0;
+
+                        go.await();
+                        for (int j = 0; j < urlsPerThread; j++)
+                        {
+                            URL url = itemURL(thread, j);
+                            cache.addToCache(url, null, feedInfo);
+                            if (cache.getEntryByURL(url) == null)
+                            {
+                                System.out.println("Lost \"" + url +
+                                                   "\" right after adding " +
+                                                   "it.");
+                                lostHere++;
+                            }
+
+                            cache.containsURL(itemURL(neighbor, j));
+                        }
+
+                        return lostHere;
+                    }
+                }));
+            }
+
+            start = System.nanoTime();
+            go.countDown();
+            for (Future<Integer> result : results)
+                lost += result.get();
+        }
+
+        finally
+        {
+            threadPool.shutdownNow();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        for (int i = 0; i < totalThreads; i++)
+        {
+            for (int j = 0; j < urlsPerThread; j++)
+            {
+                URL url = itemURL(i, j);
+                if (cache.getEntryByURL(url) == null)
+                {
+                    System.out.println("Lost \"" + url + "\".");
+                    lost++;
+                }
+            }
+        }
+
+        int expected = totalThreads * urlsPerThread;
+        int size = cache.getAllEntries().size();
+        if (size != expected)
+        {
+            System.out.println("Cache has " + size + " entries; expected " +
+                               expected + ".");
+            if (lost == 0)
+                lost = Math.abs(expected - size);
+        }
+
+        cache.close();
+
+        System.out.println(((indexFile == null) ? "heap" : "index") + ": " +
+                           totalThreads + " thread(s), " + expected +
+                           " URL(s), " + lost + " lost, " +
+                           (elapsed / 1000000) + " ms");
+        return lost;
+    }
+
+    private static URL itemURL(int thread, int item)
+        throws Exception
+    {
+        return new URL("http://feeds.example.com/items/" + thread + "/" +
+                       item);
+    }
+}
@@ -0,0 +1,523 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>Holds the raw bytes of one downloaded feed. The data is kept in
+ * memory, in fixed-size chunks drawn from a shared pool, until it exceeds a
+ * configurable threshold; at that point, it is spilled to a temporary file
+ * and the rest of the download streams straight to disk. The data can be
+ * pulled from an <tt>InputStream</tt> ({@link #readFrom}) or pushed
+ * through an <tt>OutputStream</tt> ({@link #getOutputStream}), as an
+ * asynchronous {@link FeedDownloader} does. A caller that
+ * needs an actual file (e.g., for a {@link PostFeedDownloadPlugIn}) can
+ * force the spill with {@link #getFile}.</p>
+ *
+ * <p>As the data streams in, the buffer also computes an MD5 digest of it,
+ * which is cheap compared to the network I/O and lets <i>curn</i> spot a
+ * feed whose content hasn't changed since the last run.</p>
+ *
+ * <p>A buffer must be {@link #release released} when it's no longer
+ * needed, so its chunks can go back to the pool. Instances are not
+ * thread-safe; the pool is.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+class FeedDataBuffer
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    /**
+     * Maximum number of idle chunks kept in the pool (4 Mb).
+     */
+    private static final int MAX_POOLED_CHUNKS = 128;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private static final ConcurrentLinkedQueue<byte[]> chunkPool =
+        new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger totalPooledChunks = new AtomicInteger(0);
+
+    private final long         maxInMemory;
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private       int          lastChunkUsed = CHUNK_SIZE;
+    private       long         totalBytes = 0;
+    private       File         file = null;
+    private       OutputStream spillStream = null;
+    private final MessageDigest digest = newDigest();
+
+    private static final Logger log = new Logger(FeedDataBuffer.class);
+
+    /*----------------------------------------------------------------------*\
+                               Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Reads the in-memory chunks back.
+     */
+    private class ChunkInputStream extends InputStream
+    {
+        private int  chunkIndex = 0;
+        private int  offset = 0;
+        private long remaining = totalBytes;
+
+        public int read()
+        {
+            if (remaining == 0)
+                return -1;
+
+            if (offset == CHUNK_SIZE)
+            {
+                chunkIndex++;
+                offset = 0;
+            }
+
+            remaining--;
+            return chunks.get(chunkIndex)[offset++] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            if (remaining == 0)
+                return -1;
+
+            if (offset == CHUNK_SIZE)
+            {
+                chunkIndex++;
+                offset = 0;
+            }
+
+            int n = (int) Math.min(Math.min(len, CHUNK_SIZE - offset),
+                                   remaining);
+            System.arraycopy(chunks.get(chunkIndex), offset, b, off, n);
+            offset += n;
+            remaining -= n;
+            return n;
+        }
+
+        public int available()
+        {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Appends whatever is written to it to the buffer.
+     */
+    private class AppendOutputStream extends OutputStream
+    {
+        public void write(int b)
+            throws IOException
+        {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len)
+            throws IOException
+        {
+            append(b, off, len);
+        }
+
+        public void close()
+            throws IOException
+        {
+            if (spillStream != null)
+            {
+                spillStream.close();
+                spillStream = null;
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, empty buffer.
+     *
+     * @param maxInMemory the number of bytes to hold in memory before
+     *                    spilling to a temporary file. 0 means always use a
+     *                    file.
+     */
+    FeedDataBuffer(long maxInMemory)
+    {
+        this.maxInMemory = maxInMemory;
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Read an input stream to the end, appending its contents to the
+     * buffer. The stream is not closed.
+     *
+     * @param is  the stream
+     *
+     * @return the number of bytes read
+     *
+     * @throws IOException I/O error
+     */
+    long readFrom(InputStream is)
+        throws IOException
+    {
+        long start = totalBytes;
+
+        if ((file == null) && (maxInMemory > 0))
+        {
+            int n = 0;
+            for (;;)
+            {
+                if (lastChunkUsed == CHUNK_SIZE)
+                {
+                    if (totalBytes >= maxInMemory)
+                        break;
+
+                    chunks.add(allocateChunk());
+                    lastChunkUsed = 0;
+                }
+
+                byte[] chunk = chunks.get(chunks.size() - 1);
+                n = is.read(chunk, lastChunkUsed, CHUNK_SIZE - lastChunkUsed);
+                if (n < 0)
+                    break;
+
+                digest.update(chunk, lastChunkUsed, n);
+
+                lastChunkUsed += n;
+                totalBytes += n;
+            }
+
+            if (n < 0)
+                return totalBytes - start;
+        }
+
+        // Too big for memory (or memory disabled). Continue on disk.
+
+        OutputStream os = openSpillFile();
+        try
+        {
+            byte[] buf = new byte[CHUNK_SIZE];
+            int n;
+            while ((n = is.read(buf)) >= 0)
+            {
+                digest.update(buf, 0, n);
+                os.write(buf, 0, n);
+                totalBytes += n;
+            }
+        }
+
+        finally
+        {
+            os.close();
+        }
+
+        return totalBytes - start;
+    }
+
+    /**
+     * Get a stream that appends whatever is written to it to the buffer.
+     * The stream must be closed before the buffer is read, or added to in
+     * any other way.
+     *
+     * @return the stream
+     */
+    OutputStream getOutputStream()
+    {
+        return new AppendOutputStream();
+    }
+
+    /**
+     * Get the total number of bytes in the buffer.
+     *
+     * @return the size
+     */
+    long size()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * Get a hash of all the data read into the buffer, as a hex string.
+     * This method may only be called once, after all the data has been
+     * read.
+     *
+     * @return the hash
+     */
+    String getContentHash()
+    {
+        byte[] hash = digest.digest();
+        StringBuilder buf = new StringBuilder(hash.length * 2);
+
+        for (byte b : hash)
+        {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Determine whether the data has been spilled to a file.
+     *
+     * @return <tt>true</tt> if it's on disk, <tt>false</tt> if it's in
+     *         memory
+     */
+    boolean isOnDisk()
+    {
+        return (file != null);
+    }
+
+    /**
+     * Get a file containing the data, spilling it to disk if it isn't
+     * there already. Once this method has been called, the file becomes
+     * the authoritative copy of the data, so changes made to it (e.g., by
+     * plug-ins) are seen by {@link #getInputStream}.
+     *
+     * @return the file
+     *
+     * @throws IOException I/O error
+     */
+    File getFile()
+        throws IOException
+    {
+        if (file == null)
+            openSpillFile().close();
+
+        return file;
+    }
+
+    /**
+     * Get a stream that reads the data from the beginning.
+     *
+     * @return the stream
+     *
+     * @throws IOException I/O error
+     */
+    InputStream getInputStream()
+        throws IOException
+    {
+        InputStream result;
+
+        if (file != null)
+            result = new FileInputStream(file);
+        else
+            result = new ChunkInputStream();
+
+        return result;
+    }
+
+    /**
+     * Release the buffer's memory and delete its file, if any. The buffer
+     * must not be used afterwards.
+     */
+    void release()
+    {
+        releaseChunks();
+
+        if (file != null)
+        {
+            if (! file.delete())
+                log.debug("Unable to delete \"" + file.getPath() + "\"");
+            file = null;
+        }
+
+        totalBytes = 0;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Append bytes to the buffer, filling the in-memory chunks first and
+     * then the temporary file. Used by {@link AppendOutputStream}, which
+     * closes the file.
+     *
+     * @param b    the bytes
+     * @param off  where they start
+     * @param len  how many there are
+     *
+     * @throws IOException I/O error
+     */
+    private void append(byte[] b, int off, int len)
+        throws IOException
+    {
+        digest.update(b, off, len);
+
+        if ((file == null) && (maxInMemory > 0))
+        {
+            while (len > 0)
+            {
+                if (lastChunkUsed == CHUNK_SIZE)
+                {
+                    if (totalBytes >= maxInMemory)
+                        break;
+
+                    chunks.add(allocateChunk());
+                    lastChunkUsed = 0;
+                }
+
+                byte[] chunk = chunks.get(chunks.size() - 1);
+                int n = Math.min(len, CHUNK_SIZE - lastChunkUsed);
+                System.arraycopy(b, off, chunk, lastChunkUsed, n);
+
+                lastChunkUsed += n;
+                totalBytes += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        if (len > 0)
+        {
+            // Too big for memory (or memory disabled). Continue on disk.
+
+            if (spillStream == null)
+                spillStream = openSpillFile();
+
+            spillStream.write(b, off, len);
+            totalBytes += len;
+        }
+    }
+
+    /**
+     * Create the temporary file, copy the in-memory data to it, and
+     * release the in-memory chunks. If the file already exists, just
+     * reopen it for appending.
+     *
+     * @return a stream positioned at the end of the file. The caller must
+     *         close it.
+     *
+     * @throws IOException I/O error
+     */
+    private OutputStream openSpillFile()
+        throws IOException
+    {
+        OutputStream os;
+
+        if (file == null)
+        {
+            file = CurnUtil.createTempXMLFile();
+            log.debug("Spilling " + totalBytes + " buffered bytes to \"" +
+                      file.getPath() + "\"");
+            os = new BufferedOutputStream(new FileOutputStream(file),
+                                          CHUNK_SIZE);
+            long remaining = totalBytes;
+            for (byte[] chunk : chunks)
+            {
+                int n = (int) Math.min(CHUNK_SIZE, remaining);
+                os.write(chunk, 0, n);
+                remaining -= n;
+            }
+
+            releaseChunks();
+        }
+
+        else
+        {
+            os = new BufferedOutputStream(new FileOutputStream(file, true),
+                                          CHUNK_SIZE);
+        }
+
+        return os;
+    }
+
+    private void releaseChunks()
+    {
+        for (byte[] chunk : chunks)
+        {
+            if (totalPooledChunks.incrementAndGet() <= MAX_POOLED_CHUNKS)
+                chunkPool.offer(chunk);
+            else
+                totalPooledChunks.decrementAndGet();
+        }
+
+        chunks.clear();
+        lastChunkUsed = CHUNK_SIZE;
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5");
+        }
+
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every Java platform is required to support MD5.
+
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] allocateChunk()
+    {
+        byte[] chunk = chunkPool.poll();
+
+        if (chunk == null)
+            chunk = new byte[CHUNK_SIZE];
+        else
+            totalPooledChunks.decrementAndGet();
+
+        return chunk;
+    }
+}
@@ -38,8 +38,10 @@ package org.clapper.curn;
 import org.clapper.curn.parser.RSSChannel;
 
 /**
- * Used as a callback when a {@link FeedDownloadThread} finishes downloading
- * a feed.
+ * Used as a callback when a {@link FeedDownloadThread} (or a stage of the
+ * {@link FeedPipeline}) finishes with a feed. It's called exactly once for
+ * every feed the download threads take on, whether or not the feed
+ * produced anything.
  */
 interface FeedDownloadDoneHandler
 {
@@ -51,7 +53,9 @@ interface FeedDownloadDoneHandler
      * Called when a feed is finished.
      *
      * @param feedInfo the {@link FeedInfo} record for the downloaded feed
-     * @param channel  the parsed channel data
+     * @param channel  the parsed channel data, or null if the feed has
+     *                 nothing to display (e.g., it hasn't changed, it has
+     *                 no new items, or it couldn't be downloaded)
      */
     public void feedFinished (FeedInfo feedInfo, RSSChannel channel);
 }
@@ -0,0 +1,92 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <p>Supplies the <tt>ExecutorService</tt> that runs <i>curn</i>'s feed
+ * download workers. Each worker repeatedly takes the next feed from a
+ * shared queue and downloads, parses and processes it, stopping when the
+ * queue is empty. The factory decides both the executor and how many
+ * workers to start on it.</p>
+ *
+ * <p><i>curn</i> ships two implementations, selected with the
+ * <tt>ExecutionMode</tt> configuration parameter:
+ * {@link ThreadPoolFeedDownloadExecutorFactory} (a fixed pool of
+ * <tt>MaxThreads</tt> threads) and
+ * {@link VirtualThreadFeedDownloadExecutorFactory} (one virtual thread per
+ * feed). Programs that embed <i>curn</i> can supply their own factory via
+ * {@link Curn#setFeedDownloadExecutorFactory}, which overrides the
+ * configuration.</p>
+ *
+ * <p><i>curn</i> calls <tt>shutdown()</tt> on the returned executor once
+ * all the workers have been submitted, and waits for it to terminate.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface FeedDownloadExecutorFactory
+{
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create the executor for one <i>curn</i> run.
+     *
+     * @param config      the parsed configuration
+     * @param totalFeeds  the number of feeds to be downloaded
+     *
+     * @return the executor
+     *
+     * @throws CurnException on error
+     */
+    public ExecutorService newExecutor(CurnConfig config, int totalFeeds)
+        throws CurnException;
+
+    /**
+     * Get the number of download workers to submit to the executor
+     * returned by {@link #newExecutor}. Submitting more workers than there
+     * are feeds is harmless; the extra workers find the queue empty and
+     * exit.
+     *
+     * @param config      the parsed configuration
+     * @param totalFeeds  the number of feeds to be downloaded
+     *
+     * @return the number of workers, at least 1
+     */
+    public int getTotalWorkers(CurnConfig config, int totalFeeds);
+}
@@ -0,0 +1,100 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>Receives the outcome of a download started with
+ * {@link FeedDownloader#download}. For each download, a downloader calls
+ * either {@link #responseReceived} (once the final response's status and
+ * headers are in) followed by {@link #downloadComplete}, or just
+ * {@link #downloadFailed}. Redirects are followed by the downloader, and
+ * are not reported.</p>
+ *
+ * <p>The content is pushed into the stream returned by
+ * {@link #responseReceived}; the downloader closes that stream before it
+ * calls {@link #downloadComplete} or {@link #downloadFailed}. An
+ * asynchronous downloader may call these methods on its own threads, so
+ * {@link #responseReceived} and the stream should not block for long.
+ * The two final callbacks may take as long as they like; they don't hold
+ * up other downloads.</p>
+ *
+ * @see FeedDownloader
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface FeedDownloadListener
+{
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Called when the status and headers of the final response have
+     * arrived, before any of its content.
+     *
+     * @param response  the response
+     *
+     * @return where to write the (undecoded) content, or null to discard
+     *         it
+     *
+     * @throws IOException to reject the response. The download then
+     *                     fails with this exception.
+     */
+    public OutputStream responseReceived(FeedDownloadResponse response)
+        throws IOException;
+
+    /**
+     * Called when all of the content has been written to the stream
+     * returned by {@link #responseReceived}, and the stream has been
+     * closed.
+     *
+     * @param response  the response
+     */
+    public void downloadComplete(FeedDownloadResponse response);
+
+    /**
+     * Called when the download fails. Any stream returned by
+     * {@link #responseReceived} has been closed, and holds partial
+     * content.
+     *
+     * @param request  the request that failed
+     * @param ex       the error
+     */
+    public void downloadFailed(FeedDownloadRequest request, IOException ex);
+}
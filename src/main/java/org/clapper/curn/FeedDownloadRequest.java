@@ -0,0 +1,170 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Describes a single feed download, before it's issued. A request carries
+ * the feed's URL and the request headers to send.</p>
+ *
+ * <p>{@link PreFeedDownloadPlugIn} plug-ins receive an unconnected
+ * <tt>URLConnection</tt> for the feed, and adjust the request by calling
+ * <tt>setRequestProperty()</tt> and <tt>setIfModifiedSince()</tt> on it.
+ * That connection object is owned by the request, and it doubles as the
+ * request's header store: the default {@link URLConnectionFeedDownloader}
+ * uses it directly, while other {@link FeedDownloader} implementations read
+ * the headers back via {@link #getRequestHeaders} and
+ * {@link #getIfModifiedSince}, and replay them on their own transport.
+ * Either way, existing plug-ins work unchanged.</p>
+ *
+ * @see FeedDownloader
+ * @see FeedDownloadResponse
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class FeedDownloadRequest
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final FeedInfo      feedInfo;
+    private final URLConnection urlConnection;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new request for a feed. No network activity occurs.
+     *
+     * @param feedInfo  the feed to download
+     *
+     * @throws IOException unable to create a connection for the feed URL
+     */
+    public FeedDownloadRequest(FeedInfo feedInfo)
+        throws IOException
+    {
+        this.feedInfo = feedInfo;
+        this.urlConnection = feedInfo.getURL().openConnection();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the feed being downloaded.
+     *
+     * @return the {@link FeedInfo} object for the feed
+     */
+    public FeedInfo getFeedInfo()
+    {
+        return feedInfo;
+    }
+
+    /**
+     * Get the URL to download.
+     *
+     * @return the URL
+     */
+    public URL getURL()
+    {
+        return urlConnection.getURL();
+    }
+
+    /**
+     * Get the unconnected <tt>URLConnection</tt> that holds this request's
+     * headers. This is the object passed to {@link PreFeedDownloadPlugIn}
+     * plug-ins. Only {@link FeedDownloader} implementations that are built
+     * on <tt>URLConnection</tt> should connect it.
+     *
+     * @return the connection
+     */
+    public URLConnection getURLConnection()
+    {
+        return urlConnection;
+    }
+
+    /**
+     * Set (or replace) a request header.
+     *
+     * @param name   the header name
+     * @param value  the header value
+     */
+    public void setRequestHeader(String name, String value)
+    {
+        urlConnection.setRequestProperty(name, value);
+    }
+
+    /**
+     * Get all request headers that have been set, other than
+     * <tt>If-Modified-Since</tt>.
+     *
+     * @return an unmodifiable map of header names to values
+     *
+     * @see #getIfModifiedSince
+     */
+    public Map<String,List<String>> getRequestHeaders()
+    {
+        return urlConnection.getRequestProperties();
+    }
+
+    /**
+     * Set the <tt>If-Modified-Since</tt> time for the request.
+     *
+     * @param time  the time, in milliseconds, or 0 for none
+     */
+    public void setIfModifiedSince(long time)
+    {
+        urlConnection.setIfModifiedSince(time);
+    }
+
+    /**
+     * Get the <tt>If-Modified-Since</tt> time for the request.
+     *
+     * @return the time, in milliseconds, or 0 if not set
+     */
+    public long getIfModifiedSince()
+    {
+        return urlConnection.getIfModifiedSince();
+    }
+}
@@ -0,0 +1,105 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.net.URL;
+
+/**
+ * The status and headers of the response to a {@link FeedDownloadRequest},
+ * as passed to a {@link FeedDownloadListener}. The content isn't part of
+ * the response; the downloader writes it to the stream the listener
+ * supplies.
+ *
+ * @see FeedDownloader
+ * @see FeedDownloadRequest
+ * @see FeedDownloadListener
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface FeedDownloadResponse
+{
+    /*----------------------------------------------------------------------*\
+                             Public Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Response code returned for protocols that don't have one (e.g.,
+     * <tt>file:</tt> URLs).
+     */
+    public static final int NO_RESPONSE_CODE = -1;
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the URL that was actually retrieved.
+     *
+     * @return the URL
+     */
+    public URL getURL();
+
+    /**
+     * Get the protocol response code (e.g., the HTTP status code).
+     *
+     * @return the response code, or {@link #NO_RESPONSE_CODE} if the
+     *         protocol doesn't have one
+     */
+    public int getResponseCode();
+
+    /**
+     * Get the value of the <tt>Last-Modified</tt> header.
+     *
+     * @return the last-modified time, in milliseconds, or 0 if not known
+     */
+    public long getLastModified();
+
+    /**
+     * Get the value of the <tt>Content-Type</tt> header.
+     *
+     * @return the content type, or null if not known
+     */
+    public String getContentType();
+
+    /**
+     * Get the value of a response header.
+     *
+     * @param name  the header name
+     *
+     * @return the value, or null if the header isn't present
+     */
+    public String getHeaderField(String name);
+}
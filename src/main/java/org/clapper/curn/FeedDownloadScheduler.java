@@ -0,0 +1,489 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>Hands out feeds to the download workers, in place of a flat FIFO
+ * queue. Feeds are grouped by host. The scheduler limits the number of
+ * simultaneous downloads from any one host, enforces a minimum interval
+ * between successive requests to the same host, and rotates through the
+ * hosts, so that global concurrency stays high without hammering any one
+ * server. Feeds with no host (e.g., <tt>file:</tt> URLs) are not
+ * throttled. It also caps the total number of feeds in flight, which
+ * matters when the downloads are asynchronous: a worker that only starts
+ * a download comes straight back for another feed, so the number of
+ * workers no longer limits how many downloads are running.</p>
+ *
+ * <p>The scheduler also keeps per-host statistics (queue depth, and how
+ * long feeds waited before being handed out), which are available via
+ * {@link #getHostStatistics} once the run is over.</p>
+ *
+ * <p>This class is thread-safe. It uses a <tt>java.util.concurrent</tt>
+ * lock, rather than a monitor, so that waiting workers don't pin carrier
+ * threads when they're running on virtual threads.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+class FeedDownloadScheduler
+{
+    /*----------------------------------------------------------------------*\
+                               Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Download statistics for one host.
+     */
+    static class HostStatistics
+    {
+        private final String host;
+        private int  totalFeeds = 0;
+        private int  maxQueueDepth = 0;
+        private int  throttledWaits = 0;
+        private long totalWaitMillis = 0;
+        private long maxWaitMillis = 0;
+
+        HostStatistics(String host)
+        {
+            this.host = host;
+        }
+
+        /**
+         * Get the host name.
+         *
+         * @return the host, or an empty string for URLs with no host
+         */
+        String getHost()
+        {
+            return host;
+        }
+
+        /**
+         * Get the number of feeds on the host.
+         *
+         * @return the number of feeds
+         */
+        int getTotalFeeds()
+        {
+            return totalFeeds;
+        }
+
+        /**
+         * Get the largest number of the host's feeds that were held back
+         * at any one time. The depth is sampled whenever a worker looking
+         * for a feed has to pass the host by, because it's at its
+         * concurrency limit or was hit too recently; a host that was never
+         * throttled has a maximum queue depth of 0.
+         *
+         * @return the maximum queue depth
+         */
+        int getMaxQueueDepth()
+        {
+            return maxQueueDepth;
+        }
+
+        /**
+         * Get the number of times a worker had to wait because the host
+         * was at its concurrency limit, or had been hit too recently.
+         *
+         * @return the number of throttled waits
+         */
+        int getThrottledWaits()
+        {
+            return throttledWaits;
+        }
+
+        /**
+         * Get the total time the host's feeds spent in the queue.
+         *
+         * @return the total wait time, in milliseconds
+         */
+        long getTotalWaitMillis()
+        {
+            return totalWaitMillis;
+        }
+
+        /**
+         * Get the longest time any of the host's feeds spent in the queue.
+         *
+         * @return the maximum wait time, in milliseconds
+         */
+        long getMaxWaitMillis()
+        {
+            return maxWaitMillis;
+        }
+
+        public String toString()
+        {
+            long avg = (totalFeeds == 0) ? 0 : (totalWaitMillis / totalFeeds);
+            return "host=\"" + host + "\", feeds=" + totalFeeds +
+                   ", maxQueueDepth=" + maxQueueDepth +
+                   ", throttledWaits=" + throttledWaits +
+                   ", avgWaitMs=" + avg +
+                   ", maxWaitMs=" + maxWaitMillis;
+        }
+    }
+
+    /**
+     * The pending feeds for one host, plus its scheduling state.
+     */
+    private static class HostQueue
+    {
+        final LinkedList<FeedInfo> feeds = new LinkedList<FeedInfo>();
+        final HostStatistics       stats;
+        final boolean              throttled;
+        int                        inFlight = 0;
+        long                       lastStart = 0;
+
+        HostQueue(String host)
+        {
+            this.stats = new HostStatistics(host);
+            this.throttled = (host.length() > 0);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final int maxPerHost;
+    private final int maxInFlight;
+    private final long minSpacingMillis;
+    private final long queuedAt;
+    private final Map<String,HostQueue> hostQueues =
+        new LinkedHashMap<String,HostQueue>();
+
+    /**
+     * Hosts with pending feeds, in the order they'll next be considered.
+     */
+    private final LinkedList<HostQueue> rotation = new LinkedList<HostQueue>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int totalPending = 0;
+    private int totalInFlight = 0;
+
+    private static final Logger log = new Logger(FeedDownloadScheduler.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new scheduler for a set of feeds.
+     *
+     * @param feeds            the feeds to download
+     * @param maxPerHost       maximum simultaneous downloads per host, or 0
+     *                         for no limit
+     * @param maxInFlight      maximum number of feeds handed out and not
+     *                         yet done, across all hosts, or 0 for no limit
+     * @param minSpacingMillis minimum time, in milliseconds, between the
+     *                         start of successive downloads from the same
+     *                         host
+     */
+    FeedDownloadScheduler(Collection<FeedInfo> feeds,
+                          int                  maxPerHost,
+                          int                  maxInFlight,
+                          long                 minSpacingMillis)
+    {
+        this.maxPerHost = maxPerHost;
+        this.maxInFlight = maxInFlight;
+        this.minSpacingMillis = minSpacingMillis;
+        this.queuedAt = System.currentTimeMillis();
+
+        for (FeedInfo feedInfo : feeds)
+        {
+            String host = hostFor(feedInfo.getURL());
+            HostQueue hostQueue = hostQueues.get(host);
+            if (hostQueue == null)
+            {
+                hostQueue = new HostQueue(host);
+                hostQueues.put(host, hostQueue);
+                rotation.add(hostQueue);
+            }
+
+            hostQueue.feeds.add(feedInfo);
+            hostQueue.stats.totalFeeds++;
+            totalPending++;
+        }
+
+        log.debug("Scheduled " + totalPending + " feeds across " +
+                  hostQueues.size() + " hosts. Per-host limit=" +
+                  maxPerHost + ", total limit=" + maxInFlight +
+                  ", spacing=" + minSpacingMillis + " ms");
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the number of feeds that have not yet been handed out.
+     *
+     * @return the number of pending feeds
+     */
+    int getTotalPending()
+    {
+        lock.lock();
+        try
+        {
+            return totalPending;
+        }
+
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the next feed to download, waiting until some host is eligible,
+     * and until there's room under the limit on feeds in flight. Every
+     * feed returned by this method must be passed back to
+     * {@link #feedDone} when the download is finished.
+     *
+     * @return the next feed, or null if there are no more feeds
+     *
+     * @throws InterruptedException interrupted while waiting
+     */
+    FeedInfo nextFeed()
+        throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            for (;;)
+            {
+                if (totalPending == 0)
+                    return null;
+
+                if ((maxInFlight > 0) && (totalInFlight >= maxInFlight))
+                {
+                    changed.await();
+                    continue;
+                }
+
+                long now = System.currentTimeMillis();
+                long earliest = Long.MAX_VALUE;
+                boolean throttled = false;
+
+                for (int i = rotation.size(); i > 0; i--)
+                {
+                    HostQueue hostQueue = rotation.removeFirst();
+                    if (hostQueue.feeds.isEmpty())
+                        continue;
+
+                    rotation.addLast(hostQueue);
+
+                    if (hostQueue.throttled)
+                    {
+                        if ((maxPerHost > 0) &&
+                            (hostQueue.inFlight >= maxPerHost))
+                        {
+                            sampleQueueDepth(hostQueue);
+                            throttled = true;
+                            continue;
+                        }
+
+                        long eligibleAt = hostQueue.lastStart +
+                                          minSpacingMillis;
+                        if ((hostQueue.lastStart > 0) && (eligibleAt > now))
+                        {
+                            sampleQueueDepth(hostQueue);
+                            throttled = true;
+                            earliest = Math.min(earliest, eligibleAt);
+                            continue;
+                        }
+                    }
+
+                    return take(hostQueue, now);
+                }
+
+                // Nothing is eligible. Wait for a download to finish, or
+                // for a host's spacing interval to elapse.
+
+                if (throttled)
+                    noteThrottledWait();
+
+                if (earliest == Long.MAX_VALUE)
+                    changed.await();
+                else
+                    changed.await(earliest - now, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Note that the download of a feed returned by {@link #nextFeed} is
+     * finished. May be called on any thread.
+     *
+     * @param feedInfo  the feed
+     */
+    void feedDone(FeedInfo feedInfo)
+    {
+        lock.lock();
+        try
+        {
+            HostQueue hostQueue = hostQueues.get(hostFor(feedInfo.getURL()));
+            if (hostQueue != null)
+                hostQueue.inFlight--;
+
+            totalInFlight--;
+            changed.signalAll();
+        }
+
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until every feed handed out by {@link #nextFeed} has been
+     * passed back to {@link #feedDone}. With an asynchronous downloader,
+     * the workers can run out of feeds while downloads are still in
+     * flight.
+     *
+     * @throws InterruptedException interrupted while waiting
+     */
+    void awaitAllDone()
+        throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            while (totalInFlight > 0)
+                changed.await();
+        }
+
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the per-host statistics, in the order the hosts were first seen.
+     *
+     * @return the statistics
+     */
+    Collection<HostStatistics> getHostStatistics()
+    {
+        lock.lock();
+        try
+        {
+            Collection<HostStatistics> result =
+                new ArrayList<HostStatistics>(hostQueues.size());
+            for (HostQueue hostQueue : hostQueues.values())
+                result.add(hostQueue.stats);
+
+            return result;
+        }
+
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private FeedInfo take(HostQueue hostQueue, long now)
+    {
+        FeedInfo feedInfo = hostQueue.feeds.removeFirst();
+        HostStatistics stats = hostQueue.stats;
+        long waited = now - queuedAt;
+
+        hostQueue.inFlight++;
+        hostQueue.lastStart = now;
+        totalPending--;
+        totalInFlight++;
+
+        stats.totalWaitMillis += waited;
+        if (waited > stats.maxWaitMillis)
+            stats.maxWaitMillis = waited;
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Dispatching " + feedInfo.getURL() + " after " +
+                      waited + " ms. Host \"" + stats.getHost() + "\" now " +
+                      "has " + hostQueue.inFlight + " in flight, " +
+                      hostQueue.feeds.size() + " queued.");
+        }
+
+        return feedInfo;
+    }
+
+    private void sampleQueueDepth(HostQueue hostQueue)
+    {
+        int depth = hostQueue.feeds.size();
+        if (depth > hostQueue.stats.maxQueueDepth)
+            hostQueue.stats.maxQueueDepth = depth;
+    }
+
+    private void noteThrottledWait()
+    {
+        for (HostQueue hostQueue : rotation)
+        {
+            if (hostQueue.throttled && (! hostQueue.feeds.isEmpty()))
+                hostQueue.stats.throttledWaits++;
+        }
+    }
+
+    private static String hostFor(URL url)
+    {
+        String host = url.getHost();
+        return (host == null) ? "" : host.toLowerCase();
+    }
+}
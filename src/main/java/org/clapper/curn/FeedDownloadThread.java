@@ -35,24 +35,23 @@
 
 package org.clapper.curn;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.clapper.curn.parser.LazyDOMParser;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
 import org.clapper.curn.parser.RSSLink;
@@ -81,8 +80,11 @@ class FeedDownloadThread implements Runnable
     private final String                  id;
     private final CurnConfig              configuration;
     private final RSSParser               rssParser;
+    private final FeedDownloader          downloader;
     private final FeedCache               cache;
-    private final Queue<FeedInfo>         feedQueue;
+    private final FeedDownloadScheduler   scheduler;
+    private final FeedPipeline            pipeline;
+    private final RunStatistics           runStats;
     private       FeedException           exception = null;
     private final MetaPlugIn              metaPlugIn = MetaPlugIn.getMetaPlugIn();
     private       RSSChannel              channel = null;
@@ -97,19 +99,277 @@ class FeedDownloadThread implements Runnable
     /**
      * Encapsulates information about a downloaded feed.
      */
-    private class DownloadedTempFile
+    private class DownloadedFeed
     {
-        File    file;
-        String  encoding;
-        int     bytesDownloaded;
+        FeedDataBuffer data;
+        String         encoding;
+        String         contentHash;
 
-        DownloadedTempFile(File   tempFile,
-                           String encoding,
-                           int    bytesDownloaded)
+        DownloadedFeed(FeedDataBuffer data, String encoding)
         {
-            this.file = tempFile;
+            this.data = data;
             this.encoding = encoding;
-            this.bytesDownloaded = bytesDownloaded;
+            this.contentHash = data.getContentHash();
+        }
+    }
+
+    /**
+     * A downloaded feed on its way through the parse and process stages of
+     * the {@link FeedPipeline}. It holds what the download stage learned
+     * about the feed and, once the feed has been parsed, its channel.
+     * Because it's an inner class, it also carries the thread that
+     * downloaded the feed; the later stages run that thread's methods.
+     */
+    final class FeedJob
+    {
+        private final FeedInfo       feedInfo;
+        private final Date           lastModified;
+        private final String         entityTag;
+        private final String         lastModifiedHeader;
+        private final String         contentHash;
+        private       DownloadedFeed downloaded;
+        private       RSSChannel     channel = null;
+
+        private FeedJob(FeedInfo             feedInfo,
+                        FeedDownloadResponse response,
+                        DownloadedFeed       downloaded)
+        {
+            // Capture the validators now, while the response is at hand.
+
+            this.feedInfo = feedInfo;
+            this.lastModified = new Date(response.getLastModified());
+            this.entityTag = response.getHeaderField("ETag");
+            this.lastModifiedHeader = response.getHeaderField("Last-Modified");
+            this.downloaded = downloaded;
+            this.contentHash = downloaded.contentHash;
+        }
+
+        /**
+         * Get the feed.
+         *
+         * @return the <tt>FeedInfo</tt> object for the feed
+         */
+        FeedInfo getFeedInfo()
+        {
+            return feedInfo;
+        }
+
+        /**
+         * Run the parse stage for the feed. Releases the downloaded data,
+         * and logs any error. If the feed is done, reports it to the
+         * done handler.
+         *
+         * @return <tt>true</tt> if the feed should go on to the process
+         *         stage, <tt>false</tt> if it's done
+         */
+        boolean parse()
+        {
+            boolean result = false;
+
+            try
+            {
+                result = parseFeed(this);
+            }
+
+            catch (CurnException ex)
+            {
+                feedError(feedInfo, ex);
+            }
+
+            finally
+            {
+                if (! result)
+                    done();
+            }
+
+            return result;
+        }
+
+        /**
+         * Run the process stage for the feed, then report it to the done
+         * handler. Logs any error.
+         */
+        void process()
+        {
+            try
+            {
+                processParsedFeed(this);
+            }
+
+            catch (CurnException ex)
+            {
+                feedError(feedInfo, ex);
+            }
+
+            finally
+            {
+                done();
+            }
+        }
+
+        /**
+         * Drop the feed without processing it any further, releasing its
+         * downloaded data.
+         */
+        void discard()
+        {
+            if (downloaded != null)
+            {
+                downloaded.data.release();
+                downloaded = null;
+            }
+        }
+
+        /**
+         * Report the feed to the done handler, with its channel, if it
+         * ended up with one.
+         */
+        private void done()
+        {
+            feedDownloadDoneHandler.feedFinished(feedInfo, channel);
+        }
+    }
+
+    /**
+     * The download of one feed. It receives the response from the
+     * {@link FeedDownloader}, possibly on one of the downloader's own
+     * threads, and decides whether to keep the content. Once the download
+     * is over, it either hands the feed on to the pipeline, or wakes up
+     * the thread waiting for it in {@link #processFeed}.
+     */
+    private class FeedDownload implements FeedDownloadListener
+    {
+        private final FeedInfo       feedInfo;
+        private final long           start = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private       boolean        forceDownload = false;
+        private       FeedDataBuffer data = null;
+        private       FeedJob        job = null;
+        private       CurnException  error = null;
+
+        FeedDownload(FeedInfo feedInfo)
+        {
+            this.feedInfo = feedInfo;
+        }
+
+        public OutputStream responseReceived(FeedDownloadResponse response)
+            throws IOException
+        {
+            OutputStream result = null;
+
+            // If the feed has actually changed, or if downloading is
+            // forced, keep the content.
+
+            int responseCode = response.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED)
+            {
+                log.info("Feed \"" + feedInfo.getURL() + "\" returned " +
+                         "HTTP status 304 (Not Modified). Skipping it.");
+                runStats.feedNotModified();
+            }
+
+            else if ((! forceDownload) &&
+                     (! feedHasChanged(response, feedInfo, cache)))
+            {
+                log.info ("Feed has not changed. Skipping it.");
+                runStats.feedUnchanged();
+            }
+
+            else
+            {
+                checkResponseCode(response);
+                log.debug("Feed may have changed. Downloading it.");
+
+                // Small feeds stay in memory; the data goes to a temporary
+                // file only if it's large, or if a plug-in wants to look
+                // at the file.
+
+                data = newFeedDataBuffer();
+                result = data.getOutputStream();
+            }
+
+            return result;
+        }
+
+        public void downloadComplete(FeedDownloadResponse response)
+        {
+            try
+            {
+                if (data != null)
+                    job = downloadDone(feedInfo, response, data, forceDownload);
+            }
+
+            catch (CurnException ex)
+            {
+                error = ex;
+            }
+
+            finally
+            {
+                data = null;
+                finished();
+            }
+        }
+
+        public void downloadFailed(FeedDownloadRequest request,
+                                   IOException         ex)
+        {
+            if (data != null)
+            {
+                data.release();
+                data = null;
+            }
+
+            error = new FeedException(feedInfo, ex);
+            finished();
+        }
+
+        /**
+         * Wait for the download to finish.
+         *
+         * @return a <tt>FeedJob</tt> holding the downloaded feed, or null
+         *         if there's nothing more to do with the feed. The caller
+         *         must parse or discard the job, so that its data is
+         *         released.
+         *
+         * @throws CurnException the download failed
+         */
+        FeedJob await()
+            throws CurnException
+        {
+            // The download can't be called off, so wait it out, even if
+            // interrupted.
+
+            boolean interrupted = false;
+            for (;;)
+            {
+                try
+                {
+                    done.await();
+                    break;
+                }
+
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            if (error != null)
+                throw error;
+
+            return job;
+        }
+
+        private void finished()
+        {
+            if (pipeline == null)
+                done.countDown();
+            else
+                handOff(this);
         }
     }
 
@@ -121,18 +381,25 @@ class FeedDownloadThread implements Runnable
      * Create a new <tt>FeedDownloadThread</tt> object to download feeds.
      *
      * @param parser          the RSS parser to use
+     * @param downloader      the (shared) engine to use to download feeds
      * @param feedCache       the feed cache to save cache data to
      * @param configFile      the parsed configuration file
-     * @param feedQueue       list of feeds to be processed. The list is
-     *                        assumed to be shared across multiple threads,
-     *                        and must be thread safe.
+     * @param scheduler       hands out the feeds to be processed. The
+     *                        scheduler is shared across multiple threads.
+     * @param pipeline        the pipeline to hand downloaded feeds to, or
+     *                        null to parse and process each feed on this
+     *                        thread
      * @param feedDoneHandler called when afeed is finished downloading
+     * @param runStats        the statistics for the run
      */
     FeedDownloadThread(RSSParser               parser,
+                       FeedDownloader          downloader,
                        FeedCache               feedCache,
                        CurnConfig              configFile,
-                       Queue<FeedInfo>         feedQueue,
-                       FeedDownloadDoneHandler feedDoneHandler)
+                       FeedDownloadScheduler   scheduler,
+                       FeedPipeline            pipeline,
+                       FeedDownloadDoneHandler feedDoneHandler,
+                       RunStatistics           runStats)
     {
         this.id = String.valueOf(nextThreadID.getAndIncrement());
 
@@ -142,9 +409,12 @@ class FeedDownloadThread implements Runnable
         this.log = new Logger(name);
         this.configuration = configFile;
         this.rssParser = parser;
+        this.downloader = downloader;
         this.cache = feedCache;
-        this.feedQueue = feedQueue;
+        this.scheduler = scheduler;
+        this.pipeline = pipeline;
         this.feedDownloadDoneHandler = feedDoneHandler;
+        this.runStats = runStats;
 
         //setPriority (getPriority() + 1);
     }
@@ -154,10 +424,13 @@ class FeedDownloadThread implements Runnable
     \*----------------------------------------------------------------------*/
 
     /**
-     * Run the thread. Pulls the next <tt>FeedInfo</tt> object from the
-     * feed queue (the list passed to the constructor) and processes it.
-     * The thread stops running when it has finished downloading a feed and
-     * it finds that the feed queue is empty.
+     * Run the thread. Gets the next <tt>FeedInfo</tt> object from the
+     * scheduler (passed to the constructor) and processes it. If there's
+     * a pipeline, the thread only starts the download, and goes back for
+     * another feed; when the download is done, the feed is handed to the
+     * pipeline's parse stage. The thread stops running when the scheduler
+     * has no more feeds to hand out, though downloads it started may
+     * still be running (see {@link FeedDownloadScheduler#awaitAllDone}).
      */
     public void run()
     {
@@ -170,8 +443,19 @@ class FeedDownloadThread implements Runnable
         {
             FeedInfo feed = null;
 
-            log.debug("Checking feed queue.");
-            feed = feedQueue.poll();
+            log.debug("Asking scheduler for next feed.");
+
+            try
+            {
+                feed = scheduler.nextFeed();
+            }
+
+            catch (InterruptedException ex)
+            {
+                log.info("Interrupted while waiting for a feed.");
+                Thread.currentThread().interrupt();
+                break;
+            }
 
             if (feed == null)
             {
@@ -179,9 +463,22 @@ class FeedDownloadThread implements Runnable
                 done = true;
             }
 
-            else
+            else if (pipeline == null)
             {
-                processFeed(feed);
+                try
+                {
+                    processFeed(feed);
+                }
+
+                finally
+                {
+                    scheduler.feedDone(feed);
+                }
+            }
+
+            else if (! downloadStage(feed))
+            {
+                break;
             }
         }
 
@@ -215,39 +512,25 @@ class FeedDownloadThread implements Runnable
         {
             log.info("Processing feed: " + feed.getURL().toString());
 
-            channel = handleFeed(feed, rssParser);
-            if (channel != null)
-                feedDownloadDoneHandler.feedFinished(feed, channel);
+            FeedDownload download = new FeedDownload(feed);
+            startDownload(download);
+
+            FeedJob job = download.await();
+            if ((job != null) && parseFeed(job))
+            {
+                processParsedFeed(job);
+                channel = job.channel;
+            }
         }
 
-        catch (FeedException ex)
+        catch (CurnException ex)
         {
-            this.exception = new FeedException
-                (feed,
-                 Constants.BUNDLE_NAME,
-                 "FeedDownloadThread.downloadError",
-                 "(Config file \"{0}\") error downloading feed",
-                 new Object[]
-                 {
-                     configuration.getConfigurationFileURL(),
-                 },
-                 ex);
-            log.error(ex.getMessages(true), this.exception);
+            this.exception = feedError(feed, ex);
         }
 
-        catch (CurnException ex)
+        finally
         {
-            this.exception = new FeedException
-                (feed,
-                 Constants.BUNDLE_NAME,
-                 "FeedDownloadThread.downloadError",
-                 "(Config file \"{0}\") error downloading feed",
-                 new Object[]
-                 {
-                     configuration.getConfigurationFileURL(),
-                 },
-                 ex);
-            log.error(ex.getMessages(true), this.exception);
+            feedDownloadDoneHandler.feedFinished(feed, channel);
         }
     }
 
@@ -297,197 +580,369 @@ class FeedDownloadThread implements Runnable
     \*----------------------------------------------------------------------*/
 
     /**
-     * Actually processes a feed. This method is called by checkFeed()
-     * after checkFeed() determines that there's a reason to try to download
-     * the feed (i.e., the feed has a "save as" setting, and/or parsing is
-     * desired.
-     * @param feedInfo      the info about the feed
-     * @param parser        the RSS parser to use, or null if parsing is to
-     *                      be skipped
+     * The download stage for a feed, when there's a pipeline: start the
+     * download. When it's done, {@link #handOff} passes the feed on. With
+     * an asynchronous downloader, this method returns right away, and the
+     * thread can go back to the scheduler for another feed while this one
+     * is still downloading.
      *
-     * @return the <tt>RSSChannel</tt> representing the parsed feed, if
-     *         parsing was enabled; otherwise, null.
+     * @param feed  the <tt>FeedInfo</tt> object for the feed
      *
-     * @throws FeedException  feed download error
-     * @throws CurnException  some other error (e.g., plug-in error)
+     * @return <tt>true</tt> to keep going, <tt>false</tt> if the thread
+     *         was interrupted
      */
-    private RSSChannel handleFeed(final FeedInfo   feedInfo,
-                                  final RSSParser  parser)
-        throws FeedException,
-               CurnException
+    private boolean downloadStage(final FeedInfo feed)
     {
-        URL         feedURL = feedInfo.getURL();
-        String      feedURLString = feedURL.toString();
-        RSSChannel  resultChannel = null;
+        FeedPipeline.StageStatistics stats = pipeline.getDownloadStatistics();
+        stats.feedQueued(scheduler.getTotalPending());
+
+        log.info("Processing feed: " + feed.getURL().toString());
+        startDownload(new FeedDownload(feed));
+
+        return (! Thread.currentThread().isInterrupted());
+    }
+
+    /**
+     * Finish the download stage for a feed, when there's a pipeline: hand
+     * the downloaded data to the pipeline, and release the feed to the
+     * scheduler. Errors are logged. Called on whatever thread the
+     * downloader reports the outcome of the download on.
+     *
+     * @param download  the finished download
+     */
+    private void handOff(final FeedDownload download)
+    {
+        FeedInfo feed = download.feedInfo;
+        FeedJob job = download.job;
+
+        pipeline.getDownloadStatistics()
+                .feedServiced(System.nanoTime() - download.start);
+
+        try
+        {
+            if (download.error != null)
+                feedError(feed, download.error);
+
+            if (job == null)
+            {
+                feedDownloadDoneHandler.feedFinished(feed, null);
+            }
+
+            else
+            {
+                try
+                {
+                    pipeline.parse(job);
+                }
+
+                catch (InterruptedException ex)
+                {
+                    log.info("Interrupted while waiting to hand off feed \"" +
+                             feed.getURL() + "\".");
+                    job.discard();
+                    job.done();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        finally
+        {
+            // The host is free as soon as the download is done; the
+            // parsing happens elsewhere. This has to come after the
+            // feed is in the pipeline, though, because the pipeline is
+            // finished once the scheduler says all feeds are done.
+
+            scheduler.feedDone(feed);
+        }
+    }
+
+    /**
+     * Wrap and log an error that occurred while processing a feed.
+     *
+     * @param feed  the <tt>FeedInfo</tt> object for the feed
+     * @param ex    the error
+     *
+     * @return the wrapped exception
+     */
+    private FeedException feedError(final FeedInfo feed, final CurnException ex)
+    {
+        FeedException result = new FeedException
+            (feed,
+             Constants.BUNDLE_NAME,
+             "FeedDownloadThread.downloadError",
+             "(Config file \"{0}\") error downloading feed",
+             new Object[]
+             {
+                 configuration.getConfigurationFileURL(),
+             },
+             ex);
+        log.error(ex.getMessages(true), result);
+        return result;
+    }
+
+    /**
+     * Starts processing a feed: decides whether there's a reason to
+     * download it and, if so, starts the download. The outcome is always
+     * reported to the download, even if the download never starts.
+     *
+     * @param download  the download for the feed
+     */
+    private void startDownload(final FeedDownload download)
+    {
+        FeedInfo            feedInfo = download.feedInfo;
+        URL                 feedURL = feedInfo.getURL();
+        String              feedURLString = feedURL.toString();
+        FeedDownloadRequest request = null;
 
         try
         {
             log.info("Checking for new data from RSS feed " + feedURLString);
 
+            if (cache != null)
+                cache.loadFeedOnDemand(feedURL);
+
             boolean forceDownload = metaPlugIn.forceFeedDownload(feedInfo, cache);
             log.debug("Feed \"" + feedURLString + "\": forceDownload=" +
                       forceDownload);
+            download.forceDownload = forceDownload;
 
-            // Open the connection.
+            // Build the request. The plug-ins adjust it via its
+            // (not yet connected) URLConnection.
 
-            URLConnection conn = feedURL.openConnection();
+            request = new FeedDownloadRequest(feedInfo);
 
-            if (! metaPlugIn.runPreFeedDownloadPlugIn(feedInfo, conn))
+            if (! metaPlugIn.runPreFeedDownloadPlugIn(feedInfo,
+                                                      request.getURLConnection()))
             {
                 log.debug("Feed " + feedInfo.getURL().toString() +
                           ": A plug-in disabled the feed.");
+                request = null;
             }
 
-            else
+            // Don't download the channel if it hasn't been modified since
+            // we last checked it. We set the If-None-Match and
+            // If-Modified-Since headers, to tell the web server not to
+            // return the content if it's not newer than what we saw
+            // before. However, as a double-check (for web servers that
+            // ignore the headers), we also check the ETag and
+            // Last-Modified headers, if any, that are returned; if they
+            // show nothing new, we don't bother to parse and process the
+            // returned XML.
+
+            else if (! forceDownload)
             {
-                resultChannel = downloadAndProcessFeed(feedInfo, parser,
-                                                       conn, forceDownload);
+                setConditionalGetHeaders(request, feedInfo, cache);
             }
         }
 
         catch (MalformedURLException ex)
         {
-            throw new FeedException(feedInfo, ex);
+            download.error = new FeedException(feedInfo, ex);
+            request = null;
         }
 
         catch (IOException ex)
         {
-            throw new FeedException(feedInfo, ex);
+            download.error = new FeedException(feedInfo, ex);
+            request = null;
         }
 
-        return resultChannel;
+        catch (CurnException ex)
+        {
+            download.error = ex;
+            request = null;
+        }
+
+        if (request == null)
+            download.finished();
+        else
+            downloader.download(request, download);
     }
 
     /**
-     * Unconditionally download and process a feed. Only called by
-     * handleFeed().
+     * Called when a feed's content has been downloaded. Decodes it, and
+     * decides whether it's worth parsing. A feed that turns out to have
+     * nothing new is finished here, rather than being handed on.
      *
      * @param feedInfo      the info about the feed
-     * @param parser        the RSS parser to use, or null if parsing is to
-     *                      be skipped
-     * @param urlConn       open URLConnection for the feed
-     * @param forceDownload <tt>true</tt> to force the download even if the
-     *                      feed hasn't changed, <tt>false</tt> to observe
-     *                      the normal rules
+     * @param response      the download response for the feed
+     * @param data          the downloaded content, which this method
+     *                      takes over
+     * @param forceDownload <tt>true</tt> if the download was forced, so
+     *                      the content is to be used even if it hasn't
+     *                      changed
      *
-     * @return the <tt>RSSChannel</tt> representing the parsed feed, if
-     *         parsing was enabled; otherwise, null.
+     * @return a <tt>FeedJob</tt> holding the downloaded feed, for the parse
+     *         stage, or null if there's nothing more to do with the feed
      *
      * @throws FeedException  feed download error
      * @throws CurnException  some other error (e.g., plug-in error)
      */
-    private RSSChannel downloadAndProcessFeed(final FeedInfo      feedInfo,
-                                              final RSSParser     parser,
-                                              final URLConnection urlConn,
-                                              final boolean       forceDownload)
+    private FeedJob downloadDone(final FeedInfo             feedInfo,
+                                 final FeedDownloadResponse response,
+                                 final FeedDataBuffer       data,
+                                 final boolean              forceDownload)
         throws FeedException,
                CurnException
     {
-        RSSChannel  resultChannel = null;
+        FeedJob job = null;
         URL feedURL = feedInfo.getURL();
+        DownloadedFeed downloaded = null;
 
         try
         {
-            // Don't download the channel if it hasn't been modified since
-            // we last checked it. We set the If-Modified-Since header, to
-            // tell the web server not to return the content if it's not
-            // newer than what we saw before. However, as a double-check
-            // (for web servers that ignore the header), we also check the
-            // Last-Modified header, if any, that's returned; if it's not
-            // newer, we don't bother to parse and process the returned
-            // XML.
-
-            if (! forceDownload)
-                setIfModifiedSinceHeader(urlConn, feedInfo, cache);
-
-            // If the feed has actually changed, or if downloading is force,
-            // process it.
+            downloaded = new DownloadedFeed(decodeContent(response, data),
+                                            contentEncoding(response,
+                                                            feedInfo));
+            log.debug("Downloaded " + downloaded.data.size() +
+                      " bytes from \"" + feedURL + "\"" +
+                      (downloaded.data.isOnDisk() ? " (spilled to disk)."
+                                                  : "."));
+            runStats.feedDownloaded();
+            FeedJob newJob = new FeedJob(feedInfo, response, downloaded);
+
+            // It's possible for the size to be zero if, for instance, the
+            // use of the If-Modified-Since header caused an HTTP server to
+            // return no content.
+
+            if (downloaded.data.size() == 0)
+            {
+                log.debug("Feed \"" + feedURL + "\" returned no data.");
+                finishFeed(newJob);
+            }
 
-            if ((! forceDownload) &&
-                (! feedHasChanged(urlConn, feedInfo, cache)))
+            else if ((! forceDownload) &&
+                     contentIsUnchanged(downloaded, feedInfo, cache))
             {
-                log.info ("Feed has not changed. Skipping it.");
+                // Many servers ignore conditional GETs, but the content
+                // is byte-for-byte what we processed last time, so
+                // there's nothing new in it. (Plug-ins that need to see
+                // every item on every run, such as RetainArticles, force
+                // the download, which bypasses this check.)
+
+                log.info("Feed \"" + feedURL + "\" content is " +
+                         "unchanged since last run. Skipping it.");
+                runStats.feedContentUnchanged();
+                finishFeed(newJob);
             }
 
             else
             {
-                log.debug("Feed may have changed. " +
-                          "Downloading and processing it.");
+                // The job owns the data now.
+
+                job = newJob;
+                downloaded = null;
+            }
+        }
 
-                // Download the feed to a file. We'll parse the file.
+        catch (IOException ex)
+        {
+            throw new FeedException(feedInfo, ex);
+        }
+
+        finally
+        {
+            if (downloaded != null)
+                downloaded.data.release();
+        }
 
-                DownloadedTempFile tempFile = downloadFeed(urlConn, feedInfo);
+        return job;
+    }
 
-                if (tempFile.bytesDownloaded == 0)
+    /**
+     * The parse stage for a feed: runs the plug-ins that want the raw
+     * downloaded data (e.g., to edit or save it), then parses it.
+     * Releases the downloaded data, whatever happens. A feed that ends
+     * up with no channel is finished here.
+     *
+     * @param job  the downloaded feed
+     *
+     * @return <tt>true</tt> if the job has a channel for the process
+     *         stage, <tt>false</tt> if the feed is done
+     *
+     * @throws FeedException  feed parse error
+     * @throws CurnException  some other error (e.g., plug-in error)
+     */
+    private boolean parseFeed(final FeedJob job)
+        throws FeedException,
+               CurnException
+    {
+        FeedInfo feedInfo = job.feedInfo;
+        URL feedURL = feedInfo.getURL();
+        DownloadedFeed downloaded = job.downloaded;
+        RSSChannel resultChannel = null;
+
+        try
+        {
+            boolean keepGoing = true;
+
+            if (metaPlugIn.needsFeedDataFile(feedInfo))
+            {
+                keepGoing = metaPlugIn.runPostFeedDownloadPlugIn
+                                (feedInfo,
+                                 downloaded.data.getFile(),
+                                 downloaded.encoding);
+                if (! keepGoing)
                 {
-                    log.debug("Feed \"" + feedURL + "\" returned no data.");
+                    log.debug("Feed " + feedURL + ": A post-download " +
+                              "plug-in disabled further processing.");
                 }
+            }
 
-                else
+            if (keepGoing)
+            {
+                if (rssParser == null)
                 {
-                    metaPlugIn.runPostFeedDownloadPlugIn(feedInfo,
-                                                         tempFile.file,
-                                                         tempFile.encoding);
+                    log.debug("No RSS parser. Skipping XML parse phase.");
+                }
 
-                    if (parser == null)
-                    {
-                        log.debug("No RSS parser. Skipping XML parse phase.");
-                    }
+                else
+                {
+                    log.debug("Using RSS parser " +
+                              rssParser.getClass().getName() +
+                              " to parse \"" + feedURL + "\"");
 
-                    else
+                    runStats.feedParsed();
+                    InputStream is = downloaded.data.getInputStream();
+                    try
                     {
-                        log.debug("Using RSS parser " +
-                                  parser.getClass().getName() +
-                                  " to parse \"" + feedURL + "\"");
-
-                        InputStream is = new FileInputStream(tempFile.file);
-                        resultChannel = parser.parseRSSFeed(feedURL,
-                                                            is,
-                                                            tempFile.encoding);
-                        is.close();
-
-                        // Make sure the channel has a link.
-
-                        Collection<RSSLink> links = resultChannel.getLinks();
-                        if ((links == null) || (links.size() == 0))
+                        if (rssParser instanceof LazyDOMParser)
                         {
-                            RSSLink link = new RSSLink(feedURL,
-                                                       "text/xml",
-                                                       RSSLink.Type.SELF);
-                            resultChannel.setLinks(Collections.singleton(link));
+                            // Only have the parser hang on to the raw
+                            // feed if some plug-in will want the DOM.
+
+                            resultChannel = ((LazyDOMParser) rssParser)
+                                .parseRSSFeed(feedURL,
+                                              is,
+                                              downloaded.encoding,
+                                              metaPlugIn.needsDOM(feedInfo));
                         }
 
-                        if (! metaPlugIn.runPostFeedParsePlugIn(feedInfo,
-                                                                cache,
-                                                                resultChannel))
+                        else
                         {
-                            resultChannel = null;
-                        }
-
-                        if (resultChannel != null)
-                        {
-                            processChannelItems(resultChannel, feedInfo);
-                            if (resultChannel.getItems().size() == 0)
-                                resultChannel = null;
+                            resultChannel = rssParser.parseRSSFeed
+                                                (feedURL,
+                                                 is,
+                                                 downloaded.encoding);
                         }
+                    }
 
-                        if (resultChannel != null)
-                        {
-                            boolean ok = metaPlugIn.runPostFeedProcessPlugIn(
-                                feedInfo, cache, resultChannel
-                            );
-                            if (! ok)
-                                resultChannel = null;
-                        }
+                    finally
+                    {
+                        is.close();
                     }
-                }
 
-                tempFile.file.delete();
-                if (cache != null)
-                {
-                    cache.addToCache(feedURL,
-                                     new Date(urlConn.getLastModified()),
-                                     feedInfo);
+                    // Make sure the channel has a link.
+
+                    Collection<RSSLink> links = resultChannel.getLinks();
+                    if ((links == null) || (links.size() == 0))
+                    {
+                        RSSLink link = new RSSLink(feedURL,
+                                                   "text/xml",
+                                                   RSSLink.Type.SELF);
+                        resultChannel.setLinks(Collections.singleton(link));
+                    }
                 }
             }
         }
@@ -502,52 +957,118 @@ class FeedDownloadThread implements Runnable
             throw new FeedException(feedInfo, ex);
         }
 
-        log.debug("downloadAndProcessFeed(): Feed=" +
-                  feedInfo.getURL() + ", returning " +
-                  ((resultChannel == null) ? "null" : resultChannel.toString()));
+        finally
+        {
+            job.discard();
+        }
+
+        job.channel = resultChannel;
+        if (resultChannel == null)
+            finishFeed(job);
 
-        return resultChannel;
+        return (resultChannel != null);
     }
 
     /**
-     * Download a feed.
+     * The process stage for a feed: runs the post-parse plug-ins, weeds
+     * out the items that have already been seen, runs the post-process
+     * plug-ins and finishes the feed.
      *
-     * @param conn     the <tt>URLConnection</tt> for the feed
-     * @param feedInfo the <tt>FeedInfo</tt> object for the feed
+     * @param job  the parsed feed
      *
-     * @return the <tt>DownloadedTempFile</tt> object that captures the
-     *         details about the downloaded file
+     * @throws CurnException  some error (e.g., plug-in error)
+     */
+    private void processParsedFeed(final FeedJob job)
+        throws CurnException
+    {
+        FeedInfo feedInfo = job.feedInfo;
+        RSSChannel resultChannel = job.channel;
+
+        // Until the items have been weeded out, the job has nothing to
+        // show.
+
+        job.channel = null;
+
+        if (! metaPlugIn.runPostFeedParsePlugIn(feedInfo,
+                                                cache,
+                                                resultChannel))
+        {
+            resultChannel = null;
+        }
+
+        if (resultChannel != null)
+        {
+            processChannelItems(resultChannel, feedInfo);
+            if (resultChannel.getItems().size() == 0)
+                resultChannel = null;
+        }
+
+        if (resultChannel != null)
+        {
+            boolean ok = metaPlugIn.runPostFeedProcessPlugIn(
+                feedInfo, cache, resultChannel
+            );
+            if (! ok)
+                resultChannel = null;
+        }
+
+        log.debug("processParsedFeed(): Feed=" + feedInfo.getURL() +
+                  ", returning " +
+                  ((resultChannel == null) ? "null" : resultChannel.toString()));
+
+        job.channel = resultChannel;
+        finishFeed(job);
+    }
+
+    /**
+     * Finish a feed, in whichever stage it ends up, by updating its cache
+     * entry. (The caller reports the feed to the done handler.)
      *
-     * @throws IOException   I/O error
-     * @throws CurnException some other error
+     * @param job  the feed
      */
-    private DownloadedTempFile downloadFeed(final URLConnection conn,
-                                            final FeedInfo      feedInfo)
-        throws CurnException,
-               IOException
+    private void finishFeed(final FeedJob job)
     {
-        URL feedURL = feedInfo.getURL();
-        String feedURLString = feedURL.toString();
-        int totalBytes = 0;
-        File tempFile = CurnUtil.createTempXMLFile();
+        FeedInfo feedInfo = job.feedInfo;
 
-        log.debug("Downloading \"" + feedURLString + "\" to file \"" +
-                  tempFile.getPath());
+        if (cache != null)
+        {
+            URL feedURL = feedInfo.getURL();
+            cache.addToCache(feedURL, job.lastModified, feedInfo);
 
-        InputStream urlStream = getURLInputStream(conn);
+            // Save the validators for the next conditional GET.
 
-        /* Determine the character set encoding to use.
-         * When downloading, all we are doing is copying bytes.
-         * If we get an indication of encoding, we pass it along
-         * to Rome or whatnot to use in interpreting those bytes.
-         */
+            FeedCacheEntry entry = cache.getEntryByURL(feedURL);
+            if (entry != null)
+            {
+                entry.setEntityTag(job.entityTag);
+                entry.setLastModifiedHeader(job.lastModifiedHeader);
+                entry.setContentHash(job.contentHash);
+            }
+        }
+    }
 
+    /**
+     * Determine the character set encoding of a downloaded feed. When
+     * downloading, all we are doing is copying bytes. If we get an
+     * indication of encoding, we pass it along to Rome or whatnot to use
+     * in interpreting those bytes.
+     *
+     * @param response the download response for the feed
+     * @param feedInfo the <tt>FeedInfo</tt> object for the feed
+     *
+     * @return the encoding, or null if nothing gave us a clue
+     */
+    private String contentEncoding(final FeedDownloadResponse response,
+                                   final FeedInfo             feedInfo)
+    {
+        URL feedURL = feedInfo.getURL();
+        String feedURLString = feedURL.toString();
         String protocol = feedURL.getProtocol();
         String encoding = null; // null unless we see some other indication.
 
         if (protocol.equals("http") || protocol.equals("https"))
         {
-            String contentTypeHeader = conn.getContentType();
+            String contentTypeHeader = response.getContentType();
 
             if (contentTypeHeader != null)
             {
@@ -573,28 +1094,9 @@ class FeedDownloadThread implements Runnable
         if (feedInfo.getForcedCharacterEncoding() != null)
             encoding = feedInfo.getForcedCharacterEncoding();
 
-        OutputStream tempOutput = null;
-        try
-        {
-            tempOutput = new FileOutputStream(tempFile);
-            totalBytes = IOUtils.copy(urlStream, tempOutput);
-        }
-        finally
-        {
-            IOUtils.closeQuietly(tempOutput);
-            IOUtils.closeQuietly(urlStream);
-        }
-
-        // It's possible for totalBytes to be zero if, for instance, the
-        // use of the If-Modified-Since header caused an HTTP server to
-        // return no content.
-        // It's possible for the encoding to be null if nothing gave us a clue.
-
-        return new DownloadedTempFile(tempFile, encoding, totalBytes);
+        return encoding;
     }
 
-
-
     /**
      * Given a content-type header, extract the character set information.
      *
@@ -635,50 +1137,112 @@ class FeedDownloadThread implements Runnable
     }
 
     /**
-     * Get the input stream for a URL. Handles compressed data.
+     * Decode the downloaded content of a response. Handles compressed
+     * data. The downloader stores the content exactly as it arrived, so
+     * compressed content is decompressed into a new buffer.
      *
-     * @param conn the <tt>URLConnection</tt> to process
+     * @param response the download response
+     * @param data     the content. If a new buffer is returned, this one
+     *                 has been released.
      *
-     * @return the <tt>InputStream</tt>
+     * @return the buffer holding the decoded content
      *
-     * @throws IOException I/O error
+     * @throws IOException I/O error. Both buffers have been released.
      */
-    private InputStream getURLInputStream(final URLConnection conn)
+    private FeedDataBuffer decodeContent(final FeedDownloadResponse response,
+                                         final FeedDataBuffer       data)
         throws IOException
     {
-        InputStream is = conn.getInputStream();
-        String ce = conn.getHeaderField("content-encoding");
+        FeedDataBuffer result = data;
+        String ce = response.getHeaderField("content-encoding");
 
         if (ce != null)
         {
-            String urlString = conn.getURL().toString();
+            String urlString = response.getURL().toString();
 
             log.debug("URL \"" + urlString + "\" -> Content-Encoding: " + ce);
-            if (ce.indexOf("gzip") != -1)
+            if ((ce.indexOf("gzip") != -1) && (data.size() > 0))
             {
                 log.debug("URL \"" + urlString +
                           "\" is compressed. Using GZIPInputStream.");
-                is = new GZIPInputStream(is);
+                result = newFeedDataBuffer();
+                InputStream is = null;
+
+                try
+                {
+                    is = new GZIPInputStream(data.getInputStream());
+                    result.readFrom(is);
+                }
+
+                catch (IOException ex)
+                {
+                    result.release();
+                    throw ex;
+                }
+
+                finally
+                {
+                    IOUtils.closeQuietly(is);
+                    data.release();
+                }
             }
         }
 
-        return is;
+        return result;
     }
 
     /**
-     * Conditionally set the header that "If-Modified-Since" header for a
-     * feed. Must be called on a <tt>URLConnection</tt> before the
-     * <tt>InputStream</tt> is retrieved. Uses the feed cache to set the
-     * value.
+     * Create an empty buffer for downloaded content.
      *
-     * @param conn     the <tt>URLConnection</tt> on which to set the
-     *                 header
+     * @return the buffer
+     */
+    private FeedDataBuffer newFeedDataBuffer()
+    {
+        return new FeedDataBuffer(configuration.getMaxInMemoryFeedSize());
+    }
+
+    /**
+     * Reject an error response, the same way
+     * <tt>HttpURLConnection.getInputStream()</tt> does.
+     *
+     * @param response the download response
+     *
+     * @throws IOException the response is an error
+     */
+    private void checkResponseCode(final FeedDownloadResponse response)
+        throws IOException
+    {
+        int responseCode = response.getResponseCode();
+
+        if ((responseCode == HttpURLConnection.HTTP_NOT_FOUND) ||
+            (responseCode == HttpURLConnection.HTTP_GONE))
+        {
+            throw new FileNotFoundException(response.getURL().toString());
+        }
+
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST)
+        {
+            throw new IOException("Server returned HTTP response code: " +
+                                  responseCode + " for URL: " +
+                                  response.getURL());
+        }
+    }
+
+    /**
+     * Conditionally set the "If-None-Match" and "If-Modified-Since" headers
+     * for a feed. Must be called on a request before it is issued. Uses the
+     * feed cache to set the values. The ETag and Last-Modified values the
+     * server sent last time are echoed back verbatim, if they're known;
+     * otherwise, the If-Modified-Since header is derived from the time the
+     * feed was last read.
+     *
+     * @param request  the request on which to set the headers
      * @param feedInfo the information on the feed
      * @param cache    the cache
      */
-    private void setIfModifiedSinceHeader(final URLConnection conn,
-                                          final FeedInfo      feedInfo,
-                                          final FeedCache     cache)
+    private void setConditionalGetHeaders(final FeedDownloadRequest request,
+                                          final FeedInfo            feedInfo,
+                                          final FeedCache           cache)
     {
         long     lastSeen = 0;
         URL      feedURL = feedInfo.getURL();
@@ -691,7 +1255,24 @@ class FeedDownloadThread implements Runnable
             {
                 lastSeen = entry.getTimestamp();
 
-                if (lastSeen > 0)
+                String entityTag = entry.getEntityTag();
+                if (entityTag != null)
+                {
+                    log.debug("Setting If-None-Match header for feed \"" +
+                              feedURL.toString() + "\" to: " + entityTag);
+                    request.setRequestHeader("If-None-Match", entityTag);
+                }
+
+                String lastModified = entry.getLastModifiedHeader();
+                if (lastModified != null)
+                {
+                    log.debug("Setting If-Modified-Since header for feed \"" +
+                              feedURL.toString() + "\" to: " + lastModified);
+                    request.setRequestHeader("If-Modified-Since",
+                                             lastModified);
+                }
+
+                else if (lastSeen > 0)
                 {
                     if (log.isDebugEnabled())
                     {
@@ -701,42 +1282,45 @@ class FeedDownloadThread implements Runnable
                                   new Date (lastSeen).toString() + ")");
                     }
 
-                    conn.setIfModifiedSince (lastSeen);
+                    request.setIfModifiedSince(lastSeen);
                 }
             }
         }
     }
 
     /**
-     * Query the appropriate URL connection headers to determine whether
-     * the remote server thinks feed data has changed since the last time
-     * the feed was downloaded. Must be called on a <tt>URLConnection</tt>
-     * after the <tt>InputStream</tt> is retrieved. Uses the feed cache to
-     * set the value.
+     * Query the appropriate response headers to determine whether the
+     * remote server thinks feed data has changed since the last time the
+     * feed was downloaded. Uses the feed cache to set the value.
      *
-     * @param conn     the <tt>URLConnection</tt> whose headers are to be
+     * @param response the download response whose headers are to be
      *                 checked
      * @param feedInfo the information on the feed
      * @param cache    the cache
      *
-     * @throws IOException I/O error
+     * @return <tt>true</tt> if the feed may have changed, <tt>false</tt>
+     *         if not
      */
-    private boolean feedHasChanged(final URLConnection conn,
-                                   final FeedInfo      feedInfo,
-                                   final FeedCache     cache)
-        throws IOException
+    private boolean feedHasChanged(final FeedDownloadResponse response,
+                                   final FeedInfo             feedInfo,
+                                   final FeedCache            cache)
     {
         long     lastSeen = 0;
         long     lastModified = 0;
         boolean  hasChanged = false;
         URL      feedURL = feedInfo.getURL();
+        String   lastEntityTag = null;
+        String   entityTag = response.getHeaderField("ETag");
 
         if (cache != null)
         {
             FeedCacheEntry entry = cache.getEntryByURL (feedURL);
 
             if (entry != null)
+            {
                 lastSeen = entry.getTimestamp();
+                lastEntityTag = entry.getEntityTag();
+            }
         }
 
         if (lastSeen == 0)
@@ -746,7 +1330,14 @@ class FeedDownloadThread implements Runnable
             hasChanged = true;
         }
 
-        else if ((lastModified = conn.getLastModified()) == 0)
+        else if ((entityTag != null) && entityTag.equals(lastEntityTag))
+        {
+            log.debug("Feed \"" + feedURL.toString() +
+                      "\" has the same ETag (" + entityTag + ") as last " +
+                      "time. Feed has no new data.");
+        }
+
+        else if ((lastModified = response.getLastModified()) == 0)
         {
             log.debug("Feed \"" + feedURL.toString() +
                       "\" provides no last-modified time.");
@@ -777,6 +1368,40 @@ class FeedDownloadThread implements Runnable
         return hasChanged;
     }
 
+    /**
+     * Determine whether the downloaded content of a feed is identical to
+     * the content downloaded on the previous run, by comparing content
+     * hashes.
+     *
+     * @param downloaded the downloaded feed
+     * @param feedInfo   the information on the feed
+     * @param cache      the cache, or null
+     *
+     * @return <tt>true</tt> if the content is known to be unchanged,
+     *         <tt>false</tt> otherwise
+     */
+    private boolean contentIsUnchanged(final DownloadedFeed downloaded,
+                                       final FeedInfo       feedInfo,
+                                       final FeedCache      cache)
+    {
+        boolean unchanged = false;
+
+        if (cache != null)
+        {
+            FeedCacheEntry entry = cache.getEntryByURL(feedInfo.getURL());
+            if (entry != null)
+            {
+                String lastHash = entry.getContentHash();
+                log.debug("Feed \"" + feedInfo.getURL() + "\": content " +
+                          "hash=" + downloaded.contentHash + ", previous=" +
+                          lastHash);
+                unchanged = downloaded.contentHash.equals(lastHash);
+            }
+        }
+
+        return unchanged;
+    }
+
     /**
      * Process all the items for a channel.
      *
@@ -820,15 +1445,22 @@ class FeedDownloadThread implements Runnable
 
             URL itemURL  = itemLink.getURL();
 
-            // Normalize the URL and save it.
+            // Normalize the URL and save it. (Most URLs are already
+            // normalized, in which case this does nothing.)
 
-            itemURL = CurnUtil.normalizeURL(itemURL);
-            itemLink.setURL(itemURL);
+            URL normalizedURL = CurnUtil.normalizeURL(itemURL);
+            if (normalizedURL != itemURL)
+            {
+                itemURL = normalizedURL;
+                itemLink.setURL(itemURL);
+            }
 
             // Skip it if it's cached--unless it's sticky. We cache by item
-            // URL.
+            // URL, using the item's cache key, which is computed here and
+            // stays with the item.
 
-            log.debug ("Item link: " + itemURL);
+            if (log.isDebugEnabled())
+                log.debug ("Item link: " + itemURL);
             if ((cache != null) && (! itemIsNew (item, itemURL)))
             {
                 log.debug("Discarding old, cached item.");
@@ -843,12 +1475,12 @@ class FeedDownloadThread implements Runnable
         {
             for (RSSItem item : items)
             {
-                RSSLink itemLink = item.getURL();
-                assert (itemLink != null);
-                URL itemURL = itemLink.getURL();
+                ItemKey itemKey = FeedCache.getItemKey(item);
+                assert (itemKey != null);
 
-                log.debug ("Caching URL: " + itemURL);
-                cache.addToCache (itemURL,
+                if (log.isDebugEnabled())
+                    log.debug ("Caching URL: " + itemKey);
+                cache.addToCache (itemKey,
                                   item.getPublicationDate(),
                                   feedInfo);
             }
@@ -871,20 +1503,26 @@ class FeedDownloadThread implements Runnable
      */
     private boolean itemIsNew (final RSSItem item, final URL itemURL)
     {
-        String   itemURLString = itemURL.toString();
+        boolean  debug         = log.isDebugEnabled();
         boolean  isNew         = true;
         FeedCacheEntry cacheEntry = cache.getEntryForItem(item);
 
         if (cacheEntry == null)
         {
-            log.debug("URL \"" + itemURLString +
-                      "\" is not in the cache. It's new.");
+            if (debug)
+            {
+                log.debug("URL \"" + itemURL +
+                          "\" is not in the cache. It's new.");
+            }
         }
 
         else if (cacheEntry.isSticky())
         {
-            log.debug("URL \"" + itemURLString + "\" is marked sticky. " +
-                      "Treating it as new.");
+            if (debug)
+            {
+                log.debug("URL \"" + itemURL + "\" is marked sticky. " +
+                          "Treating it as new.");
+            }
             isNew = true;
         }
 
@@ -893,40 +1531,54 @@ class FeedDownloadThread implements Runnable
             Date cachePubDate = cacheEntry.getPublicationDate();
             Date itemPubDate  = item.getPublicationDate();
 
-            log.debug("URL \"" + itemURLString + "\" is cached and non-sticky.");
+            if (debug)
+                log.debug("URL \"" + itemURL + "\" is cached and non-sticky.");
             if ((cachePubDate == null) || (itemPubDate == null))
             {
-                log.debug("Missing publication date in item and/or " +
-                           "cache for URL \"" + itemURLString +
-                           "\". Assuming URL is old, since it is in the " +
-                           "cache. Skipping it.");
+                if (debug)
+                {
+                    log.debug("Missing publication date in item and/or " +
+                               "cache for URL \"" + itemURL +
+                               "\". Assuming URL is old, since it is in the " +
+                               "cache. Skipping it.");
+                }
                 isNew = false;
             }
 
             else
             {
-                log.debug("URL \"" + itemURLString +
-                          "\": Cached publication date is " +
-                          cachePubDate.toString() +
-                          "\", item publication date is " + itemPubDate);
+                if (debug)
+                {
+                    log.debug("URL \"" + itemURL +
+                              "\": Cached publication date is " +
+                              cachePubDate.toString() +
+                              "\", item publication date is " + itemPubDate);
+                }
                 if (itemPubDate.after(cachePubDate))
                 {
-                    log.debug("URL \"" + itemURLString +
-                              "\" is newer than cached publication date. " +
-                              "Keeping it.");
+                    if (debug)
+                    {
+                        log.debug("URL \"" + itemURL +
+                                  "\" is newer than cached publication date. " +
+                                  "Keeping it.");
+                    }
                 }
 
                 else
                 {
-                    log.debug("URL \"" + itemURLString +
-                              "\" is not newer than cached publication date. " +
-                              "Skipping it.");
+                    if (debug)
+                    {
+                        log.debug("URL \"" + itemURL +
+                                  "\" is not newer than cached publication date. " +
+                                  "Skipping it.");
+                    }
                     isNew = false;
                 }
             }
         }
 
-        log.debug("URL \"" + itemURLString + "\" is new? " + isNew);
+        if (debug)
+            log.debug("URL \"" + itemURL + "\" is new? " + isNew);
         return isNew;
     }
 }
@@ -0,0 +1,101 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+/**
+ * <p>A <tt>FeedDownloader</tt> is the engine <i>curn</i> uses to fetch the
+ * raw bytes of a feed. The feed download threads build a
+ * {@link FeedDownloadRequest} for each feed, let the
+ * {@link PreFeedDownloadPlugIn} plug-ins adjust it, and then hand it to the
+ * configured downloader. The downloader class is selected with the
+ * <tt>DownloaderClass</tt> configuration parameter; it must have a public
+ * default constructor.</p>
+ *
+ * <p>Downloads are asynchronous: {@link #download} may return before the
+ * feed has been fetched, and the downloader reports the response, and
+ * pushes the content, to a {@link FeedDownloadListener}. A download
+ * thread can therefore keep many feeds in flight at once. A downloader
+ * that can't work that way may simply do the whole download, and call
+ * the listener, before {@link #download} returns.</p>
+ *
+ * <p>A single downloader instance is shared by all download threads, so
+ * implementations must be thread-safe. That also makes the downloader the
+ * natural place to pool connections across feeds that live on the same
+ * host.</p>
+ *
+ * @see FeedDownloadRequest
+ * @see FeedDownloadListener
+ * @see FeedDownloadResponse
+ * @see URLConnectionFeedDownloader
+ * @see NIOFeedDownloader
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface FeedDownloader
+{
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Initialize the downloader. Called once, after the configuration has
+     * been loaded and before any feed is downloaded.
+     *
+     * @param config  the parsed configuration
+     *
+     * @throws CurnException on error
+     */
+    public void init(CurnConfig config)
+        throws CurnException;
+
+    /**
+     * Start the download of a feed. The outcome, whether success or
+     * failure, is always reported to the listener, exactly once; this
+     * method doesn't throw exceptions for failed downloads.
+     *
+     * @param request   the request, as adjusted by the pre-download
+     *                  plug-ins
+     * @param listener  receives the response and its content
+     */
+    public void download(FeedDownloadRequest  request,
+                         FeedDownloadListener listener);
+
+    /**
+     * Release any resources (connections, threads) held by the downloader.
+     * Called once all downloads have been reported to their listeners.
+     */
+    public void shutdown();
+}
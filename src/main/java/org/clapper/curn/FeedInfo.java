@@ -67,6 +67,7 @@ public class FeedInfo
 
     private       int         daysToCache = 0;
     private final URL         siteURL;
+    private final FeedKey     key;
     private       String      forcedEncoding = null;
 
     /*----------------------------------------------------------------------*\
@@ -83,6 +84,7 @@ public class FeedInfo
     public FeedInfo(URL siteURL)
     {
         this.siteURL = CurnUtil.normalizeURL (siteURL);
+        this.key = new FeedKey (this.siteURL);
     }
 
     /*----------------------------------------------------------------------*\
@@ -90,13 +92,14 @@ public class FeedInfo
     \*----------------------------------------------------------------------*/
 
     /**
-     * Get the hash code for this feed
+     * Get the hash code for this feed. The hash code is based on the
+     * feed's key, so computing it doesn't require a DNS lookup.
      *
      * @return the hash code
      */
     public int hashCode()
     {
-        return getURL().hashCode();
+        return key.hashCode();
     }
 
     /**
@@ -113,7 +116,7 @@ public class FeedInfo
         boolean eq = false;
 
         if (obj instanceof FeedInfo)
-            eq = this.siteURL.equals (((FeedInfo) obj).siteURL);
+            eq = this.key.equals (((FeedInfo) obj).key);
 
         return eq;
     }
@@ -129,6 +132,16 @@ public class FeedInfo
         return siteURL;
     }
 
+    /**
+     * Get the key for this feed, for use in hash tables.
+     *
+     * @return the feed's key
+     */
+    public FeedKey getKey()
+    {
+        return key;
+    }
+
     /**
      * Get the number of days that URLs from this site are to be cached.
      *
@@ -0,0 +1,543 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>Splits the handling of each feed into three stages, joined by
+ * bounded queues, so that each stage can be sized for the kind of work it
+ * does:</p>
+ *
+ * <ul>
+ *   <li>The <i>download</i> stage is the download workers themselves
+ *       (see {@link FeedDownloadThread}). They spend most of their time
+ *       waiting on the network, so there can be many of them; their number
+ *       is set by the {@link FeedDownloadExecutorFactory}.
+ *   <li>The <i>parse</i> stage runs the plug-ins that edit or save the
+ *       raw feed data, then parses it, on <tt>ParseThreads</tt> threads.
+ *   <li>The <i>process</i> stage runs the post-parse plug-ins, weeds out
+ *       the items that have already been seen, runs the post-process
+ *       plug-ins and updates the cache, on <tt>ProcessThreads</tt>
+ *       threads.
+ * </ul>
+ *
+ * <p>Both thread counts default to the number of available processors.
+ * Each queue holds <tt>PipelineQueueSize</tt> feeds (by default, twice
+ * the number of threads that empty it). A thread that finds the next
+ * stage's queue full waits for room, so a slow stage holds back the ones
+ * before it, rather than letting downloaded feeds pile up in memory.</p>
+ *
+ * <p>The pipeline keeps {@link StageStatistics statistics} for each stage:
+ * how deep its queue got, and how long it took to handle a feed.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class FeedPipeline
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String VAR_PARSE_THREADS       = "ParseThreads";
+    private static final String VAR_PROCESS_THREADS     = "ProcessThreads";
+    private static final String VAR_PIPELINE_QUEUE_SIZE = "PipelineQueueSize";
+
+    private static final int DEF_PARSE_THREADS       = 0;
+    private static final int DEF_PROCESS_THREADS     = 0;
+    private static final int DEF_PIPELINE_QUEUE_SIZE = 0;
+
+    /*----------------------------------------------------------------------*\
+                               Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Queue and service-time statistics for one stage of the pipeline.
+     * The queue depth is sampled each time a feed arrives at the stage.
+     * For the download stage, the queue is the feeds the scheduler hasn't
+     * handed out yet.
+     */
+    static class StageStatistics
+    {
+        private final String stage;
+        private final int    totalThreads;
+        private final int    queueSize;
+        private int  totalQueued = 0;
+        private long totalQueueDepth = 0;
+        private int  maxQueueDepth = 0;
+        private int  totalServiced = 0;
+        private long totalServiceNanos = 0;
+        private long maxServiceNanos = 0;
+
+        StageStatistics(String stage, int totalThreads, int queueSize)
+        {
+            this.stage = stage;
+            this.totalThreads = totalThreads;
+            this.queueSize = queueSize;
+        }
+
+        /**
+         * Get the name of the stage.
+         *
+         * @return the name
+         */
+        String getStageName()
+        {
+            return stage;
+        }
+
+        /**
+         * Get the number of feeds the stage handled.
+         *
+         * @return the number of feeds
+         */
+        synchronized int getTotalFeeds()
+        {
+            return totalServiced;
+        }
+
+        /**
+         * Get the largest number of feeds that were waiting for the stage
+         * at any one time.
+         *
+         * @return the maximum queue depth
+         */
+        synchronized int getMaxQueueDepth()
+        {
+            return maxQueueDepth;
+        }
+
+        /**
+         * Get the total time the stage spent handling feeds, across all
+         * its threads.
+         *
+         * @return the total service time, in milliseconds
+         */
+        synchronized long getTotalServiceMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(totalServiceNanos);
+        }
+
+        /**
+         * Get the longest time the stage took to handle one feed.
+         *
+         * @return the maximum service time, in milliseconds
+         */
+        synchronized long getMaxServiceMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(maxServiceNanos);
+        }
+
+        /**
+         * Note that a feed has arrived at the stage.
+         *
+         * @param queueDepth the number of feeds already waiting
+         */
+        synchronized void feedQueued(int queueDepth)
+        {
+            totalQueued++;
+            totalQueueDepth += queueDepth;
+            if (queueDepth > maxQueueDepth)
+                maxQueueDepth = queueDepth;
+        }
+
+        /**
+         * Note that the stage has finished with a feed.
+         *
+         * @param nanos how long it took, in nanoseconds
+         */
+        synchronized void feedServiced(long nanos)
+        {
+            totalServiced++;
+            totalServiceNanos += nanos;
+            if (nanos > maxServiceNanos)
+                maxServiceNanos = nanos;
+        }
+
+        public synchronized String toString()
+        {
+            double avgDepth = (totalQueued == 0)
+                ? 0.0 : ((double) totalQueueDepth / totalQueued);
+            long avgNanos = (totalServiced == 0)
+                ? 0 : (totalServiceNanos / totalServiced);
+            return "stage=\"" + stage + "\", threads=" + totalThreads +
+                   ", queueSize=" + queueSize +
+                   ", feeds=" + totalServiced +
+                   ", avgQueueDepth=" + String.format("%.1f", avgDepth) +
+                   ", maxQueueDepth=" + maxQueueDepth +
+                   ", avgServiceMs=" +
+                   TimeUnit.NANOSECONDS.toMillis(avgNanos) +
+                   ", maxServiceMs=" +
+                   TimeUnit.NANOSECONDS.toMillis(maxServiceNanos);
+        }
+    }
+
+    /**
+     * A stage with its own pool of threads, fed by a bounded queue.
+     */
+    private abstract static class Stage
+    {
+        final StageStatistics         stats;
+        final BlockingQueue<Runnable> queue;
+        final ThreadPoolExecutor      executor;
+        final Stage                   next;
+
+        Stage(final String name, int totalThreads, int queueSize, Stage next)
+        {
+            final AtomicInteger nextThreadID = new AtomicInteger(0);
+
+            this.stats = new StageStatistics(name, totalThreads, queueSize);
+            this.queue = new ArrayBlockingQueue<Runnable>(queueSize);
+            this.next = next;
+            this.executor = new ThreadPoolExecutor
+                (totalThreads,
+                 totalThreads,
+                 0L,
+                 TimeUnit.MILLISECONDS,
+                 queue,
+                 new ThreadFactory()
+                 {
+                     public Thread newThread(Runnable r)
+                     {
+                         Thread thread =
+                             new Thread(r, "curn " + name + "-" +
+                                           nextThreadID.getAndIncrement());
+                         thread.setDaemon(true);
+                         return thread;
+                     }
+                 });
+
+            // The threads take their work straight from the queue, so
+            // they have to be running before anything is put on it.
+
+            executor.prestartAllCoreThreads();
+        }
+
+        /**
+         * Do this stage's work on a feed.
+         *
+         * @param job the feed
+         *
+         * @return <tt>true</tt> to hand the feed to the next stage,
+         *         <tt>false</tt> if it's done
+         */
+        abstract boolean handle(FeedDownloadThread.FeedJob job);
+
+        /**
+         * Queue a feed for the stage, waiting for room in the queue if
+         * it's full.
+         *
+         * @param job the feed
+         *
+         * @throws InterruptedException interrupted while waiting
+         */
+        void put(final FeedDownloadThread.FeedJob job)
+            throws InterruptedException
+        {
+            stats.feedQueued(queue.size());
+            queue.put(new Runnable()
+                      {
+                          public void run()
+                          {
+                              serviceFeed(job);
+                          }
+                      });
+        }
+
+        /**
+         * Wait for the stage to finish the work in its queue, then stop
+         * its threads.
+         *
+         * @throws InterruptedException interrupted while waiting
+         */
+        void finish()
+            throws InterruptedException
+        {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Handle a feed on one of the stage's threads, then pass it on.
+         * The service time doesn't include any wait for room in the next
+         * stage's queue.
+         *
+         * @param job the feed
+         */
+        private void serviceFeed(final FeedDownloadThread.FeedJob job)
+        {
+            boolean handOff = false;
+            long start = System.nanoTime();
+
+            try
+            {
+                handOff = handle(job);
+            }
+
+            catch (RuntimeException ex)
+            {
+                log.error("Unexpected error in the " + stats.getStageName() +
+                          " stage, for feed \"" +
+                          job.getFeedInfo().getURL() + "\".", ex);
+            }
+
+            finally
+            {
+                stats.feedServiced(System.nanoTime() - start);
+            }
+
+            if (handOff && (next != null))
+            {
+                try
+                {
+                    next.put(job);
+                }
+
+                catch (InterruptedException ex)
+                {
+                    log.error("Interrupted while handing feed \"" +
+                              job.getFeedInfo().getURL() + "\" to the " +
+                              next.stats.getStageName() + " stage.");
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final int totalParseThreads;
+    private final int totalProcessThreads;
+    private final int queueSize;
+    private final StageStatistics downloadStats;
+    private Stage parseStage = null;
+    private Stage processStage = null;
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(FeedPipeline.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new <tt>FeedPipeline</tt>. The parse and process stages
+     * don't start until {@link #start} is called.
+     *
+     * @param config           the configuration
+     * @param totalDownloaders the number of download workers
+     *
+     * @throws CurnException bad configuration value
+     */
+    FeedPipeline(CurnConfig config, int totalDownloaders)
+        throws CurnException
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        try
+        {
+            int n = config.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                    VAR_PARSE_THREADS,
+                                                    DEF_PARSE_THREADS);
+            totalParseThreads = (n == 0) ? processors : n;
+
+            n = config.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                VAR_PROCESS_THREADS,
+                                                DEF_PROCESS_THREADS);
+            totalProcessThreads = (n == 0) ? processors : n;
+
+            queueSize =
+                config.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                VAR_PIPELINE_QUEUE_SIZE,
+                                                DEF_PIPELINE_QUEUE_SIZE);
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        downloadStats = new StageStatistics("download", totalDownloaders, 0);
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Start the parse and process stages.
+     */
+    synchronized void start()
+    {
+        if (parseStage != null)
+            return;
+
+        log.debug("Starting pipeline: " + totalParseThreads +
+                  " parse threads, " + totalProcessThreads +
+                  " process threads, queue size " + queueSize +
+                  " (0 means twice the threads).");
+
+        processStage = new Stage("process",
+                                 totalProcessThreads,
+                                 queueSizeFor(totalProcessThreads),
+                                 null)
+        {
+            boolean handle(FeedDownloadThread.FeedJob job)
+            {
+                job.process();
+                return false;
+            }
+        };
+
+        parseStage = new Stage("parse",
+                               totalParseThreads,
+                               queueSizeFor(totalParseThreads),
+                               processStage)
+        {
+            boolean handle(FeedDownloadThread.FeedJob job)
+            {
+                return job.parse();
+            }
+        };
+    }
+
+    /**
+     * Get the statistics for the download stage, which the download
+     * workers keep themselves.
+     *
+     * @return the download stage's statistics
+     */
+    StageStatistics getDownloadStatistics()
+    {
+        return downloadStats;
+    }
+
+    /**
+     * Hand a downloaded feed to the parse stage. Called by the download
+     * workers; waits if the parse stage's queue is full. From here on,
+     * the pipeline owns the job. A feed that survives parsing goes on to
+     * the process stage.
+     *
+     * @param job the downloaded feed
+     *
+     * @throws InterruptedException interrupted while waiting. The job
+     *                              hasn't been queued, and still belongs
+     *                              to the caller.
+     */
+    void parse(FeedDownloadThread.FeedJob job)
+        throws InterruptedException
+    {
+        parseStage.put(job);
+    }
+
+    /**
+     * Wait for the parse and process stages to finish with every feed
+     * handed to them, then stop their threads. Call this once the download
+     * workers are done.
+     *
+     * @throws InterruptedException interrupted while waiting
+     */
+    synchronized void finish()
+        throws InterruptedException
+    {
+        if (parseStage == null)
+            return;
+
+        try
+        {
+            // Nothing can reach the process stage once the parse stage
+            // is done, so the order matters.
+
+            parseStage.finish();
+            processStage.finish();
+        }
+
+        finally
+        {
+            parseStage.executor.shutdownNow();
+            processStage.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the statistics for each stage, in pipeline order.
+     *
+     * @return the statistics
+     */
+    synchronized Collection<StageStatistics> getStageStatistics()
+    {
+        Collection<StageStatistics> result = new ArrayList<StageStatistics>();
+        result.add(downloadStats);
+        if (parseStage != null)
+        {
+            result.add(parseStage.stats);
+            result.add(processStage.stats);
+        }
+
+        return result;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the size of the queue for a stage.
+     *
+     * @param totalThreads the number of threads in the stage
+     *
+     * @return the queue size
+     */
+    private int queueSizeFor(int totalThreads)
+    {
+        return (queueSize == 0) ? (2 * totalThreads) : queueSize;
+    }
+}
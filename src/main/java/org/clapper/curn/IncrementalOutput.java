@@ -0,0 +1,323 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.clapper.curn.parser.RSSChannel;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>Hands finished channels to the {@link IncrementalOutputHandler
+ * incremental output handlers} while the remaining feeds are still being
+ * downloaded. Feeds finish in whatever order the downloads happen to
+ * complete, but the channels are released in configured feed order: a
+ * feed's channel goes out once that feed, and every feed before it, is
+ * finished. One slow feed holds back only the feeds configured after
+ * it.</p>
+ *
+ * <p>The channels are displayed by a single background thread, so the
+ * threads that report finished feeds never wait for output. Output
+ * handlers that aren't incremental are left alone; <i>curn</i> gives them
+ * all the channels at the end of the run, as usual.</p>
+ *
+ * @see IncrementalOutputHandler
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class IncrementalOutput
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final List<FeedInfo> feeds;
+    private final Collection<OutputHandler> handlers =
+        new ArrayList<OutputHandler>();
+    private final boolean allIncremental;
+    private final MetaPlugIn metaPlugIn = MetaPlugIn.getMetaPlugIn();
+    private ExecutorService executor = null;
+
+    /**
+     * Feeds that have finished, but can't be released until the feeds
+     * before them have finished, and the index (in <tt>feeds</tt>) of the
+     * next feed to be released. A feed with nothing to display maps to
+     * null. Only used by the output thread, until it has stopped.
+     */
+    private final Map<FeedInfo,RSSChannel> finished =
+        new HashMap<FeedInfo,RSSChannel>();
+    private int next = 0;
+
+    /**
+     * The number of channels displayed, and the first output error. Once
+     * there's been an error, nothing more is displayed.
+     */
+    private volatile int totalChannels = 0;
+    private volatile CurnException error = null;
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(IncrementalOutput.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new <tt>IncrementalOutput</tt>. Nothing is displayed
+     * until {@link #start} is called.
+     *
+     * @param feeds       the feeds, in configured order
+     * @param cfgHandlers all the configured output handlers
+     *
+     * @throws CurnException can't instantiate an output handler
+     */
+    IncrementalOutput(Collection<FeedInfo>                feeds,
+                      Collection<ConfiguredOutputHandler> cfgHandlers)
+        throws CurnException
+    {
+        this.feeds = new ArrayList<FeedInfo>(feeds);
+
+        for (ConfiguredOutputHandler cfgHandler : cfgHandlers)
+        {
+            OutputHandler handler = cfgHandler.getOutputHandler();
+            if (handler instanceof IncrementalOutputHandler)
+                handlers.add(handler);
+        }
+
+        allIncremental = (handlers.size() == cfgHandlers.size());
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether there's anything for this object to do; that is,
+     * whether any of the output handlers are incremental.
+     *
+     * @return <tt>true</tt> if there's at least one incremental output
+     *         handler
+     */
+    boolean isEnabled()
+    {
+        return (handlers.size() > 0);
+    }
+
+    /**
+     * Determine whether every output handler is incremental. If so, no
+     * one needs the channels once this object has displayed them.
+     *
+     * @return <tt>true</tt> if all the output handlers are incremental
+     */
+    boolean handlesAllOutput()
+    {
+        return isEnabled() && allIncremental;
+    }
+
+    /**
+     * Start the output thread.
+     */
+    synchronized void start()
+    {
+        if (executor != null)
+            return;
+
+        log.debug("Starting incremental output for " + handlers.size() +
+                  " output handler(s).");
+
+        executor = Executors.newSingleThreadExecutor
+            (new ThreadFactory()
+             {
+                 public Thread newThread(Runnable r)
+                 {
+                     Thread thread = new Thread(r, "curn incremental output");
+                     thread.setDaemon(true);
+                     return thread;
+                 }
+             });
+    }
+
+    /**
+     * Note that a feed has finished. Called (once per feed) by the threads
+     * that process the feeds; never waits for the output.
+     *
+     * @param feedInfo the feed
+     * @param channel  the channel to display, or null if the feed has
+     *                 nothing to display
+     */
+    void feedFinished(final FeedInfo feedInfo, final RSSChannel channel)
+    {
+        executor.execute(new Runnable()
+                         {
+                             public void run()
+                             {
+                                 release(feedInfo, channel);
+                             }
+                         });
+    }
+
+    /**
+     * Wait for the output thread to display everything it can, then
+     * display the channels for any feeds that are still being held back
+     * (by feeds that never reported in). Call this once all the feeds are
+     * finished.
+     *
+     * @throws CurnException an output handler failed
+     */
+    void finish()
+        throws CurnException
+    {
+        stop();
+
+        for (; next < feeds.size(); next++)
+        {
+            RSSChannel channel = finished.remove(feeds.get(next));
+            if (channel != null)
+                display(feeds.get(next), channel);
+        }
+
+        log.debug("Incremental output displayed " + totalChannels +
+                  " channel(s).");
+
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Stop the output thread, letting it finish what it has been given.
+     * Does nothing if the thread isn't running.
+     */
+    synchronized void stop()
+    {
+        if (executor == null)
+            return;
+
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+
+        catch (InterruptedException ex)
+        {
+            log.error("Interrupted while waiting for incremental output.", ex);
+            Thread.currentThread().interrupt();
+        }
+
+        executor = null;
+    }
+
+    /**
+     * Get the number of channels that have been displayed.
+     *
+     * @return the number of channels
+     */
+    int getTotalChannels()
+    {
+        return totalChannels;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Record a finished feed, and display every channel that can now be
+     * released. Runs on the output thread.
+     *
+     * @param feedInfo the feed
+     * @param channel  its channel, or null
+     */
+    private void release(final FeedInfo feedInfo, final RSSChannel channel)
+    {
+        finished.put(feedInfo, channel);
+
+        while ((next < feeds.size()) && finished.containsKey(feeds.get(next)))
+        {
+            FeedInfo fi = feeds.get(next++);
+            RSSChannel ch = finished.remove(fi);
+            if (ch != null)
+                display(fi, ch);
+        }
+    }
+
+    /**
+     * Display one channel with each incremental output handler, exactly as
+     * <i>curn</i> does for the others at the end of the run.
+     *
+     * @param feedInfo the feed
+     * @param channel  its channel
+     */
+    private void display(final FeedInfo feedInfo, final RSSChannel channel)
+    {
+        if (error != null)
+            return;
+
+        try
+        {
+            for (OutputHandler handler : handlers)
+            {
+                // Use a copy of the channel, so the plug-ins and the output
+                // handler can modify its content freely.
+
+                RSSChannel copy = channel.makeCopy();
+                metaPlugIn.runPreFeedOutputPlugIn(feedInfo, copy, handler);
+                handler.displayChannel(copy, feedInfo);
+                metaPlugIn.runPostFeedOutputPlugIn(feedInfo, handler);
+            }
+
+            totalChannels++;
+        }
+
+        catch (CurnException ex)
+        {
+            log.error("Incremental output failed for feed \"" +
+                      feedInfo.getURL() + "\".", ex);
+            error = ex;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+/**
+ * <p>Marker interface for output handlers that can be given each channel
+ * as soon as it's ready, rather than after every feed has been
+ * downloaded. <i>curn</i> hands a feed's channel to such a handler once
+ * that feed, and every feed configured before it, is finished, while the
+ * remaining feeds are still being downloaded.</p>
+ *
+ * <p>Everything else about the calls stays the same.
+ * {@link #displayChannel displayChannel()} is still called in configured
+ * feed order, one channel at a time, with the same plug-in calls around
+ * it, and {@link #flush} is still called once, after the last channel.
+ * However, <tt>displayChannel()</tt> is called on a thread of its own, not
+ * the thread that called {@link #init init()} and will call
+ * <tt>flush()</tt>.</p>
+ *
+ * <p>An output handler that has to see every channel before it can write
+ * anything (for instance, to build a table of contents) should either
+ * buffer the channels until <tt>flush()</tt> or not implement this
+ * interface.</p>
+ *
+ * @see OutputHandler
+ * @see Curn
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface IncrementalOutputHandler extends OutputHandler
+{
+}
@@ -0,0 +1,296 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintWriter;
+
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.clapper.curn.parser.RSSChannel;
+import org.clapper.curn.parser.RSSItem;
+import org.clapper.curn.parser.stax.StAXRSSParser;
+
+/**
+ * A rough micro-benchmark of the per-item cache work that's done for each
+ * item of a downloaded feed: normalize the item's URL, see whether it's
+ * in the cache, add it if it isn't, and look it up again later, as a
+ * plug-in (e.g., <tt>RetainArticlesPlugIn</tt>) would. It times that
+ * sequence two ways:
+ *
+ * <ul>
+ *   <li><b>URL</b>: with the {@link FeedCache} methods that take a
+ *       <tt>URL</tt>, each of which normalizes the URL and builds a new
+ *       lookup key
+ *   <li><b>key</b>: with the item's {@link ItemKey} (see
+ *       {@link FeedCache#getItemKey}), which is computed once per item
+ * </ul>
+ *
+ * The items come from a generated RSS feed, parsed with the StAX parser.
+ * Half of them are in the cache before each round. The first half of the
+ * rounds are for warming up, and aren't counted in the totals. Usage:
+ *
+ * <pre>
+ * java org.clapper.curn.ItemKeyBenchmark [items [rounds]]
+ * </pre>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class ItemKeyBenchmark
+{
+    private static final String FEED_URL = "http://feeds.example.com/rss";
+
+    private ItemKeyBenchmark()
+    {
+        // Nothing to do
+    }
+
+    public static void main(String args[])
+    {
+        try
+        {
+            runBenchmark(args);
+        }
+
+        catch (Exception ex)
+        {
+            ex.printStackTrace();   // NOPMD
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+
+    private static void runBenchmark(String args[])
+        throws Exception
+    {
+        int totalItems = (args.length > 0) ? Integer.parseInt(args[0])
+                                           : 20000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+        String configText = "[" + CurnConfig.MAIN_SECTION + "]\n" +
+                            "[Feed1]\n" +
+                            CurnConfig.VAR_FEED_URL + ": " + FEED_URL + "\n";
+        CurnConfig config = new CurnConfig(new PrintWriter(System.err, true));
+        config.load(new ByteArrayInputStream(configText.getBytes("UTF-8")),
+                    "UTF-8");
+        FeedInfo feedInfo = config.getFeeds().iterator().next();
+
+        byte[] feed = makeFeed(totalItems);
+        long urlTotal = 0;
+        long keyTotal = 0;
+
+        int warmUpRounds = rounds / 2;
+        for (int round = 0; round < rounds; round++)
+        {
+            long urlElapsed = timeURLPath(config, feedInfo,
+                                          parseItems(feed));
+            long keyElapsed = timeKeyPath(config, feedInfo,
+                                          parseItems(feed));
+
+            System.out.println("Round " + (round + 1) + ": URL " +
+                               (urlElapsed / totalItems) + " ns/item, key " +
+                               (keyElapsed / totalItems) + " ns/item");
+
+            if (round >= warmUpRounds)
+            {
+                urlTotal += urlElapsed;
+                keyTotal += keyElapsed;
+            }
+        }
+
+        long total = (long) totalItems * (rounds - warmUpRounds);
+        System.out.println(total + " items: URL " + (urlTotal / total) +
+                           " ns/item, key " + (keyTotal / total) +
+                           " ns/item");
+    }
+
+    /**
+     * Time the per-item sequence using URLs.
+     *
+     * @param config   the configuration
+     * @param feedInfo the feed the items belong to
+     * @param items    freshly parsed items
+     *
+     * @return the elapsed time, in nanoseconds
+     *
+     * @throws CurnException on error
+     */
+    private static long timeURLPath(CurnConfig    config,
+                                    FeedInfo      feedInfo,
+                                    List<RSSItem> items)
+        throws CurnException
+    {
+        FeedCache cache = newCache(config, feedInfo, items);
+        int found = 0;
+
+        System.gc();
+        long start = System.nanoTime();
+
+        for (RSSItem item : items)
+        {
+            URL url = CurnUtil.normalizeURL(item.getURL().getURL());
+            if (cache.getEntryByURL(url) == null)
+                cache.addToCache(url, item.getPublicationDate(), feedInfo);
+
+            if (cache.getEntryByURL(url) != null)
+                found++;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        assert(found == items.size());
+        cache.close();
+        return elapsed;
+    }
+
+    /**
+     * Time the per-item sequence using each item's cache key.
+     *
+     * @param config   the configuration
+     * @param feedInfo the feed the items belong to
+     * @param items    freshly parsed items
+     *
+     * @return the elapsed time, in nanoseconds
+     *
+     * @throws CurnException on error
+     */
+    private static long timeKeyPath(CurnConfig    config,
+                                    FeedInfo      feedInfo,
+                                    List<RSSItem> items)
+        throws CurnException
+    {
+        FeedCache cache = newCache(config, feedInfo, items);
+        int found = 0;
+
+        System.gc();
+        long start = System.nanoTime();
+
+        for (RSSItem item : items)
+        {
+            ItemKey key = FeedCache.getItemKey(item);
+            if (cache.getEntryByKey(key) == null)
+                cache.addToCache(key, item.getPublicationDate(), feedInfo);
+
+            if (cache.getEntryForItem(item) != null)
+                found++;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        assert(found == items.size());
+        cache.close();
+        return elapsed;
+    }
+
+    /**
+     * Create a cache containing every other item.
+     *
+     * @param config   the configuration
+     * @param feedInfo the feed the items belong to
+     * @param items    the items
+     *
+     * @return the cache
+     *
+     * @throws CurnException on error
+     */
+    private static FeedCache newCache(CurnConfig    config,
+                                      FeedInfo      feedInfo,
+                                      List<RSSItem> items)
+        throws CurnException
+    {
+        FeedCache cache = new FeedCache(config, null);
+        cache.optimizeAfterLoad();
+
+        Date now = new Date();
+        for (int i = 0; i < items.size(); i += 2)
+        {
+            cache.addToCache(items.get(i).getURL().getURL(), now, feedInfo);
+        }
+
+        return cache;
+    }
+
+    private static List<RSSItem> parseItems(byte[] feed)
+        throws Exception
+    {
+        RSSChannel channel = new StAXRSSParser().parseRSSFeed
+            (new URL(FEED_URL), new ByteArrayInputStream(feed), "UTF-8");
+        Collection<RSSItem> items = channel.getItems();
+        return new ArrayList<RSSItem>(items);
+    }
+
+    /**
+     * Generate an RSS 2.0 feed. Some of the item links have upper-case
+     * host names, so that normalizing them does some work.
+     *
+     * @param totalItems the number of items
+     *
+     * @return the feed, encoded in UTF-8
+     *
+     * @throws Exception on error
+     */
+    private static byte[] makeFeed(int totalItems)
+        throws Exception
+    {
+        StringBuilder buf = new StringBuilder();
+
+        buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        buf.append("<rss version=\"2.0\"><channel>\n");
+        buf.append("<title>Benchmark</title>\n");
+        buf.append("<link>" + FEED_URL + "</link>\n");
+        buf.append("<description>Benchmark</description>\n");
+
+        for (int i = 0; i < totalItems; i++)
+        {
+            String host = ((i % 10) == 0) ? "WWW.Example" : "www.example";
+            buf.append("<item><title>Item " + i + "</title>");
+            buf.append("<link>http://" + host + (i % 50) +
+                       ".com/news/2012/10/article-" + i +
+                       ".html?ref=rss</link>");
+            buf.append("<pubDate>Wed, 17 Oct 2012 12:00:00 GMT</pubDate>");
+            buf.append("</item>\n");
+        }
+
+        buf.append("</channel></rss>\n");
+        return buf.toString().getBytes("UTF-8");
+    }
+}
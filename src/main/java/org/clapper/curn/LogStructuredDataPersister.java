@@ -0,0 +1,1487 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>A {@link DataPersister} that keeps the <i>curn</i> data in an
+ * append-only, log-structured form. Instead of rewriting the whole cache
+ * on every run, a save appends only the cache entries and metadata that
+ * have changed since they were loaded (or last saved), plus a "deleted"
+ * record for each entry that has left the cache (e.g., because it
+ * expired). The amount of data written by a save depends on how much has
+ * changed, not on the size of the cache.</p>
+ *
+ * <p>The data lives in up to three files, all in the same format:</p>
+ *
+ * <ul>
+ *   <li>the configured <tt>CacheFile</tt>: a snapshot of the live records
+ *   <li><i>CacheFile</i><tt>.log</tt>: the log segment that saves append to
+ *   <li><i>CacheFile</i><tt>.log.1</tt>: a log segment that's being folded
+ *       into the snapshot by a compaction
+ * </ul>
+ *
+ * <p>On load, the snapshot is read, and the log segments are replayed
+ * over it; the last record for a given key wins. A torn record at the end
+ * of the active log (e.g., from a crash during a save) is discarded. Once
+ * the number of dead records (superseded or deleted) in the files exceeds
+ * a configurable percentage of all records, a save rotates the active log
+ * and starts a background thread that writes a new snapshot containing
+ * only the live records. Replaying a segment over a snapshot that already
+ * includes it is harmless, so a crash at any point during compaction
+ * leaves a loadable cache.</p>
+ *
+ * <p>If the configured cache file is an XML or binary cache (see
+ * {@link XMLDataPersister} and {@link BinaryDataPersister}), it's read as
+ * the snapshot, and the first save compacts it into this format.</p>
+ *
+ * <p>Each file starts with an eight-byte header. Each record is framed as
+ * a four-byte length, a four-byte CRC-32 of the record, and the record
+ * itself: a type byte, followed by the record's fields, written with
+ * <tt>DataOutputStream</tt>.</p>
+ *
+ * @see DataPersisterFactory
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class LogStructuredDataPersister extends DataPersister
+{
+    /*----------------------------------------------------------------------*\
+                               Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int DEF_COMPACTION_THRESHOLD = 50;
+
+    private static final String VAR_CACHE_FILE = "CacheFile";
+    private static final String VAR_COMPACTION_THRESHOLD =
+        "CacheCompactionThreshold";
+
+    /**
+     * Don't bother compacting until there are at least this many dead
+     * records.
+     */
+    private static final int MIN_DEAD_RECORDS = 1000;
+
+    /**
+     * Sanity limit on the size of a single record.
+     */
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * File header
+     */
+    private static final byte[] MAGIC =
+        new byte[] {'C', 'U', 'R', 'N', 'L', 'O', 'G', '1'};
+
+    /**
+     * Record types.
+     */
+    private static final int REC_ENTRY  = 1;
+    private static final int REC_EXTRA  = 2;
+    private static final int REC_DELETE = 3;
+
+    /**
+     * File name suffixes
+     */
+    private static final String LOG_SUFFIX        = ".log";
+    private static final String COMPACTING_SUFFIX = ".log.1";
+    private static final String TEMP_SUFFIX       = ".tmp";
+    private static final String OLD_SUFFIX        = ".old";
+
+    /**
+     * Fingerprint that never matches a real one. Used to force a record
+     * to be rewritten.
+     */
+    private static final long UNKNOWN_FINGERPRINT = 0;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /*----------------------------------------------------------------------*\
+                                 Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Reusable buffer for encoding a record.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream
+    {
+        private final DataOutputStream out = new DataOutputStream(this);
+        private final CRC32 crc = new CRC32();
+
+        RecordBuffer()
+        {
+            super(256);
+        }
+
+        DataOutputStream getDataOutput()
+        {
+            return out;
+        }
+
+        /**
+         * Compute a 64-bit (FNV-1a) fingerprint of the encoded record.
+         *
+         * @return the fingerprint
+         */
+        long fingerprint()
+        {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < count; i++)
+            {
+                hash ^= (buf[i] & 0xff);
+                hash *= 0x100000001b3L;
+            }
+
+            return (hash == UNKNOWN_FINGERPRINT) ? 1 : hash;
+        }
+
+        /**
+         * Write the encoded record, with its framing, to a file.
+         *
+         * @param fileOut  where to write it
+         *
+         * @throws IOException on error
+         */
+        void writeFrame(DataOutputStream fileOut)
+            throws IOException
+        {
+            crc.reset();
+            crc.update(buf, 0, count);
+            fileOut.writeInt(count);
+            fileOut.writeInt((int) crc.getValue());
+            fileOut.write(buf, 0, count);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                             Private Instance Data
+    \*----------------------------------------------------------------------*/
+
+    private int compactionThreshold = DEF_COMPACTION_THRESHOLD;
+    private File snapshotFile = null;
+    private File logFile = null;
+    private File compactingLogFile = null;
+
+    /**
+     * The fingerprint of the last persisted version of each cache entry
+     * and extra metadata namespace. Entries are compared by identity,
+     * since the FeedCache hands back the same FeedCacheEntry objects that
+     * were loaded.
+     */
+    private Map<FeedCacheEntry,Long> persistedEntries =
+        new IdentityHashMap<FeedCacheEntry,Long>();
+    private Map<String,Long> persistedExtras = new HashMap<String,Long>();
+
+    /**
+     * Keys of unreadable records found during the load. They're deleted
+     * at the next save.
+     */
+    private List<String> badRecordKeys = new ArrayList<String>();
+
+    /**
+     * Total number of records (live and dead) in the files. Saves add to
+     * it; a finished compaction replaces the records it read with the
+     * (fewer) records it wrote, while saves may still be appending.
+     */
+    private final AtomicInteger totalRecords = new AtomicInteger(0);
+
+    /**
+     * Whether the snapshot is in another persister's format.
+     */
+    private volatile boolean foreignSnapshot = false;
+
+    /**
+     * Log output and state, used while saving.
+     */
+    private FileOutputStream logFileOut = null;
+    private DataOutputStream logOut = null;
+    private RecordBuffer recordBuf = null;
+    private Map<FeedCacheEntry,Long> savedEntries = null;
+    private Map<String,Long> savedExtras = null;
+    private Set<String> writtenKeys = null;
+    private int appendedRecords = 0;
+
+    /**
+     * The background compaction thread, if one has been started.
+     */
+    private Thread compactionThread = null;
+
+    /**
+     * For logging
+     */
+    private static final Logger log =
+        new Logger(LogStructuredDataPersister.class);
+
+    /*----------------------------------------------------------------------*\
+                                   Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Creates a new instance of LogStructuredDataPersister
+     */
+    public LogStructuredDataPersister()
+    {
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Called when the <tt>DataPersister</tt> is first instantiated. Useful
+     * for retrieving configuration values, etc.
+     *
+     * @param curnConfig  the configuration
+     * @throws CurnException on error
+     */
+    public void init(CurnConfig curnConfig) throws CurnException
+    {
+        try
+        {
+            String cacheFileName =
+                curnConfig.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                                  VAR_CACHE_FILE,
+                                                  null);
+            if (cacheFileName == null)
+            {
+                log.debug("Feed metadata (cache) file is not configured.");
+            }
+
+            else
+            {
+                setFiles(CurnUtil.mapConfiguredPathName(cacheFileName));
+                log.debug("Feed metadata (cache) file is " + snapshotFile);
+                if (snapshotFile.isDirectory())
+                {
+                    throw new CurnException
+                        (Constants.BUNDLE_NAME,
+                         "LogStructuredDataPersister.cacheIsDir",
+                         "Configured cache file \"{0}\" is a directory.",
+                         new Object[] {snapshotFile.getPath()});
+                }
+            }
+
+            compactionThreshold =
+                curnConfig.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                    VAR_COMPACTION_THRESHOLD,
+                                                    DEF_COMPACTION_THRESHOLD);
+            if (compactionThreshold > 100)
+            {
+                throw new CurnException
+                    (Constants.BUNDLE_NAME,
+                     "LogStructuredDataPersister.badThreshold",
+                     "Value of \"{0}\" configuration item must be between " +
+                     "0 and 100, not {1}.",
+                     new Object[]
+                     {
+                         VAR_COMPACTION_THRESHOLD,
+                         String.valueOf(compactionThreshold)
+                     });
+            }
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                               Protected Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether the data persister subclass is enabled or not (i.e.,
+     * whether or not metadata is to be loaded and saved). The configuration
+     * usually determines whether or not the data persister is enabled.
+     *
+     * @return <tt>true</tt> if enabled, <tt>false</tt> if disabled.
+     */
+    protected boolean isEnabled()
+    {
+        return snapshotFile != null;
+    }
+
+    /**
+     * Called at the beginning of the load operation to initialize
+     * the load. Waits for any compaction that's still running.
+     *
+     * @throws CurnException on error
+     */
+    protected void startLoadOperation()
+        throws CurnException
+    {
+        assert(isEnabled());
+        log.debug("Starting load of log-structured curn data.");
+        waitForCompaction();
+    }
+
+    /**
+     * Called at the end of the load operation to close files, clean
+     * up, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void endLoadOperation()
+        throws CurnException
+    {
+        log.debug("Load of log-structured curn data complete.");
+    }
+
+    /**
+     * The actual load method; only called if the object is enabled.
+     *
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected void doLoad(LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+        Map<String,byte[]> records = new LinkedHashMap<String,byte[]>();
+
+        persistedEntries = new IdentityHashMap<FeedCacheEntry,Long>();
+        persistedExtras = new HashMap<String,Long>();
+        badRecordKeys = new ArrayList<String>();
+        int total = 0;
+        foreignSnapshot = false;
+
+        try
+        {
+            recoverSnapshot();
+
+            if (! snapshotFile.exists())
+            {
+                log.warn("Feed metadata file \"" + snapshotFile.getPath() +
+                         "\" does not exist.");
+            }
+
+            else if (isNativeFile(snapshotFile))
+            {
+                total += readRecords(snapshotFile, records, false);
+            }
+
+            else
+            {
+                log.info("\"" + snapshotFile.getPath() + "\" is not a " +
+                         "log-structured cache file. Importing it.");
+                foreignSnapshot = true;
+                total += importSnapshot(snapshotFile, records);
+            }
+
+            if (compactingLogFile.exists())
+                total += readRecords(compactingLogFile, records, false);
+
+            if (logFile.exists())
+                total += readRecords(logFile, records, true);
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException("Failed to read log-structured cache \"" +
+                                    snapshotFile.getPath() + "\"",
+                                    ex);
+        }
+
+        totalRecords.set(total);
+        log.debug("Read " + total + " record(s), " + records.size() +
+                  " live.");
+        dispatchRecords(records, loadedDataHandler);
+    }
+
+    /**
+     * Called at the beginning of the actual save operation to initialize
+     * the save, etc. Opens the log for appending.
+     *
+     * @throws CurnException on error
+     */
+    protected void startSaveOperation() throws CurnException
+    {
+        assert(isEnabled());
+
+        log.debug("Appending changed feed metadata to \"" +
+                  logFile.getPath() + "\"");
+
+        savedEntries =
+            new IdentityHashMap<FeedCacheEntry,Long>(persistedEntries.size());
+        savedExtras = new HashMap<String,Long>();
+        writtenKeys = new HashSet<String>();
+        recordBuf = new RecordBuffer();
+        appendedRecords = 0;
+
+        try
+        {
+            boolean newFile = (! logFile.exists()) || (logFile.length() == 0);
+            logFileOut = new FileOutputStream(logFile, true);
+            logOut = new DataOutputStream
+                (new BufferedOutputStream(logFileOut, BUFFER_SIZE));
+            if (newFile)
+                logOut.write(MAGIC);
+        }
+
+        catch (IOException ex)
+        {
+            abortSave();
+            throw saveError(ex);
+        }
+    }
+
+    /**
+     * Save the data for one feed, including the items. Only the entries
+     * that have changed since they were last persisted are written.
+     *
+     * @param feedData  the feed data to be saved
+     *
+     * @throws CurnException on error
+     */
+    protected void saveFeedData(PersistentFeedData feedData)
+        throws CurnException
+    {
+        FeedCacheEntry feedCacheData = feedData.getFeedCacheEntry();
+
+        if (feedCacheData == null)
+            return;
+
+        try
+        {
+            saveEntry(feedCacheData, feedData.getFeedMetadata());
+
+            for (PersistentFeedItemData itemData :
+                     feedData.getPersistentFeedItems())
+            {
+                saveEntry(itemData.getFeedCacheEntry(),
+                          itemData.getItemMetadata());
+            }
+        }
+
+        catch (IOException ex)
+        {
+            abortSave();
+            throw saveError(ex);
+        }
+    }
+
+    /**
+     * Save any extra metadata (i.e., metadata that isn't attached to a
+     * specific feed or a specific item).
+     *
+     * @param metadata the collection of metadata items
+     *
+     * @throws CurnException on error
+     */
+    protected void
+    saveExtraMetadata(Collection<PersistentMetadataGroup> metadata)
+        throws CurnException
+    {
+        try
+        {
+            for (PersistentMetadataGroup metadataGroup : metadata)
+            {
+                String namespace = metadataGroup.getNamespace();
+
+                recordBuf.reset();
+                encodeExtra(recordBuf.getDataOutput(), metadataGroup);
+                long fingerprint = recordBuf.fingerprint();
+                Long old = persistedExtras.remove(namespace);
+                if ((old == null) || (old.longValue() != fingerprint))
+                    appendRecord(recordKey(REC_EXTRA, namespace));
+
+                savedExtras.put(namespace, fingerprint);
+            }
+        }
+
+        catch (IOException ex)
+        {
+            abortSave();
+            throw saveError(ex);
+        }
+    }
+
+    /**
+     * Called at the end of the actual save operation to flush files, clean
+     * up, etc. Writes "deleted" records for everything that was persisted
+     * but wasn't saved this time, and starts a compaction if enough of the
+     * records are dead.
+     *
+     * @throws CurnException on error
+     */
+    protected void endSaveOperation() throws CurnException
+    {
+        int totalDeleted = 0;
+
+        try
+        {
+            for (FeedCacheEntry entry : persistedEntries.keySet())
+            {
+                String key = recordKey(REC_ENTRY,
+                                       entry.getEntryURL().toString());
+
+                // If the entry was replaced by a new one with the same
+                // key, the new one has already been written.
+
+                if (! writtenKeys.contains(key))
+                {
+                    appendDelete(REC_ENTRY, entry.getEntryURL().toString());
+                    totalDeleted++;
+                }
+            }
+
+            for (String namespace : persistedExtras.keySet())
+            {
+                appendDelete(REC_EXTRA, namespace);
+                totalDeleted++;
+            }
+
+            for (String key : badRecordKeys)
+            {
+                if (! writtenKeys.contains(key))
+                {
+                    appendDelete(Integer.parseInt(key.substring(0, 1)),
+                                 key.substring(1));
+                    totalDeleted++;
+                }
+            }
+
+            logOut.flush();
+            logFileOut.getFD().sync();
+            logOut.close();
+            logOut = null;
+            logFileOut = null;
+        }
+
+        catch (IOException ex)
+        {
+            abortSave();
+            throw saveError(ex);
+        }
+
+        persistedEntries = savedEntries;
+        persistedExtras = savedExtras;
+        badRecordKeys = new ArrayList<String>();
+        savedEntries = null;
+        savedExtras = null;
+        writtenKeys = null;
+        recordBuf = null;
+
+        int total = totalRecords.addAndGet(appendedRecords);
+        int live = persistedEntries.size() + persistedExtras.size();
+        int dead = total - live;
+
+        log.info("Appended " + appendedRecords + " record(s) (" +
+                 totalDeleted + " deleted) to \"" + logFile.getPath() +
+                 "\". Cache has " + live + " live and " + dead +
+                 " dead record(s).");
+
+        if (foreignSnapshot ||
+            ((dead >= MIN_DEAD_RECORDS) &&
+             ((dead * 100L) >= ((long) compactionThreshold * total))))
+        {
+            startCompaction();
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private void setFiles(File cacheFile)
+    {
+        snapshotFile = cacheFile;
+        logFile = new File(cacheFile.getPath() + LOG_SUFFIX);
+        compactingLogFile = new File(cacheFile.getPath() + COMPACTING_SUFFIX);
+    }
+
+    /**
+     * Save one cache entry, if it has changed since it was last persisted.
+     *
+     * @param entry     the entry
+     * @param metadata  its metadata
+     *
+     * @throws IOException on error
+     */
+    private void saveEntry(FeedCacheEntry                      entry,
+                           Collection<PersistentMetadataGroup> metadata)
+        throws IOException
+    {
+        recordBuf.reset();
+        encodeEntry(recordBuf.getDataOutput(), entry, metadata);
+        long fingerprint = recordBuf.fingerprint();
+        Long old = persistedEntries.remove(entry);
+        if ((old == null) || (old.longValue() != fingerprint))
+            appendRecord(recordKey(REC_ENTRY, entry.getEntryURL().toString()));
+
+        savedEntries.put(entry, fingerprint);
+    }
+
+    /**
+     * Append the record in the record buffer to the log.
+     *
+     * @param key  the record's key
+     *
+     * @throws IOException on error
+     */
+    private void appendRecord(String key)
+        throws IOException
+    {
+        recordBuf.writeFrame(logOut);
+        writtenKeys.add(key);
+        appendedRecords++;
+    }
+
+    /**
+     * Append a "deleted" record to the log.
+     *
+     * @param type  the type of the deleted record
+     * @param id    the deleted record's ID (URL or namespace)
+     *
+     * @throws IOException on error
+     */
+    private void appendDelete(int type, String id)
+        throws IOException
+    {
+        recordBuf.reset();
+        DataOutputStream out = recordBuf.getDataOutput();
+        out.writeByte(REC_DELETE);
+        out.writeByte(type);
+        out.writeUTF(id);
+        recordBuf.writeFrame(logOut);
+        appendedRecords++;
+    }
+
+    /**
+     * Clean up after a failed save. Everything that was saved, or was
+     * about to be, is marked so that it's written again at the next save.
+     */
+    private void abortSave()
+    {
+        if (logOut != null)
+        {
+            try
+            {
+                logOut.close();
+            }
+
+            catch (IOException ex)
+            {
+                log.error("Failed to close \"" + logFile.getPath() + "\"", ex);
+            }
+        }
+
+        logOut = null;
+        logFileOut = null;
+
+        if (savedEntries != null)
+        {
+            for (FeedCacheEntry entry : savedEntries.keySet())
+                persistedEntries.put(entry, UNKNOWN_FINGERPRINT);
+
+            for (String namespace : savedExtras.keySet())
+                persistedExtras.put(namespace, UNKNOWN_FINGERPRINT);
+        }
+
+        totalRecords.addAndGet(appendedRecords);
+        savedEntries = null;
+        savedExtras = null;
+        writtenKeys = null;
+    }
+
+    private CurnException saveError(IOException ex)
+    {
+        return new CurnException("Failed to write log-structured cache \"" +
+                                 logFile.getPath() + "\"",
+                                 ex);
+    }
+
+    /**
+     * Convert the live records into feed data and extra metadata, and hand
+     * them to the handler. Also records the fingerprint of each loaded
+     * entry.
+     *
+     * @param records           the live records, by key
+     * @param loadedDataHandler the callback to invoke with loaded data
+     *
+     * @throws CurnException on error
+     */
+    private void dispatchRecords(Map<String,byte[]> records,
+                                 LoadedDataHandler  loadedDataHandler)
+        throws CurnException
+    {
+        Map<String,PersistentFeedData> feeds =
+            new LinkedHashMap<String,PersistentFeedData>();
+        Map<String,URL> channelURLs = new HashMap<String,URL>();
+        Collection<PersistentMetadataGroup> extraMetadata =
+            new ArrayList<PersistentMetadataGroup>();
+        RecordBuffer fingerprintBuf = new RecordBuffer();
+
+        for (Map.Entry<String,byte[]> record : records.entrySet())
+        {
+            String key = record.getKey();
+            byte[] payload = record.getValue();
+            fingerprintBuf.reset();
+            fingerprintBuf.write(payload, 0, payload.length);
+            long fingerprint = fingerprintBuf.fingerprint();
+
+            try
+            {
+                DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(payload));
+                int type = in.readUnsignedByte();
+
+                if (type == REC_EXTRA)
+                {
+                    PersistentMetadataGroup metadataGroup =
+                        new PersistentMetadataGroup(in.readUTF());
+                    readMetadataPairs(in, metadataGroup);
+                    extraMetadata.add(metadataGroup);
+                    persistedExtras.put(metadataGroup.getNamespace(),
+                                        fingerprint);
+                }
+
+                else
+                {
+                    String sEntryURL = in.readUTF();
+                    String sChannelURL = in.readUTF();
+                    long timestamp = in.readLong();
+                    long pubTime = in.readLong();
+                    Collection<PersistentMetadataGroup> metadata =
+                        readMetadata(in);
+
+                    // All entries for a channel share one URL object.
+
+                    URL channelURL = channelURLs.get(sChannelURL);
+                    if (channelURL == null)
+                    {
+                        channelURL = new URL(sChannelURL);
+                        channelURLs.put(sChannelURL, channelURL);
+                    }
+
+                    boolean isChannel = sEntryURL.equals(sChannelURL);
+                    URL entryURL = isChannel ? channelURL : new URL(sEntryURL);
+                    FeedCacheEntry entry =
+                        new FeedCacheEntry(channelURL,
+                                           entryURL,
+                                           (pubTime > 0) ? new Date(pubTime)
+                                                         : null,
+                                           timestamp);
+                    persistedEntries.put(entry, fingerprint);
+
+                    PersistentFeedData feedData = feeds.get(sChannelURL);
+                    if (feedData == null)
+                    {
+                        feedData = new PersistentFeedData();
+                        feeds.put(sChannelURL, feedData);
+                    }
+
+                    if (isChannel)
+                    {
+                        feedData.setFeedCacheEntry(entry);
+                        feedData.addFeedMetadata(metadata);
+                    }
+
+                    else
+                    {
+                        PersistentFeedItemData itemData =
+                            new PersistentFeedItemData(entry);
+                        itemData.addItemMetadata(metadata);
+                        feedData.addPersistentFeedItem(itemData);
+                    }
+                }
+            }
+
+            catch (IOException ex)
+            {
+                // Includes MalformedURLException
+
+                log.error("Skipping unreadable record \"" + key + "\" in " +
+                          "log-structured cache \"" +
+                          snapshotFile.getPath() + "\"",
+                          ex);
+                badRecordKeys.add(key);
+            }
+        }
+
+        records.clear();
+
+        for (PersistentFeedData feedData : feeds.values())
+        {
+            // Items whose channel entry is gone are skipped. Since they're
+            // not loaded, they'll be deleted at the next save.
+
+            if (feedData.getFeedCacheEntry() != null)
+                loadedDataHandler.feedLoaded(feedData);
+        }
+
+        for (PersistentMetadataGroup metadataGroup : extraMetadata)
+            loadedDataHandler.extraMetadataLoaded(metadataGroup);
+    }
+
+    /**
+     * Start compacting the snapshot and the log in the background. The
+     * active log is renamed, so that saves can continue to append to a
+     * new one while the compaction runs.
+     */
+    private void startCompaction()
+    {
+        if ((compactionThread != null) && compactionThread.isAlive())
+        {
+            log.debug("Cache compaction is already running.");
+        }
+
+        else if ((! compactingLogFile.exists()) &&
+                 (! logFile.renameTo(compactingLogFile)))
+        {
+            log.error("Can't rename \"" + logFile.getPath() + "\" to \"" +
+                      compactingLogFile.getPath() + "\". Skipping cache " +
+                      "compaction.");
+        }
+
+        else
+        {
+            // If an earlier compaction didn't finish, its log segment is
+            // still there. It's compacted now; the active log will be
+            // compacted next time.
+
+            log.info("Compacting cache \"" + snapshotFile.getPath() +
+                     "\" in the background.");
+
+            // Not a daemon thread: if curn is about to exit, the JVM waits
+            // for the compaction to finish.
+
+            compactionThread = new Thread("curn cache compaction")
+            {
+                public void run()
+                {
+                    compact();
+                }
+            };
+            compactionThread.start();
+        }
+    }
+
+    private void waitForCompaction()
+    {
+        if (compactionThread != null)
+        {
+            try
+            {
+                compactionThread.join();
+            }
+
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            compactionThread = null;
+        }
+    }
+
+    /**
+     * If a compaction was interrupted after it moved the old snapshot
+     * aside, but before it moved the new one into place, put the old one
+     * back. The log segment that was being compacted is still there, so
+     * nothing is lost; it's replayed over the old snapshot.
+     */
+    private void recoverSnapshot()
+    {
+        File oldFile = new File(snapshotFile.getPath() + OLD_SUFFIX);
+
+        if (oldFile.exists())
+        {
+            if (snapshotFile.exists())
+            {
+                oldFile.delete();
+            }
+
+            else
+            {
+                log.warn("Restoring feed metadata file \"" +
+                         snapshotFile.getPath() + "\" from \"" +
+                         oldFile.getPath() + "\".");
+                if (! oldFile.renameTo(snapshotFile))
+                {
+                    log.error("Can't rename \"" + oldFile.getPath() +
+                              "\" to \"" + snapshotFile.getPath() + "\"");
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a new snapshot containing the live records from the current
+     * snapshot and the log segment being compacted. Runs in the
+     * compaction thread.
+     */
+    private void compact()
+    {
+        long start = System.currentTimeMillis();
+        File tempFile = new File(snapshotFile.getPath() + TEMP_SUFFIX);
+        File oldFile = new File(snapshotFile.getPath() + OLD_SUFFIX);
+        boolean importing = foreignSnapshot;
+        int totalRead = 0;
+
+        try
+        {
+            Map<String,byte[]> records = new LinkedHashMap<String,byte[]>();
+
+            if (snapshotFile.exists())
+            {
+                if (importing)
+                    totalRead += importSnapshot(snapshotFile, records);
+                else
+                    totalRead += readRecords(snapshotFile, records, false);
+            }
+
+            if (compactingLogFile.exists())
+                totalRead += readRecords(compactingLogFile, records, false);
+
+            FileOutputStream fileOut = new FileOutputStream(tempFile);
+            DataOutputStream out = new DataOutputStream
+                (new BufferedOutputStream(fileOut, BUFFER_SIZE));
+            RecordBuffer buf = new RecordBuffer();
+
+            try
+            {
+                out.write(MAGIC);
+                for (byte[] payload : records.values())
+                {
+                    buf.reset();
+                    buf.write(payload, 0, payload.length);
+                    buf.writeFrame(out);
+                }
+
+                out.flush();
+                fileOut.getFD().sync();
+            }
+
+            finally
+            {
+                out.close();
+            }
+
+            if (! tempFile.renameTo(snapshotFile))
+            {
+                // Some platforms won't rename over an existing file. Move
+                // the old snapshot aside, rather than deleting it, so that
+                // there's always a snapshot to load; see recoverSnapshot().
+
+                oldFile.delete();
+                if (! snapshotFile.renameTo(oldFile))
+                {
+                    throw new IOException("Can't rename \"" +
+                                          snapshotFile.getPath() + "\" to \"" +
+                                          oldFile.getPath() + "\"");
+                }
+
+                if (! tempFile.renameTo(snapshotFile))
+                {
+                    oldFile.renameTo(snapshotFile);
+                    throw new IOException("Can't rename \"" +
+                                          tempFile.getPath() + "\" to \"" +
+                                          snapshotFile.getPath() + "\"");
+                }
+
+                oldFile.delete();
+            }
+
+            foreignSnapshot = false;
+            compactingLogFile.delete();
+
+            // Saves only ever add to the total, so the records that were
+            // folded into the new snapshot can be swapped for the ones
+            // written, even if saves appended to the new log meanwhile.
+
+            totalRecords.addAndGet(records.size() - totalRead);
+            log.info("Compacted cache \"" + snapshotFile.getPath() +
+                     "\" to " + records.size() + " record(s) in " +
+                     (System.currentTimeMillis() - start) + " ms.");
+        }
+
+        catch (IOException ex)
+        {
+            log.error("Compaction of cache \"" + snapshotFile.getPath() +
+                      "\" failed.", ex);
+            tempFile.delete();
+        }
+
+        catch (CurnException ex)
+        {
+            log.error("Compaction of cache \"" + snapshotFile.getPath() +
+                      "\" failed.", ex);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Read the records in a file, applying each one to a map of live
+     * records, by key. Reading stops at the first incomplete or corrupt
+     * record.
+     *
+     * @param file      the file
+     * @param records   the live records
+     * @param truncate  whether to cut an incomplete or corrupt tail off
+     *                  the file, so that records can be appended to it
+     *
+     * @return the number of records read
+     *
+     * @throws IOException on error
+     */
+    private int readRecords(File               file,
+                            Map<String,byte[]> records,
+                            boolean            truncate)
+        throws IOException
+    {
+        int total = 0;
+        long goodLength = MAGIC.length;
+
+        if (file.length() == 0)
+            return 0;
+
+        DataInputStream in = new DataInputStream
+            (new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        CRC32 crc = new CRC32();
+        boolean torn = false;
+
+        try
+        {
+            byte[] header = new byte[MAGIC.length];
+            try
+            {
+                in.readFully(header);
+            }
+
+            catch (EOFException ex)
+            {
+                header = new byte[0];
+            }
+
+            if (! startsWith(header, MAGIC, MAGIC.length))
+            {
+                if (! truncate)
+                {
+                    throw new IOException("\"" + file.getPath() + "\" is " +
+                                          "not a log-structured cache file.");
+                }
+
+                // The active log is unusable from the start. Empty it.
+
+                goodLength = 0;
+                torn = true;
+            }
+
+            while (! torn)
+            {
+                int length;
+                int checksum;
+                byte[] payload;
+
+                try
+                {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if ((length <= 0) || (length > MAX_RECORD_SIZE))
+                    {
+                        torn = true;
+                        break;
+                    }
+
+                    payload = new byte[length];
+                    in.readFully(payload);
+                }
+
+                catch (EOFException ex)
+                {
+                    torn = (goodLength < file.length());
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum)
+                {
+                    torn = true;
+                    break;
+                }
+
+                DataInputStream recordIn =
+                    new DataInputStream(new ByteArrayInputStream(payload));
+                int type = recordIn.readUnsignedByte();
+                if (type == REC_DELETE)
+                {
+                    type = recordIn.readUnsignedByte();
+                    records.remove(recordKey(type, recordIn.readUTF()));
+                }
+
+                else
+                {
+                    records.put(recordKey(type, recordIn.readUTF()), payload);
+                }
+
+                total++;
+                goodLength += 8 + length;
+            }
+        }
+
+        finally
+        {
+            in.close();
+        }
+
+        if (torn)
+        {
+            log.warn("Ignoring " + (file.length() - goodLength) + " byte(s) " +
+                     "of incomplete or corrupt data at the end of \"" +
+                     file.getPath() + "\".");
+            if (truncate)
+            {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try
+                {
+                    raf.setLength(goodLength);
+                }
+
+                finally
+                {
+                    raf.close();
+                }
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Read a snapshot written by another persister, converting its
+     * contents into records.
+     *
+     * @param file     the file
+     * @param records  the map of live records to fill
+     *
+     * @return the number of records read
+     *
+     * @throws CurnException on error
+     */
+    private int importSnapshot(final File               file,
+                               final Map<String,byte[]> records)
+        throws CurnException
+    {
+        final RecordBuffer buf = new RecordBuffer();
+        final int[] total = new int[] {0};
+
+        DataPersister reader;
+        if (isBinaryFile(file))
+            reader = new BinaryDataPersister(file);
+        else
+            reader = new XMLDataPersister(file);
+
+        reader.doLoad(new LoadedDataHandler()
+        {
+            public void feedLoaded(PersistentFeedData feedData)
+                throws CurnException
+            {
+                try
+                {
+                    addEntry(feedData.getFeedCacheEntry(),
+                             feedData.getFeedMetadata());
+                    for (PersistentFeedItemData itemData :
+                             feedData.getPersistentFeedItems())
+                    {
+                        addEntry(itemData.getFeedCacheEntry(),
+                                 itemData.getItemMetadata());
+                    }
+                }
+
+                catch (IOException ex)
+                {
+                    throw new CurnException(ex);
+                }
+            }
+
+            public void
+            extraMetadataLoaded(PersistentMetadataGroup metadataGroup)
+                throws CurnException
+            {
+                try
+                {
+                    buf.reset();
+                    encodeExtra(buf.getDataOutput(), metadataGroup);
+                    records.put(recordKey(REC_EXTRA,
+                                          metadataGroup.getNamespace()),
+                                buf.toByteArray());
+                    total[0]++;
+                }
+
+                catch (IOException ex)
+                {
+                    throw new CurnException(ex);
+                }
+            }
+
+            private void addEntry(FeedCacheEntry                      entry,
+                                  Collection<PersistentMetadataGroup> metadata)
+                throws IOException
+            {
+                buf.reset();
+                encodeEntry(buf.getDataOutput(), entry, metadata);
+                records.put(recordKey(REC_ENTRY,
+                                      entry.getEntryURL().toString()),
+                            buf.toByteArray());
+                total[0]++;
+            }
+        });
+
+        return total[0];
+    }
+
+    /**
+     * Encode a cache entry record. Metadata is written in sorted order, so
+     * that an unchanged entry always encodes the same way.
+     *
+     * @param out       where to write the record
+     * @param entry     the cache entry
+     * @param metadata  the entry's metadata
+     *
+     * @throws IOException on error
+     */
+    private static void encodeEntry(DataOutputStream                    out,
+                                    FeedCacheEntry                      entry,
+                                    Collection<PersistentMetadataGroup> metadata)
+        throws IOException
+    {
+        Date pubDate = entry.getPublicationDate();
+
+        out.writeByte(REC_ENTRY);
+        out.writeUTF(entry.getEntryURL().toString());
+        out.writeUTF(entry.getChannelURL().toString());
+        out.writeLong(entry.getTimestamp());
+        out.writeLong((pubDate == null) ? 0 : pubDate.getTime());
+
+        if (metadata.isEmpty())
+        {
+            out.writeInt(0);
+        }
+
+        else
+        {
+            Map<String,PersistentMetadataGroup> sorted =
+                new TreeMap<String,PersistentMetadataGroup>();
+            for (PersistentMetadataGroup metadataGroup : metadata)
+                sorted.put(metadataGroup.getNamespace(), metadataGroup);
+
+            out.writeInt(sorted.size());
+            for (PersistentMetadataGroup metadataGroup : sorted.values())
+            {
+                out.writeUTF(metadataGroup.getNamespace());
+                writeMetadataPairs(out, metadataGroup);
+            }
+        }
+    }
+
+    /**
+     * Encode an extra metadata record.
+     *
+     * @param out            where to write the record
+     * @param metadataGroup  the metadata
+     *
+     * @throws IOException on error
+     */
+    private static void encodeExtra(DataOutputStream        out,
+                                    PersistentMetadataGroup metadataGroup)
+        throws IOException
+    {
+        out.writeByte(REC_EXTRA);
+        out.writeUTF(metadataGroup.getNamespace());
+        writeMetadataPairs(out, metadataGroup);
+    }
+
+    private static void
+    writeMetadataPairs(DataOutputStream        out,
+                       PersistentMetadataGroup metadataGroup)
+        throws IOException
+    {
+        Map<String,String> sorted =
+            new TreeMap<String,String>(metadataGroup.getMetadata());
+        out.writeInt(sorted.size());
+        for (Map.Entry<String,String> nameValuePair : sorted.entrySet())
+        {
+            out.writeUTF(nameValuePair.getKey());
+            out.writeUTF(nameValuePair.getValue());
+        }
+    }
+
+    private static Collection<PersistentMetadataGroup>
+    readMetadata(DataInputStream in)
+        throws IOException
+    {
+        int totalGroups = in.readInt();
+        Collection<PersistentMetadataGroup> result =
+            new ArrayList<PersistentMetadataGroup>(totalGroups);
+
+        for (int i = 0; i < totalGroups; i++)
+        {
+            PersistentMetadataGroup metadataGroup =
+                new PersistentMetadataGroup(in.readUTF());
+            readMetadataPairs(in, metadataGroup);
+            result.add(metadataGroup);
+        }
+
+        return result;
+    }
+
+    private static void
+    readMetadataPairs(DataInputStream         in,
+                      PersistentMetadataGroup metadataGroup)
+        throws IOException
+    {
+        int totalPairs = in.readInt();
+        for (int i = 0; i < totalPairs; i++)
+        {
+            String name = in.readUTF();
+            metadataGroup.addMetadataItem(name, in.readUTF());
+        }
+    }
+
+    private static String recordKey(int type, String id)
+    {
+        return String.valueOf(type) + id;
+    }
+
+    /**
+     * Determine whether a file is in this persister's format.
+     *
+     * @param file  the file
+     *
+     * @return <tt>true</tt> if it is (or if it's empty), <tt>false</tt>
+     *         otherwise
+     *
+     * @throws IOException on error
+     */
+    private static boolean isNativeFile(File file)
+        throws IOException
+    {
+        byte[] header = readHeader(file, MAGIC.length);
+        return (header.length == 0) || startsWith(header, MAGIC, MAGIC.length);
+    }
+
+    /**
+     * Determine whether a file was written by {@link BinaryDataPersister}.
+     *
+     * @param file  the file
+     *
+     * @return <tt>true</tt> or <tt>false</tt>
+     *
+     * @throws CurnException on error
+     */
+    private static boolean isBinaryFile(File file)
+        throws CurnException
+    {
+        try
+        {
+            byte[] header = readHeader(file, 4);
+            return startsWith(header, MAGIC, 4);
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException(ex);
+        }
+    }
+
+    private static byte[] readHeader(File file, int length)
+        throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buf = new byte[length];
+            int total = 0;
+            int n;
+            while ((total < length) &&
+                   ((n = in.read(buf, total, length - total)) > 0))
+            {
+                total += n;
+            }
+
+            byte[] result = new byte[total];
+            System.arraycopy(buf, 0, result, 0, total);
+            return result;
+        }
+
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static boolean startsWith(byte[] header, byte[] magic, int length)
+    {
+        boolean result = (header.length >= length);
+        for (int i = 0; result && (i < length); i++)
+            result = (header[i] == magic[i]);
+
+        return result;
+    }
+}
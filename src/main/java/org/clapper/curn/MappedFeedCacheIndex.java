@@ -0,0 +1,1227 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>An off-heap index of feed item cache entries, stored in a
+ * memory-mapped file. The index is an open-addressing hash table (linear
+ * probing, backward-shift deletion) keyed on a 64-bit fingerprint of each
+ * item's normalized URL (see {@link CurnUtil#fingerprint}). Each slot
+ * holds the entry's timestamp, publication date, sticky flag and channel
+ * ID as primitives, plus a reference to the item's URL string in a string
+ * area following the slots. {@link FeedCacheEntry} objects are created
+ * only when someone asks for one; changes made to them via their setters
+ * are written straight back to the index.</p>
+ *
+ * <p>File layout:</p>
+ *
+ * <pre>
+ * header    magic "CIDX", version, capacity, size, end of string area,
+ *           garbage bytes in string area, first channel record, clean flag
+ *           (64 bytes)
+ * slots     capacity * (fingerprint, timestamp, pubDate, URL ref,
+ *                       channel ID, flags) (40 bytes each)
+ * strings   URL strings (int length, UTF-8 bytes), and channel records
+ *           (int next channel record, URL string). A channel's ID is the
+ *           offset of its record.
+ * </pre>
+ *
+ * <p>Since the index lives in the file, it survives restarts without a
+ * load phase. If <i>curn</i> dies before closing the index, the clean flag
+ * is left unset, and the index is checked and rebuilt when it is next
+ * opened. If the index is opened read-only (e.g., because cache updates
+ * are disabled), the file is mapped privately, so changes never reach
+ * the disk.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @see FeedCache
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class MappedFeedCacheIndex
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int MAGIC   = 0x43494458; // "CIDX"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE   = 40;
+
+    /**
+     * Header field offsets
+     */
+    private static final int H_MAGIC       = 0;
+    private static final int H_VERSION     = 4;
+    private static final int H_CAPACITY    = 8;
+    private static final int H_SIZE        = 12;
+    private static final int H_STRINGS_END = 16;
+    private static final int H_GARBAGE     = 20;
+    private static final int H_CHANNELS    = 24;
+    private static final int H_CLEAN       = 28;
+
+    /**
+     * Slot field offsets. A zero fingerprint marks an empty slot.
+     */
+    private static final int S_FINGERPRINT = 0;
+    private static final int S_TIMESTAMP   = 8;
+    private static final int S_PUB_DATE    = 16;
+    private static final int S_URL         = 24;
+    private static final int S_CHANNEL     = 28;
+    private static final int S_FLAGS       = 32;
+
+    private static final int FLAG_STICKY = 0x01;
+
+    /**
+     * Stored in place of a missing publication date.
+     */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * Initial (and minimum) number of slots. Must be a power of two.
+     */
+    private static final int MIN_CAPACITY = 1024;
+
+    /**
+     * Minimum amount of free space to leave at the end of the string area
+     * when the file is mapped.
+     */
+    private static final int MIN_STRING_SPACE = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * A cache entry materialized from the index. Changes to the mutable
+     * fields are written back to the index.
+     */
+    private static class IndexedFeedCacheEntry extends FeedCacheEntry
+    {
+        private final MappedFeedCacheIndex index;
+        private final long fingerprint;
+
+        IndexedFeedCacheEntry(MappedFeedCacheIndex index,
+                              long                 fingerprint,
+                              URL                  channelURL,
+                              URL                  entryURL,
+                              Date                 pubDate,
+                              long                 timestamp,
+                              boolean              sticky)
+        {
+            super(channelURL, entryURL, pubDate, timestamp);
+            super.setSticky(sticky);
+            this.index = index;
+            this.fingerprint = fingerprint;
+        }
+
+        public void setTimestamp(final long timestamp)
+        {
+            super.setTimestamp(timestamp);
+            index.update(fingerprint, this);
+        }
+
+        public void setSticky(boolean sticky)
+        {
+            super.setSticky(sticky);
+            index.update(fingerprint, this);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The configured index file.
+     */
+    private final File indexFile;
+
+    /**
+     * Whether changes are to be kept out of the index file.
+     */
+    private final boolean readOnly;
+
+    /**
+     * The file currently mapped. Normally the same as indexFile, but a
+     * read-only index that has to grow is copied to a temporary file.
+     */
+    private File mappedFile = null;
+
+    private RandomAccessFile raf = null;
+    private FileChannel fileChannel = null;
+    private MappedByteBuffer buf = null;
+
+    /**
+     * Cached copies of header fields.
+     */
+    private int capacity = 0;
+    private int mask = 0;
+    private int size = 0;
+    private int stringsEnd = 0;
+    private int garbage = 0;
+
+    /**
+     * Channel URLs, by string and by ID. There aren't many of them.
+     */
+    private Map<String,Integer> channelIDs = new HashMap<String,Integer>();
+    private Map<Integer,URL> channelURLs = new HashMap<Integer,URL>();
+
+    /**
+     * The most recently used channel, and its ID.
+     */
+    private URL lastChannelURL = null;
+    private int lastChannelID = 0;
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(MappedFeedCacheIndex.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Construct a new, unopened index.
+     *
+     * @param indexFile the index file
+     * @param readOnly  <tt>true</tt> to keep changes out of the file
+     */
+    private MappedFeedCacheIndex(File indexFile, boolean readOnly)
+    {
+        this.indexFile = indexFile;
+        this.readOnly  = readOnly;
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Open (creating, if necessary) an index file.
+     *
+     * @param indexFile the index file
+     * @param readOnly  <tt>true</tt> to map the file privately, so that
+     *                  changes never reach the file
+     *
+     * @return the open index
+     *
+     * @throws CurnException on error
+     */
+    static MappedFeedCacheIndex open(File indexFile, boolean readOnly)
+        throws CurnException
+    {
+        if (indexFile.isDirectory())
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "MappedFeedCacheIndex.indexIsDir",
+                                    "Configured cache index file \"{0}\" " +
+                                    "is a directory.",
+                                    new Object[] {indexFile.getPath()});
+        }
+
+        MappedFeedCacheIndex index = new MappedFeedCacheIndex(indexFile,
+                                                              readOnly);
+        try
+        {
+            if (indexFile.length() == 0)
+            {
+                log.debug("Creating cache index \"" + indexFile + "\"");
+                index.create(readOnly ? newTempFile() : indexFile,
+                             MIN_CAPACITY, MIN_STRING_SPACE);
+            }
+
+            else
+            {
+                index.mapExisting(indexFile);
+            }
+        }
+
+        catch (IOException ex)
+        {
+            index.closeFile();
+            throw ioError(indexFile, ex);
+        }
+
+        log.debug("Cache index \"" + indexFile + "\" has " + index.size +
+                  " entries in " + index.capacity + " slots.");
+        return index;
+    }
+
+    /**
+     * Get the number of entries in the index.
+     *
+     * @return the number of entries
+     */
+    synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Determine whether the index contains an entry.
+     *
+     * @param key the entry's key
+     *
+     * @return <tt>true</tt> if present, <tt>false</tt> if not
+     */
+    synchronized boolean contains(ItemKey key)
+    {
+        return findSlot(key.getFingerprint()) >= 0;
+    }
+
+    /**
+     * Get an entry from the index.
+     *
+     * @param key the entry's key
+     *
+     * @return a new {@link FeedCacheEntry} for the entry, or null if not
+     *         found
+     */
+    synchronized FeedCacheEntry get(ItemKey key)
+    {
+        long fp = key.getFingerprint();
+        int slot = findSlot(fp);
+        return (slot < 0) ? null : materialize(slotOffset(slot));
+    }
+
+    /**
+     * Add an entry to the index, replacing any entry with the same key.
+     *
+     * @param key   the entry's key
+     * @param entry the entry
+     *
+     * @throws CurnException if the index can't be grown
+     */
+    synchronized void put(ItemKey key, FeedCacheEntry entry)
+        throws CurnException
+    {
+        long fp = key.getFingerprint();
+        int slot = findSlot(fp);
+
+        try
+        {
+            URL channelURL = entry.getChannelURL();
+            byte[] channel = null;
+            if (findChannel(channelURL) == null)
+                channel = channelURL.toExternalForm().getBytes(UTF8);
+
+            if (slot < 0)
+            {
+                byte[] url = entry.getEntryURL().toExternalForm()
+                                  .getBytes(UTF8);
+                int needed = url.length + 4;
+                if (channel != null)
+                    needed += channel.length + 8;
+
+                if (((size + 1) * 2) > capacity)
+                    rebuild(capacity * 2, needed);
+                else if ((stringsEnd + needed) > buf.capacity())
+                    makeStringSpace(needed);
+
+                // Channel IDs change when the index is rebuilt, so look
+                // the channel up again.
+
+                Integer channelID = findChannel(channelURL);
+                if (channelID == null)
+                    channelID = internChannel(channelURL, channel);
+
+                int off = slotOffset(~findSlot(fp));
+                buf.putInt(off + S_URL, appendString(url));
+                buf.putInt(off + S_CHANNEL, channelID);
+                writePrimitives(off, entry);
+                buf.putLong(off + S_FINGERPRINT, fp);
+                size++;
+                buf.putInt(H_SIZE, size);
+            }
+
+            else
+            {
+                if ((channel != null) &&
+                    ((stringsEnd + channel.length + 8) > buf.capacity()))
+                {
+                    makeStringSpace(channel.length + 8);
+                    slot = findSlot(fp);
+                }
+
+                Integer channelID = findChannel(channelURL);
+                if (channelID == null)
+                    channelID = internChannel(channelURL, channel);
+
+                int off = slotOffset(slot);
+                buf.putInt(off + S_CHANNEL, channelID);
+                writePrimitives(off, entry);
+            }
+        }
+
+        catch (IOException ex)
+        {
+            throw ioError(indexFile, ex);
+        }
+    }
+
+    /**
+     * Get all entries in the index. The returned collection is a view;
+     * entries are created as the collection is traversed.
+     *
+     * @return the entries
+     */
+    Collection<FeedCacheEntry> entries()
+    {
+        return new AbstractCollection<FeedCacheEntry>()
+        {
+            public int size()
+            {
+                return MappedFeedCacheIndex.this.size();
+            }
+
+            public Iterator<FeedCacheEntry> iterator()
+            {
+                return new Iterator<FeedCacheEntry>()
+                {
+                    private int slot = -1;
+                    private FeedCacheEntry next = advance();
+
+                    public boolean hasNext()
+                    {
+                        return next != null;
+                    }
+
+                    public FeedCacheEntry next()
+                    {
+                        if (next == null)
+                            throw new NoSuchElementException();
+
+                        FeedCacheEntry result = next;
+                        next = advance();
+                        return result;
+                    }
+
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    private FeedCacheEntry advance()
+                    {
+                        synchronized (MappedFeedCacheIndex.this)
+                        {
+                            FeedCacheEntry entry = null;
+                            while ((entry == null) && (++slot < capacity))
+                            {
+                                int off = slotOffset(slot);
+                                if (buf.getLong(off + S_FINGERPRINT) != 0)
+                                    entry = materialize(off);
+                            }
+
+                            return entry;
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Add the fingerprint of every entry in the index to a
+     * {@link SeenItemFilter}, without creating any entries.
+     *
+     * @param filter the filter
+     */
+    synchronized void addFingerprintsTo(SeenItemFilter filter)
+    {
+        for (int slot = 0; slot < capacity; slot++)
+        {
+            long fp = buf.getLong(slotOffset(slot) + S_FINGERPRINT);
+            if (fp != 0)
+                filter.add(fp);
+        }
+    }
+
+    /**
+     * Remove entries that have expired, and entries whose channels are no
+     * longer configured, and clamp timestamps that lie in the future. This
+     * is the index equivalent of the pruning that {@link FeedCache} does
+     * after a load.
+     *
+     * @param config      the configuration, for the configured feeds
+     * @param currentTime the cache's notion of the current time
+     *
+     * @return the number of entries removed
+     *
+     * @throws CurnException if the index can't be compacted
+     */
+    synchronized int prune(CurnConfig config, long currentTime)
+        throws CurnException
+    {
+        // Figure out the cache time for each channel once, up front.
+
+        Map<Integer,Long> cacheMillisByChannel = new HashMap<Integer,Long>();
+        for (Map.Entry<Integer,URL> entry : channelURLs.entrySet())
+        {
+            FeedInfo feedInfo = config.getFeedInfo(entry.getValue());
+            if (feedInfo == null)
+            {
+                log.debug("Cached items for channel \"" + entry.getValue() +
+                          "\" no longer correspond to a configured feed. " +
+                          "Tossing them.");
+            }
+
+            else
+            {
+                cacheMillisByChannel.put(entry.getKey(),
+                                         feedInfo.getMillisecondsToCache());
+            }
+        }
+
+        // Deleting a slot can shift a later entry into it, so only move on
+        // when the current slot is kept. See deleteSlot().
+
+        int removed = 0;
+        int slot = 0;
+        while (slot < capacity)
+        {
+            int off = slotOffset(slot);
+            if (buf.getLong(off + S_FINGERPRINT) == 0)
+            {
+                slot++;
+                continue;
+            }
+
+            Long maxCacheMS = cacheMillisByChannel.get
+                (buf.getInt(off + S_CHANNEL));
+            long timestamp = buf.getLong(off + S_TIMESTAMP);
+            boolean remove = false;
+
+            if (maxCacheMS == null)
+                remove = true;
+
+            else if (timestamp > currentTime)
+                buf.putLong(off + S_TIMESTAMP, currentTime);
+
+            else if ((timestamp + maxCacheMS) < currentTime)
+                remove = true;
+
+            if (remove)
+            {
+                garbage += buf.getInt(buf.getInt(off + S_URL)) + 4;
+                deleteSlot(slot);
+                removed++;
+            }
+
+            else
+            {
+                slot++;
+            }
+        }
+
+        buf.putInt(H_GARBAGE, garbage);
+        log.debug("Pruned " + removed + " entries from cache index. " +
+                  size + " entries remain.");
+
+        // Reclaim the space for the removed URLs, if there's enough of it.
+
+        if ((garbage > MIN_STRING_SPACE) &&
+            (garbage > ((stringsEnd - stringsStart()) / 2)))
+        {
+            try
+            {
+                rebuild(capacity, 0);
+            }
+
+            catch (IOException ex)
+            {
+                throw ioError(indexFile, ex);
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Close the index, flushing all changes to disk (unless the index is
+     * read-only).
+     *
+     * @throws CurnException on error
+     */
+    synchronized void close()
+        throws CurnException
+    {
+        try
+        {
+            if ((buf != null) && (! readOnly))
+            {
+                buf.force();
+                buf.putInt(H_CLEAN, 1);
+                buf.force();
+            }
+        }
+
+        finally
+        {
+            closeFile();
+            if (readOnly && (mappedFile != null) &&
+                (! mappedFile.equals(indexFile)))
+            {
+                mappedFile.delete();
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Find a fingerprint in the table.
+     *
+     * @param fp the fingerprint
+     *
+     * @return the slot number, if found; otherwise, the one's complement
+     *         of the empty slot where it would go
+     */
+    private int findSlot(long fp)
+    {
+        int slot = ((int) fp) & mask;
+        for (;;)
+        {
+            long slotFP = buf.getLong(slotOffset(slot));
+            if (slotFP == fp)
+                return slot;
+            if (slotFP == 0)
+                return ~slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int slotOffset(int slot)
+    {
+        return HEADER_SIZE + (slot * SLOT_SIZE);
+    }
+
+    private int stringsStart()
+    {
+        return slotOffset(capacity);
+    }
+
+    /**
+     * Remove the entry in a slot, shifting later entries in the same probe
+     * sequence back, so that no tombstones are needed. Only the vacated
+     * slot and slots after it (cyclically) change.
+     *
+     * @param slot the slot to clear
+     */
+    private void deleteSlot(int slot)
+    {
+        int hole = slot;
+        int next = slot;
+
+        for (;;)
+        {
+            next = (next + 1) & mask;
+            int nextOff = slotOffset(next);
+            long fp = buf.getLong(nextOff + S_FINGERPRINT);
+            if (fp == 0)
+                break;
+
+            // The entry can stay put if its home slot lies cyclically in
+            // (hole, next].
+
+            int home = ((int) fp) & mask;
+            boolean stays = (hole <= next) ? ((hole < home) && (home <= next))
+                                           : ((hole < home) || (home <= next));
+            if (! stays)
+            {
+                int holeOff = slotOffset(hole);
+                for (int i = 0; i < SLOT_SIZE; i += 8)
+                    buf.putLong(holeOff + i, buf.getLong(nextOff + i));
+                hole = next;
+            }
+        }
+
+        int holeOff = slotOffset(hole);
+        for (int i = 0; i < SLOT_SIZE; i += 8)
+            buf.putLong(holeOff + i, 0);
+
+        size--;
+        buf.putInt(H_SIZE, size);
+    }
+
+    private void writePrimitives(int off, FeedCacheEntry entry)
+    {
+        Date pubDate = entry.getPublicationDate();
+        buf.putLong(off + S_TIMESTAMP, entry.getTimestamp());
+        buf.putLong(off + S_PUB_DATE,
+                    (pubDate == null) ? NO_DATE : pubDate.getTime());
+        buf.putInt(off + S_FLAGS, entry.isSticky() ? FLAG_STICKY : 0);
+    }
+
+    /**
+     * Write back the mutable fields of a materialized entry.
+     *
+     * @param fp    the entry's fingerprint
+     * @param entry the entry
+     */
+    private synchronized void update(long fp, FeedCacheEntry entry)
+    {
+        if (buf != null)
+        {
+            int slot = findSlot(fp);
+            if (slot >= 0)
+            {
+                int off = slotOffset(slot);
+                buf.putLong(off + S_TIMESTAMP, entry.getTimestamp());
+                buf.putInt(off + S_FLAGS, entry.isSticky() ? FLAG_STICKY : 0);
+            }
+        }
+    }
+
+    /**
+     * Create a {@link FeedCacheEntry} from a slot.
+     *
+     * @param off the slot's offset
+     *
+     * @return the entry, or null if the entry's URL is no longer valid
+     */
+    private FeedCacheEntry materialize(int off)
+    {
+        long fp = buf.getLong(off + S_FINGERPRINT);
+        String url = readString(buf.getInt(off + S_URL));
+
+        try
+        {
+            long pubDate = buf.getLong(off + S_PUB_DATE);
+            return new IndexedFeedCacheEntry
+                (this,
+                 fp,
+                 channelURLs.get(buf.getInt(off + S_CHANNEL)),
+                 new URL(url),
+                 (pubDate == NO_DATE) ? null : new Date(pubDate),
+                 buf.getLong(off + S_TIMESTAMP),
+                 (buf.getInt(off + S_FLAGS) & FLAG_STICKY) != 0);
+        }
+
+        catch (MalformedURLException ex)
+        {
+            log.error("Bad URL \"" + url + "\" in cache index \"" +
+                      indexFile + "\". Ignoring it.", ex);
+            return null;
+        }
+    }
+
+    private String readString(int off)
+    {
+        return new String(readBytes(off), UTF8);
+    }
+
+    private byte[] readBytes(int off)
+    {
+        byte[] bytes = new byte[buf.getInt(off)];
+        ByteBuffer b = buf.duplicate();
+        b.position(off + 4);
+        b.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Append a string to the string area. The caller must already have
+     * made room for it.
+     *
+     * @param bytes the string's UTF-8 bytes
+     *
+     * @return the string's offset
+     */
+    private int appendString(byte[] bytes)
+    {
+        int off = stringsEnd;
+        buf.putInt(off, bytes.length);
+        ByteBuffer b = buf.duplicate();
+        b.position(off + 4);
+        b.put(bytes);
+        stringsEnd += bytes.length + 4;
+        buf.putInt(H_STRINGS_END, stringsEnd);
+        return off;
+    }
+
+    /**
+     * Get the ID of a known channel. Items usually arrive in runs that
+     * share the same channel <tt>URL</tt> object, so the last one is
+     * remembered, saving a string conversion.
+     *
+     * @param channelURL the channel URL
+     *
+     * @return the channel ID, or null if the channel isn't in the index
+     */
+    private Integer findChannel(URL channelURL)
+    {
+        if (channelURL == lastChannelURL)
+            return lastChannelID;
+
+        Integer id = channelIDs.get(channelURL.toExternalForm());
+        if (id != null)
+        {
+            lastChannelURL = channelURL;
+            lastChannelID  = id;
+        }
+
+        return id;
+    }
+
+    /**
+     * Add a channel record. The caller must already have made room for
+     * the record.
+     *
+     * @param channelURL the channel URL
+     * @param bytes      the UTF-8 bytes of the channel URL
+     *
+     * @return the new channel's ID
+     */
+    private int internChannel(URL channelURL, byte[] bytes)
+    {
+        int id = stringsEnd;
+        buf.putInt(id, buf.getInt(H_CHANNELS));
+        stringsEnd += 4;
+        appendString(bytes);
+        buf.putInt(H_CHANNELS, id);
+        channelIDs.put(channelURL.toExternalForm(), id);
+        channelURLs.put(id, channelURL);
+        lastChannelURL = channelURL;
+        lastChannelID  = id;
+        return id;
+    }
+
+    /**
+     * Make sure there's room for more strings, by mapping more of the
+     * file. A privately mapped index can't grow its file, so it's copied
+     * to a temporary file instead.
+     *
+     * @param needed the number of bytes needed
+     *
+     * @throws IOException    I/O error
+     * @throws CurnException  index too large
+     */
+    private void makeStringSpace(int needed)
+        throws IOException,
+               CurnException
+    {
+        if (readOnly && mappedFile.equals(indexFile))
+            rebuild(capacity, needed);
+        else
+            map(mappedSize((long) stringsEnd + needed));
+    }
+
+    private long mappedSize(long used)
+        throws CurnException
+    {
+        long size = used + Math.max(MIN_STRING_SPACE, used / 4);
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "MappedFeedCacheIndex.tooLarge",
+                                    "Cache index \"{0}\" has grown too " +
+                                    "large.",
+                                    new Object[] {indexFile.getPath()});
+        }
+
+        return size;
+    }
+
+    private void map(long size)
+        throws IOException
+    {
+        FileChannel.MapMode mode = FileChannel.MapMode.READ_WRITE;
+        if (readOnly && mappedFile.equals(indexFile))
+        {
+            mode = FileChannel.MapMode.PRIVATE;
+            size = fileChannel.size();
+        }
+
+        buf = fileChannel.map(mode, 0, size);
+    }
+
+    /**
+     * Create a new, empty index in a file, and map it.
+     *
+     * @param file        the file
+     * @param newCapacity the number of slots
+     * @param stringSpace the initial room to leave for strings
+     *
+     * @throws IOException    I/O error
+     * @throws CurnException  index too large
+     */
+    private void create(File file, int newCapacity, int stringSpace)
+        throws IOException,
+               CurnException
+    {
+        long mapSize = mappedSize((long) HEADER_SIZE +
+                                  ((long) newCapacity * SLOT_SIZE) +
+                                  stringSpace);
+        mappedFile = file;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        fileChannel = raf.getChannel();
+        map(mapSize);
+
+        capacity = newCapacity;
+        mask = capacity - 1;
+        size = 0;
+        stringsEnd = stringsStart();
+        garbage = 0;
+        channelIDs.clear();
+        channelURLs.clear();
+        lastChannelURL = null;
+
+        buf.putInt(H_MAGIC, MAGIC);
+        buf.putInt(H_VERSION, VERSION);
+        buf.putInt(H_CAPACITY, capacity);
+        buf.putInt(H_SIZE, size);
+        buf.putInt(H_STRINGS_END, stringsEnd);
+        buf.putInt(H_GARBAGE, garbage);
+        buf.putInt(H_CHANNELS, 0);
+        buf.putInt(H_CLEAN, 0);
+    }
+
+    /**
+     * Map an existing index file, checking (and, if necessary, repairing)
+     * its contents.
+     *
+     * @param file the file
+     *
+     * @throws IOException    I/O error
+     * @throws CurnException  not an index file, or unrepairable
+     */
+    private void mapExisting(File file)
+        throws IOException,
+               CurnException
+    {
+        mappedFile = file;
+        raf = new RandomAccessFile(file, "rw");
+        fileChannel = raf.getChannel();
+        long fileSize = fileChannel.size();
+
+        buf = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                              Math.min(fileSize, HEADER_SIZE));
+        if ((fileSize < HEADER_SIZE) || (buf.getInt(H_MAGIC) != MAGIC))
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "MappedFeedCacheIndex.badIndex",
+                                    "File \"{0}\" is not a curn cache index " +
+                                    "file.",
+                                    new Object[] {indexFile.getPath()});
+        }
+
+        if (buf.getInt(H_VERSION) != VERSION)
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "MappedFeedCacheIndex.badVersion",
+                                    "Cache index file \"{0}\" has format " +
+                                    "version {1}, which this version of " +
+                                    "curn doesn''t support.",
+                                    new Object[]
+                                    {
+                                        indexFile.getPath(),
+                                        String.valueOf
+                                            (buf.getInt(H_VERSION))
+                                    });
+        }
+
+        capacity   = buf.getInt(H_CAPACITY);
+        mask       = capacity - 1;
+        size       = buf.getInt(H_SIZE);
+        stringsEnd = buf.getInt(H_STRINGS_END);
+        garbage    = buf.getInt(H_GARBAGE);
+        boolean clean = (buf.getInt(H_CLEAN) != 0);
+
+        if ((capacity < MIN_CAPACITY) || ((capacity & mask) != 0) ||
+            (stringsEnd < stringsStart()) || (stringsEnd > fileSize))
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "MappedFeedCacheIndex.badIndex",
+                                    "File \"{0}\" is not a curn cache index " +
+                                    "file.",
+                                    new Object[] {indexFile.getPath()});
+        }
+
+        if (readOnly)
+            map(fileSize);
+        else
+            map(mappedSize(stringsEnd));
+
+        boolean channelsOK = readChannels();
+
+        if ((! clean) || (! channelsOK))
+        {
+            log.warn("Cache index \"" + indexFile + "\" was not closed " +
+                     "properly. Checking and rebuilding it.");
+            rebuild(capacity, 0);
+        }
+
+        else if (! readOnly)
+        {
+            buf.putInt(H_CLEAN, 0);
+            buf.force();
+        }
+    }
+
+    /**
+     * Read the channel records into memory.
+     *
+     * @return <tt>true</tt> if all the records were sane, <tt>false</tt> if
+     *         some were bad (in which case, the channels read so far are
+     *         kept)
+     */
+    private boolean readChannels()
+    {
+        channelIDs.clear();
+        channelURLs.clear();
+        lastChannelURL = null;
+
+        int id = buf.getInt(H_CHANNELS);
+        while (id != 0)
+        {
+            if ((! stringIsSane(id + 4)) || channelURLs.containsKey(id))
+                return false;
+
+            String url = readString(id + 4);
+            try
+            {
+                channelURLs.put(id, new URL(url));
+                channelIDs.put(url, id);
+            }
+
+            catch (MalformedURLException ex)
+            {
+                return false;
+            }
+
+            id = buf.getInt(id);
+        }
+
+        return true;
+    }
+
+    private boolean stringIsSane(int off)
+    {
+        if ((off < stringsStart()) || (off > (stringsEnd - 4)))
+            return false;
+
+        int len = buf.getInt(off);
+        return (len >= 0) && (len <= (stringsEnd - off - 4));
+    }
+
+    /**
+     * Copy the live entries to a new index file with the specified number
+     * of slots, dropping any entries that don't make sense, and then
+     * switch to the new file. This is how the table grows, how garbage in
+     * the string area is reclaimed, and how an index that wasn't closed
+     * properly is repaired.
+     *
+     * @param newCapacity the number of slots in the new file
+     * @param needed      extra string space the caller needs
+     *
+     * @throws IOException    I/O error
+     * @throws CurnException  index too large
+     */
+    private void rebuild(int newCapacity, int needed)
+        throws IOException,
+               CurnException
+    {
+        File target;
+        if (readOnly)
+            target = newTempFile();
+        else
+            target = new File(indexFile.getPath() + ".tmp");
+
+        log.debug("Rebuilding cache index \"" + indexFile + "\" with " +
+                  newCapacity + " slots, in \"" + target + "\"");
+
+        MappedFeedCacheIndex newIndex = new MappedFeedCacheIndex(target,
+                                                                 false);
+        newIndex.create(target,
+                        newCapacity,
+                        stringsEnd - stringsStart() - garbage + needed +
+                        MIN_STRING_SPACE);
+
+        Map<Integer,Integer> newChannelIDs = new HashMap<Integer,Integer>();
+        int dropped = 0;
+        for (int slot = 0; slot < capacity; slot++)
+        {
+            int off = slotOffset(slot);
+            long fp = buf.getLong(off + S_FINGERPRINT);
+            if (fp == 0)
+                continue;
+
+            int urlRef = buf.getInt(off + S_URL);
+            int channelID = buf.getInt(off + S_CHANNEL);
+            URL channelURL = channelURLs.get(channelID);
+            if ((channelURL == null) || (! stringIsSane(urlRef)) ||
+                (newIndex.findSlot(fp) >= 0))
+            {
+                dropped++;
+                continue;
+            }
+
+            byte[] url = readBytes(urlRef);
+
+            Integer newChannelID = newChannelIDs.get(channelID);
+            if (newChannelID == null)
+            {
+                newChannelID = newIndex.internChannel
+                    (channelURL, channelURL.toExternalForm().getBytes(UTF8));
+                newChannelIDs.put(channelID, newChannelID);
+            }
+
+            int newOff = newIndex.slotOffset(~newIndex.findSlot(fp));
+            newIndex.buf.putInt(newOff + S_URL, newIndex.appendString(url));
+            newIndex.buf.putInt(newOff + S_CHANNEL, newChannelID);
+            newIndex.buf.putLong(newOff + S_TIMESTAMP,
+                                 buf.getLong(off + S_TIMESTAMP));
+            newIndex.buf.putLong(newOff + S_PUB_DATE,
+                                 buf.getLong(off + S_PUB_DATE));
+            newIndex.buf.putInt(newOff + S_FLAGS, buf.getInt(off + S_FLAGS));
+            newIndex.buf.putLong(newOff + S_FINGERPRINT, fp);
+            newIndex.size++;
+        }
+
+        if (dropped > 0)
+        {
+            log.warn("Dropped " + dropped + " damaged entries from cache " +
+                     "index \"" + indexFile + "\".");
+        }
+
+        newIndex.buf.putInt(H_SIZE, newIndex.size);
+        newIndex.buf.force();
+        newIndex.closeFile();
+        closeFile();
+
+        if (readOnly)
+        {
+            if (! mappedFile.equals(indexFile))
+                mappedFile.delete();
+        }
+
+        else if (! target.renameTo(indexFile))
+        {
+            // Some platforms won't rename over an existing file.
+
+            indexFile.delete();
+            if (! target.renameTo(indexFile))
+            {
+                throw new IOException("Can't rename \"" + target.getPath() +
+                                      "\" to \"" + indexFile.getPath() +
+                                      "\"");
+            }
+        }
+
+        mappedFile = readOnly ? target : indexFile;
+        raf = new RandomAccessFile(mappedFile, "rw");
+        fileChannel = raf.getChannel();
+        capacity   = newIndex.capacity;
+        mask       = newIndex.mask;
+        size       = newIndex.size;
+        stringsEnd = newIndex.stringsEnd;
+        garbage    = 0;
+        channelIDs = newIndex.channelIDs;
+        channelURLs = newIndex.channelURLs;
+        lastChannelURL = null;
+        buf = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                              fileChannel.size());
+    }
+
+    private void closeFile()
+    {
+        buf = null;
+        fileChannel = null;
+        if (raf != null)
+        {
+            try
+            {
+                raf.close();
+            }
+
+            catch (IOException ex)
+            {
+                log.error("Can't close cache index \"" + mappedFile + "\"",
+                          ex);
+            }
+
+            raf = null;
+        }
+    }
+
+    private static File newTempFile()
+        throws IOException
+    {
+        File file = File.createTempFile("curn", ".idx");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static CurnException ioError(File file, IOException ex)
+    {
+        return new CurnException(Constants.BUNDLE_NAME,
+                                 "MappedFeedCacheIndex.ioError",
+                                 "I/O error on cache index \"{0}\".",
+                                 new Object[] {file.getPath()},
+                                 ex);
+    }
+}
@@ -44,6 +44,8 @@ import java.io.File;
 import java.net.URLConnection;
 
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.TreeSet;
 
 /**
@@ -53,6 +55,14 @@ import java.util.TreeSet;
  * <i>curn</i>. The <tt>MetaPlugIn</tt> singleton object is loaded by an
  * instance of the {@link PlugInManager} class.
  *
+ * <p>The per-feed phases (forced download, pre- and post-download,
+ * post-parse and post-process) are called concurrently by the feed
+ * download threads. They are dispatched from immutable array snapshots of
+ * the loaded plug-ins, without any global lock. Plug-ins that implement
+ * {@link ThreadSafePlugIn} are called directly; all other plug-ins are
+ * serialized, each on its own lock, so that two slow plug-ins don't hold
+ * each other up.</p>
+ *
  * @see PlugIn
  * @see PlugInManager
  * @see CacheLoadedPlugIn
@@ -109,6 +119,9 @@ public class MetaPlugIn
     private final Collection<CacheLoadedPlugIn>
         cacheLoadedPlugIns = new TreeSet<CacheLoadedPlugIn>(cmp);
 
+    private final Collection<DOMConsumerPlugIn>
+        domConsumerPlugIns = new TreeSet<DOMConsumerPlugIn>(cmp);
+
     private final Collection<FeedConfigItemPlugIn>
         feedConfigItemPlugIns = new TreeSet<FeedConfigItemPlugIn>(cmp);
 
@@ -165,6 +178,36 @@ public class MetaPlugIn
 
     private final Collection<PlugIn> allPlugIns = new TreeSet<PlugIn>(cmp);
 
+    /**
+     * Immutable snapshots of the per-feed plug-ins, in sort order. These
+     * are rebuilt (under the class lock) every time a plug-in is added, and
+     * are read without locking by the feed download threads.
+     */
+    private volatile ForceFeedDownloadPlugIn[] forceFeedDownloadDispatch =
+        new ForceFeedDownloadPlugIn[0];
+
+    private volatile PreFeedDownloadPlugIn[] preFeedDownloadDispatch =
+        new PreFeedDownloadPlugIn[0];
+
+    private volatile PostFeedDownloadPlugIn[] postFeedDownloadDispatch =
+        new PostFeedDownloadPlugIn[0];
+
+    private volatile PostFeedParsePlugIn[] postFeedParseDispatch =
+        new PostFeedParsePlugIn[0];
+
+    private volatile PostFeedProcessPlugIn[] postFeedProcessDispatch =
+        new PostFeedProcessPlugIn[0];
+
+    private volatile DOMConsumerPlugIn[] domConsumerDispatch =
+        new DOMConsumerPlugIn[0];
+
+    /**
+     * Per-plug-in locks for plug-ins that are not thread-safe, indexed by
+     * plug-in instance. Replaced, never modified, once published.
+     */
+    private volatile Map<PlugIn,Object> plugInLocks =
+        new IdentityHashMap<PlugIn,Object>();
+
     /**
      * The singleton
      */
@@ -215,6 +258,9 @@ public class MetaPlugIn
             if (plugIn instanceof CacheLoadedPlugIn)
                 cacheLoadedPlugIns.add((CacheLoadedPlugIn) plugIn);
 
+            if (plugIn instanceof DOMConsumerPlugIn)
+                domConsumerPlugIns.add((DOMConsumerPlugIn) plugIn);
+
             if (plugIn instanceof FeedConfigItemPlugIn)
                 feedConfigItemPlugIns.add((FeedConfigItemPlugIn) plugIn);
 
@@ -270,6 +316,16 @@ public class MetaPlugIn
                     ((UnknownSectionConfigItemPlugIn) plugIn);
 
             allPlugIns.add(plugIn);
+
+            if (! (plugIn instanceof ThreadSafePlugIn))
+            {
+                Map<PlugIn,Object> locks =
+                    new IdentityHashMap<PlugIn,Object>(plugInLocks);
+                locks.put(plugIn, new Object());
+                plugInLocks = locks;
+            }
+
+            snapshotPerFeedPlugIns();
         }
     }
 
@@ -436,16 +492,27 @@ public class MetaPlugIn
         }
     }
 
-    public synchronized boolean
+    public boolean
     forceFeedDownload(final FeedInfo feedInfo, final FeedCache feedCache)
         throws CurnException
     {
         boolean forceDownload = false;
 
-        for (ForceFeedDownloadPlugIn plugIn : forceFeedDownloadPlugIns)
+        for (ForceFeedDownloadPlugIn plugIn : forceFeedDownloadDispatch)
         {
             logPlugInInvocation("forceFeedDownload", plugIn);
-            forceDownload = plugIn.forceFeedDownload(feedInfo, feedCache);
+            Object lock = plugInLocks.get(plugIn);
+            if (lock == null)
+                forceDownload = plugIn.forceFeedDownload(feedInfo, feedCache);
+
+            else
+            {
+                synchronized (lock)
+                {
+                    forceDownload = plugIn.forceFeedDownload(feedInfo,
+                                                             feedCache);
+                }
+            }
 
             if (forceDownload)
                 break;
@@ -454,17 +521,28 @@ public class MetaPlugIn
         return forceDownload;
     }
 
-    public synchronized boolean
+    public boolean
     runPreFeedDownloadPlugIn(final FeedInfo      feedInfo,
                              final URLConnection urlConn)
         throws CurnException
     {
         boolean keepGoing = true;
 
-        for (PreFeedDownloadPlugIn plugIn : preFeedDownloadPlugIns)
+        for (PreFeedDownloadPlugIn plugIn : preFeedDownloadDispatch)
         {
             logPlugInInvocation("runPreFeedDownloadPlugIn", plugIn);
-            keepGoing = plugIn.runPreFeedDownloadPlugIn(feedInfo, urlConn);
+            Object lock = plugInLocks.get(plugIn);
+            if (lock == null)
+                keepGoing = plugIn.runPreFeedDownloadPlugIn(feedInfo, urlConn);
+
+            else
+            {
+                synchronized (lock)
+                {
+                    keepGoing = plugIn.runPreFeedDownloadPlugIn(feedInfo,
+                                                                urlConn);
+                }
+            }
 
             if (! keepGoing)
                 break;
@@ -473,7 +551,84 @@ public class MetaPlugIn
         return keepGoing;
     }
 
-    public synchronized boolean
+    /**
+     * Determine whether any post-download plug-in needs the downloaded data
+     * for a feed as a file. Plug-ins that don't implement
+     * {@link SelectivePostFeedDownloadPlugIn} are assumed to need it.
+     *
+     * @param feedInfo  the feed
+     *
+     * @return <tt>true</tt> if {@link #runPostFeedDownloadPlugIn} must be
+     *         called for the feed, <tt>false</tt> if it can be skipped
+     */
+    public boolean needsFeedDataFile(final FeedInfo feedInfo)
+    {
+        for (PostFeedDownloadPlugIn plugIn : postFeedDownloadDispatch)
+        {
+            if (! (plugIn instanceof SelectivePostFeedDownloadPlugIn))
+                return true;
+
+            SelectivePostFeedDownloadPlugIn selective =
+                (SelectivePostFeedDownloadPlugIn) plugIn;
+            boolean enabled;
+            Object lock = plugInLocks.get(plugIn);
+            if (lock == null)
+            {
+                enabled = selective.isEnabledForFeed(feedInfo);
+            }
+
+            else
+            {
+                synchronized (lock)
+                {
+                    enabled = selective.isEnabledForFeed(feedInfo);
+                }
+            }
+
+            if (enabled)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Determine whether any plug-in will want the JDOM document object
+     * model for a feed, once it has been parsed. Only plug-ins that
+     * implement {@link DOMConsumerPlugIn} are asked.
+     *
+     * @param feedInfo  the feed
+     *
+     * @return <tt>true</tt> if the parser must keep what it needs to build
+     *         the feed's DOM, <tt>false</tt> if not
+     */
+    public boolean needsDOM(final FeedInfo feedInfo)
+    {
+        for (DOMConsumerPlugIn plugIn : domConsumerDispatch)
+        {
+            boolean needed;
+            Object lock = plugInLocks.get(plugIn);
+            if (lock == null)
+            {
+                needed = plugIn.needsDOM(feedInfo);
+            }
+
+            else
+            {
+                synchronized (lock)
+                {
+                    needed = plugIn.needsDOM(feedInfo);
+                }
+            }
+
+            if (needed)
+                return true;
+        }
+
+        return false;
+    }
+
+    public boolean
     runPostFeedDownloadPlugIn(final FeedInfo feedInfo,
                               final File     feedDataFile,
                               final String   encoding)
@@ -481,12 +636,26 @@ public class MetaPlugIn
     {
         boolean keepGoing = true;
 
-        for (PostFeedDownloadPlugIn plugIn : postFeedDownloadPlugIns)
+        for (PostFeedDownloadPlugIn plugIn : postFeedDownloadDispatch)
         {
             logPlugInInvocation("runPostFeedDownloadPlugIn", plugIn);
-            keepGoing = plugIn.runPostFeedDownloadPlugIn(feedInfo,
-                                                         feedDataFile,
-                                                         encoding);
+            Object lock = plugInLocks.get(plugIn);
+            if (lock == null)
+            {
+                keepGoing = plugIn.runPostFeedDownloadPlugIn(feedInfo,
+                                                             feedDataFile,
+                                                             encoding);
+            }
+
+            else
+            {
+                synchronized (lock)
+                {
+                    keepGoing = plugIn.runPostFeedDownloadPlugIn(feedInfo,
+                                                                 feedDataFile,
+                                                                 encoding);
+                }
+            }
             if (! keepGoing)
                 break;
         }
@@ -494,7 +663,7 @@ public class MetaPlugIn
         return keepGoing;
     }
 
-    public synchronized boolean
+    public boolean
     runPostFeedParsePlugIn(final FeedInfo   feedInfo,
                            final FeedCache  feedCache,
                            final RSSChannel channel)
@@ -502,11 +671,25 @@ public class MetaPlugIn
     {
         boolean keepGoing = true;
 
-        for (PostFeedParsePlugIn plugIn : postFeedParsePlugIns)
+        for (PostFeedParsePlugIn plugIn : postFeedParseDispatch)
         {
             logPlugInInvocation("runPostFeedParsePlugIn", plugIn);
-            keepGoing = plugIn.runPostFeedParsePlugIn(feedInfo, feedCache,
-                                                      channel);
+            Object lock = plugInLocks.get(plugIn);
+            if (lock == null)
+            {
+                keepGoing = plugIn.runPostFeedParsePlugIn(feedInfo, feedCache,
+                                                          channel);
+            }
+
+            else
+            {
+                synchronized (lock)
+                {
+                    keepGoing = plugIn.runPostFeedParsePlugIn(feedInfo,
+                                                              feedCache,
+                                                              channel);
+                }
+            }
             if (! keepGoing)
                 break;
         }
@@ -514,7 +697,7 @@ public class MetaPlugIn
         return keepGoing;
     }
 
-    public synchronized boolean
+    public boolean
     runPostFeedProcessPlugIn(final FeedInfo   feedInfo,
                              final FeedCache  feedCache,
                              final RSSChannel channel)
@@ -522,11 +705,26 @@ public class MetaPlugIn
     {
         boolean keepGoing = true;
 
-        for (PostFeedProcessPlugIn plugIn : postFeedProcessPlugIns)
+        for (PostFeedProcessPlugIn plugIn : postFeedProcessDispatch)
         {
-            logPlugInInvocation("runPostFeedParsePlugIn", plugIn);
-            keepGoing = plugIn.runPostFeedProcessPlugIn(feedInfo, feedCache,
-                                                        channel);
+            logPlugInInvocation("runPostFeedProcessPlugIn", plugIn);
+            Object lock = plugInLocks.get(plugIn);
+            if (lock == null)
+            {
+                keepGoing = plugIn.runPostFeedProcessPlugIn(feedInfo,
+                                                            feedCache,
+                                                            channel);
+            }
+
+            else
+            {
+                synchronized (lock)
+                {
+                    keepGoing = plugIn.runPostFeedProcessPlugIn(feedInfo,
+                                                                feedCache,
+                                                                channel);
+                }
+            }
             if (! keepGoing)
                 break;
         }
@@ -640,6 +838,27 @@ public class MetaPlugIn
                               Private Methods
     \*----------------------------------------------------------------------*/
 
+    /**
+     * Rebuild the immutable dispatch arrays for the per-feed plug-in
+     * phases from the sorted plug-in sets. Must be called while holding
+     * the class lock.
+     */
+    private void snapshotPerFeedPlugIns()
+    {
+        forceFeedDownloadDispatch = forceFeedDownloadPlugIns.toArray
+            (new ForceFeedDownloadPlugIn[forceFeedDownloadPlugIns.size()]);
+        preFeedDownloadDispatch = preFeedDownloadPlugIns.toArray
+            (new PreFeedDownloadPlugIn[preFeedDownloadPlugIns.size()]);
+        postFeedDownloadDispatch = postFeedDownloadPlugIns.toArray
+            (new PostFeedDownloadPlugIn[postFeedDownloadPlugIns.size()]);
+        postFeedParseDispatch = postFeedParsePlugIns.toArray
+            (new PostFeedParsePlugIn[postFeedParsePlugIns.size()]);
+        postFeedProcessDispatch = postFeedProcessPlugIns.toArray
+            (new PostFeedProcessPlugIn[postFeedProcessPlugIns.size()]);
+        domConsumerDispatch = domConsumerPlugIns.toArray
+            (new DOMConsumerPlugIn[domConsumerPlugIns.size()]);
+    }
+
     /**
      * Log a plug-in invocation.
      *
@@ -0,0 +1,2248 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+
+import org.clapper.curn.parser.ParserUtil;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>An asynchronous {@link FeedDownloader} that does all of its HTTP I/O
+ * on one thread, using non-blocking <tt>java.nio</tt> socket channels and
+ * a <tt>Selector</tt>. {@link #download} just queues the request and
+ * returns, so a download thread can start any number of downloads without
+ * waiting for them; the number of feeds in flight is limited by the
+ * <tt>MaxDownloadsInFlight</tt> and <tt>MaxDownloadsPerHost</tt>
+ * configuration parameters, not by the number of threads. The content is
+ * streamed to the {@link FeedDownloadListener} as it arrives, and the
+ * outcome of each download is reported on a small pool of callback
+ * threads, so a slow listener never holds up the I/O thread.</p>
+ *
+ * <p>Idle connections are pooled by server (and proxy), and reused by
+ * later requests to the same server for a few seconds. This downloader
+ * speaks HTTP/1.1 (including chunked responses) over plain sockets, and
+ * over TLS for <tt>https:</tt> URLs, using the JDK's default
+ * <tt>SSLContext</tt>. It sends requests through the HTTP proxy chosen by
+ * the default <tt>ProxySelector</tt>, tunnelling <tt>https:</tt> requests
+ * with <tt>CONNECT</tt>. It follows redirects the same way
+ * <tt>HttpURLConnection</tt> does, and honors the connect and read
+ * timeouts set on the request's <tt>URLConnection</tt>. It doesn't speak
+ * HTTP/2, which needs TLS ALPN, and that isn't available in the Java
+ * releases <i>curn</i> supports.</p>
+ *
+ * <p>Requests it can't handle itself (URLs other than <tt>http:</tt> and
+ * <tt>https:</tt>, and URLs that go through a SOCKS proxy) are passed to a
+ * {@link URLConnectionFeedDownloader}, on the calling thread. So are
+ * <tt>https:</tt> URLs, on Java runtimes that can't check the server's
+ * host name on a non-blocking TLS connection (Java 6).</p>
+ *
+ * <p>To use it, set the <tt>DownloaderClass</tt> configuration parameter
+ * to <tt>org.clapper.curn.NIOFeedDownloader</tt>.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class NIOFeedDownloader implements FeedDownloader
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String CRLF = "\r\n";
+
+    /**
+     * Maximum number of redirects to follow. Same as the JDK's default
+     * for <tt>http.maxRedirects</tt>.
+     */
+    private static final int MAX_REDIRECTS = 20;
+
+    /**
+     * How long an idle connection stays in the pool, in milliseconds.
+     */
+    private static final long KEEP_ALIVE_TIME = 5000;
+
+    /**
+     * The longest the I/O thread waits for something to happen, in
+     * milliseconds.
+     */
+    private static final long SELECT_INTERVAL = 1000;
+
+    /**
+     * Size of the I/O thread's read buffer. It must be larger than a
+     * decrypted TLS record.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Sanity limit on the size of a response header.
+     */
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    /**
+     * Exchange phases.
+     */
+    private static final int CONNECT        = 0;
+    private static final int TUNNEL_SEND    = 1;
+    private static final int TUNNEL_RECEIVE = 2;
+    private static final int HANDSHAKE      = 3;
+    private static final int SEND           = 4;
+    private static final int RECEIVE        = 5;
+
+    /**
+     * Response parsing states.
+     */
+    private static final int READ_HEADERS     = 0;
+    private static final int READ_BODY        = 1;
+    private static final int READ_UNTIL_CLOSE = 2;
+    private static final int READ_CHUNK_SIZE  = 3;
+    private static final int READ_CHUNK       = 4;
+    private static final int READ_CHUNK_END   = 5;
+    private static final int READ_TRAILER     = 6;
+    private static final int COMPLETE         = 7;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /*----------------------------------------------------------------------*\
+                               Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The status and headers of a response.
+     */
+    private static class NIOResponse implements FeedDownloadResponse
+    {
+        private final URL                url;
+        private final int                responseCode;
+        private final Map<String,String> headers;
+
+        NIOResponse(URL url, int responseCode, Map<String,String> headers)
+        {
+            this.url          = url;
+            this.responseCode = responseCode;
+            this.headers      = headers;
+        }
+
+        public URL getURL()
+        {
+            return url;
+        }
+
+        public int getResponseCode()
+        {
+            return responseCode;
+        }
+
+        public long getLastModified()
+        {
+            long result = 0;
+            String lastModified = headers.get("Last-Modified");
+            Date date = ParserUtil.parseRFC822Date(lastModified);
+
+            if (date != null)
+                result = date.getTime();
+
+            return result;
+        }
+
+        public String getContentType()
+        {
+            return headers.get("Content-Type");
+        }
+
+        public String getHeaderField(String name)
+        {
+            return headers.get(name);
+        }
+    }
+
+    /**
+     * A connection to a server (or to a proxy), plain or TLS. Only used
+     * by the I/O thread. While the connection is idle, it's attached to
+     * its selection key; while it's in use, the exchange using it is.
+     */
+    private static class Connection
+    {
+        final String        poolKey;
+        final SocketChannel channel;
+        SelectionKey        key = null;
+        long                expires = 0;
+
+        private SSLEngine  ssl = null;
+        private ByteBuffer netIn = null;
+        private ByteBuffer netOut = null;
+        private ByteBuffer appIn = null;
+
+        Connection(String poolKey, SocketChannel channel)
+        {
+            this.poolKey = poolKey;
+            this.channel = channel;
+        }
+
+        /**
+         * Switch the connection to TLS, and start the handshake.
+         *
+         * @param engine  the engine for the connection
+         *
+         * @throws IOException on error
+         */
+        void startTLS(SSLEngine engine)
+            throws IOException
+        {
+            SSLSession session = engine.getSession();
+
+            ssl = engine;
+            netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+            netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+            netOut.limit(0);
+            appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+            ssl.beginHandshake();
+        }
+
+        /**
+         * Move the TLS handshake along, as far as it can go without
+         * waiting. If it has to wait for the channel, the selection key is
+         * set to wait for the right thing. If it has to wait for the
+         * engine's delegated tasks, the key is left alone, and
+         * {@link #takeDelegatedTasks} returns the tasks.
+         *
+         * @return <tt>true</tt> if the handshake is done, <tt>false</tt>
+         *         if it has to wait
+         *
+         * @throws IOException on error
+         */
+        boolean handshake()
+            throws IOException
+        {
+            for (;;)
+            {
+                if (! flush())
+                {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return false;
+                }
+
+                SSLEngineResult result;
+                switch (ssl.getHandshakeStatus())
+                {
+                    case NEED_TASK:
+                        return false;
+
+                    case NEED_WRAP:
+                        netOut.clear();
+                        result = ssl.wrap(EMPTY, netOut);
+                        netOut.flip();
+                        checkWrap(result);
+                        break;
+
+                    case NEED_UNWRAP:
+                        netIn.flip();
+                        result = ssl.unwrap(netIn, appIn);
+                        netIn.compact();
+
+                        if (result.getStatus() ==
+                            SSLEngineResult.Status.BUFFER_UNDERFLOW)
+                        {
+                            int n = fill();
+                            if (n < 0)
+                            {
+                                throw new SSLException("Connection closed " +
+                                                       "during TLS " +
+                                                       "handshake.");
+                            }
+
+                            if (n == 0)
+                            {
+                                key.interestOps(SelectionKey.OP_READ);
+                                return false;
+                            }
+                        }
+
+                        else if (result.getStatus() ==
+                                 SSLEngineResult.Status.BUFFER_OVERFLOW)
+                        {
+                            appIn = grow(appIn, ssl.getSession()
+                                                   .getApplicationBufferSize());
+                        }
+
+                        else if (result.getStatus() ==
+                                 SSLEngineResult.Status.CLOSED)
+                        {
+                            throw new SSLException("Connection closed " +
+                                                   "during TLS handshake.");
+                        }
+                        break;
+
+                    default:
+                        // Finished.
+
+                        return true;
+                }
+            }
+        }
+
+        /**
+         * Write as much of a buffer as possible.
+         *
+         * @param src  the bytes to write
+         *
+         * @return <tt>true</tt> if they've all been written,
+         *         <tt>false</tt> if the rest has to wait
+         *
+         * @throws IOException on error
+         */
+        boolean write(ByteBuffer src)
+            throws IOException
+        {
+            if (ssl == null)
+            {
+                channel.write(src);
+                return (! src.hasRemaining());
+            }
+
+            for (;;)
+            {
+                if (! flush())
+                    return false;
+
+                if (! src.hasRemaining())
+                    return true;
+
+                netOut.clear();
+                SSLEngineResult result = ssl.wrap(src, netOut);
+                netOut.flip();
+                checkWrap(result);
+            }
+        }
+
+        /**
+         * Read whatever is available, without waiting.
+         *
+         * @param dst  where to put the bytes
+         *
+         * @return the number of bytes read, 0 if there aren't any right
+         *         now, or -1 at the end of the input
+         *
+         * @throws IOException on error
+         */
+        int read(ByteBuffer dst)
+            throws IOException
+        {
+            if (ssl == null)
+                return channel.read(dst);
+
+            for (;;)
+            {
+                netIn.flip();
+                SSLEngineResult result = ssl.unwrap(netIn, dst);
+                netIn.compact();
+
+                if (result.getHandshakeStatus() ==
+                    SSLEngineResult.HandshakeStatus.NEED_TASK)
+                {
+                    runDelegatedTasks();
+                }
+
+                if (ssl.getHandshakeStatus() ==
+                    SSLEngineResult.HandshakeStatus.NEED_WRAP)
+                {
+                    // The server wants to renegotiate, or to update the
+                    // keys. Answer it.
+
+                    netOut.clear();
+                    checkWrap(ssl.wrap(EMPTY, netOut));
+                    netOut.flip();
+                    flush();
+                }
+
+                switch (result.getStatus())
+                {
+                    case BUFFER_UNDERFLOW:
+                        if (dst.position() > 0)
+                            return dst.position();
+
+                        int n = fill();
+                        if (n <= 0)
+                            return n;
+                        break;
+
+                    case BUFFER_OVERFLOW:
+                        if (dst.position() > 0)
+                            return dst.position();
+
+                        throw new SSLException("TLS record is too large.");
+
+                    case CLOSED:
+                        return (dst.position() > 0) ? dst.position() : -1;
+
+                    default:
+                        // Produced data, or consumed a record that didn't
+                        // have any (e.g., a session ticket). Give the
+                        // caller what there is before reading more.
+
+                        if (dst.position() > 0)
+                            return dst.position();
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Get the tasks the TLS engine needs run before the handshake can
+         * go on.
+         *
+         * @return the tasks; empty if there aren't any
+         */
+        List<Runnable> takeDelegatedTasks()
+        {
+            List<Runnable> result = new ArrayList<Runnable>();
+
+            if (ssl != null)
+            {
+                Runnable task;
+                while ((task = ssl.getDelegatedTask()) != null)
+                    result.add(task);
+            }
+
+            return result;
+        }
+
+        /**
+         * Determine whether the connection has input that hasn't been
+         * read. Such a connection can't be reused.
+         *
+         * @return <tt>true</tt> if there's unread input
+         */
+        boolean hasBufferedInput()
+        {
+            return (netIn != null) && (netIn.position() > 0);
+        }
+
+        private boolean flush()
+            throws IOException
+        {
+            if (netOut.hasRemaining())
+                channel.write(netOut);
+
+            return (! netOut.hasRemaining());
+        }
+
+        private int fill()
+            throws IOException
+        {
+            if (! netIn.hasRemaining())
+                netIn = grow(netIn, ssl.getSession().getPacketBufferSize());
+
+            return channel.read(netIn);
+        }
+
+        private void checkWrap(SSLEngineResult result)
+            throws SSLException
+        {
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)
+            {
+                netOut = ByteBuffer.allocate
+                    (Math.max(netOut.capacity() * 2,
+                              ssl.getSession().getPacketBufferSize()));
+                netOut.limit(0);
+            }
+
+            else if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+            {
+                throw new SSLException("TLS connection was closed.");
+            }
+        }
+
+        private void runDelegatedTasks()
+        {
+            Runnable task;
+            while ((task = ssl.getDelegatedTask()) != null)
+                task.run();
+        }
+
+        private static ByteBuffer grow(ByteBuffer buf, int minimum)
+        {
+            ByteBuffer result =
+                ByteBuffer.allocate(Math.max(buf.capacity() * 2, minimum));
+            buf.flip();
+            result.put(buf);
+            return result;
+        }
+    }
+
+    /**
+     * One download: a request, its listener, and the redirects followed
+     * so far.
+     */
+    private class Download
+    {
+        final FeedDownloadRequest  request;
+        final FeedDownloadListener listener;
+        final boolean              followRedirects;
+        final int                  connectTimeout;
+        final int                  readTimeout;
+        int                        redirects = 0;
+
+        Download(FeedDownloadRequest request, FeedDownloadListener listener)
+        {
+            URLConnection conn = request.getURLConnection();
+            boolean follow = HttpURLConnection.getFollowRedirects();
+            if (conn instanceof HttpURLConnection)
+            {
+                HttpURLConnection httpConn = (HttpURLConnection) conn;
+                follow = httpConn.getInstanceFollowRedirects();
+            }
+
+            this.request         = request;
+            this.listener        = listener;
+            this.followRedirects = follow;
+            this.connectTimeout  = conn.getConnectTimeout();
+            this.readTimeout     = conn.getReadTimeout();
+        }
+
+        void complete(final FeedDownloadResponse response)
+        {
+            callBack(new Runnable()
+            {
+                public void run()
+                {
+                    listener.downloadComplete(response);
+                }
+            });
+        }
+
+        void fail(final IOException ex)
+        {
+            callBack(new Runnable()
+            {
+                public void run()
+                {
+                    listener.downloadFailed(request, ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * One HTTP request and its response. Created by the thread that
+     * starts the download (or follows a redirect); everything else
+     * happens on the I/O thread.
+     */
+    private class Exchange
+    {
+        final Download          download;
+        final URL               url;
+        final InetSocketAddress address;
+        final String            poolKey;
+        final boolean           secure;
+        final String            tunnel;
+        final byte[]            request;
+
+        Connection conn = null;
+        int        phase = CONNECT;
+        ByteBuffer requestBuf = null;
+        boolean    reused = false;
+        long       deadline = 0;
+
+        int                   state = READ_HEADERS;
+        boolean               receivedAny = false;
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        int                   lineLength = 0;
+        int                   responseCode = 0;
+        Map<String,String>    headers = null;
+        boolean               keepAlive = false;
+        long                  remaining = 0;
+        StringBuilder         line = new StringBuilder();
+
+        NIOResponse  response = null;
+        URL          redirectTo = null;
+        OutputStream sink = null;
+        IOException  rejected = null;
+
+        /**
+         * Create a new exchange.
+         *
+         * @param download  the download it's part of
+         * @param url       the URL to get
+         * @param address   the address to connect to (the server's, or
+         *                  the proxy's)
+         * @param poolKey   identifies the connections that can be used
+         * @param secure    whether to use TLS
+         * @param tunnel    the host and port to ask the proxy to tunnel
+         *                  to, or null
+         * @param request   the encoded request
+         */
+        Exchange(Download          download,
+                 URL               url,
+                 InetSocketAddress address,
+                 String            poolKey,
+                 boolean           secure,
+                 String            tunnel,
+                 byte[]            request)
+        {
+            this.download = download;
+            this.url      = url;
+            this.address  = address;
+            this.poolKey  = poolKey;
+            this.secure   = secure;
+            this.tunnel   = tunnel;
+            this.request  = request;
+        }
+
+        /**
+         * Get ready to (re)send the request on a new connection.
+         */
+        void reset()
+        {
+            conn = null;
+            phase = CONNECT;
+            requestBuf = ByteBuffer.wrap(request);
+            reused = false;
+            state = READ_HEADERS;
+            receivedAny = false;
+            headerBytes.reset();
+            lineLength = 0;
+        }
+
+        /**
+         * Parse the proxy's response to a <tt>CONNECT</tt> request.
+         *
+         * @param in  the bytes
+         *
+         * @return <tt>true</tt> if the tunnel is open
+         *
+         * @throws IOException the proxy refused
+         */
+        boolean consumeTunnelResponse(ByteBuffer in)
+            throws IOException
+        {
+            while (in.hasRemaining())
+            {
+                byte b = in.get();
+                headerBytes.write(b);
+                if (headerBytes.size() > MAX_HEADER_SIZE)
+                {
+                    throw new IOException("Proxy response header is too " +
+                                          "large.");
+                }
+
+                if (b == '\n')
+                {
+                    if (lineLength == 0)
+                    {
+                        String status = headerBytes.toString("ISO-8859-1")
+                                                   .split("\r?\n")[0];
+                        String[] fields = status.split(" ", 3);
+                        if ((fields.length < 2) || (! fields[1].equals("200")))
+                        {
+                            throw new IOException("Unable to tunnel " +
+                                                  "through proxy. Proxy " +
+                                                  "returns \"" + status +
+                                                  "\"");
+                        }
+
+                        headerBytes.reset();
+                        return true;
+                    }
+
+                    lineLength = 0;
+                }
+
+                else if (b != '\r')
+                {
+                    lineLength++;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Parse response bytes.
+         *
+         * @param in  the bytes
+         *
+         * @return <tt>true</tt> if the response is complete
+         *
+         * @throws IOException malformed response, or the content can't be
+         *                     stored
+         */
+        boolean consume(ByteBuffer in)
+            throws IOException
+        {
+            receivedAny = true;
+
+            while (in.hasRemaining() && (state != COMPLETE))
+            {
+                switch (state)
+                {
+                    case READ_HEADERS:
+                        readHeaderByte(in.get());
+                        break;
+
+                    case READ_BODY:
+                    case READ_CHUNK:
+                        readBody(in);
+                        if (remaining == 0)
+                        {
+                            state = (state == READ_BODY) ? COMPLETE
+                                                         : READ_CHUNK_END;
+                        }
+                        break;
+
+                    case READ_UNTIL_CLOSE:
+                        readBody(in);
+                        break;
+
+                    case READ_CHUNK_END:
+                        if (in.get() == '\n')
+                            state = READ_CHUNK_SIZE;
+                        break;
+
+                    case READ_CHUNK_SIZE:
+                        if (readLine(in.get()))
+                            startChunk();
+                        break;
+
+                    case READ_TRAILER:
+                        if (readLine(in.get()))
+                        {
+                            if (line.length() == 0)
+                                state = COMPLETE;
+                            line.setLength(0);
+                        }
+                        break;
+
+                    default:
+                        assert(false);
+                }
+            }
+
+            // Anything after the response means the connection isn't in
+            // a known state.
+
+            if ((state == COMPLETE) && in.hasRemaining())
+                keepAlive = false;
+
+            return state == COMPLETE;
+        }
+
+        /**
+         * Handle the end of the input.
+         *
+         * @return <tt>true</tt> if the response is complete
+         *
+         * @throws IOException the response is incomplete
+         */
+        boolean endOfInput()
+            throws IOException
+        {
+            if (state != READ_UNTIL_CLOSE)
+            {
+                throw new IOException("Connection closed before the " +
+                                      "response from \"" + url +
+                                      "\" was complete.");
+            }
+
+            keepAlive = false;
+            state = COMPLETE;
+            return true;
+        }
+
+        /**
+         * Close the stream the content is going to, if there is one.
+         *
+         * @return the error, if the stream couldn't be closed
+         */
+        IOException closeSink()
+        {
+            IOException result = null;
+
+            if (sink != null)
+            {
+                try
+                {
+                    sink.close();
+                }
+
+                catch (IOException ex)
+                {
+                    result = ex;
+                }
+
+                sink = null;
+            }
+
+            return result;
+        }
+
+        private void readHeaderByte(byte b)
+            throws IOException
+        {
+            headerBytes.write(b);
+            if (headerBytes.size() > MAX_HEADER_SIZE)
+            {
+                throw new IOException("Response header from \"" + url +
+                                      "\" is too large.");
+            }
+
+            if (b == '\n')
+            {
+                if (lineLength == 0)
+                    parseHeaders();
+                lineLength = 0;
+            }
+
+            else if (b != '\r')
+            {
+                lineLength++;
+            }
+        }
+
+        private void readBody(ByteBuffer in)
+            throws IOException
+        {
+            int n = in.remaining();
+            if ((state != READ_UNTIL_CLOSE) && (n > remaining))
+                n = (int) remaining;
+
+            if (sink != null)
+                sink.write(in.array(), in.arrayOffset() + in.position(), n);
+
+            in.position(in.position() + n);
+            remaining -= n;
+        }
+
+        private boolean readLine(byte b)
+        {
+            boolean eol = false;
+
+            if (b == '\n')
+                eol = true;
+            else if (b != '\r')
+                line.append((char) b);
+
+            return eol;
+        }
+
+        private void startChunk()
+            throws IOException
+        {
+            String size = line.toString();
+            int semi = size.indexOf(';');
+            if (semi >= 0)
+                size = size.substring(0, semi);
+            line.setLength(0);
+
+            try
+            {
+                remaining = Long.parseLong(size.trim(), 16);
+            }
+
+            catch (NumberFormatException ex)
+            {
+                throw new IOException("Bad chunk size \"" + size +
+                                      "\" in response from \"" + url +
+                                      "\"");
+            }
+
+            state = (remaining == 0) ? READ_TRAILER : READ_CHUNK;
+        }
+
+        private void parseHeaders()
+            throws IOException
+        {
+            String[] lines = headerBytes.toString("ISO-8859-1").split("\r?\n");
+            String[] status = lines[0].split(" ", 3);
+            Map<String,String> map =
+                new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+            String name = null;
+
+            try
+            {
+                if ((status.length < 2) || (! status[0].startsWith("HTTP/")))
+                    throw new NumberFormatException(lines[0]);
+
+                responseCode = Integer.parseInt(status[1]);
+            }
+
+            catch (NumberFormatException ex)
+            {
+                throw new ProtocolException("Bad status line \"" + lines[0] +
+                                            "\" in response from \"" + url +
+                                            "\"");
+            }
+
+            headerBytes.reset();
+            if (responseCode < 200)
+            {
+                // Interim response (e.g., "100 Continue"). The real one
+                // follows.
+
+                return;
+            }
+
+            for (int i = 1; i < lines.length; i++)
+            {
+                String s = lines[i];
+                int colon = s.indexOf(':');
+
+                if ((s.length() > 0) &&
+                    ((s.charAt(0) == ' ') || (s.charAt(0) == '\t')) &&
+                    (name != null))
+                {
+                    map.put(name, map.get(name) + " " + s.trim());
+                }
+
+                else if (colon > 0)
+                {
+                    // Like URLConnection.getHeaderField(), the last value
+                    // wins.
+
+                    name = s.substring(0, colon).trim();
+                    map.put(name, s.substring(colon + 1).trim());
+                }
+            }
+
+            headers = map;
+
+            String connection = map.get("Connection");
+            if (connection != null)
+                connection = connection.toLowerCase(Locale.US);
+            if (status[0].equals("HTTP/1.0"))
+            {
+                keepAlive = (connection != null) &&
+                            (connection.indexOf("keep-alive") >= 0);
+            }
+
+            else
+            {
+                keepAlive = (connection == null) ||
+                            (connection.indexOf("close") < 0);
+            }
+
+            String transferEncoding = map.get("Transfer-Encoding");
+            String contentLength = map.get("Content-Length");
+
+            if ((responseCode == HttpURLConnection.HTTP_NO_CONTENT) ||
+                (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED))
+            {
+                state = COMPLETE;
+            }
+
+            else if ((transferEncoding != null) &&
+                     (transferEncoding.toLowerCase(Locale.US)
+                                      .indexOf("chunked") >= 0))
+            {
+                state = READ_CHUNK_SIZE;
+            }
+
+            else if (contentLength != null)
+            {
+                try
+                {
+                    remaining = Long.parseLong(contentLength);
+                }
+
+                catch (NumberFormatException ex)
+                {
+                    throw new ProtocolException("Bad Content-Length \"" +
+                                                contentLength + "\" in " +
+                                                "response from \"" + url +
+                                                "\"");
+                }
+
+                state = (remaining == 0) ? COMPLETE : READ_BODY;
+            }
+
+            else
+            {
+                state = READ_UNTIL_CLOSE;
+                keepAlive = false;
+            }
+
+            headersReceived();
+        }
+
+        /**
+         * Called once the final response's headers have been parsed.
+         * Decides whether to follow a redirect and, if not, asks the
+         * listener where the content goes.
+         *
+         * @throws IOException bad redirect
+         */
+        private void headersReceived()
+            throws IOException
+        {
+            response = new NIOResponse(url, responseCode, headers);
+
+            String location = headers.get("Location");
+            if (download.followRedirects &&
+                isRedirect(responseCode) &&
+                (location != null))
+            {
+                // Like HttpURLConnection, don't follow a redirect to
+                // another protocol.
+
+                URL target = new URL(url, location);
+                if (target.getProtocol().equals(url.getProtocol()) &&
+                    canDownload(target))
+                {
+                    redirectTo = target;
+                    return;
+                }
+            }
+
+            try
+            {
+                sink = download.listener.responseReceived(response);
+            }
+
+            catch (IOException ex)
+            {
+                // Read and discard the content anyway, so the
+                // connection can be reused.
+
+                rejected = ex;
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Handles whatever this downloader can't.
+     */
+    private final URLConnectionFeedDownloader fallback =
+        new URLConnectionFeedDownloader();
+
+    private Selector selector = null;
+    private Thread ioThread = null;
+    private ExecutorService callbackThreads = null;
+    private volatile boolean shuttingDown = false;
+
+    /**
+     * For TLS. <tt>setEndpointIdentificationAlgorithm</tt> is a Java 7
+     * method; without it, there's no host name check.
+     */
+    private SSLContext sslContext = null;
+    private Method setEndpointIdentificationAlgorithm = null;
+
+    /**
+     * Exchanges waiting for the I/O thread to start them. Once the I/O
+     * thread has exited, the queue is closed.
+     */
+    private final LinkedList<Exchange> newExchanges =
+        new LinkedList<Exchange>();
+    private boolean closed = false;
+
+    /**
+     * Exchanges whose TLS engine tasks have been run, waiting for the I/O
+     * thread to carry on with the handshake.
+     */
+    private final LinkedList<Exchange> resumedExchanges =
+        new LinkedList<Exchange>();
+
+    /**
+     * Exchanges in progress, and idle connections by pool key. Only used
+     * by the I/O thread.
+     */
+    private final Set<Exchange> activeExchanges = new HashSet<Exchange>();
+    private final Map<String,LinkedList<Connection>> idleConnections =
+        new HashMap<String,LinkedList<Connection>>();
+
+    private static final Logger log = new Logger(NIOFeedDownloader.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new <tt>NIOFeedDownloader</tt>.
+     */
+    public NIOFeedDownloader()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Initialize the downloader, and start its threads.
+     *
+     * @param config  the parsed configuration
+     *
+     * @throws CurnException on error
+     */
+    public void init(CurnConfig config)
+        throws CurnException
+    {
+        fallback.init(config);
+
+        try
+        {
+            sslContext = SSLContext.getDefault();
+            setEndpointIdentificationAlgorithm =
+                SSLParameters.class.getMethod
+                    ("setEndpointIdentificationAlgorithm", String.class);
+        }
+
+        catch (NoSuchAlgorithmException ex)
+        {
+            log.info("No default TLS context. https: feeds will be " +
+                     "downloaded with URLConnection.", ex);
+            sslContext = null;
+        }
+
+        catch (NoSuchMethodException ex)
+        {
+            log.info("This Java runtime can't check host names on " +
+                     "non-blocking TLS connections. https: feeds will be " +
+                     "downloaded with URLConnection.");
+            sslContext = null;
+        }
+
+        try
+        {
+            selector = Selector.open();
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException("Can't open NIO selector", ex);
+        }
+
+        final AtomicInteger nextThreadID = new AtomicInteger(0);
+        callbackThreads = Executors.newFixedThreadPool
+            (Math.max(2, Runtime.getRuntime().availableProcessors()),
+             new ThreadFactory()
+             {
+                 public Thread newThread(Runnable r)
+                 {
+                     Thread thread =
+                         new Thread(r,
+                                    "curn NIO downloader callbacks-" +
+                                    nextThreadID.getAndIncrement());
+                     thread.setDaemon(true);
+                     return thread;
+                 }
+             });
+
+        ioThread = new Thread("curn NIO downloader")
+        {
+            public void run()
+            {
+                runSelector();
+            }
+        };
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Start the download of a feed. Returns right away, unless the
+     * request has to go to the fallback downloader.
+     *
+     * @param request   the request
+     * @param listener  receives the response and its content
+     */
+    public void download(FeedDownloadRequest  request,
+                         FeedDownloadListener listener)
+    {
+        URL url = request.getURL();
+
+        if (canDownload(url))
+            issue(new Download(request, listener), url);
+        else
+            fallback.download(request, listener);
+    }
+
+    /**
+     * Stop the I/O thread, close all connections, and wait for the
+     * listeners to be called back.
+     */
+    public void shutdown()
+    {
+        shuttingDown = true;
+
+        if (ioThread != null)
+        {
+            selector.wakeup();
+
+            try
+            {
+                ioThread.join();
+                callbackThreads.shutdown();
+                callbackThreads.awaitTermination(Long.MAX_VALUE,
+                                                 TimeUnit.SECONDS);
+            }
+
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        fallback.shutdown();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether this downloader handles a URL itself.
+     *
+     * @param url  the URL
+     *
+     * @return <tt>true</tt> if so, <tt>false</tt> if it goes to the
+     *         fallback downloader
+     */
+    private boolean canDownload(URL url)
+    {
+        String protocol = url.getProtocol();
+        boolean result = protocol.equals("http") ||
+                         (protocol.equals("https") && (sslContext != null));
+
+        if (result)
+        {
+            Proxy proxy = selectProxy(url);
+            result = (proxy != null) && (proxy.type() != Proxy.Type.SOCKS);
+        }
+
+        return result;
+    }
+
+    /**
+     * Find out how to reach a URL, using the default
+     * <tt>ProxySelector</tt>.
+     *
+     * @param url  the URL
+     *
+     * @return the proxy, <tt>Proxy.NO_PROXY</tt> for a direct connection,
+     *         or null if the URL is unusable
+     */
+    private Proxy selectProxy(URL url)
+    {
+        Proxy result = Proxy.NO_PROXY;
+        ProxySelector proxySelector = ProxySelector.getDefault();
+
+        if (proxySelector != null)
+        {
+            try
+            {
+                List<Proxy> proxies = proxySelector.select(url.toURI());
+                if (! proxies.isEmpty())
+                    result = proxies.get(0);
+            }
+
+            catch (URISyntaxException ex)
+            {
+                result = null;
+            }
+        }
+
+        return result;
+    }
+
+    private boolean isRedirect(int responseCode)
+    {
+        return (responseCode == HttpURLConnection.HTTP_MULT_CHOICE) ||
+               (responseCode == HttpURLConnection.HTTP_MOVED_PERM) ||
+               (responseCode == HttpURLConnection.HTTP_MOVED_TEMP) ||
+               (responseCode == HttpURLConnection.HTTP_SEE_OTHER) ||
+               (responseCode == 307) ||
+               (responseCode == 308);
+    }
+
+    /**
+     * Queue one request for the I/O thread. Called by the thread that
+     * starts a download, or by a callback thread, to follow a redirect.
+     * Errors are reported to the download's listener.
+     *
+     * @param download  the download
+     * @param url       the URL to get
+     */
+    private void issue(Download download, URL url)
+    {
+        Exchange exchange = null;
+        IOException error = null;
+
+        try
+        {
+            // Resolve the host name here, rather than on the I/O thread.
+
+            exchange = newExchange(download, url);
+        }
+
+        catch (IOException ex)
+        {
+            error = ex;
+        }
+
+        if (exchange != null)
+        {
+            synchronized (newExchanges)
+            {
+                if (closed)
+                {
+                    error = new IOException("Feed downloader has shut down.");
+                }
+
+                else
+                {
+                    newExchanges.add(exchange);
+                    selector.wakeup();
+                }
+            }
+        }
+
+        if (error != null)
+            download.fail(error);
+    }
+
+    /**
+     * Work out how to get a URL, and build the exchange that gets it.
+     *
+     * @param download  the download
+     * @param url       the URL
+     *
+     * @return the exchange
+     *
+     * @throws IOException on error
+     */
+    private Exchange newExchange(Download download, URL url)
+        throws IOException
+    {
+        Proxy proxy = selectProxy(url);
+        if (proxy == null)
+            throw new MalformedURLException(url.toString());
+
+        boolean secure = url.getProtocol().equals("https");
+        int port = url.getPort();
+        if (port == -1)
+            port = url.getDefaultPort();
+
+        String hostAndPort = url.getHost() + ":" + port;
+        InetSocketAddress address;
+        String poolKey;
+        String tunnel = null;
+        boolean viaProxy = false;
+
+        if (proxy.type() == Proxy.Type.DIRECT)
+        {
+            address = new InetSocketAddress(url.getHost(), port);
+            poolKey = url.getProtocol() + "://" + hostAndPort;
+        }
+
+        else
+        {
+            // A plain request goes to the proxy with the full URL, so any
+            // connection to the proxy will do. An https: request is
+            // tunnelled to its server.
+
+            InetSocketAddress proxyAddress =
+                (InetSocketAddress) proxy.address();
+            String proxyKey = proxyAddress.getHostName() + ":" +
+                              proxyAddress.getPort();
+
+            address = new InetSocketAddress(proxyAddress.getHostName(),
+                                            proxyAddress.getPort());
+            if (secure)
+            {
+                tunnel = hostAndPort;
+                poolKey = "https://" + hostAndPort + " via " + proxyKey;
+            }
+
+            else
+            {
+                viaProxy = true;
+                poolKey = "http via " + proxyKey;
+            }
+        }
+
+        if (address.isUnresolved())
+            throw new UnknownHostException(address.getHostName());
+
+        return new Exchange(download,
+                            url,
+                            address,
+                            poolKey,
+                            secure,
+                            tunnel,
+                            buildRequest(url, download.request, viaProxy));
+    }
+
+    /**
+     * Build the bytes of a request.
+     *
+     * @param url       the URL to get
+     * @param request   the request, for its headers
+     * @param viaProxy  whether the request goes to a proxy, which needs
+     *                  the full URL
+     *
+     * @return the encoded request
+     *
+     * @throws IOException on error
+     */
+    private byte[] buildRequest(URL                 url,
+                                FeedDownloadRequest request,
+                                boolean             viaProxy)
+        throws IOException
+    {
+        StringBuilder buf = new StringBuilder();
+        String file = url.getFile();
+        boolean haveUserAgent = false;
+        boolean haveAccept = false;
+
+        if (file.length() == 0)
+            file = "/";
+
+        buf.append("GET ");
+        if (viaProxy)
+        {
+            buf.append(url.getProtocol() + "://" + url.getHost());
+            if (url.getPort() != -1)
+                buf.append(":" + url.getPort());
+        }
+        buf.append(file);
+        buf.append(" HTTP/1.1" + CRLF);
+        buf.append("Host: " + url.getHost());
+        if (url.getPort() != -1)
+            buf.append(":" + url.getPort());
+        buf.append(CRLF);
+
+        for (Map.Entry<String,List<String>> header :
+                 request.getRequestHeaders().entrySet())
+        {
+            String name = header.getKey();
+            if ((name == null) ||
+                name.equalsIgnoreCase("Host") ||
+                name.equalsIgnoreCase("Connection") ||
+                name.equalsIgnoreCase("Content-Length"))
+            {
+                continue;
+            }
+
+            haveUserAgent |= name.equalsIgnoreCase("User-Agent");
+            haveAccept |= name.equalsIgnoreCase("Accept");
+            for (String value : header.getValue())
+                buf.append(name + ": " + value + CRLF);
+        }
+
+        long ifModifiedSince = request.getIfModifiedSince();
+        if (ifModifiedSince > 0)
+        {
+            SimpleDateFormat fmt =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                                     Locale.US);
+            fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+            buf.append("If-Modified-Since: " +
+                       fmt.format(new Date(ifModifiedSince)) + CRLF);
+        }
+
+        // Same defaults as HttpURLConnection.
+
+        if (! haveUserAgent)
+        {
+            buf.append("User-Agent: Java/" +
+                       System.getProperty("java.version") + CRLF);
+        }
+
+        if (! haveAccept)
+            buf.append("Accept: */*" + CRLF);
+
+        buf.append(CRLF);
+        return buf.toString().getBytes("ISO-8859-1");
+    }
+
+    /**
+     * Build a TLS engine for a server, with host name checking.
+     *
+     * @param url  the URL being downloaded
+     *
+     * @return the engine
+     *
+     * @throws IOException on error
+     */
+    private SSLEngine newSSLEngine(URL url)
+        throws IOException
+    {
+        int port = url.getPort();
+        if (port == -1)
+            port = url.getDefaultPort();
+
+        SSLEngine engine = sslContext.createSSLEngine(url.getHost(), port);
+        engine.setUseClientMode(true);
+
+        SSLParameters params = engine.getSSLParameters();
+        try
+        {
+            setEndpointIdentificationAlgorithm.invoke(params, "HTTPS");
+        }
+
+        catch (Exception ex)
+        {
+            throw new SSLException("Can't enable host name checking", ex);
+        }
+
+        engine.setSSLParameters(params);
+        return engine;
+    }
+
+    /**
+     * Run a listener callback on one of the callback threads.
+     *
+     * @param callback  the callback
+     */
+    private void callBack(Runnable callback)
+    {
+        try
+        {
+            callbackThreads.execute(callback);
+        }
+
+        catch (RejectedExecutionException ex)
+        {
+            // Shut down already. Better late than never.
+
+            callback.run();
+        }
+    }
+
+    /**
+     * The I/O thread's main loop.
+     */
+    private void runSelector()
+    {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long selectTime = SELECT_INTERVAL;
+
+        try
+        {
+            while (! shuttingDown)
+            {
+                selector.select(selectTime);
+
+                for (;;)
+                {
+                    Exchange exchange;
+                    synchronized (newExchanges)
+                    {
+                        exchange = newExchanges.poll();
+                    }
+
+                    if (exchange == null)
+                        break;
+
+                    startExchange(exchange);
+                }
+
+                for (;;)
+                {
+                    Exchange exchange;
+                    synchronized (resumedExchanges)
+                    {
+                        exchange = resumedExchanges.poll();
+                    }
+
+                    if (exchange == null)
+                        break;
+
+                    // It may have timed out in the meantime.
+
+                    if (activeExchanges.contains(exchange))
+                        step(exchange, buf);
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext())
+                {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid())
+                        handleKey(key, buf);
+                }
+
+                selectTime = checkTimeouts();
+            }
+        }
+
+        catch (IOException ex)
+        {
+            log.error("NIO feed downloader failed.", ex);
+        }
+
+        finally
+        {
+            closeAll();
+        }
+    }
+
+    /**
+     * Start an exchange, on a pooled connection if there is one.
+     *
+     * @param exchange  the exchange
+     */
+    private void startExchange(Exchange exchange)
+    {
+        activeExchanges.add(exchange);
+        exchange.reset();
+
+        Connection idle = takeIdleConnection(exchange.poolKey);
+
+        try
+        {
+            if (idle != null)
+            {
+                exchange.conn = idle;
+                exchange.reused = true;
+                exchange.phase = SEND;
+                idle.key.attach(exchange);
+                idle.key.interestOps(SelectionKey.OP_WRITE);
+                exchange.deadline = deadline(exchange.download.readTimeout);
+            }
+
+            else
+            {
+                connect(exchange);
+            }
+        }
+
+        catch (IOException ex)
+        {
+            failExchange(exchange, ex);
+        }
+    }
+
+    private void connect(Exchange exchange)
+        throws IOException
+    {
+        SocketChannel channel = SocketChannel.open();
+        Connection conn = new Connection(exchange.poolKey, channel);
+
+        exchange.conn = conn;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        if (channel.connect(exchange.address))
+        {
+            conn.key = channel.register(selector, 0, exchange);
+            connected(exchange);
+        }
+
+        else
+        {
+            conn.key = channel.register(selector,
+                                        SelectionKey.OP_CONNECT,
+                                        exchange);
+            exchange.deadline = deadline(exchange.download.connectTimeout);
+        }
+    }
+
+    /**
+     * Called once an exchange's connection is open.
+     *
+     * @param exchange  the exchange
+     *
+     * @throws IOException on error
+     */
+    private void connected(Exchange exchange)
+        throws IOException
+    {
+        if (exchange.tunnel != null)
+        {
+            String connect = "CONNECT " + exchange.tunnel + " HTTP/1.1" +
+                             CRLF + "Host: " + exchange.tunnel + CRLF + CRLF;
+            exchange.requestBuf =
+                ByteBuffer.wrap(connect.getBytes("ISO-8859-1"));
+            exchange.phase = TUNNEL_SEND;
+        }
+
+        else if (exchange.secure)
+        {
+            exchange.conn.startTLS(newSSLEngine(exchange.url));
+            exchange.phase = HANDSHAKE;
+        }
+
+        else
+        {
+            exchange.phase = SEND;
+        }
+
+        exchange.conn.key.interestOps(SelectionKey.OP_WRITE);
+        exchange.deadline = deadline(exchange.download.readTimeout);
+    }
+
+    /**
+     * Handle a ready channel.
+     *
+     * @param key  the channel's selection key
+     * @param buf  buffer to read into
+     */
+    private void handleKey(SelectionKey key, ByteBuffer buf)
+    {
+        Object attachment = key.attachment();
+
+        if (attachment instanceof Connection)
+        {
+            // An idle connection is only readable if the server closed it
+            // (or sent something it shouldn't have). Either way, it can't
+            // be reused.
+
+            Connection idle = (Connection) attachment;
+            idleConnections.get(idle.poolKey).remove(idle);
+            closeChannel(idle.channel);
+            return;
+        }
+
+        Exchange exchange = (Exchange) attachment;
+
+        // A pooled connection may have been selected before it was given
+        // to this exchange, so only look at what the exchange asked for.
+
+        int ready = key.readyOps() & key.interestOps();
+
+        if (exchange.phase == CONNECT)
+        {
+            if ((ready & SelectionKey.OP_CONNECT) != 0)
+                step(exchange, buf);
+        }
+
+        else if (ready != 0)
+        {
+            exchange.deadline = deadline(exchange.download.readTimeout);
+            step(exchange, buf);
+        }
+    }
+
+    /**
+     * Move an exchange along, failing it on error.
+     *
+     * @param exchange  the exchange
+     * @param buf       buffer to read into
+     */
+    private void step(Exchange exchange, ByteBuffer buf)
+    {
+        try
+        {
+            if (exchange.phase != CONNECT)
+                advance(exchange, buf);
+            else if (exchange.conn.channel.finishConnect())
+                connected(exchange);
+        }
+
+        catch (IOException ex)
+        {
+            failExchange(exchange, ex);
+        }
+
+        catch (RuntimeException ex)
+        {
+            // E.g., from the listener. Don't let it kill the I/O thread.
+
+            IOException ioe = new IOException(ex.toString());
+            ioe.initCause(ex);
+            failExchange(exchange, ioe);
+        }
+    }
+
+    /**
+     * Move an exchange along, as far as it can go without waiting. If it
+     * has to wait, its selection key is set to wait for the right thing.
+     *
+     * @param exchange  the exchange
+     * @param buf       buffer to read into
+     *
+     * @throws IOException on error
+     */
+    private void advance(Exchange exchange, ByteBuffer buf)
+        throws IOException
+    {
+        Connection conn = exchange.conn;
+
+        for (;;)
+        {
+            switch (exchange.phase)
+            {
+                case TUNNEL_SEND:
+                    if (! conn.write(exchange.requestBuf))
+                    {
+                        conn.key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+
+                    exchange.requestBuf = ByteBuffer.wrap(exchange.request);
+                    exchange.phase = TUNNEL_RECEIVE;
+                    break;
+
+                case TUNNEL_RECEIVE:
+                    buf.clear();
+                    int n = conn.read(buf);
+                    if (n < 0)
+                    {
+                        throw new IOException("Proxy closed the connection " +
+                                              "to \"" + exchange.url +
+                                              "\".");
+                    }
+
+                    if (n == 0)
+                    {
+                        conn.key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+
+                    buf.flip();
+                    if (exchange.consumeTunnelResponse(buf))
+                    {
+                        conn.startTLS(newSSLEngine(exchange.url));
+                        exchange.phase = HANDSHAKE;
+                    }
+                    break;
+
+                case HANDSHAKE:
+                    if (! conn.handshake())
+                    {
+                        runDelegatedTasks(exchange);
+                        return;
+                    }
+
+                    exchange.phase = SEND;
+                    break;
+
+                case SEND:
+                    if (! conn.write(exchange.requestBuf))
+                    {
+                        conn.key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+
+                    exchange.phase = RECEIVE;
+                    break;
+
+                case RECEIVE:
+                    receive(exchange, buf);
+                    return;
+
+                default:
+                    assert(false);
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Run the TLS engine's delegated tasks (mostly checking the server's
+     * certificate) on a callback thread, so they don't hold up the other
+     * connections, then hand the exchange back to the I/O thread.
+     *
+     * @param exchange  the exchange whose handshake is waiting
+     */
+    private void runDelegatedTasks(final Exchange exchange)
+    {
+        final List<Runnable> tasks = exchange.conn.takeDelegatedTasks();
+
+        if (! tasks.isEmpty())
+        {
+            exchange.conn.key.interestOps(0);
+            callBack(new Runnable()
+            {
+                public void run()
+                {
+                    for (Runnable task : tasks)
+                        task.run();
+
+                    synchronized (resumedExchanges)
+                    {
+                        resumedExchanges.add(exchange);
+                    }
+
+                    selector.wakeup();
+                }
+            });
+        }
+    }
+
+    /**
+     * Read as much of a response as is available.
+     *
+     * @param exchange  the exchange
+     * @param buf       buffer to read into
+     *
+     * @throws IOException on error
+     */
+    private void receive(Exchange exchange, ByteBuffer buf)
+        throws IOException
+    {
+        Connection conn = exchange.conn;
+
+        for (;;)
+        {
+            buf.clear();
+            int n = conn.read(buf);
+
+            if (n < 0)
+            {
+                if ((exchange.reused) && (! exchange.receivedAny))
+                {
+                    // The server closed the pooled connection before
+                    // this request got to it.
+
+                    throw new IOException("Pooled connection closed.");
+                }
+
+                if (exchange.endOfInput())
+                    completeExchange(exchange);
+                return;
+            }
+
+            if (n == 0)
+            {
+                conn.key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+
+            buf.flip();
+            if (exchange.consume(buf))
+            {
+                completeExchange(exchange);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finish an exchange successfully, and pool its connection, if it can
+     * be reused. Then either follow the redirect, or report the outcome
+     * of the download.
+     *
+     * @param exchange  the exchange
+     */
+    private void completeExchange(Exchange exchange)
+    {
+        Connection conn = exchange.conn;
+        final Download download = exchange.download;
+
+        activeExchanges.remove(exchange);
+        exchange.conn = null;
+
+        if (exchange.keepAlive && (! conn.hasBufferedInput()))
+        {
+            conn.expires = System.currentTimeMillis() + KEEP_ALIVE_TIME;
+            conn.key.attach(conn);
+            conn.key.interestOps(SelectionKey.OP_READ);
+
+            LinkedList<Connection> pool = idleConnections.get(conn.poolKey);
+            if (pool == null)
+            {
+                pool = new LinkedList<Connection>();
+                idleConnections.put(conn.poolKey, pool);
+            }
+
+            pool.addLast(conn);
+        }
+
+        else
+        {
+            closeChannel(conn.channel);
+        }
+
+        if (exchange.redirectTo != null)
+        {
+            final URL target = exchange.redirectTo;
+
+            if (download.redirects++ == MAX_REDIRECTS)
+            {
+                download.fail(new ProtocolException("Server redirected " +
+                                                    "too many times (" +
+                                                    MAX_REDIRECTS + ")"));
+            }
+
+            else
+            {
+                // The next request might need a DNS lookup, which mustn't
+                // hold up the I/O thread.
+
+                log.debug("\"" + exchange.url + "\" redirected to \"" +
+                          target + "\"");
+                callBack(new Runnable()
+                {
+                    public void run()
+                    {
+                        issue(download, target);
+                    }
+                });
+            }
+        }
+
+        else
+        {
+            IOException error = exchange.closeSink();
+            if (exchange.rejected != null)
+                error = exchange.rejected;
+
+            if (error == null)
+                download.complete(exchange.response);
+            else
+                download.fail(error);
+        }
+    }
+
+    /**
+     * Fail an exchange. If it failed on a pooled connection before any
+     * of the response arrived, the server probably closed the connection
+     * while it was idle, so the request is retried once on a new
+     * connection, as <tt>HttpURLConnection</tt> does. A timeout isn't
+     * retried.
+     *
+     * @param exchange  the exchange
+     * @param ex        the error
+     */
+    private void failExchange(Exchange exchange, IOException ex)
+    {
+        boolean retry = exchange.reused &&
+                        (! exchange.receivedAny) &&
+                        (! (ex instanceof SocketTimeoutException));
+
+        if (exchange.conn != null)
+            closeChannel(exchange.conn.channel);
+
+        if (retry)
+        {
+            log.debug("Retrying \"" + exchange.url + "\" on a new " +
+                      "connection: " + ex.toString());
+            exchange.reset();
+
+            try
+            {
+                connect(exchange);
+                return;
+            }
+
+            catch (IOException ex2)
+            {
+                if (exchange.conn != null)
+                    closeChannel(exchange.conn.channel);
+                ex = ex2;
+            }
+        }
+
+        activeExchanges.remove(exchange);
+        exchange.conn = null;
+        exchange.closeSink();
+        exchange.download.fail(ex);
+    }
+
+    /**
+     * Get a pooled connection.
+     *
+     * @param poolKey  identifies the server (and proxy)
+     *
+     * @return the connection, or null if there isn't one
+     */
+    private Connection takeIdleConnection(String poolKey)
+    {
+        Connection result = null;
+        LinkedList<Connection> pool = idleConnections.get(poolKey);
+
+        if (pool != null)
+        {
+            // The most recently used connection is the least likely to
+            // have been closed by the server.
+
+            result = pool.pollLast();
+            if (pool.isEmpty())
+                idleConnections.remove(poolKey);
+        }
+
+        return result;
+    }
+
+    /**
+     * Fail the exchanges that have timed out, and close the connections
+     * that have been idle too long.
+     *
+     * @return how long to wait, in milliseconds, before the next exchange
+     *         times out
+     */
+    private long checkTimeouts()
+    {
+        long now = System.currentTimeMillis();
+        long next = now + SELECT_INTERVAL;
+
+        for (Exchange exchange : new ArrayList<Exchange>(activeExchanges))
+        {
+            if ((exchange.deadline != 0) && (now >= exchange.deadline))
+            {
+                failExchange(exchange,
+                             new SocketTimeoutException("Timed out " +
+                                                        "downloading \"" +
+                                                        exchange.url + "\""));
+            }
+        }
+
+        // A retried exchange has a new deadline.
+
+        for (Exchange exchange : activeExchanges)
+        {
+            if ((exchange.deadline != 0) && (exchange.deadline < next))
+                next = exchange.deadline;
+        }
+
+        Iterator<LinkedList<Connection>> it =
+            idleConnections.values().iterator();
+        while (it.hasNext())
+        {
+            LinkedList<Connection> pool = it.next();
+            while ((! pool.isEmpty()) && (pool.getFirst().expires <= now))
+                closeChannel(pool.removeFirst().channel);
+
+            if (pool.isEmpty())
+                it.remove();
+        }
+
+        return Math.max(next - now, 1);
+    }
+
+    private long deadline(int timeout)
+    {
+        return (timeout > 0) ? (System.currentTimeMillis() + timeout) : 0;
+    }
+
+    /**
+     * Called when the I/O thread exits. Fails any exchanges still in
+     * progress or waiting to start, and closes all connections.
+     */
+    private void closeAll()
+    {
+        IOException shutDown = new IOException("Feed downloader has shut " +
+                                               "down.");
+
+        for (Exchange exchange : activeExchanges)
+        {
+            exchange.closeSink();
+            exchange.download.fail(shutDown);
+        }
+
+        activeExchanges.clear();
+        idleConnections.clear();
+
+        synchronized (newExchanges)
+        {
+            closed = true;
+            for (Exchange exchange : newExchanges)
+                exchange.download.fail(shutDown);
+            newExchanges.clear();
+        }
+
+        for (SelectionKey key : selector.keys())
+            closeChannel((SocketChannel) key.channel());
+
+        try
+        {
+            selector.close();
+        }
+
+        catch (IOException ex)
+        {
+            log.debug("Error closing NIO selector", ex);
+        }
+    }
+
+    private void closeChannel(SocketChannel channel)
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+
+            catch (IOException ex)
+            {
+                log.debug("Error closing socket channel", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,704 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+
+import java.security.KeyStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Exercises {@link NIOFeedDownloader} against an HTTP server running in
+ * the same process: fixed-length, chunked and redirected responses,
+ * conditional GETs, errors, a body too large for memory (streamed into a
+ * {@link FeedDataBuffer} that spills to disk), many downloads in flight
+ * at once, a request through an HTTP proxy, and, if the JDK's
+ * <tt>keytool</tt> is available to make a server certificate, the same
+ * over <tt>https:</tt>. Usage:
+ *
+ * <pre>
+ * java org.clapper.curn.NIOFeedDownloaderTest [downloads]
+ * </pre>
+ *
+ * <tt>downloads</tt> is the number of concurrent downloads to start; the
+ * default is 200. The program exits with a non-zero status if any check
+ * fails.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class NIOFeedDownloaderTest
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int BIG_BODY_SIZE = 1024 * 1024;
+    private static final long MAX_IN_MEMORY = 64 * 1024;
+    private static final long SLOW_RESPONSE_TIME = 500;
+    private static final String KEYSTORE_PASSWORD = "changeit";
+
+    /*----------------------------------------------------------------------*\
+                               Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Collects the outcome of one download.
+     */
+    private static class Result implements FeedDownloadListener
+    {
+        final CountDownLatch       done = new CountDownLatch(1);
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final FeedDataBuffer       buffer;
+        FeedDownloadResponse       response = null;
+        IOException                error = null;
+        int                        callbacks = 0;
+
+        Result(FeedDataBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        public OutputStream responseReceived(FeedDownloadResponse response)
+        {
+            this.response = response;
+            return (buffer == null) ? content : buffer.getOutputStream();
+        }
+
+        public void downloadComplete(FeedDownloadResponse response)
+        {
+            this.response = response;
+            finished();
+        }
+
+        public void downloadFailed(FeedDownloadRequest request,
+                                   IOException         ex)
+        {
+            this.error = ex;
+            finished();
+        }
+
+        private synchronized void finished()
+        {
+            callbacks++;
+            done.countDown();
+        }
+
+        boolean await()
+            throws InterruptedException
+        {
+            return done.await(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private static byte[] smallBody;
+    private static byte[] bigBody;
+    private static int failures = 0;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private NIOFeedDownloaderTest()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    public static void main(String args[])
+    {
+        try
+        {
+            int totalDownloads = (args.length > 0) ? Integer.parseInt(args[0])
+                                                   : 200;
+            runTest(totalDownloads);
+        }
+
+        catch (Exception ex)
+        {
+            ex.printStackTrace();   // NOPMD
+            System.exit(1);
+        }
+
+        System.out.println((failures == 0) ? "All checks passed."
+                                           : (failures + " check(s) failed."));
+        System.exit((failures == 0) ? 0 : 1);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static void runTest(int totalDownloads)
+        throws Exception
+    {
+        smallBody = "<rss version=\"2.0\"><channel/></rss>\n".getBytes("UTF-8");
+        bigBody = new byte[BIG_BODY_SIZE];
+        for (int i = 0; i < bigBody.length; i++)
+            bigBody[i] = (byte) ('a' + (i % 26));
+
+        // SSLContext.getDefault() reads the trust store properties once,
+        // so they must be set before the downloader is initialized.
+
+        File keyStore = makeKeyStore();
+        if (keyStore != null)
+        {
+            System.setProperty("javax.net.ssl.trustStore",
+                               keyStore.getPath());
+            System.setProperty("javax.net.ssl.trustStorePassword",
+                               KEYSTORE_PASSWORD);
+        }
+
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        HttpServer server = HttpServer.create(new InetSocketAddress
+                                                  ("localhost", 0),
+                                              0);
+        addHandlers(server);
+        server.setExecutor(serverThreads);
+        server.start();
+
+        HttpsServer secureServer = null;
+        if (keyStore != null)
+        {
+            secureServer = HttpsServer.create(new InetSocketAddress
+                                                  ("localhost", 0),
+                                              0);
+            secureServer.setHttpsConfigurator
+                (new HttpsConfigurator(serverSSLContext(keyStore)));
+            addHandlers(secureServer);
+            secureServer.setExecutor(serverThreads);
+            secureServer.start();
+        }
+
+        NIOFeedDownloader downloader = new NIOFeedDownloader();
+
+        try
+        {
+            downloader.init(loadConfig());
+
+            String base = "http://localhost:" +
+                          server.getAddress().getPort();
+            runChecks(downloader, base, totalDownloads);
+            checkProxy(downloader, server.getAddress().getPort());
+
+            if (secureServer != null)
+            {
+                base = "https://localhost:" +
+                       secureServer.getAddress().getPort();
+                runChecks(downloader, base, totalDownloads);
+            }
+
+            else
+            {
+                System.out.println("Can't make a certificate with " +
+                                   "keytool; skipping the https: checks.");
+            }
+
+            checkConnectFailures(downloader);
+        }
+
+        finally
+        {
+            downloader.shutdown();
+            server.stop(0);
+            if (secureServer != null)
+                secureServer.stop(0);
+            serverThreads.shutdownNow();
+            if (keyStore != null)
+                keyStore.delete();
+        }
+    }
+
+    private static CurnConfig loadConfig()
+        throws Exception
+    {
+        StringBuilder configText = new StringBuilder();
+        configText.append("[" + CurnConfig.MAIN_SECTION + "]\n");
+        configText.append("[Feed1]\n");
+        configText.append(CurnConfig.VAR_FEED_URL +
+                          ": http://localhost/feed\n");
+
+        CurnConfig config = new CurnConfig(new PrintWriter(System.err, true));
+        config.load(new ByteArrayInputStream
+                        (configText.toString().getBytes("UTF-8")),
+                    "UTF-8");
+        return config;
+    }
+
+    private static void runChecks(NIOFeedDownloader downloader,
+                                  String            base,
+                                  int               totalDownloads)
+        throws Exception
+    {
+        System.out.println("Checking " + base);
+
+        Result result = download(downloader, base + "/plain", null, 0);
+        checkContent("fixed-length response", result, 200, smallBody);
+
+        result = download(downloader, base + "/chunked", null, 0);
+        checkContent("chunked response", result, 200, bigBody);
+
+        result = download(downloader, base + "/redirect", null, 0);
+        checkContent("redirect", result, 200, smallBody);
+        check("redirect is reported with the final URL",
+              (result.response != null) &&
+              result.response.getURL().getPath().equals("/plain"));
+
+        result = download(downloader, base + "/plain", null,
+                          System.currentTimeMillis());
+        checkContent("conditional GET", result, 304, new byte[0]);
+
+        result = download(downloader, base + "/missing", null, 0);
+        check("404 is reported as a response",
+              (result.error == null) &&
+              (result.response != null) &&
+              (result.response.getResponseCode() == 404));
+
+        FeedDataBuffer buffer = new FeedDataBuffer(MAX_IN_MEMORY);
+        try
+        {
+            result = download(downloader, base + "/big", buffer, 0);
+            check("large body is complete",
+                  (result.error == null) && (buffer.size() == BIG_BODY_SIZE));
+            check("large body spilled to disk", buffer.isOnDisk());
+
+            InputStream is = buffer.getInputStream();
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try
+            {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = is.read(buf)) >= 0)
+                    content.write(buf, 0, n);
+            }
+
+            finally
+            {
+                is.close();
+            }
+
+            check("large body is intact",
+                  Arrays.equals(content.toByteArray(), bigBody));
+        }
+
+        finally
+        {
+            buffer.release();
+        }
+
+        checkConcurrency(downloader, base, totalDownloads);
+    }
+
+    /**
+     * Start many slow downloads at once. With one I/O thread, they can
+     * only finish in a fraction of the time it would take to do them one
+     * after another if the downloader really is asynchronous.
+     */
+    private static void checkConcurrency(NIOFeedDownloader downloader,
+                                         String            base,
+                                         int               totalDownloads)
+        throws Exception
+    {
+        List<Result> results = new ArrayList<Result>();
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < totalDownloads; i++)
+        {
+            Result result = new Result(null);
+            FeedDownloadRequest request = newRequest(base + "/slow?" + i);
+            downloader.download(request, result);
+            results.add(result);
+        }
+
+        long started = System.currentTimeMillis() - start;
+        int good = 0;
+        for (Result result : results)
+        {
+            if (result.await() &&
+                (result.error == null) &&
+                Arrays.equals(result.content.toByteArray(), smallBody))
+            {
+                good++;
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println(totalDownloads + " slow downloads: started in " +
+                           started + " ms, done in " + elapsed + " ms");
+        check("all concurrent downloads complete", good == totalDownloads);
+        check("download() doesn't wait for the response",
+              started < SLOW_RESPONSE_TIME);
+        check("concurrent downloads overlap",
+              elapsed < ((SLOW_RESPONSE_TIME * totalDownloads) / 10));
+    }
+
+    /**
+     * Get a feed from a host that doesn't exist, through an HTTP proxy.
+     * The test server plays the proxy: it serves a request for a full URL
+     * by its path.
+     */
+    private static void checkProxy(NIOFeedDownloader downloader,
+                                   int               port)
+        throws Exception
+    {
+        final Proxy proxy =
+            new Proxy(Proxy.Type.HTTP, new InetSocketAddress("localhost",
+                                                             port));
+        ProxySelector saved = ProxySelector.getDefault();
+
+        ProxySelector.setDefault(new ProxySelector()
+        {
+            public List<Proxy> select(URI uri)
+            {
+                return Collections.singletonList(proxy);
+            }
+
+            public void connectFailed(URI          uri,
+                                      SocketAddress address,
+                                      IOException  ex)
+            {
+                // Nothing to do
+            }
+        });
+
+        try
+        {
+            Result result = download(downloader,
+                                     "http://feeds.example.invalid/plain",
+                                     null, 0);
+            checkContent("request through a proxy", result, 200, smallBody);
+        }
+
+        finally
+        {
+            ProxySelector.setDefault(saved);
+        }
+    }
+
+    private static void checkConnectFailures(NIOFeedDownloader downloader)
+        throws Exception
+    {
+        ServerSocket socket = new ServerSocket(0);
+        int closedPort = socket.getLocalPort();
+        socket.close();
+
+        Result result = download(downloader,
+                                 "http://localhost:" + closedPort + "/",
+                                 null, 0);
+        check("refused connection is reported", result.error != null);
+
+        result = download(downloader, "http://no-such-host.invalid/", null,
+                          0);
+        check("unknown host is reported", result.error != null);
+    }
+
+    private static Result download(NIOFeedDownloader downloader,
+                                   String            url,
+                                   FeedDataBuffer    buffer,
+                                   long              ifModifiedSince)
+        throws Exception
+    {
+        FeedDownloadRequest request = newRequest(url);
+        Result result = new Result(buffer);
+
+        if (ifModifiedSince > 0)
+            request.setIfModifiedSince(ifModifiedSince);
+
+        downloader.download(request, result);
+        check(url + " is reported", result.await());
+
+        // Give a second callback a chance to show up.
+
+        Thread.sleep(10);
+        check(url + " is reported once", result.callbacks == 1);
+        if (result.error != null)
+            System.out.println(url + ": " + result.error);
+
+        return result;
+    }
+
+    private static FeedDownloadRequest newRequest(String url)
+        throws IOException
+    {
+        FeedDownloadRequest request =
+            new FeedDownloadRequest(new FeedInfo(new URL(url)));
+        request.getURLConnection().setConnectTimeout(10000);
+        request.getURLConnection().setReadTimeout(10000);
+        return request;
+    }
+
+    private static void checkContent(String label,
+                                     Result result,
+                                     int    responseCode,
+                                     byte[] content)
+    {
+        check(label,
+              (result.error == null) &&
+              (result.response != null) &&
+              (result.response.getResponseCode() == responseCode) &&
+              Arrays.equals(result.content.toByteArray(), content));
+    }
+
+    private static void check(String label, boolean ok)
+    {
+        if (! ok)
+        {
+            System.out.println("FAILED: " + label);
+            failures++;
+        }
+    }
+
+    private static void addHandlers(HttpServer server)
+    {
+        server.createContext("/plain", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                if (exchange.getRequestHeaders()
+                            .getFirst("If-Modified-Since") != null)
+                {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                }
+
+                else
+                {
+                    respond(exchange, 200, smallBody, false);
+                }
+            }
+        });
+
+        server.createContext("/chunked", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                respond(exchange, 200, bigBody, true);
+            }
+        });
+
+        server.createContext("/big", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                respond(exchange, 200, bigBody, false);
+            }
+        });
+
+        server.createContext("/redirect", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                exchange.getResponseHeaders().set("Location", "/plain");
+                respond(exchange, 302, smallBody, false);
+            }
+        });
+
+        server.createContext("/slow", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                try
+                {
+                    Thread.sleep(SLOW_RESPONSE_TIME);
+                }
+
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+
+                respond(exchange, 200, smallBody, false);
+            }
+        });
+
+        server.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                respond(exchange, 404, smallBody, false);
+            }
+        });
+    }
+
+    private static void respond(HttpExchange exchange,
+                                int          responseCode,
+                                byte[]       body,
+                                boolean      chunked)
+        throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(responseCode, chunked ? 0 : body.length);
+
+        OutputStream os = exchange.getResponseBody();
+        try
+        {
+            os.write(body);
+        }
+
+        finally
+        {
+            os.close();
+        }
+    }
+
+    /**
+     * Make a key store holding a self-signed certificate for
+     * <tt>localhost</tt>, with the JDK's <tt>keytool</tt>. The same file
+     * serves as the client's trust store.
+     *
+     * @return the key store, or null if <tt>keytool</tt> isn't there, or
+     *         can't make the certificate
+     *
+     * @throws Exception on error
+     */
+    private static File makeKeyStore()
+        throws Exception
+    {
+        File keytool = new File(new File(System.getProperty("java.home"),
+                                         "bin"),
+                                "keytool");
+        if (! keytool.exists())
+            return null;
+
+        File keyStore = File.createTempFile("curn", ".jks");
+        keyStore.delete();
+
+        Process process = new ProcessBuilder
+            (keytool.getPath(), "-genkeypair",
+             "-alias", "localhost",
+             "-keyalg", "RSA",
+             "-keysize", "2048",
+             "-dname", "CN=localhost",
+             "-ext", "SAN=dns:localhost",
+             "-validity", "1",
+             "-storetype", "JKS",
+             "-keystore", keyStore.getPath(),
+             "-storepass", KEYSTORE_PASSWORD,
+             "-keypass", KEYSTORE_PASSWORD)
+            .redirectErrorStream(true)
+            .start();
+
+        InputStream is = process.getInputStream();
+        while (is.read() >= 0)
+            ;
+        is.close();
+
+        if (process.waitFor() != 0)
+        {
+            keyStore.delete();
+            return null;
+        }
+
+        return keyStore;
+    }
+
+    /**
+     * Make the server's TLS context from the key store.
+     *
+     * @param keyStore  the key store
+     *
+     * @return the context
+     *
+     * @throws Exception on error
+     */
+    private static SSLContext serverSSLContext(File keyStore)
+        throws Exception
+    {
+        KeyStore keys = KeyStore.getInstance("JKS");
+        InputStream is = new FileInputStream(keyStore);
+        try
+        {
+            keys.load(is, KEYSTORE_PASSWORD.toCharArray());
+        }
+
+        finally
+        {
+            is.close();
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance
+            (KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keys, KEYSTORE_PASSWORD.toCharArray());
+
+        SSLContext result = SSLContext.getInstance("TLS");
+        result.init(kmf.getKeyManagers(), null, null);
+        return result;
+    }
+}
@@ -50,6 +50,13 @@ import org.clapper.util.config.ConfigurationException;
  * to the output handler. <i>curn</i> models output in this manner to make
  * it simpler to substitute different kinds of output handlers.
  *
+ * <p><i>curn</i> may run several output handlers at the same time, each on
+ * a thread of its own, and each with its own copies of the channels. Any
+ * one output handler is only called by one thread at a time, but that
+ * thread need not be the one that called {@link #init init()}. Output
+ * handlers that share state with other output handlers must protect
+ * it.</p>
+ *
  * @see Curn
  * @see OutputHandlerFactory
  * @see org.clapper.curn.parser.RSSChannel
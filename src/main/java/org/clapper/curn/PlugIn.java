@@ -241,6 +241,12 @@ import org.clapper.curn.parser.RSSChannel;
  *   </tr>
  * </table>
  *
+ * <p>The per-feed phases (from {@link PreFeedDownloadPlugIn} through
+ * {@link PostFeedProcessPlugIn}) run on the feed download threads, so they
+ * may be called for several feeds at once. A plug-in that can handle that
+ * should also implement the {@link ThreadSafePlugIn} marker interface;
+ * otherwise, <i>curn</i> serializes calls into it.</p>
+ *
  * @version <tt>$Revision$</tt>
  */
 public interface PlugIn
@@ -40,10 +40,16 @@ import java.io.File;
 /**
  * This interface defines the methods that must be supported by plug-ins
  * that wish to be notified just after <i>curn</i> downloads a feed.
+ * Because a plug-in of this type receives the downloaded data as a file,
+ * <i>curn</i> has to write each feed to a temporary file for it. Plug-ins
+ * that only act on some feeds should implement
+ * {@link SelectivePostFeedDownloadPlugIn} instead, so that the other feeds
+ * can be handled entirely in memory.
  *
  * @see PlugIn
  * @see MetaPlugIn
  * @see PreFeedDownloadPlugIn
+ * @see SelectivePostFeedDownloadPlugIn
  * @see PostFeedParsePlugIn
  * @see Curn
  *
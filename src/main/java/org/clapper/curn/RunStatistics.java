@@ -0,0 +1,240 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counters describing one <i>curn</i> run. The feed download threads
+ * update the counters concurrently; they can be read at any time, but are
+ * only final once the run is over.
+ *
+ * @see Curn#getRunStatistics
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class RunStatistics
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final AtomicInteger feedsDownloaded = new AtomicInteger(0);
+    private final AtomicInteger feedsNotModified = new AtomicInteger(0);
+    private final AtomicInteger feedsUnchanged = new AtomicInteger(0);
+    private final AtomicInteger feedsContentUnchanged = new AtomicInteger(0);
+    private final AtomicInteger feedsParsed = new AtomicInteger(0);
+    private final AtomicInteger itemsFilteredAsNew = new AtomicInteger(0);
+    private final AtomicInteger itemsPassedFilter = new AtomicInteger(0);
+    private final AtomicInteger filterFalsePositives = new AtomicInteger(0);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, zeroed, <tt>RunStatistics</tt> object.
+     */
+    public RunStatistics()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the number of feeds whose content was downloaded.
+     *
+     * @return the count
+     */
+    public int getFeedsDownloaded()
+    {
+        return feedsDownloaded.get();
+    }
+
+    /**
+     * Get the number of feeds for which the server answered a conditional
+     * GET with "304 Not Modified".
+     *
+     * @return the count
+     */
+    public int getFeedsNotModified()
+    {
+        return feedsNotModified.get();
+    }
+
+    /**
+     * Get the number of feeds skipped because their <tt>ETag</tt> or
+     * <tt>Last-Modified</tt> response headers showed no change.
+     *
+     * @return the count
+     */
+    public int getFeedsUnchanged()
+    {
+        return feedsUnchanged.get();
+    }
+
+    /**
+     * Get the number of feeds that were downloaded, but whose content was
+     * byte-for-byte the same as last time, so parsing and processing were
+     * skipped.
+     *
+     * @return the count
+     */
+    public int getFeedsContentUnchanged()
+    {
+        return feedsContentUnchanged.get();
+    }
+
+    /**
+     * Get the number of feeds that were parsed.
+     *
+     * @return the count
+     */
+    public int getFeedsParsed()
+    {
+        return feedsParsed.get();
+    }
+
+    /**
+     * Get the number of items the cache's seen-item filter identified as
+     * new, without a cache lookup.
+     *
+     * @return the count
+     */
+    public int getItemsFilteredAsNew()
+    {
+        return itemsFilteredAsNew.get();
+    }
+
+    /**
+     * Get the number of items the cache's seen-item filter couldn't rule
+     * out, and which were therefore looked up in the cache.
+     *
+     * @return the count
+     */
+    public int getItemsPassedFilter()
+    {
+        return itemsPassedFilter.get();
+    }
+
+    /**
+     * Get the number of items that got past the cache's seen-item filter,
+     * but weren't in the cache after all.
+     *
+     * @return the count
+     */
+    public int getFilterFalsePositives()
+    {
+        return filterFalsePositives.get();
+    }
+
+    /**
+     * Get the false-positive rate of the cache's seen-item filter: the
+     * fraction of new (uncached) items that the filter failed to identify
+     * as new.
+     *
+     * @return the rate, between 0 and 1; 0 if there were no new items
+     */
+    public double getFilterFalsePositiveRate()
+    {
+        int falsePositives = getFilterFalsePositives();
+        int newItems = getItemsFilteredAsNew() + falsePositives;
+
+        return (newItems == 0) ? 0.0 : ((double) falsePositives / newItems);
+    }
+
+    /**
+     * Get a printable summary of the statistics.
+     *
+     * @return the summary
+     */
+    public String toString()
+    {
+        return "downloaded=" + getFeedsDownloaded() +
+               ", notModified=" + getFeedsNotModified() +
+               ", unchanged=" + getFeedsUnchanged() +
+               ", contentUnchanged=" + getFeedsContentUnchanged() +
+               ", parsed=" + getFeedsParsed() +
+               ", itemsFilteredAsNew=" + getItemsFilteredAsNew() +
+               ", itemsPassedFilter=" + getItemsPassedFilter() +
+               ", filterFalsePositiveRate=" +
+               String.format("%.4f", getFilterFalsePositiveRate());
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    void feedDownloaded()
+    {
+        feedsDownloaded.incrementAndGet();
+    }
+
+    void feedNotModified()
+    {
+        feedsNotModified.incrementAndGet();
+    }
+
+    void feedUnchanged()
+    {
+        feedsUnchanged.incrementAndGet();
+    }
+
+    void feedContentUnchanged()
+    {
+        feedsContentUnchanged.incrementAndGet();
+    }
+
+    void feedParsed()
+    {
+        feedsParsed.incrementAndGet();
+    }
+
+    void itemFilteredAsNew()
+    {
+        itemsFilteredAsNew.incrementAndGet();
+    }
+
+    void itemPassedFilter(boolean cached)
+    {
+        itemsPassedFilter.incrementAndGet();
+        if (! cached)
+            filterFalsePositives.incrementAndGet();
+    }
+}
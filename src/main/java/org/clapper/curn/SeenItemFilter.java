@@ -0,0 +1,178 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A Bloom filter over the lookup key fingerprints in the
+ * {@link FeedCache}, used to answer "has this item been seen before?"
+ * without touching the cache itself. If the filter says a key isn't
+ * present, it definitely isn't; if the filter says it might be present,
+ * the cache has to be consulted. The filter is sized for a false-positive
+ * rate of about 1% at its expected number of entries; it keeps working if
+ * more entries are added, but the false-positive rate climbs.</p>
+ *
+ * <p>Entries can be added concurrently with lookups, from any number of
+ * threads, without locking.</p>
+ *
+ * @see CurnUtil#fingerprint
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class SeenItemFilter
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Bits per expected entry, and number of bits set per entry. For a
+     * 1% false-positive rate, the optimum is about 9.6 bits and 7 hashes.
+     */
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASHES = 7;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final AtomicLongArray words;
+    private final long totalBits;
+    private final int expectedEntries;
+    private final AtomicInteger entries = new AtomicInteger(0);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, empty filter.
+     *
+     * @param expectedEntries the number of entries the filter is to be
+     *                        sized for
+     */
+    SeenItemFilter(int expectedEntries)
+    {
+        this.expectedEntries = Math.max(expectedEntries, 1);
+
+        long bits = (long) this.expectedEntries * BITS_PER_ENTRY;
+        int totalWords = (int) Math.min((bits + 63) / 64, Integer.MAX_VALUE);
+        this.words = new AtomicLongArray(totalWords);
+        this.totalBits = (long) totalWords * 64;
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Add a fingerprint to the filter.
+     *
+     * @param fingerprint the fingerprint
+     */
+    void add(long fingerprint)
+    {
+        long h1 = fingerprint & 0xffffffffL;
+        long h2 = fingerprint >>> 32;
+
+        for (int i = 0; i < HASHES; i++)
+        {
+            long bit = ((h1 + (i * h2)) & Long.MAX_VALUE) % totalBits;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+
+            for (;;)
+            {
+                long old = words.get(word);
+                if (((old & mask) != 0) ||
+                    words.compareAndSet(word, old, old | mask))
+                {
+                    break;
+                }
+            }
+        }
+
+        entries.incrementAndGet();
+    }
+
+    /**
+     * Determine whether a fingerprint might be in the filter.
+     *
+     * @param fingerprint the fingerprint
+     *
+     * @return <tt>false</tt> if the fingerprint was definitely never added,
+     *         <tt>true</tt> if it might have been
+     */
+    boolean mightContain(long fingerprint)
+    {
+        long h1 = fingerprint & 0xffffffffL;
+        long h2 = fingerprint >>> 32;
+
+        for (int i = 0; i < HASHES; i++)
+        {
+            long bit = ((h1 + (i * h2)) & Long.MAX_VALUE) % totalBits;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the number of entries the filter was sized for.
+     *
+     * @return the expected number of entries
+     */
+    int getExpectedEntries()
+    {
+        return expectedEntries;
+    }
+
+    /**
+     * Get the number of entries added so far. An entry added twice counts
+     * twice.
+     *
+     * @return the number of entries
+     */
+    int getEntries()
+    {
+        return entries.get();
+    }
+}
@@ -0,0 +1,76 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+/**
+ * <p>A {@link PostFeedDownloadPlugIn} that only acts on some feeds (e.g.,
+ * only the feeds configured with a particular option). <i>curn</i> holds
+ * downloaded feed data in memory whenever it can, and only writes it to a
+ * temporary file when some post-download plug-in is going to look at that
+ * file. A plain <tt>PostFeedDownloadPlugIn</tt> is assumed to want the file
+ * for every feed. A plug-in that implements this interface tells
+ * <i>curn</i> which feeds it actually cares about, so <i>curn</i> can skip
+ * the file for the rest.</p>
+ *
+ * <p>If none of the post-download plug-ins is enabled for a feed,
+ * <i>curn</i> does not call any of their <tt>runPostFeedDownloadPlugIn()</tt>
+ * methods for that feed.</p>
+ *
+ * @see PostFeedDownloadPlugIn
+ * @see MetaPlugIn
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface SelectivePostFeedDownloadPlugIn extends PostFeedDownloadPlugIn
+{
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether this plug-in wants to see the downloaded data for a
+     * feed. Called after configuration is complete, possibly from several
+     * download threads at once.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     *
+     * @return <tt>true</tt> if the plug-in's
+     *         {@link #runPostFeedDownloadPlugIn runPostFeedDownloadPlugIn()}
+     *         method should be called for the feed, <tt>false</tt> if it
+     *         has nothing to do for the feed
+     */
+    public boolean isEnabledForFeed(FeedInfo feedInfo);
+}
@@ -0,0 +1,963 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>A {@link DataPersister} that splits the <i>curn</i> data into
+ * shards, stored as separate files in a cache directory. Each feed's data
+ * goes in the shard selected by a hash of the feed's URL; extra
+ * (non-feed) metadata gets a file of its own. Shards are loaded in
+ * parallel, and a save rewrites (in parallel) only the shards whose
+ * contents changed.</p>
+ *
+ * <p>The cache directory is the configured <tt>CacheFile</tt>. It
+ * contains:</p>
+ *
+ * <ul>
+ *   <li><tt>MANIFEST</tt>: a properties file naming the current file for
+ *       each shard, along with a fingerprint of the shard's contents
+ *   <li>the shard files themselves, in the format used by
+ *       {@link BinaryDataPersister}
+ * </ul>
+ *
+ * <p>Shard files are never modified once written. A save writes each
+ * changed shard to a new file (named with a new generation number),
+ * forces the new files to disk, and then atomically replaces the
+ * manifest. Only then are the files the old manifest referred to
+ * removed. A crash at any point leaves either the old manifest or the new
+ * one, and all the files it refers to, intact.</p>
+ *
+ * <p>When the cache is loaded on demand (see {@link FeedCache}), a shard
+ * is only read when one of its feeds is first needed. Shards that are
+ * never read are left alone when the cache is saved.</p>
+ *
+ * <p>If the configured <tt>CacheFile</tt> is an existing XML or binary
+ * cache file, it's read as such, and moved aside (to
+ * <i>cacheFile</i><tt>.old</tt>) when the sharded cache is first saved.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class ShardedDataPersister extends DataPersister
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String VAR_CACHE_FILE   = "CacheFile";
+    private static final String VAR_CACHE_SHARDS = "CacheShards";
+    private static final int    DEF_CACHE_SHARDS = 32;
+
+    private static final String MANIFEST_FILE  = "MANIFEST";
+    private static final String TEMP_SUFFIX    = ".tmp";
+    private static final String OLD_SUFFIX     = ".old";
+    private static final String SHARD_PREFIX   = "shard-";
+    private static final String EXTRA_PREFIX   = "extra";
+
+    /**
+     * Manifest property names
+     */
+    private static final String P_GENERATION  = "generation";
+    private static final String P_SHARDS      = "shards";
+    private static final String P_FILE        = ".file";
+    private static final String P_FINGERPRINT = ".fingerprint";
+    private static final String P_EXTRA       = "extra";
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Passes loaded data from the shard-loading threads to the real
+     * handler, one call at a time.
+     */
+    private static class SynchronizedHandler implements LoadedDataHandler
+    {
+        private final LoadedDataHandler handler;
+
+        SynchronizedHandler(LoadedDataHandler handler)
+        {
+            this.handler = handler;
+        }
+
+        public synchronized void feedLoaded(PersistentFeedData feedData)
+            throws CurnException
+        {
+            handler.feedLoaded(feedData);
+        }
+
+        public synchronized void
+        extraMetadataLoaded(PersistentMetadataGroup metadataGroup)
+            throws CurnException
+        {
+            handler.extraMetadataLoaded(metadataGroup);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private File cacheDir = null;
+    private int totalShards = DEF_CACHE_SHARDS;
+
+    /**
+     * The manifest as of the last load or save.
+     */
+    private Properties manifest = new Properties();
+
+    /**
+     * When loading on demand, which shards have been loaded; otherwise,
+     * null.
+     */
+    private boolean[] loadedShards = null;
+
+    /**
+     * Save state: the feeds in each shard, and the extra metadata.
+     */
+    private List<List<PersistentFeedData>> shardData = null;
+    private Collection<PersistentMetadataGroup> extraData = null;
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(ShardedDataPersister.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Creates a new instance of ShardedDataPersister
+     */
+    public ShardedDataPersister()
+    {
+    }
+
+    /**
+     * Creates a new instance of ShardedDataPersister that uses the
+     * specified directory, without consulting the configuration.
+     *
+     * @param cacheDir    the cache directory
+     * @param totalShards the number of shards to save
+     */
+    ShardedDataPersister(File cacheDir, int totalShards)
+    {
+        this.cacheDir = cacheDir;
+        this.totalShards = totalShards;
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Called when the <tt>DataPersister</tt> is first instantiated. Useful
+     * for retrieving configuration values, etc.
+     *
+     * @param curnConfig  the configuration
+     *
+     * @throws CurnException on error
+     */
+    public void init(CurnConfig curnConfig) throws CurnException
+    {
+        try
+        {
+            String cacheFileName =
+                curnConfig.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                                  VAR_CACHE_FILE,
+                                                  null);
+            if (cacheFileName == null)
+            {
+                log.debug("Feed metadata (cache) directory is not " +
+                          "configured.");
+            }
+
+            else
+            {
+                cacheDir = CurnUtil.mapConfiguredPathName(cacheFileName);
+                log.debug("Feed metadata (cache) directory is " + cacheDir);
+            }
+
+            totalShards =
+                curnConfig.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                    VAR_CACHE_SHARDS,
+                                                    DEF_CACHE_SHARDS);
+            if (totalShards == 0)
+            {
+                throw new CurnException
+                    (Constants.BUNDLE_NAME,
+                     "ShardedDataPersister.badShards",
+                     "Value of \"{0}\" configuration item must be " +
+                     "positive.",
+                     new Object[] {VAR_CACHE_SHARDS});
+            }
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                               Protected Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether the data persister subclass is enabled or not (i.e.,
+     * whether or not metadata is to be loaded and saved). The configuration
+     * usually determines whether or not the data persister is enabled.
+     *
+     * @return <tt>true</tt> if enabled, <tt>false</tt> if disabled.
+     */
+    protected boolean isEnabled()
+    {
+        return (cacheDir != null);
+    }
+
+    /**
+     * Called at the beginning of the load operation to initialize
+     * the load.
+     *
+     * @throws CurnException on error
+     */
+    protected void startLoadOperation()
+        throws CurnException
+    {
+        assert(isEnabled());
+        log.debug("Starting load of sharded curn data.");
+    }
+
+    /**
+     * Called at the end of the load operation to close files, clean
+     * up, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void endLoadOperation()
+        throws CurnException
+    {
+        log.debug("Load of sharded curn data complete.");
+    }
+
+    /**
+     * The actual load method; only called if the object is enabled. Loads
+     * all the shards in parallel.
+     *
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected void doLoad(LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+        manifest = new Properties();
+
+        if (! cacheDir.exists())
+        {
+            log.warn("Feed metadata directory \"" + cacheDir.getPath() +
+                     "\" does not exist.");
+            return;
+        }
+
+        if (! cacheDir.isDirectory())
+        {
+            // An old, unsharded cache. BinaryDataPersister reads XML, too.
+
+            log.info("\"" + cacheDir.getPath() + "\" is a single cache " +
+                     "file. Reading it, and converting it to a sharded " +
+                     "cache when the cache is saved.");
+            new BinaryDataPersister(cacheDir).doLoad(loadedDataHandler);
+            return;
+        }
+
+        manifest = readManifest();
+
+        List<File> files = new ArrayList<File>();
+        int shards = Integer.parseInt(manifest.getProperty(P_SHARDS, "0"));
+        for (int i = 0; i < shards; i++)
+        {
+            String name = manifest.getProperty(shardKey(i) + P_FILE);
+            if (name != null)
+                files.add(new File(cacheDir, name));
+        }
+
+        String extraName = manifest.getProperty(P_EXTRA + P_FILE);
+        if (extraName != null)
+            files.add(new File(cacheDir, extraName));
+
+        log.debug("Loading " + files.size() + " shard files from \"" +
+                  cacheDir + "\"");
+
+        final LoadedDataHandler handler =
+            new SynchronizedHandler(loadedDataHandler);
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (final File file : files)
+        {
+            tasks.add(new Callable<Object>()
+            {
+                public Object call() throws CurnException
+                {
+                    new BinaryDataPersister(file).doLoad(handler);
+                    return null;
+                }
+            });
+        }
+
+        runInParallel(tasks);
+    }
+
+    /**
+     * Called, instead of {@link #doLoad}, when the cache is loaded on
+     * demand. Loads only the extra metadata; each shard is loaded, by
+     * {@link #doLoadFeed}, when a feed in it is first needed. If the
+     * number of shards has changed, though, everything is loaded, since
+     * every shard will have to be rewritten.
+     *
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected void doDeferredLoad(LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+        loadedShards = null;
+        recoverManifest();
+
+        if ((! cacheDir.isDirectory()) ||
+            (! new File(cacheDir, MANIFEST_FILE).exists()))
+        {
+            doLoad(loadedDataHandler);
+            return;
+        }
+
+        manifest = readManifest();
+        int shards = Integer.parseInt(manifest.getProperty(P_SHARDS, "0"));
+        if (shards != totalShards)
+        {
+            log.debug("Number of shards changed from " + shards + " to " +
+                      totalShards + ". Loading all shards.");
+            doLoad(loadedDataHandler);
+            return;
+        }
+
+        loadedShards = new boolean[totalShards];
+
+        String extraName = manifest.getProperty(P_EXTRA + P_FILE);
+        if (extraName != null)
+        {
+            new BinaryDataPersister(new File(cacheDir, extraName))
+                .doLoad(loadedDataHandler);
+        }
+    }
+
+    /**
+     * Load the shard containing a feed, if it hasn't been loaded yet.
+     *
+     * @param feedURL           the feed's URL
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected synchronized void doLoadFeed(URL               feedURL,
+                                           LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+        if (loadedShards != null)
+        {
+            int shard = shardFor(feedURL);
+            if (! loadedShards[shard])
+            {
+                String name = manifest.getProperty(shardKey(shard) + P_FILE);
+                if (name != null)
+                {
+                    log.debug("Loading shard file \"" + name + "\" for " +
+                              "feed \"" + feedURL + "\"");
+                    new BinaryDataPersister(new File(cacheDir, name))
+                        .doLoad(loadedDataHandler);
+                }
+
+                loadedShards[shard] = true;
+            }
+        }
+    }
+
+    /**
+     * Called at the beginning of the save operation to initialize
+     * the save, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void startSaveOperation()
+        throws CurnException
+    {
+        assert(isEnabled());
+
+        shardData = new ArrayList<List<PersistentFeedData>>(totalShards);
+        for (int i = 0; i < totalShards; i++)
+            shardData.add(new ArrayList<PersistentFeedData>());
+        extraData = new ArrayList<PersistentMetadataGroup>();
+    }
+
+    /**
+     * Save the data for one feed, including the items.
+     *
+     * @param feedData the feed data to be saved
+     *
+     * @throws CurnException on error
+     */
+    protected void saveFeedData(PersistentFeedData feedData)
+        throws CurnException
+    {
+        FeedCacheEntry feedCacheData = feedData.getFeedCacheEntry();
+        if (feedCacheData != null)
+            shardData.get(shardFor(feedCacheData.getChannelURL())).add(feedData);
+    }
+
+    /**
+     * Save any extra metadata (i.e., metadata that isn't attached to a
+     * specific feed or a specific item).
+     *
+     * @param metadata the collection of metadata items
+     *
+     * @throws CurnException on error
+     */
+    protected void
+    saveExtraMetadata(Collection<PersistentMetadataGroup> metadata)
+        throws CurnException
+    {
+        extraData.addAll(metadata);
+    }
+
+    /**
+     * Called at the end of the actual save operation. Writes the changed
+     * shards (in parallel), swaps in the new manifest, and removes the
+     * files that are no longer needed.
+     *
+     * @throws CurnException on error
+     */
+    protected void endSaveOperation()
+        throws CurnException
+    {
+        try
+        {
+            if (cacheDir.exists() && (! cacheDir.isDirectory()))
+            {
+                File old = new File(cacheDir.getPath() + OLD_SUFFIX);
+                log.info("Moving single cache file \"" + cacheDir +
+                         "\" to \"" + old + "\"");
+                old.delete();
+                if (! cacheDir.renameTo(old))
+                {
+                    throw new IOException("Can't rename \"" +
+                                          cacheDir.getPath() + "\" to \"" +
+                                          old.getPath() + "\"");
+                }
+            }
+
+            if ((! cacheDir.exists()) && (! cacheDir.mkdirs()))
+            {
+                throw new IOException("Can't create directory \"" +
+                                      cacheDir.getPath() + "\"");
+            }
+
+            long generation =
+                Long.parseLong(manifest.getProperty(P_GENERATION, "0")) + 1;
+            int oldShards =
+                Integer.parseInt(manifest.getProperty(P_SHARDS, "0"));
+            final String suffix = "." + generation;
+
+            Properties newManifest = new Properties();
+            newManifest.setProperty(P_GENERATION, String.valueOf(generation));
+            newManifest.setProperty(P_SHARDS, String.valueOf(totalShards));
+
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int i = 0; i < totalShards; i++)
+            {
+                final List<PersistentFeedData> feeds = shardData.get(i);
+                final String key = shardKey(i);
+                String fileName = manifest.getProperty(key + P_FILE);
+
+                if ((loadedShards != null) && (! loadedShards[i]))
+                {
+                    // Never loaded, so nothing in it can have changed.
+
+                    if (fileName != null)
+                    {
+                        newManifest.setProperty(key + P_FILE, fileName);
+                        newManifest.setProperty
+                            (key + P_FINGERPRINT,
+                             String.valueOf(parseFingerprint(key)));
+                    }
+
+                    continue;
+                }
+
+                long fingerprint = shardFingerprint(feeds, null);
+
+                if ((oldShards != totalShards) || (fileName == null) ||
+                    (fingerprint != parseFingerprint(key)))
+                {
+                    fileName = key + suffix;
+                    final File file = new File(cacheDir, fileName);
+                    tasks.add(new Callable<Object>()
+                    {
+                        public Object call() throws CurnException
+                        {
+                            writeShard(file, feeds, null);
+                            return null;
+                        }
+                    });
+                }
+
+                newManifest.setProperty(key + P_FILE, fileName);
+                newManifest.setProperty(key + P_FINGERPRINT,
+                                        String.valueOf(fingerprint));
+            }
+
+            long extraFingerprint = shardFingerprint(null, extraData);
+            String extraName = manifest.getProperty(P_EXTRA + P_FILE);
+            if ((extraName == null) ||
+                (extraFingerprint != parseFingerprint(P_EXTRA)))
+            {
+                extraName = EXTRA_PREFIX + suffix;
+                final File file = new File(cacheDir, extraName);
+                final Collection<PersistentMetadataGroup> extra = extraData;
+                tasks.add(new Callable<Object>()
+                {
+                    public Object call() throws CurnException
+                    {
+                        writeShard(file,
+                                   new ArrayList<PersistentFeedData>(),
+                                   extra);
+                        return null;
+                    }
+                });
+            }
+
+            newManifest.setProperty(P_EXTRA + P_FILE, extraName);
+            newManifest.setProperty(P_EXTRA + P_FINGERPRINT,
+                                    String.valueOf(extraFingerprint));
+
+            log.debug("Writing " + tasks.size() + " changed shard files " +
+                      "(of " + (totalShards + 1) + ") to \"" + cacheDir +
+                      "\"");
+            runInParallel(tasks);
+
+            writeManifest(newManifest);
+            manifest = newManifest;
+            removeUnusedFiles();
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException("Failed to write sharded cache \"" +
+                                    cacheDir.getPath() + "\"",
+                                    ex);
+        }
+
+        finally
+        {
+            shardData = null;
+            extraData = null;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private String shardKey(int shard)
+    {
+        return SHARD_PREFIX + shard;
+    }
+
+    /**
+     * Select the shard for a feed.
+     *
+     * @param feedURL the feed's URL
+     *
+     * @return the shard number
+     */
+    private int shardFor(URL feedURL)
+    {
+        long fp = CurnUtil.fingerprint(CurnUtil.urlToLookupKey(feedURL));
+        return (int) ((fp & Long.MAX_VALUE) % totalShards);
+    }
+
+    private long parseFingerprint(String key)
+    {
+        String value = manifest.getProperty(key + P_FINGERPRINT);
+        long result = 0;
+
+        try
+        {
+            if (value != null)
+                result = Long.parseLong(value);
+        }
+
+        catch (NumberFormatException ex)
+        {
+            // Leave it at 0, forcing a rewrite.
+        }
+
+        return result;
+    }
+
+    /**
+     * Compute a fingerprint of the contents of a shard: the feeds and
+     * items, with their timestamps, publication dates and metadata, and
+     * any extra metadata. The fingerprint doesn't depend on the order of
+     * anything.
+     *
+     * @param feeds the feeds, or null
+     * @param extra the extra metadata, or null
+     *
+     * @return the fingerprint
+     */
+    private static long
+    shardFingerprint(List<PersistentFeedData>            feeds,
+                     Collection<PersistentMetadataGroup> extra)
+    {
+        long result = 0;
+
+        if (feeds != null)
+        {
+            for (PersistentFeedData feedData : feeds)
+            {
+                result += entryFingerprint(feedData.getFeedCacheEntry(),
+                                           feedData.getFeedMetadata());
+                for (PersistentFeedItemData itemData :
+                         feedData.getPersistentFeedItems())
+                {
+                    result += entryFingerprint(itemData.getFeedCacheEntry(),
+                                               itemData.getItemMetadata());
+                }
+            }
+        }
+
+        if (extra != null)
+            result += entryFingerprint(null, extra);
+
+        return result;
+    }
+
+    private static long
+    entryFingerprint(FeedCacheEntry                      entry,
+                     Collection<PersistentMetadataGroup> metadata)
+    {
+        StringBuilder buf = new StringBuilder();
+
+        if (entry != null)
+        {
+            Date pubDate = entry.getPublicationDate();
+            buf.append(entry.getChannelURL().toExternalForm())
+               .append('\n')
+               .append(entry.getEntryURL().toExternalForm())
+               .append('\n')
+               .append(entry.getTimestamp())
+               .append('\n')
+               .append((pubDate == null) ? 0 : pubDate.getTime());
+        }
+
+        long result = CurnUtil.fingerprint(buf.toString());
+
+        for (PersistentMetadataGroup group : metadata)
+        {
+            String namespace = group.getNamespace();
+            for (Map.Entry<String,String> item :
+                     group.getMetadata().entrySet())
+            {
+                result += CurnUtil.fingerprint(namespace + '\n' +
+                                               item.getKey() + '\n' +
+                                               item.getValue() + '\n' +
+                                               buf);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Write a shard file. The binary persister forces the file to disk
+     * before it's renamed into place.
+     *
+     * @param file  the file
+     * @param feeds the feeds in the shard
+     * @param extra the extra metadata, or null
+     *
+     * @throws CurnException on error
+     */
+    private static void writeShard(File                                file,
+                                   List<PersistentFeedData>            feeds,
+                                   Collection<PersistentMetadataGroup> extra)
+        throws CurnException
+    {
+        BinaryDataPersister shard = new BinaryDataPersister(file);
+
+        shard.startSaveOperation();
+        for (PersistentFeedData feedData : feeds)
+            shard.saveFeedData(feedData);
+        if (extra != null)
+            shard.saveExtraMetadata(extra);
+        shard.endSaveOperation();
+    }
+
+    /**
+     * Run tasks on a pool of threads (one per processor, at most), and
+     * wait for them all to finish.
+     *
+     * @param tasks the tasks
+     *
+     * @throws CurnException the first exception thrown by any task
+     */
+    private void runInParallel(List<Callable<Object>> tasks)
+        throws CurnException
+    {
+        if (tasks.size() == 0)
+            return;
+
+        int totalThreads =
+            Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(totalThreads);
+
+        try
+        {
+            for (Future<Object> future : pool.invokeAll(tasks))
+                future.get();
+        }
+
+        catch (InterruptedException ex)
+        {
+            throw new CurnException("Interrupted while accessing sharded " +
+                                    "cache \"" + cacheDir.getPath() + "\"",
+                                    ex);
+        }
+
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof CurnException)
+                throw (CurnException) cause;
+            throw new CurnException(cause);
+        }
+
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private Properties readManifest()
+        throws CurnException
+    {
+        Properties result = new Properties();
+        File file = new File(cacheDir, MANIFEST_FILE);
+
+        recoverManifest();
+        if (file.exists())
+        {
+            try
+            {
+                InputStream in = new FileInputStream(file);
+                try
+                {
+                    result.load(in);
+                }
+
+                finally
+                {
+                    in.close();
+                }
+            }
+
+            catch (IOException ex)
+            {
+                throw new CurnException("Failed to read sharded cache " +
+                                        "manifest \"" + file.getPath() +
+                                        "\"",
+                                        ex);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Atomically replace the manifest.
+     *
+     * @param newManifest the new manifest
+     *
+     * @throws IOException on error
+     */
+    private void writeManifest(Properties newManifest)
+        throws IOException
+    {
+        File file = new File(cacheDir, MANIFEST_FILE);
+        File tempFile = new File(cacheDir, MANIFEST_FILE + TEMP_SUFFIX);
+
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try
+        {
+            newManifest.store(out, "curn sharded cache manifest");
+            out.flush();
+            out.getFD().sync();
+        }
+
+        finally
+        {
+            out.close();
+        }
+
+        if (! tempFile.renameTo(file))
+        {
+            // Some platforms won't rename over an existing file. Move the
+            // old manifest aside, rather than deleting it: without a
+            // manifest, the cache looks empty, and the next save would
+            // remove every shard. See recoverManifest().
+
+            File oldFile = new File(cacheDir, MANIFEST_FILE + OLD_SUFFIX);
+            oldFile.delete();
+            if (file.exists() && (! file.renameTo(oldFile)))
+            {
+                throw new IOException("Can't rename \"" +
+                                      file.getPath() + "\" to \"" +
+                                      oldFile.getPath() + "\"");
+            }
+
+            if (! tempFile.renameTo(file))
+            {
+                oldFile.renameTo(file);
+                throw new IOException("Can't rename \"" +
+                                      tempFile.getPath() + "\" to \"" +
+                                      file.getPath() + "\"");
+            }
+
+            oldFile.delete();
+        }
+    }
+
+    /**
+     * If a save was interrupted after it moved the old manifest aside, but
+     * before it moved the new one into place, put the old one back. The
+     * shard files it names are still there, since unused files are only
+     * removed once the new manifest is in place.
+     */
+    private void recoverManifest()
+    {
+        File file = new File(cacheDir, MANIFEST_FILE);
+        File oldFile = new File(cacheDir, MANIFEST_FILE + OLD_SUFFIX);
+
+        if (oldFile.exists())
+        {
+            if (file.exists())
+            {
+                oldFile.delete();
+            }
+
+            else
+            {
+                log.warn("Restoring sharded cache manifest \"" +
+                         file.getPath() + "\" from \"" +
+                         oldFile.getPath() + "\".");
+                if (! oldFile.renameTo(file))
+                {
+                    log.error("Can't rename \"" + oldFile.getPath() +
+                              "\" to \"" + file.getPath() + "\"");
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove shard files that the current manifest doesn't refer to,
+     * including any left behind by an interrupted save.
+     */
+    private void removeUnusedFiles()
+    {
+        Set<String> used = new HashSet<String>();
+        used.add(MANIFEST_FILE);
+        for (Object key : manifest.keySet())
+        {
+            if (key.toString().endsWith(P_FILE))
+                used.add(manifest.getProperty(key.toString()));
+        }
+
+        String[] names = cacheDir.list();
+        if (names == null)
+            return;
+
+        for (String name : names)
+        {
+            if ((name.startsWith(SHARD_PREFIX) ||
+                 name.startsWith(EXTRA_PREFIX)) &&
+                (! used.contains(name)))
+            {
+                log.debug("Removing unused cache file \"" + name + "\"");
+                if (! new File(cacheDir, name).delete())
+                {
+                    log.error("Can't remove \"" +
+                              new File(cacheDir, name).getPath() + "\"");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The default {@link FeedDownloadExecutorFactory}: a fixed pool of
+ * platform threads, sized by the <tt>MaxThreads</tt> configuration
+ * parameter (but never larger than the number of feeds). This corresponds
+ * to an <tt>ExecutionMode</tt> of <tt>threads</tt>.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class ThreadPoolFeedDownloadExecutorFactory
+    implements FeedDownloadExecutorFactory
+{
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new <tt>ThreadPoolFeedDownloadExecutorFactory</tt>.
+     */
+    public ThreadPoolFeedDownloadExecutorFactory()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create the executor for one <i>curn</i> run.
+     *
+     * @param config      the parsed configuration
+     * @param totalFeeds  the number of feeds to be downloaded
+     *
+     * @return the executor
+     */
+    public ExecutorService newExecutor(CurnConfig config, int totalFeeds)
+    {
+        int totalThreads = getTotalWorkers(config, totalFeeds);
+        ExecutorService threadPool;
+
+        if (totalThreads == 1)
+            threadPool = Executors.newSingleThreadExecutor();
+        else
+            threadPool = Executors.newFixedThreadPool(totalThreads);
+
+        return threadPool;
+    }
+
+    /**
+     * Get the number of download workers to start: one per pool thread.
+     *
+     * @param config      the parsed configuration
+     * @param totalFeeds  the number of feeds to be downloaded
+     *
+     * @return the number of workers
+     */
+    public int getTotalWorkers(CurnConfig config, int totalFeeds)
+    {
+        return Math.max(1, Math.min(config.getMaxThreads(), totalFeeds));
+    }
+}
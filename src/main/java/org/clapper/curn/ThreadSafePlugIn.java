@@ -0,0 +1,62 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+/**
+ * <p>Marker interface for plug-ins that can safely be invoked from multiple
+ * feed download threads at the same time. <i>curn</i> downloads and
+ * processes feeds concurrently, so the per-feed plug-in phases
+ * ({@link ForceFeedDownloadPlugIn}, {@link PreFeedDownloadPlugIn},
+ * {@link PostFeedDownloadPlugIn}, {@link PostFeedParsePlugIn} and
+ * {@link PostFeedProcessPlugIn}) can be called for different feeds in
+ * parallel.</p>
+ *
+ * <p>A plug-in that does <i>not</i> implement this interface is assumed
+ * not to be thread-safe; the {@link MetaPlugIn} serializes all calls into
+ * such a plug-in on a lock that belongs to that plug-in alone. A plug-in
+ * that implements this interface is called without any locking at all, so
+ * it must protect any mutable state of its own. Plug-ins that only read
+ * configuration data captured during the configuration phases, and that
+ * only modify the feed data passed to them, are typically thread-safe.</p>
+ *
+ * @see PlugIn
+ * @see MetaPlugIn
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface ThreadSafePlugIn extends PlugIn
+{
+}
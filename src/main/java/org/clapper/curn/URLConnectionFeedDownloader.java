@@ -0,0 +1,316 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.apache.commons.io.IOUtils;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>The default {@link FeedDownloader}, built on the JDK's
+ * <tt>URLConnection</tt> classes. It connects the connection object held by
+ * the {@link FeedDownloadRequest} (the same one the
+ * {@link PreFeedDownloadPlugIn} plug-ins configured), so every header set
+ * by a plug-in is sent as-is. The download is done on the calling
+ * thread, and the {@link FeedDownloadListener} is called before
+ * {@link #download} returns, so each download thread has only one feed
+ * in flight at a time.</p>
+ *
+ * <p>The JDK keeps idle HTTP/1.1 connections in a keep-alive cache, but a
+ * connection only goes back into that cache once its response body (or
+ * error body) has been read to the end and closed. This downloader makes
+ * sure that happens for every response, including ones whose content
+ * <i>curn</i> decides not to read, so that feeds on the same host reuse
+ * connections instead of paying for a new TCP (and TLS) handshake each
+ * time.</p>
+ *
+ * <p>The JDK keeps at most five idle connections per host (the
+ * <tt>http.maxConnections</tt> system property). The JDK reads that
+ * property once, so this class doesn't try to change it; to pool more
+ * connections per host, set it on the <tt>java</tt> command line. The
+ * {@link NIOFeedDownloader} keeps its own pool, and doesn't depend on
+ * it.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class URLConnectionFeedDownloader implements FeedDownloader
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Upper bound on the number of bytes to drain from an unread response
+     * body, to allow the connection to be reused. Beyond this, it's cheaper
+     * to drop the connection.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private static final Logger log =
+        new Logger(URLConnectionFeedDownloader.class);
+
+    /*----------------------------------------------------------------------*\
+                               Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * A response backed by a connected <tt>URLConnection</tt>.
+     */
+    private static class URLConnectionResponse implements FeedDownloadResponse
+    {
+        private final URLConnection conn;
+        private final int           responseCode;
+        private       InputStream   is = null;
+
+        URLConnectionResponse(URLConnection conn)
+            throws IOException
+        {
+            this.conn = conn;
+
+            if (conn instanceof HttpURLConnection)
+                responseCode = ((HttpURLConnection) conn).getResponseCode();
+            else
+                responseCode = NO_RESPONSE_CODE;
+        }
+
+        public URL getURL()
+        {
+            return conn.getURL();
+        }
+
+        public int getResponseCode()
+        {
+            return responseCode;
+        }
+
+        public long getLastModified()
+        {
+            return conn.getLastModified();
+        }
+
+        public String getContentType()
+        {
+            return conn.getContentType();
+        }
+
+        public String getHeaderField(String name)
+        {
+            return conn.getHeaderField(name);
+        }
+
+        /**
+         * Copy the content to a stream.
+         *
+         * @param os  the stream. It isn't closed.
+         *
+         * @throws IOException I/O error
+         */
+        void copyContent(OutputStream os)
+            throws IOException
+        {
+            is = conn.getInputStream();
+            IOUtils.copyLarge(is, os);
+        }
+
+        /**
+         * Release the response. Unread content is discarded.
+         */
+        void close()
+        {
+            InputStream body = is;
+
+            if ((body == null) && (conn instanceof HttpURLConnection))
+            {
+                HttpURLConnection httpConn = (HttpURLConnection) conn;
+
+                try
+                {
+                    body = httpConn.getInputStream();
+                }
+
+                catch (IOException ex)
+                {
+                    // 4xx or 5xx response. The error body has to be
+                    // consumed, too, for the connection to be reused.
+
+                    body = httpConn.getErrorStream();
+                }
+            }
+
+            if (body != null)
+            {
+                drain(body);
+
+                try
+                {
+                    body.close();
+                }
+
+                catch (IOException ex)
+                {
+                    log.debug("Error closing stream for \"" + getURL() +
+                              "\"", ex);
+                }
+            }
+
+            is = null;
+        }
+
+        private void drain(InputStream body)
+        {
+            byte[] buf = new byte[4096];
+            int    total = 0;
+
+            try
+            {
+                int n;
+                while ((total < MAX_DRAIN_BYTES) &&
+                       ((n = body.read(buf)) > 0))
+                {
+                    total += n;
+                }
+            }
+
+            catch (IOException ex)
+            {
+                log.debug("Error draining stream for \"" + getURL() + "\"",
+                          ex);
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new <tt>URLConnectionFeedDownloader</tt>.
+     */
+    public URLConnectionFeedDownloader()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Initialize the downloader. There's nothing to initialize.
+     *
+     * @param config  the parsed configuration
+     *
+     * @throws CurnException on error
+     */
+    public void init(CurnConfig config)
+        throws CurnException
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Download a feed, and report the outcome to the listener, before
+     * returning.
+     *
+     * @param request   the request
+     * @param listener  receives the response and its content
+     */
+    public void download(FeedDownloadRequest  request,
+                         FeedDownloadListener listener)
+    {
+        URLConnectionResponse response = null;
+        IOException error = null;
+
+        try
+        {
+            URLConnection conn = request.getURLConnection();
+            conn.connect();
+            response = new URLConnectionResponse(conn);
+
+            OutputStream os = listener.responseReceived(response);
+            if (os != null)
+            {
+                try
+                {
+                    response.copyContent(os);
+                }
+
+                finally
+                {
+                    os.close();
+                }
+            }
+        }
+
+        catch (IOException ex)
+        {
+            error = ex;
+        }
+
+        finally
+        {
+            // Always release the response, so the JDK can reuse the
+            // connection, even if the content wasn't read.
+
+            if (response != null)
+                response.close();
+        }
+
+        if (error == null)
+            listener.downloadComplete(response);
+        else
+            listener.downloadFailed(request, error);
+    }
+
+    /**
+     * Release any resources held by the downloader. The JDK's keep-alive
+     * cache manages its own connections, so there's nothing to do here.
+     */
+    public void shutdown()
+    {
+        // Nothing to do
+    }
+}
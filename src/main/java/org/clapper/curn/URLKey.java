@@ -0,0 +1,180 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+
+package org.clapper.curn;
+
+import java.net.URL;
+
+/**
+ * <p>A canonical, immutable key for a URL, for use in hash tables.
+ * <tt>java.net.URL</tt> is a poor hash table key: its <tt>equals()</tt>
+ * and <tt>hashCode()</tt> methods resolve host names, which can stall
+ * for a long time on a host with slow (or no) DNS. A key is based only on
+ * the URL's lookup key (see {@link CurnUtil#urlToLookupKey}), i.e., the
+ * normalized string form of the URL, so it never touches the network.
+ * Its hash code, and its 64-bit fingerprint (see
+ * {@link CurnUtil#fingerprint}), are computed once.</p>
+ *
+ * <p>There's a subclass for each kind of URL: {@link FeedKey} for feeds,
+ * and {@link ItemKey} for cached item URLs. Two keys are equal if they're
+ * of the same class and have the same lookup key.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public abstract class URLKey
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final URL url;
+    private final String lookupKey;
+    private final int hash;
+
+    /**
+     * The fingerprint, computed on first use. Never zero, once computed.
+     * The race to compute it is harmless, since every thread computes the
+     * same value.
+     */
+    private long fingerprint = 0;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a key for a URL.
+     *
+     * @param url  the URL
+     */
+    URLKey(URL url)
+    {
+        this.url = url;
+        this.lookupKey = CurnUtil.urlToLookupKey(url);
+        this.hash = lookupKey.hashCode();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the URL this key was created from.
+     *
+     * @return the URL
+     */
+    public final URL getURL()
+    {
+        return url;
+    }
+
+    /**
+     * Get the lookup key (the normalized, stringified URL).
+     *
+     * @return the lookup key
+     *
+     * @see CurnUtil#urlToLookupKey
+     */
+    public final String getLookupKey()
+    {
+        return lookupKey;
+    }
+
+    /**
+     * Get the 64-bit fingerprint of the lookup key.
+     *
+     * @return the fingerprint, which is never zero
+     *
+     * @see CurnUtil#fingerprint
+     */
+    public final long getFingerprint()
+    {
+        long fp = fingerprint;
+        if (fp == 0)
+        {
+            fp = CurnUtil.fingerprint(lookupKey);
+            fingerprint = fp;
+        }
+
+        return fp;
+    }
+
+    /**
+     * Get the hash code for this key.
+     *
+     * @return the hash code
+     */
+    public final int hashCode()
+    {
+        return hash;
+    }
+
+    /**
+     * Determine whether this key is equivalent to another one.
+     *
+     * @param obj  the other object
+     *
+     * @return <tt>true</tt> if <tt>obj</tt> is a key of the same class,
+     *         with the same lookup key; <tt>false</tt> otherwise
+     */
+    public final boolean equals(Object obj)
+    {
+        boolean eq = false;
+
+        if (obj == this)
+            eq = true;
+
+        else if ((obj != null) && (obj.getClass() == this.getClass()))
+        {
+            URLKey other = (URLKey) obj;
+            eq = (this.hash == other.hash) &&
+                 this.lookupKey.equals(other.lookupKey);
+        }
+
+        return eq;
+    }
+
+    /**
+     * Get the string form of this key: its lookup key.
+     *
+     * @return the lookup key
+     */
+    public String toString()
+    {
+        return lookupKey;
+    }
+}
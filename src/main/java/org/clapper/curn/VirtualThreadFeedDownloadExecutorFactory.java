@@ -0,0 +1,189 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>A {@link FeedDownloadExecutorFactory} that runs one virtual thread
+ * per feed, so that a feed on a slow server doesn't tie up one of a small
+ * number of platform threads. The total run time then approaches the time
+ * of the slowest feed, rather than the number of feeds divided by
+ * <tt>MaxThreads</tt>, times the average latency. This corresponds to an
+ * <tt>ExecutionMode</tt> of <tt>virtual</tt>.</p>
+ *
+ * <p>Virtual threads require a Java 21 (or newer) runtime. <i>curn</i>
+ * itself is compiled for older runtimes, so the virtual thread executor is
+ * located reflectively. On a runtime without virtual threads, this factory
+ * logs a warning and behaves like
+ * {@link ThreadPoolFeedDownloadExecutorFactory}.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class VirtualThreadFeedDownloadExecutorFactory
+    implements FeedDownloadExecutorFactory
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private static final Logger log =
+        new Logger(VirtualThreadFeedDownloadExecutorFactory.class);
+
+    /**
+     * <tt>Executors.newVirtualThreadPerTaskExecutor()</tt>, or null if the
+     * runtime doesn't have it.
+     */
+    private static final Method newVirtualThreadExecutor =
+        findVirtualThreadExecutorMethod();
+
+    private final FeedDownloadExecutorFactory fallback =
+        new ThreadPoolFeedDownloadExecutorFactory();
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new <tt>VirtualThreadFeedDownloadExecutorFactory</tt>.
+     */
+    public VirtualThreadFeedDownloadExecutorFactory()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether the current runtime supports virtual threads.
+     *
+     * @return <tt>true</tt> if virtual threads are available, <tt>false</tt>
+     *         if not
+     */
+    public static boolean virtualThreadsAvailable()
+    {
+        return (newVirtualThreadExecutor != null);
+    }
+
+    /**
+     * Create the executor for one <i>curn</i> run.
+     *
+     * @param config      the parsed configuration
+     * @param totalFeeds  the number of feeds to be downloaded
+     *
+     * @return the executor
+     *
+     * @throws CurnException on error
+     */
+    public ExecutorService newExecutor(CurnConfig config, int totalFeeds)
+        throws CurnException
+    {
+        if (! virtualThreadsAvailable())
+        {
+            log.warn("Virtual threads are not supported by this Java " +
+                     "runtime (" + System.getProperty("java.version") +
+                     "). Using a pool of " +
+                     fallback.getTotalWorkers(config, totalFeeds) +
+                     " threads instead.");
+            return fallback.newExecutor(config, totalFeeds);
+        }
+
+        try
+        {
+            return (ExecutorService) newVirtualThreadExecutor.invoke(null);
+        }
+
+        catch (IllegalAccessException ex)
+        {
+            throw new CurnException("Can't create virtual thread executor",
+                                    ex);
+        }
+
+        catch (InvocationTargetException ex)
+        {
+            throw new CurnException("Can't create virtual thread executor",
+                                    ex.getCause());
+        }
+    }
+
+    /**
+     * Get the number of download workers to start: one per feed.
+     *
+     * @param config      the parsed configuration
+     * @param totalFeeds  the number of feeds to be downloaded
+     *
+     * @return the number of workers
+     */
+    public int getTotalWorkers(CurnConfig config, int totalFeeds)
+    {
+        int result;
+
+        if (virtualThreadsAvailable())
+            result = Math.max(1, totalFeeds);
+        else
+            result = fallback.getTotalWorkers(config, totalFeeds);
+
+        return result;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static Method findVirtualThreadExecutorMethod()
+    {
+        Method result = null;
+
+        try
+        {
+            result = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+
+        catch (NoSuchMethodException ex)
+        {
+            // Pre-Java 21 runtime.
+        }
+
+        return result;
+    }
+}
@@ -35,28 +35,32 @@
 
 package org.clapper.curn;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.clapper.util.config.ConfigurationException;
-import org.clapper.util.io.IOExceptionExt;
 import org.clapper.util.logging.Logger;
 import org.clapper.util.text.TextUtil;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.input.SAXBuilder;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
 
 /**
  * @version <tt>$Revision$</tt>
@@ -101,6 +105,14 @@ public class XMLDataPersister extends DataPersister
     private static final String XML_ID_ATTR               = "id";
     private static final String XML_PUB_DATE_ATTR         = "pub-date";
 
+    /**
+     * Output encoding and formatting
+     */
+    private static final String XML_ENCODING   = "UTF-8";
+    private static final String INDENT         = "  ";
+    private static final String LINE_SEPARATOR =
+        System.getProperty("line.separator");
+
     /*----------------------------------------------------------------------*\
                              Private Instance Data
     \*----------------------------------------------------------------------*/
@@ -109,9 +121,30 @@ public class XMLDataPersister extends DataPersister
     private File metadataFile = null;
 
     /**
-     * Root XML element, used while saving.
+     * Whether the backups have been rolled yet during this run. A run can
+     * save the cache more than once (see <tt>CacheCheckpointer</tt>), but
+     * only the first save rolls the backups.
      */
-    private Element rootElementForSaving = null;
+    private boolean backupsRolled = false;
+
+    /**
+     * Output file and XML writer, used while saving. When the cache file
+     * isn't opened with backups, the data goes to a temporary file
+     * (<tt>tempFile</tt>, via <tt>tempOut</tt>) that replaces the cache
+     * file when the save completes.
+     */
+    private Writer cacheOut = null;
+    private XMLStreamWriter xmlOut = null;
+    private File tempFile = null;
+    private FileOutputStream tempOut = null;
+
+    /**
+     * StAX factories. The factories are thread-safe once configured.
+     */
+    private static final XMLInputFactory xmlInputFactory =
+        newXMLInputFactory();
+    private static final XMLOutputFactory xmlOutputFactory =
+        XMLOutputFactory.newInstance();
 
     /**
      * For logging
@@ -129,6 +162,19 @@ public class XMLDataPersister extends DataPersister
     {
     }
 
+    /**
+     * Creates a new instance of XMLDataPersister that reads and writes
+     * the specified file, without consulting the configuration. Used by
+     * {@link BinaryDataPersister} to read an old XML cache and by
+     * {@link CacheFileConverter}.
+     *
+     * @param metadataFile  the XML metadata (cache) file
+     */
+    XMLDataPersister(File metadataFile)
+    {
+        this.metadataFile = metadataFile;
+    }
+
     /*----------------------------------------------------------------------*\
                                 Public Methods
     \*----------------------------------------------------------------------*/
@@ -196,7 +242,8 @@ public class XMLDataPersister extends DataPersister
 
     /**
      * Called at the beginning of the actual save operation to initialize
-     * the save, etc.
+     * the save, etc. Opens the cache file and writes the start of the
+     * document; the feeds are written to it as they're saved.
      *
      * @throws CurnException on error
      */
@@ -207,11 +254,58 @@ public class XMLDataPersister extends DataPersister
         log.debug("Saving feed metadata to \"" + metadataFile.getPath() +
                   "\". Total backups=" + totalCacheBackups);
 
-        // Create the DOM's root element.
+        try
+        {
+            if ((totalCacheBackups > 0) && (! backupsRolled))
+            {
+                // Open the cache file, rolling the backups. For the
+                // cache file, the index marker goes at the end of the
+                // file (since the extension doesn't matter as much).
+                // This allows the file names to sort better in a
+                // directory listing.
+
+                cacheOut = new BufferedWriter
+                    (CurnUtil.openOutputFile
+                        (metadataFile,
+                         XML_ENCODING,
+                         CurnUtil.IndexMarker.AFTER_EXTENSION,
+                         totalCacheBackups));
+                backupsRolled = true;
+            }
+
+            else
+            {
+                // Write to a temporary file, so that a save that doesn't
+                // complete leaves the existing cache file intact.
 
-        rootElementForSaving = new Element(XML_ROOT_ELEMENT);
-        rootElementForSaving.setAttribute
-            (XML_TIMESTAMP_ATTR, String.valueOf(System.currentTimeMillis()));
+                tempFile = new File(metadataFile.getPath() + ".tmp");
+                tempOut = new FileOutputStream(tempFile);
+                cacheOut = new BufferedWriter
+                    (new OutputStreamWriter(tempOut, XML_ENCODING));
+            }
+
+            xmlOut = xmlOutputFactory.createXMLStreamWriter(cacheOut);
+
+            // Write the document's root element. The feeds go inside it.
+
+            xmlOut.writeStartDocument(XML_ENCODING, "1.0");
+            newLine(0);
+            xmlOut.writeStartElement(XML_ROOT_ELEMENT);
+            xmlOut.writeAttribute(XML_TIMESTAMP_ATTR,
+                                  String.valueOf(System.currentTimeMillis()));
+        }
+
+        catch (IOException ex)
+        {
+            closeSaveOutput();
+            throw saveError(ex);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            closeSaveOutput();
+            throw saveError(ex);
+        }
      }
 
     /**
@@ -224,43 +318,59 @@ public class XMLDataPersister extends DataPersister
     {
         try
         {
-            Document document = new Document(rootElementForSaving);
-            Format outputFormat = Format.getPrettyFormat();
-            outputFormat.setLineSeparator(System.getProperty("line.separator"));
-            XMLOutputter xmlOut = new XMLOutputter(outputFormat);
+            newLine(0);
+            xmlOut.writeEndElement();
+            newLine(0);
+            xmlOut.writeEndDocument();
+            xmlOut.close();
+            xmlOut = null;
+
+            if (tempOut != null)
+            {
+                cacheOut.flush();
+                tempOut.getFD().sync();
+            }
 
-            // Open the cache file. For the cache file, the index
-            // marker goes at the end of the file (since the extension
-            // doesn't matter as much). This allows the file names to
-            // sort better in a directory listing.
+            cacheOut.close();
+            cacheOut = null;
+            tempOut = null;
 
-            Writer cacheOut = CurnUtil.openOutputFile
-                                         (metadataFile,
-                                          null,
-                                          CurnUtil.IndexMarker.AFTER_EXTENSION,
-                                          totalCacheBackups);
+            if (tempFile != null)
+            {
+                if (! tempFile.renameTo(metadataFile))
+                {
+                    // Some platforms won't rename over an existing file.
+
+                    metadataFile.delete();
+                    if (! tempFile.renameTo(metadataFile))
+                    {
+                        throw new IOException("Can't rename \"" +
+                                              tempFile.getPath() +
+                                              "\" to \"" +
+                                              metadataFile.getPath() + "\"");
+                    }
+                }
 
-            //xmlOut.output(document, new XMLWriter(cacheOut));
-            xmlOut.output(document, cacheOut);
+                tempFile = null;
+            }
         }
 
         catch (IOException ex)
         {
-            throw new CurnException("Failed to write XML cache file \"" +
-                                    metadataFile.getPath() + "\"",
-                                    ex);
+            closeSaveOutput();
+            throw saveError(ex);
         }
 
-        catch (IOExceptionExt ex)
+        catch (XMLStreamException ex)
         {
-            throw new CurnException("Failed to write XML cache file \"" +
-                                    metadataFile.getPath() + "\"",
-                                    ex);
+            closeSaveOutput();
+            throw saveError(ex);
         }
     }
 
     /**
-     * Save the data for one feed, including the items.
+     * Save the data for one feed, including the items. The feed is
+     * written to the cache file immediately.
      *
      * @param feedData  the feed data to be saved
      *
@@ -273,52 +383,73 @@ public class XMLDataPersister extends DataPersister
         if (feedCacheData == null)
             return;
 
-        URL channelURL = feedCacheData.getChannelURL();
+        try
+        {
+            Collection<PersistentMetadataGroup> feedMetadata =
+                feedData.getFeedMetadata();
+            Collection<PersistentFeedItemData> items =
+                feedData.getPersistentFeedItems();
+            boolean empty = feedMetadata.isEmpty() && items.isEmpty();
 
-        Element channelElement = new Element(XML_FEED_ELEMENT);
-        String urlString = channelURL.toString();
-            channelElement.setAttribute(XML_URL_ATTR, urlString);
-        channelElement.setAttribute
-            (XML_TIMESTAMP_ATTR, String.valueOf(feedCacheData.getTimestamp()));
-        channelElement.setAttribute(XML_ID_ATTR, urlString);
-        rootElementForSaving.addContent(channelElement);
+            newLine(1);
+            startElement(XML_FEED_ELEMENT, empty);
+            String urlString = feedCacheData.getChannelURL().toString();
+            xmlOut.writeAttribute(XML_URL_ATTR, urlString);
+            xmlOut.writeAttribute(XML_TIMESTAMP_ATTR,
+                                  String.valueOf(feedCacheData.getTimestamp()));
+            xmlOut.writeAttribute(XML_ID_ATTR, urlString);
 
-        // Now the feed metadata
+            // Now the feed metadata
 
-        fillInMetadata(feedData.getFeedMetadata(),
-                       XML_FEED_METADATA_ELEMENT,
-                       channelElement);
+            writeMetadata(feedMetadata, XML_FEED_METADATA_ELEMENT, 2);
 
-        // Okay, the feed element has been built. Time to add the items to it.
+            // Time to add the items.
 
-        for (PersistentFeedItemData itemData : feedData.getPersistentFeedItems())
-        {
-            Element itemElement = new Element(XML_ITEM_ELEMENT);
-            channelElement.addContent(itemElement);
+            for (PersistentFeedItemData itemData : items)
+            {
+                Collection<PersistentMetadataGroup> itemMetadata =
+                    itemData.getItemMetadata();
+                FeedCacheEntry itemCacheData = itemData.getFeedCacheEntry();
+
+                newLine(2);
+                startElement(XML_ITEM_ELEMENT, itemMetadata.isEmpty());
+                xmlOut.writeAttribute
+                    (XML_TIMESTAMP_ATTR,
+                     String.valueOf(itemCacheData.getTimestamp()));
+                urlString = itemCacheData.getEntryURL().toString();
+                xmlOut.writeAttribute(XML_ID_ATTR, urlString);
+                xmlOut.writeAttribute(XML_URL_ATTR, urlString);
+
+                // Only write the publication date if it's present.
+
+                Date pubDate = itemCacheData.getPublicationDate();
+                if (pubDate != null)
+                {
+                    xmlOut.writeAttribute(XML_PUB_DATE_ATTR,
+                                          String.valueOf(pubDate.getTime()));
+                }
 
-            FeedCacheEntry itemCacheData = itemData.getFeedCacheEntry();
-            itemElement.setAttribute
-                (XML_TIMESTAMP_ATTR,
-                 String.valueOf(itemCacheData.getTimestamp()));
-            urlString = itemCacheData.getEntryURL().toString();
-            itemElement.setAttribute(XML_ID_ATTR, urlString);
-            itemElement.setAttribute(XML_URL_ATTR, urlString);
-                                     
+                // Fill in the metadata for the item.
 
-            // Only write the publication date if it's present.
+                if (! itemMetadata.isEmpty())
+                {
+                    writeMetadata(itemMetadata, XML_ITEM_METADATA_ELEMENT, 3);
+                    newLine(2);
+                    xmlOut.writeEndElement();
+                }
+            }
 
-            Date pubDate = itemCacheData.getPublicationDate();
-            if (pubDate != null)
+            if (! empty)
             {
-                itemElement.setAttribute(XML_PUB_DATE_ATTR,
-                                         String.valueOf(pubDate.getTime()));
+                newLine(1);
+                xmlOut.writeEndElement();
             }
+        }
 
-            // Fill in the metadata for the item.
-
-            fillInMetadata(itemData.getItemMetadata(),
-                           XML_ITEM_METADATA_ELEMENT,
-                           itemElement);
+        catch (XMLStreamException ex)
+        {
+            closeSaveOutput();
+            throw saveError(ex);
         }
     }
 
@@ -334,9 +465,16 @@ public class XMLDataPersister extends DataPersister
     saveExtraMetadata(Collection<PersistentMetadataGroup> metadata)
         throws CurnException
     {
-        fillInMetadata(metadata,
-                       XML_EXTRA_METADATA_ELEMENT,
-                       rootElementForSaving);
+        try
+        {
+            writeMetadata(metadata, XML_EXTRA_METADATA_ELEMENT, 1);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            closeSaveOutput();
+            throw saveError(ex);
+        }
     }
 
     /**
@@ -366,6 +504,8 @@ public class XMLDataPersister extends DataPersister
 
     /**
      * The actual load method; only called if the object is enabled.
+     * The file is parsed as a stream, and each feed is passed to the
+     * handler as soon as it has been read.
      *
      * @param loadedDataHandler object to receive data as it's loaded
      *
@@ -385,59 +525,72 @@ public class XMLDataPersister extends DataPersister
         {
             log.debug("Reading feed metadata from \"" + filePath + "\"");
 
-            // First, parse the XML file into a DOM.
-
-            SAXBuilder builder = new SAXBuilder();
-            Document document;
+            InputStream     is = null;
+            XMLStreamReader r = null;
 
             log.info("Attempting to parse \"" + filePath + "\" as XML.");
             try
             {
-                document = builder.build(metadataFile);
-            }
+                is = new BufferedInputStream(new FileInputStream(metadataFile));
+                r = xmlInputFactory.createXMLStreamReader(is);
 
-            catch (Throwable ex)
-            {
-                log.error(ex);
-                throw new CurnException(ex);
-            }
+                // Get the top-level element and verify that it's the one
+                // we want.
 
-            log.debug("XML parse succeeded.");
+                while (r.next() != XMLStreamConstants.START_ELEMENT)
+                    continue;
 
-            // Get the top-level element and verify that it's the one
-            // we want.
+                String rootTagName = r.getLocalName();
+
+                if (rootTagName.equals(OLD_XML_ROOT_ELEMENT))
+                {
+                    log.debug("Reading old-style <" + OLD_XML_ROOT_ELEMENT +
+                              "> cache file.");
+                    readOldXMLCache(r, filePath, loadedDataHandler);
+                }
+
+                else if (rootTagName.equals(XML_ROOT_ELEMENT))
+                {
+                    log.debug("Reading new-style <" + XML_ROOT_ELEMENT +
+                              "> metadata file.");
+                    readNewXMLMetaData(r, loadedDataHandler);
+                }
+
+                else
+                {
+                    throw new CurnException
+                        (Constants.BUNDLE_NAME,
+                         "XMLDataPersister.nonCacheXML",
+                         "File \"{0}\" is not a curn XML metadata file. The " +
+                         "root XML element is <{1}>, not the expected <{2}> " +
+                         "or <{3}>",
+                         new Object[]
+                         {
+                             filePath,
+                             rootTagName,
+                             OLD_XML_ROOT_ELEMENT,
+                             XML_ROOT_ELEMENT
+                         });
+                }
 
-            Element root = document.getRootElement();
-            String rootTagName = root.getName();
+                log.debug("XML parse succeeded.");
+            }
 
-            if (rootTagName.equals(OLD_XML_ROOT_ELEMENT))
+            catch (IOException ex)
             {
-                log.debug("Reading old-style <" + OLD_XML_ROOT_ELEMENT +
-                          "> cache file.");
-                readOldXMLCache(document, filePath, loadedDataHandler);
+                log.error(ex);
+                throw new CurnException(ex);
             }
 
-            else if (rootTagName.equals(XML_ROOT_ELEMENT))
+            catch (XMLStreamException ex)
             {
-                log.debug("Reading new-style <" + XML_ROOT_ELEMENT +
-                          "> metadata file.");
-                readNewXMLMetaData(document, loadedDataHandler);
+                log.error(ex);
+                throw new CurnException(ex);
             }
 
-            else
+            finally
             {
-                throw new CurnException
-                    (Constants.BUNDLE_NAME,
-                     "XMLDataPersister.nonCacheXML",
-                     "File \"{0}\" is not a curn XML metadata file. The root " +
-                     "XML element is <{1}>, not the expected <{2}> or <{3}>",
-                     new Object[]
-                     {
-                         filePath,
-                         rootTagName,
-                         OLD_XML_ROOT_ELEMENT,
-                         XML_ROOT_ELEMENT
-                     });
+                close(r, is, filePath);
             }
         }
     }
@@ -446,95 +599,228 @@ public class XMLDataPersister extends DataPersister
                                 Private Methods
     \*----------------------------------------------------------------------*/
 
-    private void fillInMetadata(Collection<PersistentMetadataGroup> metadata,
-                                String elementName,
-                                Element parentElement)
+    private static XMLInputFactory newXMLInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                            Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Write a collection of metadata groups, one element per group.
+     *
+     * @param metadata     the metadata groups
+     * @param elementName  the element name to use for each group
+     * @param level        the indentation level of the group elements
+     *
+     * @throws XMLStreamException on error
+     */
+    private void writeMetadata(Collection<PersistentMetadataGroup> metadata,
+                               String elementName,
+                               int level)
+        throws XMLStreamException
     {
         for (PersistentMetadataGroup metadataGroup : metadata)
         {
-            Element metadataElement = new Element(elementName);
-            metadataElement.setAttribute(XML_METADATA_NAMESPACE_ATTR,
-                                         metadataGroup.getNamespace());
-            parentElement.addContent(metadataElement);
-
             Map<String,String> nameValuePairs = metadataGroup.getMetadata();
-            for (Map.Entry<String,String> nameValuePair : nameValuePairs.entrySet())
+
+            newLine(level);
+            startElement(elementName, nameValuePairs.isEmpty());
+            xmlOut.writeAttribute(XML_METADATA_NAMESPACE_ATTR,
+                                  metadataGroup.getNamespace());
+
+            if (! nameValuePairs.isEmpty())
             {
-                Element metadatumElement = new Element(XML_METADATUM_ELEMENT);
-                metadatumElement.setAttribute(XML_METADATUM_NAME_ATTR,
-                                              nameValuePair.getKey());
-                metadatumElement.setAttribute(XML_METADATUM_VALUE_ATTR,
-                                              nameValuePair.getValue());
-                metadataElement.addContent(metadatumElement);
+                for (Map.Entry<String,String> nameValuePair :
+                         nameValuePairs.entrySet())
+                {
+                    newLine(level + 1);
+                    xmlOut.writeEmptyElement(XML_METADATUM_ELEMENT);
+                    xmlOut.writeAttribute(XML_METADATUM_NAME_ATTR,
+                                          nameValuePair.getKey());
+                    xmlOut.writeAttribute(XML_METADATUM_VALUE_ATTR,
+                                          nameValuePair.getValue());
+                }
+
+                newLine(level);
+                xmlOut.writeEndElement();
             }
         }
     }
 
+    /**
+     * Start an element that will or won't have children.
+     *
+     * @param elementName  the element name
+     * @param empty        <tt>true</tt> if the element won't have children
+     *                     (and, therefore, won't be closed with
+     *                     <tt>writeEndElement()</tt>)
+     *
+     * @throws XMLStreamException on error
+     */
+    private void startElement(String elementName, boolean empty)
+        throws XMLStreamException
+    {
+        if (empty)
+            xmlOut.writeEmptyElement(elementName);
+        else
+            xmlOut.writeStartElement(elementName);
+    }
+
+    /**
+     * Start a new, indented line in the output, so that the cache file
+     * stays readable.
+     *
+     * @param level  the indentation level
+     *
+     * @throws XMLStreamException on error
+     */
+    private void newLine(int level)
+        throws XMLStreamException
+    {
+        StringBuilder buf = new StringBuilder(LINE_SEPARATOR);
+        for (int i = 0; i < level; i++)
+            buf.append(INDENT);
+
+        xmlOut.writeCharacters(buf.toString());
+    }
+
+    /**
+     * Close the output after a failed save.
+     */
+    private void closeSaveOutput()
+    {
+        try
+        {
+            if (xmlOut != null)
+                xmlOut.close();
+
+            if (cacheOut != null)
+                cacheOut.close();
+        }
+
+        catch (IOException ex)
+        {
+            log.error("Failed to close \"" + metadataFile.getPath() + "\"",
+                      ex);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            log.error("Failed to close \"" + metadataFile.getPath() + "\"",
+                      ex);
+        }
+
+        finally
+        {
+            xmlOut = null;
+            cacheOut = null;
+            tempOut = null;
+        }
+
+        if (tempFile != null)
+        {
+            tempFile.delete();
+            tempFile = null;
+        }
+    }
+
+    private CurnException saveError(Exception ex)
+    {
+        return new CurnException("Failed to write XML cache file \"" +
+                                 metadataFile.getPath() + "\"",
+                                 ex);
+    }
+
+    private void close(XMLStreamReader r, InputStream is, String filePath)
+    {
+        try
+        {
+            if (r != null)
+                r.close();
+
+            if (is != null)
+                is.close();
+        }
+
+        catch (IOException ex)
+        {
+            log.error("Failed to close \"" + filePath + "\"", ex);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            log.error("Failed to close \"" + filePath + "\"", ex);
+        }
+    }
+
     /**
      * Attempt to parse an old-style XML cache. This method will go away
-     * soon.
+     * soon. Since the old format doesn't group the entries by feed, the
+     * whole file has to be read before any feed can be handed off.
      *
-     * @param document          the parsed XML document
+     * @param r                 the XML reader, positioned on the root
+     *                          element
      * @param filePath          the path to the file, for errors
      * @param loadedDataHandler the callback to invoke with loaded data
      *
-     * @throws CurnException on error
+     * @throws XMLStreamException parse error
+     * @throws CurnException      on error
      */
-    private void readOldXMLCache(final Document          document,
+    private void readOldXMLCache(final XMLStreamReader   r,
                                  final String            filePath,
                                  final LoadedDataHandler loadedDataHandler)
-        throws CurnException
+        throws XMLStreamException,
+               CurnException
     {
-        // Get the top-level element and verify that it's the one
-        // we want.
-
-        Element root = document.getRootElement();
-        String rootTagName = root.getName();
-        assert(rootTagName.equals(OLD_XML_ROOT_ELEMENT));
+        assert(r.getLocalName().equals(OLD_XML_ROOT_ELEMENT));
 
         // Okay, it's a curn cache. Start traversing the child nodes,
         // parsing each cache entry.
 
-        Map<URL,PersistentFeedData> loadedData =
-            new HashMap<URL,PersistentFeedData>();
+        Map<FeedKey,PersistentFeedData> loadedData =
+            new HashMap<FeedKey,PersistentFeedData>();
 
-        List<?> childNodes = root.getChildren();
-        for (Iterator<?> it = childNodes.iterator(); it.hasNext(); )
+        while (nextChild(r))
         {
-            Element childNode = (Element) it.next();
-
-            // Skip non-element nodes (like text).
-
-            String nodeName = childNode.getName();
+            String nodeName = r.getLocalName();
             if (! nodeName.equals(OLD_XML_ENTRY_ELEMENT))
             {
                 log.warn("Skipping unexpected XML element <" +
                          nodeName + "> in curn XML cache file \"" +
                          filePath + "\".");
+                skipElement(r);
                 continue;
             }
 
             try
             {
-                FeedCacheEntry entry = parseOldXMLCacheEntry(childNode);
-                URL feedURL = entry.getChannelURL();
-                PersistentFeedData feedData = loadedData.get(feedURL);
-                log.debug("readOldXMLCache: read entry " + entry.getEntryURL());
-                if (feedData == null)
+                FeedCacheEntry entry = parseOldXMLCacheEntry(r);
+                if (entry != null)
                 {
-                    feedData = new PersistentFeedData();
-                    loadedData.put(feedURL, feedData);
-                }
-
-                if (entry.isChannelEntry())
-                {
-                    feedData.setFeedCacheEntry(entry);
-                }
-
-                else
-                {
-                    feedData.addPersistentFeedItem
-                        (new PersistentFeedItemData(entry));
+                    FeedKey feedKey = new FeedKey(entry.getChannelURL());
+                    PersistentFeedData feedData = loadedData.get(feedKey);
+                    log.debug("readOldXMLCache: read entry " +
+                              entry.getEntryURL());
+                    if (feedData == null)
+                    {
+                        feedData = new PersistentFeedData();
+                        loadedData.put(feedKey, feedData);
+                    }
+
+                    if (entry.isChannelEntry())
+                    {
+                        feedData.setFeedCacheEntry(entry);
+                    }
+
+                    else
+                    {
+                        feedData.addPersistentFeedItem
+                            (new PersistentFeedItemData(entry));
+                    }
                 }
             }
 
@@ -544,6 +830,8 @@ public class XMLDataPersister extends DataPersister
 
                 log.error("Error parsing feed cache entry", ex);
             }
+
+            skipElement(r);
         }
 
         for (PersistentFeedData feedData : loadedData.values())
@@ -554,13 +842,14 @@ public class XMLDataPersister extends DataPersister
      * Parse an old-style XML feed cache entry. This method will go away
      * soon.
      *
-     * @param element  the XML element for the feed cache entry
+     * @param element  the XML reader, positioned on the element for the
+     *                 feed cache entry
      *
      * @return the FeedCacheEntry
      *
      * @throws CurnException on error
      */
-    private FeedCacheEntry parseOldXMLCacheEntry(final Element element)
+    private FeedCacheEntry parseOldXMLCacheEntry(final XMLStreamReader element)
         throws CurnException
     {
         FeedCacheEntry result = null;
@@ -659,121 +948,158 @@ public class XMLDataPersister extends DataPersister
     }
 
     /**
-     * Attempt to parse a new-style XML metadata file.
+     * Read a new-style XML metadata file.
      *
-     * @param document the parsed XML file
+     * @param r                 the XML reader, positioned on the root element
      * @param loadedDataHandler the callback to invoke with loaded data
      *
-     * @throws CurnException on error
+     * @throws XMLStreamException parse error
+     * @throws CurnException      on error
      */
-    private void readNewXMLMetaData(final Document          document,
+    private void readNewXMLMetaData(final XMLStreamReader   r,
                                     final LoadedDataHandler loadedDataHandler)
-        throws CurnException
+        throws XMLStreamException,
+               CurnException
     {
-        // Get the top-level element and verify that it's the one
-        // we want.
+        assert(r.getLocalName().equals(XML_ROOT_ELEMENT));
 
-        Element root = document.getRootElement();
-        String rootTagName = root.getName();
-        assert(rootTagName.equals(XML_ROOT_ELEMENT));
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
 
-        // Get the list of channels.
+            if (name.equals(XML_FEED_ELEMENT))
+            {
+                loadedDataHandler.feedLoaded(readFeed(r));
+            }
 
-        List<?> channels = root.getChildren(XML_FEED_ELEMENT);
-        for (Iterator<?> itChannel = channels.iterator(); itChannel.hasNext(); )
-        {
-            // Parse the channel element itself.
+            else if (name.equals(XML_EXTRA_METADATA_ELEMENT))
+            {
+                loadedDataHandler.extraMetadataLoaded(readMetadataGroup(r));
+            }
 
-            Element channelElement = (Element) itChannel.next();
-            FeedCacheEntry entry = parseXMLFeedElement(channelElement);
-            PersistentFeedData feedData = new PersistentFeedData(entry);
-            URL channelURL = entry.getChannelURL();
+            else
+            {
+                skipElement(r);
+            }
+        }
+    }
 
-            // Parse any metadata in the channel.
+    /**
+     * Read a feed element, its metadata and its items.
+     *
+     * @param r  the XML reader, positioned on the feed element. On return,
+     *           it's positioned on the feed's end tag.
+     *
+     * @return the loaded feed data
+     *
+     * @throws XMLStreamException parse error
+     * @throws CurnException      on error
+     */
+    private PersistentFeedData readFeed(final XMLStreamReader r)
+        throws XMLStreamException,
+               CurnException
+    {
+        // Parse the channel element itself.
 
-            List<?> feedMetadata =
-                channelElement.getChildren(XML_FEED_METADATA_ELEMENT);
-            feedData.addFeedMetadata(parseMetadata(feedMetadata));
+        FeedCacheEntry entry = parseXMLFeedElement(r);
+        PersistentFeedData feedData = new PersistentFeedData(entry);
+        URL channelURL = entry.getChannelURL();
 
-            // Get the list of items and process each one.
+        // Parse the channel's metadata and items.
 
-            List<?> items = channelElement.getChildren(XML_ITEM_ELEMENT);
-            for (Iterator<?> itItem = items.iterator(); itItem.hasNext(); )
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if (name.equals(XML_FEED_METADATA_ELEMENT))
             {
-                // Parse the item element itself.
+                feedData.addFeedMetadataGroup(readMetadataGroup(r));
+            }
 
-                Element itemElement = (Element) itItem.next();
-                entry = parseXMLItemElement(itemElement, channelURL);
-                PersistentFeedItemData itemData =
-                    new PersistentFeedItemData(entry);
-                feedData.addPersistentFeedItem(itemData);
+            else if (name.equals(XML_ITEM_ELEMENT))
+            {
+                entry = parseXMLItemElement(r, channelURL);
+                PersistentFeedItemData itemData = null;
+                if (entry != null)
+                {
+                    itemData = new PersistentFeedItemData(entry);
+                    feedData.addPersistentFeedItem(itemData);
+                }
 
                 // Get and process the item metadata
 
-                List<?> itemMetadata =
-                    itemElement.getChildren(XML_ITEM_METADATA_ELEMENT);
-                itemData.addItemMetadata(parseMetadata(itemMetadata));
+                while (nextChild(r))
+                {
+                    if ((itemData != null) &&
+                        r.getLocalName().equals(XML_ITEM_METADATA_ELEMENT))
+                    {
+                        itemData.addItemMetadataGroup(readMetadataGroup(r));
+                    }
+
+                    else
+                    {
+                        skipElement(r);
+                    }
+                }
             }
 
-            loadedDataHandler.feedLoaded(feedData);
+            else
+            {
+                skipElement(r);
+            }
         }
 
-        // Finally, parse any extra metadata.
-
-        Collection<PersistentMetadataGroup> extraMetadata =
-            parseMetadata(root.getChildren(XML_EXTRA_METADATA_ELEMENT));
-        for (PersistentMetadataGroup metadataGroup : extraMetadata)
-            loadedDataHandler.extraMetadataLoaded(metadataGroup);
+        return feedData;
     }
 
-    private Collection<PersistentMetadataGroup>
-    parseMetadata(List<?> metadataElements)
+    /**
+     * Read one metadata element (feed, item or extra).
+     *
+     * @param r  the XML reader, positioned on the metadata element. On
+     *           return, it's positioned on the element's end tag.
+     *
+     * @return the metadata group
+     *
+     * @throws XMLStreamException parse error
+     */
+    private PersistentMetadataGroup readMetadataGroup(final XMLStreamReader r)
+        throws XMLStreamException
     {
-        Collection<PersistentMetadataGroup> result = new
-            ArrayList<PersistentMetadataGroup>();
+        String namespace =
+            getRequiredXMLAttribute(r, XML_METADATA_NAMESPACE_ATTR);
+        PersistentMetadataGroup metadataGroup =
+            new PersistentMetadataGroup(namespace);
 
-        for (Iterator<?> it = metadataElements.iterator(); it.hasNext(); )
+        while (nextChild(r))
         {
-            Element mdElement = (Element) it.next();
-            String namespace =
-                getRequiredXMLAttribute(mdElement,
-                                        XML_METADATA_NAMESPACE_ATTR);
-            List<?> nameValuePairs =
-                mdElement.getChildren(XML_METADATUM_ELEMENT);
-            PersistentMetadataGroup metadataGroup =
-                new PersistentMetadataGroup(namespace);
-
-            for (Iterator<?> itNV = nameValuePairs.iterator();
-                 itNV.hasNext(); )
+            if (r.getLocalName().equals(XML_METADATUM_ELEMENT))
             {
-                Element nvElement = (Element) itNV.next();
                 String name =
-                    getRequiredXMLAttribute(nvElement,
-                                            XML_METADATUM_NAME_ATTR);
-                 String value =
-                    getRequiredXMLAttribute(nvElement,
-                                            XML_METADATUM_VALUE_ATTR);
-                 metadataGroup.addMetadataItem(name, value);
-           }
+                    getRequiredXMLAttribute(r, XML_METADATUM_NAME_ATTR);
+                String value =
+                    getRequiredXMLAttribute(r, XML_METADATUM_VALUE_ATTR);
+                metadataGroup.addMetadataItem(name, value);
+            }
 
-            result.add(metadataGroup);
+            skipElement(r);
         }
 
-        return result;
-   }
+        return metadataGroup;
+    }
 
     /**
      * Parse an XML feed metadata channel element. This method only parses the
      * attributes of the channel element; it does not handle any child
      * elements.
      *
-     * @param channelElement the XML element for the channel
+     * @param channelElement the XML reader, positioned on the channel
+     *                       element
      *
      * @return the FeedCacheEntry object for the feed
      *
      * @throws CurnException on error
      */
-    private FeedCacheEntry parseXMLFeedElement(final Element channelElement)
+    private FeedCacheEntry parseXMLFeedElement(final XMLStreamReader channelElement)
         throws CurnException
     {
         // Parse the channel and create an entry for it.
@@ -825,14 +1151,14 @@ public class XMLDataPersister extends DataPersister
     /**
      * Parse an XML feed metadata item entry.
      *
-     * @param itemElement  the XML element for the item entry
+     * @param itemElement  the XML reader, positioned on the item element
      * @param channelURL   the URL of the parent channel
      *
      * @return the FeedCacheEntry
      *
      * @throws CurnException on error
      */
-    private FeedCacheEntry parseXMLItemElement(final Element itemElement,
+    private FeedCacheEntry parseXMLItemElement(final XMLStreamReader itemElement,
                                                final URL     channelURL)
         throws CurnException
     {
@@ -919,17 +1245,17 @@ public class XMLDataPersister extends DataPersister
      * Retrieve an optional XML attribute value from a list of attributes.
      * If the attribute is missing or empty, the default is returned.
      *
-     * @param element      the XML element
+     * @param element      the XML reader, positioned on the element
      * @param defaultValue the default value
      * @param name         the attribute name
      *
      * @return the attribute's value, or null if the attribute wasn't found
      */
-    private String getOptionalXMLAttribute(final Element element,
-                                           final String  name,
-                                           final String  defaultValue)
+    private String getOptionalXMLAttribute(final XMLStreamReader element,
+                                           final String          name,
+                                           final String          defaultValue)
     {
-        String value = element.getAttributeValue(name);
+        String value = element.getAttributeValue(null, name);
         if ((value != null) && TextUtil.stringIsEmpty(value))
             value = null;
 
@@ -941,22 +1267,78 @@ public class XMLDataPersister extends DataPersister
      * attribute is missing, the error is logged (but an exception is not
      * thrown).
      *
-     * @param element the element
+     * @param element the XML reader, positioned on the element
      * @param name    the attribute name
-*
+     *
      * @return the attribute's value, or null if the attribute wasn't found
      */
-    private String getRequiredXMLAttribute (final Element element,
-                                            final String  name)
+    private String getRequiredXMLAttribute (final XMLStreamReader element,
+                                            final String          name)
     {
         String value = getOptionalXMLAttribute (element, name, null);
 
         if (value == null)
         {
-            log.error("<" + element.getName() + "> is missing required " +
+            log.error("<" + element.getLocalName() + "> is missing required " +
                       "\"" + name + "\" XML attribute.");
         }
 
         return value;
     }
+
+    /**
+     * Advance to the next child element of the current element.
+     *
+     * @param r  the XML reader
+     *
+     * @return <tt>true</tt> if positioned on a child's start tag,
+     *         <tt>false</tt> if positioned on the parent's end tag
+     *
+     * @throws XMLStreamException parse error
+     */
+    private static boolean nextChild(final XMLStreamReader r)
+        throws XMLStreamException
+    {
+        int event;
+
+        do
+        {
+            event = r.next();
+        }
+        while ((event != XMLStreamConstants.START_ELEMENT) &&
+               (event != XMLStreamConstants.END_ELEMENT));
+
+        return event == XMLStreamConstants.START_ELEMENT;
+    }
+
+    /**
+     * Skip the remainder of the current element, including its children.
+     *
+     * @param r  the XML reader, positioned within the element. On return,
+     *           it's positioned on the element's end tag.
+     *
+     * @throws XMLStreamException parse error
+     */
+    private static void skipElement(final XMLStreamReader r)
+        throws XMLStreamException
+    {
+        int depth = 1;
+
+        while (depth > 0)
+        {
+            switch (r.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
 }
@@ -40,6 +40,7 @@ import org.clapper.curn.CurnConfig;
 import org.clapper.curn.ConfiguredOutputHandler;
 import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
+import org.clapper.curn.IncrementalOutputHandler;
 import org.clapper.curn.Version;
 import org.clapper.curn.output.FileOutputHandler;
 import org.clapper.curn.parser.RSSChannel;
@@ -142,6 +143,12 @@ import org.clapper.curn.CurnUtil;
  * the {@link RSSChannel} and {@link FeedInfo} objects for a given channel.
  * See below for a more complete description.</p>
  *
+ * <p>Since it only buffers the channels, this handler is an
+ * {@link IncrementalOutputHandler}: <i>curn</i> hands it each channel as
+ * soon as the feed is finished, while other feeds are still downloading,
+ * and the script still sees all of them, in configured order, when it
+ * runs.</p>
+ *
  * <p>The complete list of objects bound into the BSF beanspace follows.</p>
  *
  * <table border="0">
@@ -296,7 +303,9 @@ import org.clapper.curn.CurnUtil;
  *
  * @version <tt>$Revision$</tt>
  */
-public class ScriptOutputHandler extends FileOutputHandler
+public class ScriptOutputHandler
+    extends FileOutputHandler
+    implements IncrementalOutputHandler
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
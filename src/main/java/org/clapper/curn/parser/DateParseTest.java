@@ -0,0 +1,162 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Runs {@link ParserUtil#parseDate} over a corpus of date strings (see
+ * <tt>test-data/dates.txt</tt>) and reports any whose result differs from
+ * the expected one. Then it times repeated parsing of the corpus, as a
+ * rough benchmark. Usage:
+ *
+ * <pre>
+ * java org.clapper.curn.parser.DateParseTest corpusFile [iterations]
+ * </pre>
+ *
+ * The program exits with a non-zero status if any dates don't match.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class DateParseTest
+{
+    private DateParseTest()
+    {
+        // Nothing to do
+    }
+
+    public static void main (String args[])
+    {
+        int failures = 0;
+
+        try
+        {
+            failures = runTest (args);
+        }
+
+        catch (Exception ex)
+        {
+            ex.printStackTrace();   // NOPMD
+            System.exit (1);
+        }
+
+        System.exit ((failures == 0) ? 0 : 1);
+    }
+
+    private static int runTest (String args[])
+        throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println ("Usage: java " +
+                                DateParseTest.class.getName() +
+                                " corpusFile [iterations]");
+            System.exit (1);
+        }
+
+        // The corpus's expectations for zone-less dates assume this zone.
+
+        TimeZone.setDefault (TimeZone.getTimeZone ("America/New_York"));
+
+        SimpleDateFormat utc = new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss'Z'",
+                                                     Locale.US);
+        utc.setTimeZone (TimeZone.getTimeZone ("GMT"));
+
+        List<String> inputs = new ArrayList<String>();
+        int failures = 0;
+        BufferedReader in = new BufferedReader
+            (new InputStreamReader (new FileInputStream (args[0]), "UTF-8"));
+
+        try
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if ((line.trim().length() == 0) || line.startsWith ("#"))
+                    continue;
+
+                int tab = line.indexOf ('\t');
+                String expected = line.substring (0, tab);
+                String input = line.substring (tab + 1);
+                inputs.add (input);
+
+                Date date = ParserUtil.parseDate (input);
+                String actual = (date == null) ? "null" : utc.format (date);
+                if (! actual.equals (expected))
+                {
+                    failures++;
+                    System.out.println ("\"" + input + "\": expected " +
+                                        expected + ", got " + actual);
+                }
+            }
+        }
+
+        finally
+        {
+            in.close();
+        }
+
+        System.out.println (inputs.size() + " date(s), " + failures +
+                            " failure(s).");
+
+        int iterations = (args.length > 1) ? Integer.parseInt (args[1])
+                                           : 10000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+        {
+            for (String input : inputs)
+                ParserUtil.parseDate (input);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long total = (long) iterations * inputs.size();
+        System.out.println (total + " parses, " + (elapsed / total) +
+                            " ns/parse");
+
+        return failures;
+    }
+}
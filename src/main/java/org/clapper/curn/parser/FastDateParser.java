@@ -0,0 +1,438 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser;
+
+import java.util.Date;
+
+/**
+ * Hand-written parsers for the date shapes that show up in the vast
+ * majority of feeds: RFC 822 dates such as
+ * "<tt>Thu, 10 Jun 2004 22:56:49 GMT</tt>" and W3C (ISO 8601) date-times
+ * such as "<tt>2003-12-13T18:30:02Z</tt>". They allocate nothing but the
+ * resulting <tt>Date</tt>, use no locks, and never throw. Anything they
+ * don't recognize, they reject (by returning null), so the caller can fall
+ * back to the more forgiving <tt>SimpleDateFormat</tt>-based parsing in
+ * {@link ParserUtil}.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class FastDateParser
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String[] DAY_NAMES =
+    {
+        "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"
+    };
+
+    private static final String[] MONTH_NAMES =
+    {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun",
+        "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    /**
+     * Named zones RFC 822 permits, and their offsets from GMT, in minutes.
+     * As with <tt>SimpleDateFormat</tt>, the standard-time and daylight
+     * names map to fixed offsets, regardless of the date.
+     */
+    private static final String[] ZONE_NAMES =
+    {
+        "GMT", "UT", "UTC", "Z",
+        "EST", "EDT", "CST", "CDT", "MST", "MDT", "PST", "PDT"
+    };
+
+    private static final int[] ZONE_OFFSETS =
+    {
+        0, 0, 0, 0,
+        -5 * 60, -4 * 60, -6 * 60, -5 * 60, -7 * 60, -6 * 60, -8 * 60, -7 * 60
+    };
+
+    private static final int[] DAYS_IN_MONTH =
+    {
+        31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31
+    };
+
+    private static final long MS_PER_MINUTE = 60L * 1000L;
+    private static final long MS_PER_DAY    = 24L * 60L * MS_PER_MINUTE;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private FastDateParser()
+    {
+        // Cannot be instantiated.
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Parse an RFC 822 date of the form
+     * <tt>[EEE[,] ]d MMM yyyy HH:mm[:ss] zone</tt>, where <i>zone</i> is
+     * <tt>GMT</tt>, <tt>UT</tt>, <tt>UTC</tt>, <tt>Z</tt>, one of the
+     * North American zone names, or <tt>+hhmm</tt>/<tt>-hhmm</tt>.
+     *
+     * @param s  the string
+     *
+     * @return the date, or null if the string isn't in that form
+     */
+    static Date parseRFC822(String s)
+    {
+        int len = s.length();
+        int i = skipSpaces(s, 0);
+
+        // Optional day of the week, which is ignored (as it is by a
+        // lenient SimpleDateFormat).
+
+        if ((i < len) && Character.isLetter(s.charAt(i)))
+        {
+            if ((i + 3 > len) || (indexOfName(s, i, DAY_NAMES) < 0))
+                return null;
+            i += 3;
+            if ((i < len) && (s.charAt(i) == ','))
+                i++;
+            int j = skipSpaces(s, i);
+            if (j == i)
+                return null;
+            i = j;
+        }
+
+        // Day of month: one or two digits.
+
+        int day = digits(s, i, 1);
+        if (day < 0)
+            return null;
+        i++;
+        if ((i < len) && isDigit(s.charAt(i)))
+        {
+            day = day * 10 + (s.charAt(i) - '0');
+            i++;
+        }
+
+        // Month name.
+
+        int j = skipSpaces(s, i);
+        if ((j == i) || (j + 3 > len))
+            return null;
+        int month = indexOfName(s, j, MONTH_NAMES);
+        if (month < 0)
+            return null;
+        month++;
+        i = j + 3;
+
+        // Four-digit year.
+
+        j = skipSpaces(s, i);
+        if (j == i)
+            return null;
+        int year = digits(s, j, 4);
+        if (year < 0)
+            return null;
+        i = j + 4;
+
+        // HH:mm[:ss]
+
+        j = skipSpaces(s, i);
+        if (j == i)
+            return null;
+        i = j;
+        int hour = digits(s, i, 2);
+        int minute = ((i + 2 < len) && (s.charAt(i + 2) == ':'))
+                         ? digits(s, i + 3, 2) : -1;
+        if ((hour < 0) || (minute < 0))
+            return null;
+        i += 5;
+        int second = 0;
+        if ((i < len) && (s.charAt(i) == ':'))
+        {
+            second = digits(s, i + 1, 2);
+            if (second < 0)
+                return null;
+            i += 3;
+        }
+
+        // Zone.
+
+        j = skipSpaces(s, i);
+        if ((j == i) || (j >= len))
+            return null;
+        i = j;
+
+        int offset;
+        char c = s.charAt(i);
+        if ((c == '+') || (c == '-'))
+        {
+            int hh = digits(s, i + 1, 2);
+            int mm = digits(s, i + 3, 2);
+            if ((hh < 0) || (mm < 0) || (mm > 59))
+                return null;
+            offset = hh * 60 + mm;
+            if (c == '-')
+                offset = -offset;
+            i += 5;
+        }
+
+        else
+        {
+            int end = i;
+            while ((end < len) && Character.isLetter(s.charAt(end)))
+                end++;
+
+            offset = zoneOffset(s, i, end);
+            if (offset == Integer.MIN_VALUE)
+                return null;
+            i = end;
+        }
+
+        if (skipSpaces(s, i) != len)
+            return null;
+
+        return toDate(year, month, day, hour, minute, second, offset);
+    }
+
+    /**
+     * Parse a W3C date-time of the form
+     * <tt>yyyy-MM-ddTHH:mm[:ss[.fff]]zone</tt>, where <i>zone</i> is
+     * <tt>Z</tt>, <tt>+hh:mm</tt>, <tt>-hh:mm</tt>, <tt>+hhmm</tt> or
+     * <tt>-hhmm</tt>. Fractional seconds are dropped, as
+     * <i>curn</i> has always done. Date-times without a zone (which are
+     * local time) and dates without times are rejected.
+     *
+     * @param s  the string
+     *
+     * @return the date, or null if the string isn't in that form
+     */
+    static Date parseW3C(String s)
+    {
+        int len = s.length();
+        int i = skipSpaces(s, 0);
+
+        if (i + 16 > len)
+            return null;
+
+        int year = digits(s, i, 4);
+        int month = digits(s, i + 5, 2);
+        int day = digits(s, i + 8, 2);
+        int hour = digits(s, i + 11, 2);
+        int minute = digits(s, i + 14, 2);
+
+        if ((year < 0) || (month < 0) || (day < 0) ||
+            (hour < 0) || (minute < 0) ||
+            (s.charAt(i + 4) != '-') || (s.charAt(i + 7) != '-') ||
+            (Character.toUpperCase(s.charAt(i + 10)) != 'T') ||
+            (s.charAt(i + 13) != ':'))
+        {
+            return null;
+        }
+
+        i += 16;
+        int second = 0;
+        if ((i < len) && (s.charAt(i) == ':'))
+        {
+            second = digits(s, i + 1, 2);
+            if (second < 0)
+                return null;
+            i += 3;
+
+            if ((i < len) && (s.charAt(i) == '.'))
+            {
+                i++;
+                int start = i;
+                while ((i < len) && isDigit(s.charAt(i)))
+                    i++;
+                if (i == start)
+                    return null;
+            }
+        }
+
+        if (i >= len)
+            return null;
+
+        int offset;
+        char c = s.charAt(i);
+        if ((c == 'Z') || (c == 'z'))
+        {
+            offset = 0;
+            i++;
+        }
+
+        else if ((c == '+') || (c == '-'))
+        {
+            int hh = digits(s, i + 1, 2);
+            int colon = ((i + 3 < len) && (s.charAt(i + 3) == ':')) ? 1 : 0;
+            int mm = digits(s, i + 3 + colon, 2);
+            if ((hh < 0) || (mm < 0) || (mm > 59))
+                return null;
+            offset = hh * 60 + mm;
+            if (c == '-')
+                offset = -offset;
+            i += 5 + colon;
+        }
+
+        else
+        {
+            return null;
+        }
+
+        if (skipSpaces(s, i) != len)
+            return null;
+
+        return toDate(year, month, day, hour, minute, second, offset);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Convert broken-down UTC-offset time to a <tt>Date</tt>, rejecting
+     * out-of-range fields. (A lenient <tt>SimpleDateFormat</tt> would roll
+     * them over; leave that to the fallback.)
+     */
+    private static Date toDate(int year,
+                               int month,
+                               int day,
+                               int hour,
+                               int minute,
+                               int second,
+                               int offsetMinutes)
+    {
+        if ((month < 1) || (month > 12) || (day < 1) ||
+            (day > DAYS_IN_MONTH[month - 1]) ||
+            ((month == 2) && (day == 29) && (! isLeapYear(year))) ||
+            (hour > 23) || (minute > 59) || (second > 59))
+        {
+            return null;
+        }
+
+        long millis = daysFromEpoch(year, month, day) * MS_PER_DAY +
+                      ((hour * 60L + minute - offsetMinutes) * MS_PER_MINUTE) +
+                      (second * 1000L);
+        return new Date(millis);
+    }
+
+    /**
+     * Days from 1970-01-01 to the given date in the proleptic Gregorian
+     * calendar. (Howard Hinnant's <tt>days_from_civil</tt> algorithm.)
+     */
+    private static long daysFromEpoch(int year, int month, int day)
+    {
+        long y = (month <= 2) ? year - 1 : year;
+        long era = ((y >= 0) ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static boolean isLeapYear(int year)
+    {
+        return ((year % 4) == 0) &&
+               (((year % 100) != 0) || ((year % 400) == 0));
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return (c >= '0') && (c <= '9');
+    }
+
+    /**
+     * Parse exactly <tt>count</tt> digits at position <tt>i</tt>.
+     *
+     * @return the value, or -1 if there aren't <tt>count</tt> digits there
+     */
+    private static int digits(String s, int i, int count)
+    {
+        if (i + count > s.length())
+            return -1;
+
+        int value = 0;
+        for (int end = i + count; i < end; i++)
+        {
+            char c = s.charAt(i);
+            if (! isDigit(c))
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    private static int skipSpaces(String s, int i)
+    {
+        while ((i < s.length()) && (s.charAt(i) == ' '))
+            i++;
+        return i;
+    }
+
+    /**
+     * Find the three-letter name at position <tt>i</tt> in a table of
+     * names, ignoring case.
+     *
+     * @return the index in the table, or -1
+     */
+    private static int indexOfName(String s, int i, String[] names)
+    {
+        for (int k = 0; k < names.length; k++)
+        {
+            if (s.regionMatches(true, i, names[k], 0, 3))
+                return k;
+        }
+
+        return -1;
+    }
+
+    private static int zoneOffset(String s, int start, int end)
+    {
+        int len = end - start;
+
+        for (int k = 0; k < ZONE_NAMES.length; k++)
+        {
+            if ((ZONE_NAMES[k].length() == len) &&
+                s.regionMatches(true, start, ZONE_NAMES[k], 0, len))
+            {
+                return ZONE_OFFSETS[k];
+            }
+        }
+
+        return Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,87 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.URL;
+
+/**
+ * An {@link RSSParser} that doesn't build a JDOM document object model
+ * (DOM) while parsing, but can build it later, on demand, from the raw
+ * feed data. Keeping the raw data costs memory, so the caller says, per
+ * feed, whether the DOM will be wanted. If it won't be, the raw data is
+ * discarded as soon as it's parsed, and the resulting channel's
+ * {@link RSSChannel#getDOM getDOM()} method throws
+ * <tt>UnsupportedOperationException</tt>. The plain
+ * {@link RSSParser#parseRSSFeed(URL,InputStream,String) parseRSSFeed()}
+ * method always keeps the data.
+ *
+ * @see RSSParser
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface LazyDOMParser extends RSSParser
+{
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Parse an RSS feed.
+     *
+     * @param url      the URL for the feed
+     * @param stream   the <tt>InputStream</tt> for the feed
+     * @param encoding the encoding of the data in the field, if known, or
+     *                 null
+     * @param keepDOM  <tt>true</tt> to keep what's needed to build the
+     *                 feed's DOM later, <tt>false</tt> if the DOM won't be
+     *                 needed
+     *
+     * @return an <tt>RSSChannel</tt> object representing the RSS data from
+     *         the site.
+     *
+     * @throws IOException        unable to read from URL
+     * @throws RSSParserException unable to parse RSS XML
+     */
+    public RSSChannel parseRSSFeed (URL         url,
+                                    InputStream stream,
+                                    String      encoding,
+                                    boolean     keepDOM)
+        throws IOException,
+               RSSParserException;
+}
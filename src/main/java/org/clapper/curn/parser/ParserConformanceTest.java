@@ -0,0 +1,256 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compares the output of two {@link RSSParser} implementations over a set
+ * of saved feeds, and reports every field where they disagree. It's
+ * intended to be used to check a new parser against the ROME adapter,
+ * e.g.:
+ *
+ * <pre>
+ * java org.clapper.curn.parser.ParserConformanceTest \
+ *     org.clapper.curn.parser.rome.RSSParserAdapter \
+ *     org.clapper.curn.parser.stax.StAXRSSParser \
+ *     src/main/java/org/clapper/curn/parser/test-data/*
+ * </pre>
+ *
+ * The program exits with a non-zero status if any differences are found.
+ * A field the reference parser leaves empty, but the other parser fills
+ * in, is reported as an extra, not as a difference. (ROME drops some
+ * fields, such as RSS 2.0 item authors.)
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class ParserConformanceTest
+{
+    private static int differences = 0;
+    private static int extras = 0;
+
+    private ParserConformanceTest()
+    {
+        // Nothing to do
+    }
+
+    public static void main (String args[])
+    {
+        try
+        {
+            runTest (args);
+        }
+
+        catch (Exception ex)
+        {
+            ex.printStackTrace();   // NOPMD
+            System.exit (1);
+        }
+
+        System.out.println ();
+        System.out.println (differences + " difference(s), " + extras +
+                            " extra(s).");
+        System.exit ((differences == 0) ? 0 : 1);
+    }
+
+    private static void runTest (String args[])
+        throws IOException,
+               RSSParserException
+    {
+        if (args.length < 3)
+        {
+            System.err.println ("Usage: java " +
+                                ParserConformanceTest.class.getName() +
+                                " referenceParserClass parserClass " +
+                                "XMLfile [XMLfile] ...");
+            System.exit (1);
+        }
+
+        RSSParser reference = RSSParserFactory.getRSSParser (args[0]);
+        RSSParser parser = RSSParserFactory.getRSSParser (args[1]);
+
+        for (int i = 2; i < args.length; i++)
+        {
+            File f = new File (args[i]);
+            System.out.println (f.getPath() + ":");
+
+            RSSChannel expected;
+            try
+            {
+                expected = parse (reference, f);
+            }
+
+            catch (RuntimeException ex)
+            {
+                // Nothing to compare against.
+
+                System.out.println ("  Reference parser rejects file (" +
+                                    ex.toString() + "). Skipped.");
+                continue;
+            }
+
+            RSSChannel actual = parse (parser, f);
+            compare (f.getPath(), expected, actual);
+        }
+    }
+
+    private static RSSChannel parse (RSSParser parser, File f)
+        throws IOException,
+               RSSParserException
+    {
+        InputStream is = new FileInputStream (f);
+
+        try
+        {
+            return parser.parseRSSFeed (f.toURI().toURL(), is, null);
+        }
+
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static void compare (String     where,
+                                 RSSChannel expected,
+                                 RSSChannel actual)
+    {
+        check (where, "channel title", expected.getTitle(), actual.getTitle());
+        check (where, "channel description",
+               expected.getDescription(), actual.getDescription());
+        check (where, "channel URL", expected.getURL(), actual.getURL());
+        check (where, "channel copyright",
+               expected.getCopyright(), actual.getCopyright());
+        check (where, "channel authors",
+               asList (expected.getAuthors()), asList (actual.getAuthors()));
+        check (where, "RSS format",
+               expected.getRSSFormat(), actual.getRSSFormat());
+        check (where, "feed type",
+               expected.getFeedType(), actual.getFeedType());
+        check (where, "channel date",
+               expected.getPublicationDate(), actual.getPublicationDate());
+
+        Collection<RSSItem> expectedItems = expected.getItems();
+        Collection<RSSItem> actualItems = actual.getItems();
+        check (where, "total items",
+               expectedItems.size(), actualItems.size());
+
+        Iterator<RSSItem> itExpected = expectedItems.iterator();
+        Iterator<RSSItem> itActual = actualItems.iterator();
+        int i = 0;
+        while (itExpected.hasNext() && itActual.hasNext())
+        {
+            compare (where + ", item " + i, itExpected.next(), itActual.next());
+            i++;
+        }
+    }
+
+    private static void compare (String where, RSSItem expected, RSSItem actual)
+    {
+        check (where, "title", expected.getTitle(), actual.getTitle());
+        check (where, "URL", expected.getURL(), actual.getURL());
+        check (where, "summary", expected.getSummary(), actual.getSummary());
+        check (where, "authors",
+               asList (expected.getAuthors()), asList (actual.getAuthors()));
+        check (where, "categories",
+               asList (expected.getCategories()),
+               asList (actual.getCategories()));
+        check (where, "date",
+               expected.getPublicationDate(), actual.getPublicationDate());
+        check (where, "content",
+               expected.getContent (RSSItem.DEFAULT_CONTENT_TYPE),
+               actual.getContent (RSSItem.DEFAULT_CONTENT_TYPE));
+    }
+
+    private static List<String> asList (Collection<String> c)
+    {
+        // Treat null and empty the same way.
+
+        List<String> result = new ArrayList<String>();
+        if (c != null)
+            result.addAll (c);
+        return result;
+    }
+
+    private static boolean isEmpty (Object o)
+    {
+        return (o == null) ||
+               ((o instanceof Collection) && ((Collection) o).isEmpty());
+    }
+
+    private static void check (String where,
+                               String what,
+                               Object expected,
+                               Object actual)
+    {
+        // Compare links by URL, and dates by value.
+
+        if (expected instanceof RSSLink)
+            expected = ((RSSLink) expected).getURL().toString();
+        if (actual instanceof RSSLink)
+            actual = ((RSSLink) actual).getURL().toString();
+        if (expected instanceof Date)
+            expected = ((Date) expected).getTime();
+        if (actual instanceof Date)
+            actual = ((Date) actual).getTime();
+
+        boolean same = (expected == null) ? (actual == null)
+                                          : expected.equals (actual);
+        if (! same && isEmpty (expected))
+        {
+            extras++;
+            System.out.println ("  " + where + ": " + what + " (extra): " +
+                                actual);
+        }
+
+        else if (! same)
+        {
+            differences++;
+            System.out.println ("  " + where + ": " + what + " differs");
+            System.out.println ("    expected: " + expected);
+            System.out.println ("    actual:   " + actual);
+        }
+    }
+}
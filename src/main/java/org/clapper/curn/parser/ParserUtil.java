@@ -52,7 +52,6 @@ import java.text.SimpleDateFormat;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 /**
  * Common utility routines that can be used by all parser implementations.
@@ -75,40 +74,59 @@ public final class ParserUtil
     \*----------------------------------------------------------------------*/
 
     /**
-     * A date format for parsing RFC 822-style dates.
+     * Date formats for parsing RFC 822-style dates that the fast path in
+     * {@link FastDateParser} doesn't handle. <tt>DateFormat</tt> objects
+     * aren't thread-safe, so each thread gets its own.
      */
-    private static DateFormat[] RFC822_DATE_FORMATS;
+    private static final ThreadLocal<DateFormat[]> RFC822_DATE_FORMATS =
+        new ThreadLocal<DateFormat[]>()
+        {
+            protected DateFormat[] initialValue()
+            {
+                return new DateFormat[]
+                {
+                    // RFC822 dates are US-centric
+                    new SimpleDateFormat ("EEE, d MMM yyyy HH:mm:ss z",
+                                          Locale.US),
+                    new SimpleDateFormat ("EEE, d MMM yyyy HH:mm:ss",
+                                          Locale.US),
+                    new SimpleDateFormat ("EEE d MMM yyyy HH:mm:ss",
+                                          Locale.US)
+                };
+            }
+        };
 
     /**
-     * Patterns for the more common W3C date/time formats.
+     * Patterns for the more common W3C date/time formats, for the dates
+     * the fast path doesn't handle. One set per thread.
      */
-    private static DateFormat[] W3C_DATE_FORMATS;
-
-    static
-    {
-        W3C_DATE_FORMATS = new SimpleDateFormat[]
+    private static final ThreadLocal<DateFormat[]> W3C_DATE_FORMATS =
+        new ThreadLocal<DateFormat[]>()
         {
-            new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss"),
-            new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm"),
-            new SimpleDateFormat ("yyyy-MM-dd"),
-            new SimpleDateFormat ("yyyy-MM"),
-            new SimpleDateFormat ("yyyy")
+            protected DateFormat[] initialValue()
+            {
+                return new DateFormat[]
+                {
+                    new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss"),
+                    new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm"),
+                    new SimpleDateFormat ("yyyy-MM-dd"),
+                    new SimpleDateFormat ("yyyy-MM"),
+                    new SimpleDateFormat ("yyyy")
+                };
+            }
         };
 
-        RFC822_DATE_FORMATS = new SimpleDateFormat[]
-        {
-            // RFC822 dates are US-centric
-            new SimpleDateFormat ("EEE, d MMM yyyy HH:mm:ss z", Locale.US),
-            new SimpleDateFormat ("EEE, d MMM yyyy HH:mm:ss", Locale.US),
-            new SimpleDateFormat ("EEE d MMM yyyy HH:mm:ss", Locale.US)
-        };
-    };
+    /**
+     * Matches a W3C time zone offset at the end of a date string:
+     * <tt>+hh:mm</tt>, <tt>-hh:mm</tt>, <tt>+hhmm</tt> or <tt>-hhmm</tt>.
+     */
+    private static final Pattern W3C_TZ_PATTERN =
+        Pattern.compile ("([+-][0-9][0-9]):?([0-9][0-9])$");
 
     /*----------------------------------------------------------------------*\
                             Private Data Items
     \*----------------------------------------------------------------------*/
 
-    private static Pattern w3cTZPattern = null;
     private static final Logger log = new Logger (ParserUtil.class);
 
     /*----------------------------------------------------------------------*\
@@ -140,7 +158,16 @@ public final class ParserUtil
     {
         Date result = null;
 
-        if ((result = parseRFC822Date (sDate)) == null)
+        if ((sDate != null) && (sDate.length() > 0))
+        {
+            // Try both fast paths before falling back to the slower
+            // SimpleDateFormat parsing.
+
+            if ((result = FastDateParser.parseRFC822 (sDate)) == null)
+                result = FastDateParser.parseW3C (sDate);
+        }
+
+        if ((result == null) && ((result = parseRFC822Date (sDate)) == null))
             result = parseW3CDate (sDate);
 
         return result;
@@ -160,12 +187,11 @@ public final class ParserUtil
 
         if ((sDate != null) && (sDate.length() > 0))
         {
-            // DateFormat objects are not synchronized.
-
-            synchronized (RFC822_DATE_FORMATS)
+            result = FastDateParser.parseRFC822 (sDate);
+            if (result == null)
             {
                 result = parseDate(sDate,
-                                   RFC822_DATE_FORMATS,
+                                   RFC822_DATE_FORMATS.get(),
                                    TimeZone.getDefault());
             }
         }
@@ -187,24 +213,12 @@ public final class ParserUtil
 
         if ((sDate != null) && (sDate.length() > 0))
         {
-            TimeZone       timeZone = TimeZone.getDefault();
-            int            tzIndex;
-
-            // First, extract the time zone, if present.
-
-            if (((tzIndex = sDate.lastIndexOf ('Z')) != -1) ||
-                ((tzIndex = sDate.lastIndexOf ('-')) != -1) ||
-                ((tzIndex = sDate.lastIndexOf ('+')) != -1))
+            result = FastDateParser.parseW3C (sDate);
+            if (result == null)
             {
-                timeZone = parseW3CTimeZone (sDate.substring (tzIndex));
-            }
-
-            // Now, parse the date. NOTE: DateFormat objects are not
-            // synchronized.
-
-            synchronized (W3C_DATE_FORMATS)
-            {
-                result = parseDate(sDate, W3C_DATE_FORMATS, timeZone);
+                result = parseDate(sDate,
+                                   W3C_DATE_FORMATS.get(),
+                                   parseW3CTimeZone (sDate));
             }
         }
 
@@ -464,60 +478,40 @@ public final class ParserUtil
     }
 
     /**
-     * Parse a string into a W3C time zone. Returns the default time zone
-     * if the string doesn't parse.
+     * Extract the time zone from a W3C date string. Returns the default
+     * time zone if there's no time zone.
      *
-     * @param tz  the alleged time zone string
+     * @param sDate  the date string
      *
      * @return a TimeZone
      */
-    private static TimeZone parseW3CTimeZone (String tz)
+    private static TimeZone parseW3CTimeZone (String sDate)
     {
-        TimeZone timeZone = null;
+        TimeZone timeZone = TimeZone.getDefault();
+        String   s = sDate.trim();
+        Matcher  matcher;
 
-        synchronized (ParserUtil.class)
-        {
-            try
-            {
-                w3cTZPattern = Pattern.compile ("^[+-][0-9][0-9]:[0-9][0-9]$");
-            }
+        // A numeric offset can only follow the time, so look for one only
+        // in the part after the "T" (or a space, which some feeds use
+        // instead). Otherwise, the "-dd" of a date looks like an offset.
 
-            catch (PatternSyntaxException ex)
-            {
-                // Should not happen.
+        int tIndex = s.indexOf ('T');
+        if (tIndex == -1)
+            tIndex = s.indexOf (' ');
 
-                assert (false);
-            }
+        if (s.endsWith ("Z"))
+        {
+            timeZone = TimeZone.getTimeZone ("GMT");
         }
 
-        // Do we have a time zone?
-
-        switch (tz.charAt (0))
+        else if ((tIndex != -1) &&
+                 (matcher = W3C_TZ_PATTERN.matcher
+                              (s.substring (tIndex + 1))).find())
         {
-            case 'Z':
-                timeZone = TimeZone.getTimeZone ("GMT");
-                break;
-
-            case '-':
-            case '+':
-                // +hh:mm -hh:mm
-
-                Matcher matcher = w3cTZPattern.matcher (tz);
-                if (matcher.matches())
-                    timeZone = TimeZone.getTimeZone ("GMT" + tz);
-
-                if (timeZone == null)
-                    timeZone = TimeZone.getDefault();
-
-                break;
-
-            default:
-                // Whatever it is, it's not a time zone. Assume
-                // local time zone.
-
-                timeZone = TimeZone.getDefault();
-                break;
+            // +hh:mm -hh:mm +hhmm -hhmm
 
+            timeZone = TimeZone.getTimeZone ("GMT" + matcher.group(1) +
+                                             ":" + matcher.group(2));
         }
 
         return timeZone;
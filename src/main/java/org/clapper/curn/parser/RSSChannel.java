@@ -181,6 +181,59 @@ public abstract class RSSChannel extends RSSElement implements Cloneable
         }
     }
 
+    /**
+     * Remove all items that match a predicate, in one pass. Plug-ins that
+     * filter many items should prefer this method to calling
+     * {@link #removeItem} in a loop. The default implementation uses
+     * {@link #getItems} and {@link #setItems}; subclasses may override it
+     * with something more efficient.
+     *
+     * @param predicate  the predicate; items for which it returns
+     *                   <tt>true</tt> are removed
+     *
+     * @return the number of items removed
+     *
+     * @see #retainItems
+     */
+    public int removeItems(RSSItemPredicate predicate)
+    {
+        Collection<RSSItem> items = getItems();
+        Collection<RSSItem> keep = new ArrayList<RSSItem>(items.size());
+
+        for (RSSItem item : items)
+        {
+            if (! predicate.test(item))
+                keep.add(item);
+        }
+
+        int removed = items.size() - keep.size();
+        if (removed > 0)
+            setItems(keep);
+
+        return removed;
+    }
+
+    /**
+     * Remove all items that do <i>not</i> match a predicate, in one pass.
+     *
+     * @param predicate  the predicate; items for which it returns
+     *                   <tt>true</tt> are kept
+     *
+     * @return the number of items removed
+     *
+     * @see #removeItems
+     */
+    public int retainItems(final RSSItemPredicate predicate)
+    {
+        return removeItems(new RSSItemPredicate()
+        {
+            public boolean test(RSSItem item)
+            {
+                return ! predicate.test(item);
+            }
+        });
+    }
+
     /**
      * Get the JDOM document object model (DOM) from which the feed was
      * parsed. This value is set by the underlying parser, if supported.
@@ -84,6 +84,12 @@ public abstract class RSSItem
 
     private HashMap<String,String> contentMap = null;
 
+    /**
+     * Opaque state kept with the item on behalf of the feed cache (see
+     * {@link #getCacheKey}).
+     */
+    private volatile Object cacheKey = null;
+
     /*----------------------------------------------------------------------*\
                               Constructor
     \*----------------------------------------------------------------------*/
@@ -345,6 +351,33 @@ public abstract class RSSItem
 
         return eq;
     }
+
+    /**
+     * Get the cache key stored with this item by {@link #setCacheKey}.
+     * The parser layer doesn't interpret the key in any way; it's just
+     * carried along with the item, so that the feed cache can compute the
+     * item's lookup key once, rather than every time the item is checked
+     * against the cache.
+     *
+     * @return the stored key, or null if none has been stored
+     *
+     * @see org.clapper.curn.FeedCache#getItemKey
+     */
+    public Object getCacheKey()
+    {
+        return cacheKey;
+    }
+
+    /**
+     * Store a cache key with this item. See {@link #getCacheKey}.
+     *
+     * @param key  the key to store, or null to clear it
+     */
+    public void setCacheKey(Object key)
+    {
+        this.cacheKey = key;
+    }
+
     /**
      * Return the string value of the item (which, right now, is its
      * title).
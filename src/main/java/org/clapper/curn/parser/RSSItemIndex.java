@@ -0,0 +1,264 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordered collection of the items in a channel, indexed by item URL,
+ * for use by {@link RSSChannel} implementations. Adding, removing and
+ * finding an item, or finding an item by URL, are all constant-time
+ * operations. Iteration order is insertion order.
+ *
+ * <p>Items are keyed by the string form of their URL (see
+ * {@link RSSItem#getURL}); an item without a URL is keyed by identity.
+ * Like a <tt>Set</tt> of items (which is what <tt>RSSItem.equals()</tt>
+ * implies), the index holds only the first of several items with the same
+ * URL. If an item's URL changes after it has been added, the owning
+ * channel must call {@link #invalidateKeys}; the index is re-keyed the next
+ * time it's used.</p>
+ *
+ * <p>This class is not synchronized.</p>
+ *
+ * @param <T> the concrete item type
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class RSSItemIndex<T extends RSSItem>
+{
+    /*----------------------------------------------------------------------*\
+                           Private Instance Data
+    \*----------------------------------------------------------------------*/
+
+    private Map<Object,T> items = new LinkedHashMap<Object,T>();
+    private boolean keysStale = false;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, empty index.
+     */
+    public RSSItemIndex()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Add an item to the end of the index, unless an item with the same
+     * URL is already present.
+     *
+     * @param item  the item
+     *
+     * @return <tt>true</tt> if added, <tt>false</tt> if it was a duplicate
+     */
+    public boolean add(T item)
+    {
+        rekeyIfStale();
+        return addItem(item);
+    }
+
+    /**
+     * Replace the contents of the index with the specified items.
+     *
+     * @param newItems  the new items, or null to clear the index
+     */
+    public void setAll(Collection<? extends T> newItems)
+    {
+        items = new LinkedHashMap<Object,T>();
+        keysStale = false;
+
+        if (newItems != null)
+        {
+            for (T item : newItems)
+                addItem(item);
+        }
+    }
+
+    /**
+     * Remove an item (or the item with the same URL) from the index.
+     *
+     * @param item  the item
+     *
+     * @return <tt>true</tt> if removed, <tt>false</tt> if not found
+     */
+    public boolean remove(RSSItem item)
+    {
+        rekeyIfStale();
+        return items.remove(keyFor(item)) != null;
+    }
+
+    /**
+     * Remove all items that match a predicate.
+     *
+     * @param predicate  the predicate
+     *
+     * @return the number of items removed
+     */
+    public int removeMatching(RSSItemPredicate predicate)
+    {
+        int total = 0;
+
+        for (Iterator<T> it = items.values().iterator(); it.hasNext(); )
+        {
+            if (predicate.test(it.next()))
+            {
+                it.remove();
+                total++;
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Determine whether the index contains an item (or an item with the
+     * same URL).
+     *
+     * @param item  the item
+     *
+     * @return <tt>true</tt> if found, <tt>false</tt> if not
+     */
+    public boolean contains(RSSItem item)
+    {
+        rekeyIfStale();
+        return items.containsKey(keyFor(item));
+    }
+
+    /**
+     * Determine whether the index contains an item with a specific URL.
+     *
+     * @param url  the URL string
+     *
+     * @return <tt>true</tt> if found, <tt>false</tt> if not
+     */
+    public boolean containsURL(String url)
+    {
+        rekeyIfStale();
+        return items.containsKey(url);
+    }
+
+    /**
+     * Get the item with a specific URL.
+     *
+     * @param url  the URL string
+     *
+     * @return the item, or null if not found
+     */
+    public T getByURL(String url)
+    {
+        rekeyIfStale();
+        return items.get(url);
+    }
+
+    /**
+     * Get the number of items in the index.
+     *
+     * @return the number of items
+     */
+    public int size()
+    {
+        rekeyIfStale();
+        return items.size();
+    }
+
+    /**
+     * Get a copy of the items, in order.
+     *
+     * @return a new <tt>List</tt> of the items
+     */
+    public List<RSSItem> getItems()
+    {
+        rekeyIfStale();
+        return new ArrayList<RSSItem>(items.values());
+    }
+
+    /**
+     * Note that one or more item URLs have changed, so the index must be
+     * rebuilt before it's next used.
+     */
+    public void invalidateKeys()
+    {
+        keysStale = true;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private boolean addItem(T item)
+    {
+        Object key = keyFor(item);
+        boolean added = false;
+
+        if (! items.containsKey(key))
+        {
+            items.put(key, item);
+            added = true;
+        }
+
+        return added;
+    }
+
+    private void rekeyIfStale()
+    {
+        if (keysStale)
+            setAll(new ArrayList<T>(items.values()));
+    }
+
+    private static Object keyFor(RSSItem item)
+    {
+        RSSLink link = item.getURL();
+        Object key;
+
+        if ((link == null) || (link.getURL() == null))
+            key = item;
+        else
+            key = link.getURL().toString();
+
+        return key;
+    }
+}
@@ -38,6 +38,8 @@ package org.clapper.curn.parser.rome;
 import org.clapper.curn.parser.ParserUtil;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
+import org.clapper.curn.parser.RSSItemIndex;
+import org.clapper.curn.parser.RSSItemPredicate;
 import org.clapper.curn.parser.RSSLink;
 import org.clapper.curn.parser.RSSFeedType;
 
@@ -55,7 +57,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.TreeSet;
 import org.clapper.curn.parser.RSSLinkChangeListener;
 import org.clapper.curn.parser.RSSLinkChangeListenerAdapter;
@@ -85,6 +86,13 @@ public class RSSChannelAdapter extends RSSChannel
      */
     private SyndFeed syndFeed;
 
+    /**
+     * The items, wrapped and indexed. Built from the <tt>SyndFeed</tt>'s
+     * entries on first use; after that, it's authoritative, and the
+     * <tt>SyndFeed</tt>'s entry list is no longer consulted.
+     */
+    private RSSItemIndex<RSSItemAdapter> itemIndex = null;
+
     /**
      * For log messages
      */
@@ -122,7 +130,8 @@ public class RSSChannelAdapter extends RSSChannel
 
     /**
      * Get a <tt>Collection</tt> of the items in this channel. All objects
-     * in the collection are of type <tt>RSSItem</tt>.
+     * in the collection are of type <tt>RSSItem</tt>. The same item
+     * objects are returned on every call.
      *
      * @return a (new) <tt>Collection</tt> of <tt>RSSItem</tt> objects.
      *         The collection will be empty (never null) if there are
@@ -130,12 +139,7 @@ public class RSSChannelAdapter extends RSSChannel
      */
     public Collection<RSSItem> getItems()
     {
-        Collection<RSSItem> result = new LinkedHashSet<RSSItem>();
-
-        for (Iterator it = syndFeed.getEntries().iterator(); it.hasNext(); )
-            result.add(new RSSItemAdapter((SyndEntry) it.next(), this));
-
-        return result;
+        return getItemIndex().getItems();
     }
 
     /**
@@ -148,23 +152,15 @@ public class RSSChannelAdapter extends RSSChannel
      */
     public void setItems (Collection<? extends RSSItem> newItems)
     {
-        Collection<SyndEntry> syndItems = new ArrayList<SyndEntry>();
+        Collection<RSSItemAdapter> adapters = new ArrayList<RSSItemAdapter>();
 
         if (newItems != null)
         {
             for (RSSItem ourItem : newItems)
-            {
-                RSSItemAdapter itemAdapter = (RSSItemAdapter) ourItem;
-                syndItems.add(itemAdapter.getSyndEntry());
-            }
+                adapters.add((RSSItemAdapter) ourItem);
         }
 
-        // We're storing values from a genericized collection into a
-        // non-genericized collection. We have to copy the items to a new
-        // collection. Use of a Collection<Object> avoids a compiler
-        // "unchecked cast" warning.
-
-        syndFeed.setEntries(new ArrayList<Object> (syndItems));
+        getItemIndex().setAll(adapters);
     }
 
     /**
@@ -176,10 +172,21 @@ public class RSSChannelAdapter extends RSSChannel
      */
     public boolean removeItem (RSSItem item)
     {
-        Collection<RSSItem> items = getItems();
-        boolean removed = items.remove(item);
-        setItems(items);
-        return removed;
+        return getItemIndex().remove(item);
+    }
+
+    /**
+     * Remove all items that match a predicate, in one pass.
+     *
+     * @param predicate  the predicate; items for which it returns
+     *                   <tt>true</tt> are removed
+     *
+     * @return the number of items removed
+     */
+    @Override
+    public int removeItems(RSSItemPredicate predicate)
+    {
+        return getItemIndex().removeMatching(predicate);
     }
 
     /**
@@ -191,7 +198,7 @@ public class RSSChannelAdapter extends RSSChannel
      */
     public boolean hasItem(RSSItem item)
     {
-        return getItems().contains(item);
+        return getItemIndex().contains(item);
     }
 
     /**
@@ -203,24 +210,7 @@ public class RSSChannelAdapter extends RSSChannel
      */
     public boolean hasItem(String url)
     {
-        boolean found = false;
-
-        for (RSSItem item : getItems())
-        {
-            for (RSSLink link : item.getLinks())
-            {
-                if (link.getURL().toString().equals(url))
-                {
-                    found = true;
-                    break;
-                }
-            }
-
-            if (found)
-                break;
-        }
-
-        return found;
+        return getItemIndex().containsURL(url);
     }
 
     /**
@@ -541,4 +531,34 @@ public class RSSChannelAdapter extends RSSChannel
     {
         // Rome does not support this field
     }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Called by an {@link RSSItemAdapter} when its URL changes, so that the
+     * item index can be re-keyed.
+     */
+    void itemURLChanged()
+    {
+        if (itemIndex != null)
+            itemIndex.invalidateKeys();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private RSSItemIndex<RSSItemAdapter> getItemIndex()
+    {
+        if (itemIndex == null)
+        {
+            itemIndex = new RSSItemIndex<RSSItemAdapter>();
+            for (Iterator it = syndFeed.getEntries().iterator(); it.hasNext(); )
+                itemIndex.add(new RSSItemAdapter((SyndEntry) it.next(), this));
+        }
+
+        return itemIndex;
+    }
 }
@@ -200,6 +200,7 @@ public class RSSItemAdapter extends RSSItem
                 log.debug("Changing URL from \"" + oldURL.toString() +
                           "\" to \"" + newURL.toString() + "\"");
                 entry.setLink(newURL.toString());
+                itemURLChanged();
             }
         };
 
@@ -242,6 +243,7 @@ public class RSSItemAdapter extends RSSItem
         {
             RSSLink link = links.iterator().next();
             entry.setLink(link.getURL().toExternalForm());
+            itemURLChanged();
         }
     }
 
@@ -572,4 +574,18 @@ public class RSSItemAdapter extends RSSItem
     {
         return this.entry;
     }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Tell the parent channel, if it's a ROME channel, that this item's URL
+     * has changed, so it can re-index its items.
+     */
+    private void itemURLChanged()
+    {
+        if (channel instanceof RSSChannelAdapter)
+            ((RSSChannelAdapter) channel).itemURLChanged();
+    }
 }
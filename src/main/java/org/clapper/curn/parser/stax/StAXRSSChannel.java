@@ -0,0 +1,514 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser.stax;
+
+import org.clapper.curn.parser.RSSChannel;
+import org.clapper.curn.parser.RSSFeedType;
+import org.clapper.curn.parser.RSSItem;
+import org.clapper.curn.parser.RSSItemIndex;
+import org.clapper.curn.parser.RSSItemPredicate;
+import org.clapper.curn.parser.RSSLink;
+
+import org.clapper.util.logging.Logger;
+
+import org.jdom.Document;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.TreeSet;
+
+/**
+ * This class is the {@link RSSChannel} implementation used by the
+ * {@link StAXRSSParser}. It holds only the fields <i>curn</i> uses. It
+ * does not build a JDOM document object model while parsing; instead, if
+ * the parser was told the DOM would be wanted, it keeps the raw bytes of
+ * the feed and builds the DOM the first time {@link #getDOM} is called.
+ * In practice, that only happens when a plug-in (such as the
+ * <tt>PruneOriginalRSS</tt> plug-in) needs it.
+ *
+ * @see StAXRSSParser
+ * @see StAXRSSItem
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class StAXRSSChannel extends RSSChannel
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private String              title = null;
+    private String              description = null;
+    private String              copyright = null;
+    private Date                pubDate = null;
+    private String              format = null;
+    private Collection<String>  authors = null;
+    private Collection<RSSLink> links = new ArrayList<RSSLink>();
+    private RSSItemIndex<RSSItem> items = new RSSItemIndex<RSSItem>();
+
+    /**
+     * The raw feed data, and its encoding (if forced), used to build the
+     * DOM on demand. Cleared once the DOM has been built.
+     */
+    private byte[]              rawFeed = null;
+    private String              rawFeedEncoding = null;
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(StAXRSSChannel.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Allocate a new, empty <tt>StAXRSSChannel</tt> object.
+     */
+    StAXRSSChannel()
+    {
+        super();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, empty instance of the underlying concrete
+     * class.
+     *
+     * @return the new instance
+     */
+    public RSSChannel newInstance()
+    {
+        return new StAXRSSChannel();
+    }
+
+    /**
+     * Get a <tt>Collection</tt> of the items in this channel. All objects
+     * in the collection are of type <tt>RSSItem</tt>.
+     *
+     * @return a (new) <tt>Collection</tt> of <tt>RSSItem</tt> objects.
+     *         The collection will be empty (never null) if there are no
+     *         items.
+     */
+    public Collection<RSSItem> getItems()
+    {
+        return items.getItems();
+    }
+
+    /**
+     * Change the items the channel the ones in the specified collection.
+     * If the collection is empty, the items are cleared. The items are
+     * copied from the supplied collection. (A reference to the supplied
+     * collection is <i>not</i> saved in this object.)
+     *
+     * @param newItems  new collection of <tt>RSSItem</tt> items.
+     */
+    public void setItems(Collection<? extends RSSItem> newItems)
+    {
+        items.setAll(newItems);
+    }
+
+    /**
+     * Remove an item from the set of items.
+     *
+     * @param item  the item to remove
+     *
+     * @return <tt>true</tt> if removed, <tt>false</tt> if not found
+     */
+    public boolean removeItem(RSSItem item)
+    {
+        return items.remove(item);
+    }
+
+    /**
+     * Remove all items that match a predicate, in one pass.
+     *
+     * @param predicate  the predicate; items for which it returns
+     *                   <tt>true</tt> are removed
+     *
+     * @return the number of items removed
+     */
+    @Override
+    public int removeItems(RSSItemPredicate predicate)
+    {
+        return items.removeMatching(predicate);
+    }
+
+    /**
+     * Determine whether a channel contains an item.
+     *
+     * @param item  the item
+     *
+     * @return <tt>true</tt> if found, <tt>false</tt> if not found
+     */
+    public boolean hasItem(RSSItem item)
+    {
+        return items.contains(item);
+    }
+
+    /**
+     * Determine whether a channel contains an item.
+     *
+     * @param url  the item's URL string
+     *
+     * @return <tt>true</tt> if found, <tt>false</tt> if not found
+     */
+    public boolean hasItem(String url)
+    {
+        return items.containsURL(url);
+    }
+
+    /**
+     * Get the channel's title
+     *
+     * @return the channel's title, or null if there isn't one
+     *
+     * @see #setTitle
+     */
+    public String getTitle()
+    {
+        return title;
+    }
+
+    /**
+     * Set the channel's title
+     *
+     * @param newTitle the channel's title, or null if there isn't one
+     *
+     * @see #getTitle
+     */
+    public void setTitle(String newTitle)
+    {
+        this.title = newTitle;
+    }
+
+    /**
+     * Get the channel's description
+     *
+     * @return the channel's description, or null if there isn't one
+     *
+     * @see #setDescription
+     */
+    public String getDescription()
+    {
+        return description;
+    }
+
+    /**
+     * Set the channel's description
+     *
+     * @param desc the channel's description, or null if there isn't one
+     *
+     * @see #getDescription
+     */
+    public void setDescription(String desc)
+    {
+        this.description = desc;
+    }
+
+    /**
+     * Get the channel's list of published links (its URLs).
+     *
+     * @return the collection of links, or an empty list if there are none.
+     *         The result will never be null.
+     *
+     * @see #setLinks
+     */
+    public Collection<RSSLink> getLinks()
+    {
+        return new ArrayList<RSSLink>(links);
+    }
+
+    /**
+     * Set the channel's list of published links (its URLs).
+     *
+     * @param links the links
+     *
+     * @see #getLinks
+     */
+    public void setLinks(Collection<RSSLink> links)
+    {
+        this.links = new ArrayList<RSSLink>();
+        if (links != null)
+            this.links.addAll(links);
+    }
+
+    /**
+     * Get the channel's publication date.
+     *
+     * @return the date, or null if not available
+     *
+     * @see #setPublicationDate
+     */
+    public Date getPublicationDate()
+    {
+        return pubDate;
+    }
+
+    /**
+     * Set the channel's publication date.
+     *
+     * @param date the publication date, or null if not available
+     *
+     * @see #getPublicationDate
+     */
+    public void setPublicationDate(Date date)
+    {
+        this.pubDate = date;
+    }
+
+    /**
+     * Get the channel's copyright string
+     *
+     * @return the copyright string, or null if not available
+     *
+     * @see #setCopyright
+     */
+    public String getCopyright()
+    {
+        return copyright;
+    }
+
+    /**
+     * Set the channel's copyright string
+     *
+     * @param copyright  the copyright string, or null if not available
+     *
+     * @see #getCopyright
+     */
+    public void setCopyright(String copyright)
+    {
+        this.copyright = copyright;
+    }
+
+    /**
+     * Get the RSS type (format), as a normalized enumeration.
+     *
+     * @return the RSS format, as an enumerated value
+     *
+     * @see #getRSSFormat
+     */
+    public RSSFeedType getFeedType()
+    {
+        RSSFeedType result = RSSFeedType.ATOM;
+
+        if (format == null)
+            result = RSSFeedType.ATOM;
+        else if (format.startsWith("rss_0.9"))
+            result = RSSFeedType.RSS_0_9;
+        else if (format.startsWith("rss_1"))
+            result = RSSFeedType.RSS_1;
+        else if (format.startsWith("rss_2"))
+            result = RSSFeedType.RSS_2;
+
+        return result;
+    }
+
+    /**
+     * Get the RSS format the channel is using, as a string. The strings
+     * are the same ones ROME uses (e.g., "rss_2.0", "atom_1.0").
+     *
+     * @return the format, or null if not available
+     */
+    public String getRSSFormat()
+    {
+        return format;
+    }
+
+    /**
+     * Set the RSS format the channel is using.
+     *
+     * @param format the format, or null if not available
+     *
+     * @see #getRSSFormat
+     */
+    public void setNativeRSSFormat(Object format)
+    {
+        this.format = (String) format;
+    }
+
+    /**
+     * Get the channel's author list.
+     *
+     * @return the authors, or an empty <tt>Collection</tt> if not available
+     *
+     * @see #addAuthor
+     * @see #clearAuthors
+     */
+    public Collection<String> getAuthors()
+    {
+        Collection<String> result;
+
+        if (authors == null)
+            result = Collections.emptyList();
+        else
+            result = new TreeSet<String>(authors);
+
+        return result;
+    }
+
+    /**
+     * Add to the channel's author list.
+     *
+     * @param author  another author string to add
+     *
+     * @see #getAuthors
+     * @see #clearAuthors
+     */
+    public void addAuthor(String author)
+    {
+        if (authors == null)
+            authors = new TreeSet<String>();
+
+        authors.add(author);
+    }
+
+    /**
+     * Clear the authors list.
+     *
+     * @see #getAuthors
+     * @see #addAuthor
+     */
+    public void clearAuthors()
+    {
+        authors = null;
+    }
+
+    /**
+     * Get the JDOM document object model (DOM) for the feed. The DOM is
+     * built from the raw feed data the first time this method is called.
+     *
+     * @return  the DOM
+     *
+     * @throws UnsupportedOperationException if the DOM isn't available
+     *         (e.g., the parser wasn't asked to keep the raw feed data)
+     */
+    @Override
+    public synchronized Document getDOM()
+    {
+        if (rawFeed != null)
+        {
+            try
+            {
+                log.debug("Building DOM for channel " + toString());
+
+                SAXBuilder builder = new SAXBuilder();
+                ByteArrayInputStream is = new ByteArrayInputStream(rawFeed);
+                Document dom;
+
+                if (rawFeedEncoding == null)
+                    dom = builder.build(is);
+                else
+                    dom = builder.build(new InputStreamReader(is,
+                                                              rawFeedEncoding));
+
+                setDOM(dom);
+            }
+
+            catch (JDOMException ex)
+            {
+                log.error("Can't build DOM for channel " + toString(), ex);
+            }
+
+            catch (IOException ex)
+            {
+                log.error("Can't build DOM for channel " + toString(), ex);
+            }
+
+            rawFeed = null;
+            rawFeedEncoding = null;
+        }
+
+        return super.getDOM();
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Add a link to the channel.
+     *
+     * @param link  the link
+     */
+    void addLink(RSSLink link)
+    {
+        links.add(link);
+    }
+
+    /**
+     * Add an item to the channel.
+     *
+     * @param item  the item
+     */
+    void addItem(RSSItem item)
+    {
+        items.add(item);
+    }
+
+    /**
+     * Called by a {@link StAXRSSItem} when its URL changes, so that the
+     * item index can be re-keyed.
+     */
+    void itemURLChanged()
+    {
+        items.invalidateKeys();
+    }
+
+    /**
+     * Save the raw feed data, from which the DOM can be built on demand.
+     *
+     * @param rawFeed   the raw bytes of the feed
+     * @param encoding  the encoding to force, or null to let the XML
+     *                  parser figure it out
+     */
+    synchronized void setRawFeed(byte[] rawFeed, String encoding)
+    {
+        this.rawFeed = rawFeed;
+        this.rawFeedEncoding = encoding;
+    }
+}
@@ -0,0 +1,413 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser.stax;
+
+import org.clapper.curn.parser.RSSChannel;
+import org.clapper.curn.parser.RSSContent;
+import org.clapper.curn.parser.RSSItem;
+import org.clapper.curn.parser.RSSLink;
+import org.clapper.curn.parser.RSSLinkChangeListener;
+import org.clapper.curn.parser.RSSLinkChangeListenerAdapter;
+
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * This class is the {@link RSSItem} implementation used by the
+ * {@link StAXRSSParser}. Unlike the ROME adapter, which wraps a full ROME
+ * <tt>SyndEntry</tt>, it holds only the fields <i>curn</i> actually uses.
+ *
+ * @see StAXRSSParser
+ * @see StAXRSSChannel
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class StAXRSSItem extends RSSItem
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private RSSChannel          channel;
+    private String              title = null;
+    private String              summary = null;
+    private Date                pubDate = null;
+    private String              id = null;
+    private Collection<String>  authors = null;
+    private Collection<String>  categories = null;
+    private Collection<RSSLink> links = new ArrayList<RSSLink>();
+    private List<RSSContent>    contents = null;
+
+    /**
+     * Tells the parent channel when one of the item's links changes, since
+     * the channel indexes its items by URL.
+     */
+    private final RSSLinkChangeListener linkChangeListener =
+        new RSSLinkChangeListenerAdapter()
+        {
+            @Override
+            public void onURLChange(RSSLink link, URL oldURL, URL newURL)
+            {
+                itemURLChanged();
+            }
+        };
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Allocate a new, empty <tt>StAXRSSItem</tt> object.
+     *
+     * @param parentChannel parent <tt>RSSChannel</tt>
+     */
+    StAXRSSItem(RSSChannel parentChannel)
+    {
+        super();
+
+        this.channel = parentChannel;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, empty instance of the underlying concrete
+     * class.
+     *
+     * @param channel  the parent channel
+     *
+     * @return the new instance
+     */
+    public RSSItem newInstance(RSSChannel channel)
+    {
+        return new StAXRSSItem(channel);
+    }
+
+    /**
+     * Get the parent <tt>Channel</tt> object.
+     *
+     * @return the parent <tt>Channel</tt> object
+     */
+    public RSSChannel getParentChannel()
+    {
+        return this.channel;
+    }
+
+    /**
+     * Get the item's title
+     *
+     * @return the item's title, or null if there isn't one
+     *
+     * @see #setTitle
+     */
+    public String getTitle()
+    {
+        return title;
+    }
+
+    /**
+     * Set the item's title
+     *
+     * @param newTitle  the item's title, or null if there isn't one
+     *
+     * @see #getTitle
+     */
+    public void setTitle(String newTitle)
+    {
+        this.title = newTitle;
+    }
+
+    /**
+     * Get the item's published links.
+     *
+     * @return the collection of links, or an empty collection
+     *
+     * @see RSSItem#getLink
+     */
+    public Collection<RSSLink> getLinks()
+    {
+        return new ArrayList<RSSLink>(links);
+    }
+
+    /**
+     * Set the item's published links.
+     *
+     * @param links the collection of links, or an empty collection (or null)
+     *
+     * @see #getLinks
+     */
+    public void setLinks(Collection<RSSLink> links)
+    {
+        // Copy the links, rather than sharing them with another item
+        // (e.g., the one this item was copied from), so that only this
+        // item's channel hears about changes.
+
+        this.links = new ArrayList<RSSLink>();
+        if (links != null)
+        {
+            for (RSSLink link : links)
+                addLink(new RSSLink(link.getURL(),
+                                    link.getMIMEType(),
+                                    link.getLinkType()));
+        }
+
+        itemURLChanged();
+    }
+
+    /**
+     * Get the item's summary.
+     *
+     * @return the summary, or null if not available
+     *
+     * @see #setSummary
+     */
+    public String getSummary()
+    {
+        return summary;
+    }
+
+    /**
+     * Set the item's summary (also sometimes called the description or
+     * synopsis).
+     *
+     * @param newSummary the summary, or null if not available
+     *
+     * @see #getSummary
+     */
+    public void setSummary(String newSummary)
+    {
+        this.summary = newSummary;
+    }
+
+    /**
+     * Get the item's author list.
+     *
+     * @return the authors, or null if not available
+     *
+     * @see #addAuthor
+     * @see #clearAuthors
+     */
+    public Collection<String> getAuthors()
+    {
+        return (authors == null) ? null : new TreeSet<String>(authors);
+    }
+
+    /**
+     * Add to the item's author list.
+     *
+     * @param newAuthor  another author string to add
+     *
+     * @see #getAuthors
+     * @see #clearAuthors
+     */
+    public void addAuthor(String newAuthor)
+    {
+        if (authors == null)
+            authors = new TreeSet<String>();
+
+        authors.add(newAuthor);
+    }
+
+    /**
+     * Clear the authors list.
+     *
+     * @see #getAuthors
+     * @see #addAuthor
+     */
+    public void clearAuthors()
+    {
+        authors = null;
+    }
+
+    /**
+     * Get the categories the item belongs to.
+     *
+     * @return a <tt>Collection</tt> of category strings (<tt>String</tt>
+     *         objects) or null if not applicable
+     */
+    public Collection<String> getCategories()
+    {
+        return (categories == null) ? null
+                                    : new ArrayList<String>(categories);
+    }
+
+    /**
+     * Set the categories the item belongs to.
+     *
+     * @param categories a <tt>Collection</tt> of category strings
+     *                   or null if not applicable
+     *
+     * @see #getCategories
+     */
+    public void setCategories(Collection<String> categories)
+    {
+        this.categories = (categories == null)
+                              ? null
+                              : new ArrayList<String>(categories);
+    }
+
+    /**
+     * Get the item's publication date.
+     *
+     * @return the date, or null if not available
+     */
+    public Date getPublicationDate()
+    {
+        return pubDate;
+    }
+
+    /**
+     * Set the item's publication date.
+     *
+     * @param date  the new pub date
+     *
+     * @see #getPublicationDate
+     */
+    public void setPublicationDate(Date date)
+    {
+        this.pubDate = date;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Protected Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get all content associated with this item.
+     *
+     * @return a <tt>Collection</tt> of {@link RSSContent} objects
+     */
+    protected Collection<RSSContent> getContent()
+    {
+        return contents;
+    }
+
+    /**
+     * Used by {@link #makeCopy}, this method copies any subclass fields
+     * that aren't visible to this class.
+     *
+     * @param toItem  the other {@link RSSItem} into which to copy fields.
+     *                <tt>item</tt> will have been created by a call to
+     *                {@link #newInstance}
+     */
+    protected void copyPrivateFields(RSSItem toItem)
+    {
+        StAXRSSItem other = (StAXRSSItem) toItem;
+
+        other.id = this.id;
+        if (this.contents != null)
+            other.contents = new ArrayList<RSSContent>(this.contents);
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Add a link to the item.
+     *
+     * @param link  the link
+     */
+    void addLink(RSSLink link)
+    {
+        link.addChangeListener(linkChangeListener);
+        links.add(link);
+    }
+
+    /**
+     * Add a category to the item.
+     *
+     * @param category  the category
+     */
+    void addCategory(String category)
+    {
+        if (categories == null)
+            categories = new ArrayList<String>();
+
+        categories.add(category);
+    }
+
+    /**
+     * Add a content section to the item.
+     *
+     * @param content  the content
+     */
+    void addContent(RSSContent content)
+    {
+        if (contents == null)
+            contents = new ArrayList<RSSContent>();
+
+        contents.add(content);
+    }
+
+    /**
+     * Get the item's unique ID (the RSS <tt>guid</tt> or the Atom
+     * <tt>id</tt>).
+     *
+     * @return the ID, or null
+     */
+    String getID()
+    {
+        return id;
+    }
+
+    /**
+     * Set the item's unique ID.
+     *
+     * @param id  the ID, or null
+     */
+    void setID(String id)
+    {
+        this.id = id;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private void itemURLChanged()
+    {
+        if (channel instanceof StAXRSSChannel)
+            ((StAXRSSChannel) channel).itemURLChanged();
+    }
+}
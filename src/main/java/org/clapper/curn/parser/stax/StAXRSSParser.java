@@ -0,0 +1,1163 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser.stax;
+
+import org.clapper.curn.parser.LazyDOMParser;
+import org.clapper.curn.parser.ParserUtil;
+import org.clapper.curn.parser.RSSChannel;
+import org.clapper.curn.parser.RSSContent;
+import org.clapper.curn.parser.RSSLink;
+import org.clapper.curn.parser.RSSParserException;
+
+import org.clapper.util.logging.Logger;
+
+import org.jdom.Document;
+import org.jdom.output.XMLOutputter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.util.Date;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * This class implements the <tt>RSSParser</tt> interface using the
+ * streaming XML API (StAX) that's built into the Java platform. It
+ * supports RSS 0.90, 0.91, 0.92, 0.93, 0.94, 1.0 and 2.0, and Atom 0.3
+ * and 1.0. Where the ROME adapter builds a JDOM document, then a ROME
+ * <tt>SyndFeed</tt> from the document, then <i>curn</i> wrappers around
+ * the <tt>SyndFeed</tt>, this parser goes straight from the XML stream to
+ * lightweight {@link StAXRSSChannel} and {@link StAXRSSItem} objects. The
+ * JDOM document is only built if a plug-in asks for it, and the raw feed
+ * data it's built from is only kept if the caller says it'll be needed
+ * (see {@link LazyDOMParser}).
+ *
+ * <p>To use this parser, set the <tt>ParserClass</tt> configuration
+ * parameter to <tt>org.clapper.curn.parser.stax.StAXRSSParser</tt>.</p>
+ *
+ * <p>The parser is intended to produce the same results as the ROME
+ * adapter: it picks the same links as ROME does (so that cache keys don't
+ * change when switching parsers), normalizes text the same way, and uses
+ * ROME's names for the feed formats. The
+ * {@link org.clapper.curn.parser.ParserConformanceTest} program compares
+ * the two.</p>
+ *
+ * @see org.clapper.curn.parser.RSSParserFactory
+ * @see org.clapper.curn.parser.RSSParser
+ * @see StAXRSSChannel
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class StAXRSSParser implements LazyDOMParser
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String RSS_090_NS =
+        "http://my.netscape.com/rdf/simple/0.9/";
+    private static final String ATOM_10_NS = "http://www.w3.org/2005/Atom";
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+    private static final String CONTENT_NS =
+        "http://purl.org/rss/1.0/modules/content/";
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Shared factory. Factories are thread-safe for creating readers, once
+     * they've been configured.
+     */
+    private static final XMLInputFactory xmlInputFactory =
+        newXMLInputFactory();
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(StAXRSSParser.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Default constructor.
+     */
+    public StAXRSSParser()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Parse an RSS feed, keeping the raw feed data so that the DOM can be
+     * built later.
+     *
+     * @param url      the URL for the feed
+     * @param stream   the <tt>InputStream</tt> for the feed
+     * @param encoding the encoding of the data in the field, if known, or
+     *                 null
+     *
+     * @return an <tt>RSSChannel</tt> object representing the RSS data from
+     *         the site.
+     *
+     * @throws IOException        unable to read from URL
+     * @throws RSSParserException unable to parse RSS XML
+     */
+    public RSSChannel parseRSSFeed(URL         url,
+                                   InputStream stream,
+                                   String      encoding)
+        throws IOException,
+               RSSParserException
+    {
+        return parseRSSFeed(url, stream, encoding, true);
+    }
+
+    /**
+     * Parse an RSS feed.
+     *
+     * @param url      the URL for the feed
+     * @param stream   the <tt>InputStream</tt> for the feed
+     * @param encoding the encoding of the data in the field, if known, or
+     *                 null
+     * @param keepDOM  <tt>true</tt> to keep the raw feed data, so that the
+     *                 DOM can be built later; <tt>false</tt> to discard it
+     *
+     * @return an <tt>RSSChannel</tt> object representing the RSS data from
+     *         the site.
+     *
+     * @throws IOException        unable to read from URL
+     * @throws RSSParserException unable to parse RSS XML
+     */
+    public RSSChannel parseRSSFeed(URL         url,
+                                   InputStream stream,
+                                   String      encoding,
+                                   boolean     keepDOM)
+        throws IOException,
+               RSSParserException
+    {
+        ByteArrayOutputStream raw = null;
+        InputStream is = stream;
+        XMLStreamReader reader = null;
+
+        if (keepDOM)
+        {
+            // Keep a copy of the raw bytes as they go by, so that the DOM
+            // can be built later. The raw bytes are much smaller than the
+            // DOM would be.
+
+            raw = new ByteArrayOutputStream();
+            is = new CopyingInputStream(stream, raw);
+        }
+
+        try
+        {
+            if (encoding == null)
+            {
+                // Let the StAX parser figure out the encoding from the
+                // XML declaration and/or byte order mark.
+
+                reader = xmlInputFactory.createXMLStreamReader(is);
+            }
+
+            else
+            {
+                // Force the encoding.
+
+                reader = xmlInputFactory.createXMLStreamReader
+                    (new InputStreamReader(is, encoding));
+            }
+
+            StAXRSSChannel channel = new FeedReader(reader, url).read();
+
+            if (raw != null)
+            {
+                // The StAX parser may stop reading before the end of the
+                // stream. Make sure the copy is complete.
+
+                byte[] buf = new byte[8192];
+                while (is.read(buf) > 0)
+                    continue;
+
+                channel.setRawFeed(raw.toByteArray(), encoding);
+            }
+
+            return channel;
+        }
+
+        catch (XMLStreamException ex)
+        {
+            throw new RSSParserException(ex);
+        }
+
+        finally
+        {
+            close(reader);
+        }
+    }
+
+    /**
+     * Parse an RSS feed from a pre-loaded JDOM document object model.
+     *
+     * @param dom   the DOM to parse
+     * @param url   the feed's URL, if known, for metadata purposes; or null
+     *
+     * @return an <tt>RSSChannel</tt> object representing the RSS data from
+     *         DOM.
+     *
+     * @throws RSSParserException unable to parse RSS XML
+     */
+    public RSSChannel parseRSSFeed(Document dom, URL url)
+        throws RSSParserException
+    {
+        XMLStreamReader reader = null;
+
+        try
+        {
+            // There's no StAX view of a JDOM document, so serialize the
+            // document and parse the result.
+
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            new XMLOutputter().output(dom, buf);
+            reader = xmlInputFactory.createXMLStreamReader
+                (new ByteArrayInputStream(buf.toByteArray()));
+
+            StAXRSSChannel channel = new FeedReader(reader, url).read();
+            channel.setDOM(dom);
+            return channel;
+        }
+
+        catch (IOException ex)
+        {
+            throw new RSSParserException(ex);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            throw new RSSParserException(ex);
+        }
+
+        finally
+        {
+            close(reader);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static XMLInputFactory newXMLInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+
+        // Don't go out over the network for DTDs and external entities.
+        // (Some RSS 0.91 feeds still reference the long-gone Netscape DTD.)
+
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                            Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        return factory;
+    }
+
+    private static void close(XMLStreamReader reader)
+    {
+        if (reader != null)
+        {
+            try
+            {
+                reader.close();
+            }
+
+            catch (XMLStreamException ex)
+            {
+                log.debug("Error closing XML stream reader", ex);
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                               Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * An input stream that copies everything read from it to an output
+     * stream.
+     */
+    private static class CopyingInputStream extends FilterInputStream
+    {
+        private final ByteArrayOutputStream copy;
+
+        CopyingInputStream(InputStream in, ByteArrayOutputStream copy)
+        {
+            super(in);
+            this.copy = copy;
+        }
+
+        public int read()
+            throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+                copy.write(b);
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len)
+            throws IOException
+        {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                copy.write(b, off, n);
+            return n;
+        }
+
+        public long skip(long n)
+            throws IOException
+        {
+            // Skipped bytes must still be copied.
+
+            byte[] buf = new byte[(int) Math.min(n, 8192)];
+            int total = read(buf, 0, buf.length);
+            return (total < 0) ? 0 : total;
+        }
+
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Chooses among the <tt>&lt;link&gt;</tt> elements of an Atom feed or
+     * entry. Like ROME, prefer the first "alternate" link, falling back to
+     * the first link of any kind.
+     */
+    private static class AtomLinks
+    {
+        private String alternate = null;
+        private String first = null;
+
+        void add(String rel, String href)
+        {
+            if (href != null)
+            {
+                if (first == null)
+                    first = href;
+
+                if ((alternate == null) &&
+                    ((rel == null) || rel.equals("alternate")))
+                {
+                    alternate = href;
+                }
+            }
+        }
+
+        String best()
+        {
+            return (alternate != null) ? alternate : first;
+        }
+    }
+
+    /**
+     * Holds the state for parsing one feed. The reader walks the XML event
+     * stream, dispatching on the root element to the RSS 0.9x/2.0, RDF
+     * (RSS 0.90 and 1.0) or Atom code.
+     */
+    private static class FeedReader
+    {
+        private final XMLStreamReader r;
+        private final URL             feedURL;
+        private final StAXRSSChannel  channel = new StAXRSSChannel();
+
+        FeedReader(XMLStreamReader reader, URL feedURL)
+        {
+            this.r = reader;
+            this.feedURL = feedURL;
+        }
+
+        StAXRSSChannel read()
+            throws XMLStreamException,
+                   RSSParserException
+        {
+            // Find the root element, skipping any DTD, comments, etc.
+
+            while (r.next() != XMLStreamConstants.START_ELEMENT)
+                continue;
+
+            String root = r.getLocalName();
+            String ns = r.getNamespaceURI();
+
+            if (root.equals("rss"))
+            {
+                channel.setNativeRSSFormat
+                    (rssFormat(r.getAttributeValue(null, "version")));
+                readRSS();
+            }
+
+            else if (root.equals("RDF"))
+            {
+                readRDF();
+            }
+
+            else if (root.equals("feed"))
+            {
+                boolean atom10 = ATOM_10_NS.equals(ns);
+                channel.setNativeRSSFormat(atom10 ? "atom_1.0" : "atom_0.3");
+                readAtomFeed(atom10);
+            }
+
+            else
+            {
+                throw new RSSParserException("Feed \"" + feedURL + "\": " +
+                                             "Unknown root element <" +
+                                             root + ">");
+            }
+
+            return channel;
+        }
+
+        /*------------------------------------------------------------------*\
+                                  RSS and RDF
+        \*------------------------------------------------------------------*/
+
+        private String rssFormat(String version)
+        {
+            String format = "rss_2.0";
+
+            if (version != null)
+            {
+                version = version.trim();
+                if (version.equals("0.91"))
+                    format = "rss_0.91U";
+                else if (version.startsWith("0.9"))
+                    format = "rss_" + version;
+            }
+
+            return format;
+        }
+
+        private void readRSS()
+            throws XMLStreamException
+        {
+            while (nextChild())
+            {
+                String name = r.getLocalName();
+
+                if (name.equals("channel"))
+                    readRSSChannel();
+                else if (name.equals("item"))
+                    readRSSItem();
+                else
+                    skipElement();
+            }
+        }
+
+        private void readRDF()
+            throws XMLStreamException
+        {
+            // In RDF-based feeds (RSS 0.90 and 1.0), the items are siblings
+            // of the channel, not children.
+
+            while (nextChild())
+            {
+                String name = r.getLocalName();
+
+                if (name.equals("channel"))
+                {
+                    channel.setNativeRSSFormat
+                        (RSS_090_NS.equals(r.getNamespaceURI()) ? "rss_0.9"
+                                                                : "rss_1.0");
+                    readRSSChannel();
+                }
+
+                else if (name.equals("item"))
+                {
+                    readRSSItem();
+                }
+
+                else
+                {
+                    skipElement();
+                }
+            }
+        }
+
+        private void readRSSChannel()
+            throws XMLStreamException
+        {
+            String lastBuildDate = null;
+
+            while (nextChild())
+            {
+                String name = r.getLocalName();
+                String ns = r.getNamespaceURI();
+
+                if (DC_NS.equals(ns))
+                {
+                    if (name.equals("creator"))
+                        addAuthor(channel, readText());
+                    else if (name.equals("date"))
+                        setDate(channel, readText());
+                    else if (name.equals("rights"))
+                        channel.setCopyright(trim(readText()));
+                    else
+                        skipElement();
+                }
+
+                else if (name.equals("title"))
+                    channel.setTitle(normalize(readText()));
+                else if (name.equals("link"))
+                    addLink(channel, readText());
+                else if (name.equals("description"))
+                    channel.setDescription(normalize(readText()));
+                else if (name.equals("copyright"))
+                    channel.setCopyright(trim(readText()));
+                else if (name.equals("pubDate"))
+                    setDate(channel, readText());
+                else if (name.equals("lastBuildDate"))
+                    lastBuildDate = readText();
+                else if (name.equals("item"))
+                    readRSSItem();
+                else
+                    skipElement();
+            }
+
+            // Like ROME, fall back to the last build date.
+
+            setDate(channel, lastBuildDate);
+        }
+
+        private void readRSSItem()
+            throws XMLStreamException
+        {
+            StAXRSSItem item = new StAXRSSItem(channel);
+            String guid = null;
+            boolean guidIsPermaLink = false;
+            boolean haveLink = false;
+
+            while (nextChild())
+            {
+                String name = r.getLocalName();
+                String ns = r.getNamespaceURI();
+
+                if (DC_NS.equals(ns))
+                {
+                    if (name.equals("creator"))
+                        addAuthor(item, readText());
+                    else if (name.equals("date"))
+                        setDate(item, readText());
+                    else if (name.equals("subject"))
+                        addCategory(item, readText());
+                    else
+                        skipElement();
+                }
+
+                else if (CONTENT_NS.equals(ns))
+                {
+                    if (name.equals("encoded"))
+                        item.addContent(new RSSContent(readText(),
+                                                       "text/html"));
+                    else
+                        skipElement();
+                }
+
+                else if (name.equals("title"))
+                {
+                    item.setTitle(normalize(readText()));
+                }
+
+                else if (name.equals("link"))
+                {
+                    haveLink = addLink(item, readText());
+                }
+
+                else if (name.equals("description"))
+                {
+                    item.setSummary(normalize(readText()));
+                }
+
+                else if (name.equals("pubDate"))
+                {
+                    setDate(item, readText());
+                }
+
+                else if (name.equals("author"))
+                {
+                    addAuthor(item, readText());
+                }
+
+                else if (name.equals("category"))
+                {
+                    addCategory(item, readText());
+                }
+
+                else if (name.equals("guid"))
+                {
+                    String permaLink = r.getAttributeValue(null,
+                                                           "isPermaLink");
+                    guidIsPermaLink = (permaLink == null) ||
+                                      permaLink.trim().equals("true");
+                    guid = trim(readText());
+                    item.setID(guid);
+                }
+
+                else
+                {
+                    skipElement();
+                }
+            }
+
+            // Like ROME, fall back to a permalink GUID if there's no link.
+
+            if ((! haveLink) && guidIsPermaLink && (guid != null))
+                addLink(item, guid);
+
+            channel.addItem(item);
+        }
+
+        /*------------------------------------------------------------------*\
+                                      Atom
+        \*------------------------------------------------------------------*/
+
+        private void readAtomFeed(boolean atom10)
+            throws XMLStreamException
+        {
+            AtomLinks links = new AtomLinks();
+
+            while (nextChild())
+            {
+                String name = r.getLocalName();
+
+                if (name.equals("title"))
+                    channel.setTitle(normalize(readAtomText(atom10)));
+                else if (name.equals("link"))
+                    readAtomLink(links);
+                else if (name.equals("subtitle") || name.equals("tagline"))
+                    channel.setDescription(normalize(readAtomText(atom10)));
+                else if (name.equals("rights") || name.equals("copyright"))
+                    channel.setCopyright(trim(readAtomText(atom10)));
+                else if (name.equals("updated") || name.equals("modified"))
+                    setDate(channel, readText());
+                else if (name.equals("author"))
+                    addAuthor(channel, readAtomPersonName());
+                else if (name.equals("entry"))
+                    readAtomEntry(atom10);
+                else
+                    skipElement();
+            }
+
+            addLink(channel, links.best());
+        }
+
+        private void readAtomEntry(boolean atom10)
+            throws XMLStreamException
+        {
+            StAXRSSItem item = new StAXRSSItem(channel);
+            AtomLinks links = new AtomLinks();
+            String published = null;
+            String updated = null;
+
+            while (nextChild())
+            {
+                String name = r.getLocalName();
+                String ns = r.getNamespaceURI();
+
+                if (DC_NS.equals(ns))
+                {
+                    if (name.equals("subject"))
+                        addCategory(item, readText());
+                    else
+                        skipElement();
+                }
+
+                else if (name.equals("title"))
+                {
+                    item.setTitle(normalize(readAtomText(atom10)));
+                }
+
+                else if (name.equals("link"))
+                {
+                    readAtomLink(links);
+                }
+
+                else if (name.equals("summary"))
+                {
+                    item.setSummary(normalize(readAtomText(atom10)));
+                }
+
+                else if (name.equals("content"))
+                {
+                    String type = contentType(r.getAttributeValue(null,
+                                                                  "type"),
+                                              atom10);
+                    item.addContent(new RSSContent(readAtomText(atom10),
+                                                   type));
+                }
+
+                else if (name.equals("author") || name.equals("contributor"))
+                {
+                    addAuthor(item, readAtomPersonName());
+                }
+
+                else if (name.equals("category"))
+                {
+                    addCategory(item, r.getAttributeValue(null, "term"));
+                    skipElement();
+                }
+
+                else if (name.equals("published") || name.equals("issued"))
+                {
+                    published = readText();
+                }
+
+                else if (name.equals("updated") || name.equals("modified"))
+                {
+                    updated = readText();
+                }
+
+                else if (name.equals("id"))
+                {
+                    item.setID(trim(readText()));
+                }
+
+                else
+                {
+                    skipElement();
+                }
+            }
+
+            addLink(item, links.best());
+            // ROME uses the modification date for Atom 0.3 entries, and
+            // the publication date for Atom 1.0 entries.
+
+            if (atom10)
+                setDate(item, (published != null) ? published : updated);
+            else
+                setDate(item, (updated != null) ? updated : published);
+            channel.addItem(item);
+        }
+
+        private void readAtomLink(AtomLinks links)
+            throws XMLStreamException
+        {
+            links.add(r.getAttributeValue(null, "rel"),
+                      r.getAttributeValue(null, "href"));
+            skipElement();
+        }
+
+        private String contentType(String type, boolean atom10)
+        {
+            if (type == null)
+                type = atom10 ? "text" : "text/plain";
+
+            // Same normalization as the ROME adapter: "html" becomes
+            // "text/html", and so on.
+
+            if (type.indexOf('/') == -1)
+                type = "text/" + type;
+
+            return type;
+        }
+
+        /**
+         * Read the text of an Atom text construct (or content element).
+         * Plain text and escaped HTML come back as is. Inline XHTML comes
+         * back as markup, minus the wrapping <tt>div</tt> Atom 1.0 requires.
+         */
+        private String readAtomText(boolean atom10)
+            throws XMLStreamException
+        {
+            String type = r.getAttributeValue(null, "type");
+            String result;
+
+            if (atom10 && "xhtml".equals(type))
+            {
+                result = null;
+                while (nextChild())
+                {
+                    if ((result == null) && r.getLocalName().equals("div"))
+                        result = readText();
+                    else
+                        skipElement();
+                }
+            }
+
+            else
+            {
+                result = readText();
+            }
+
+            return result;
+        }
+
+        private String readAtomPersonName()
+            throws XMLStreamException
+        {
+            String name = null;
+
+            while (nextChild())
+            {
+                if (r.getLocalName().equals("name"))
+                    name = readText();
+                else
+                    skipElement();
+            }
+
+            return name;
+        }
+
+        /*------------------------------------------------------------------*\
+                               Element utilities
+        \*------------------------------------------------------------------*/
+
+        /**
+         * Advance to the next child element of the current element.
+         *
+         * @return <tt>true</tt> if positioned on a child's start tag,
+         *         <tt>false</tt> if positioned on the parent's end tag
+         */
+        private boolean nextChild()
+            throws XMLStreamException
+        {
+            int event;
+
+            do
+            {
+                event = r.next();
+            }
+            while ((event != XMLStreamConstants.START_ELEMENT) &&
+                   (event != XMLStreamConstants.END_ELEMENT));
+
+            return event == XMLStreamConstants.START_ELEMENT;
+        }
+
+        private void skipElement()
+            throws XMLStreamException
+        {
+            int depth = 1;
+
+            while (depth > 0)
+            {
+                switch (r.next())
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        depth--;
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Read the contents of the current element as a string. If the
+         * element contains other elements (e.g., inline XHTML), they're
+         * returned as markup.
+         *
+         * @return the contents; never null
+         */
+        private String readText()
+            throws XMLStreamException
+        {
+            StringBuilder text = new StringBuilder();
+            StringBuilder markup = null;
+            int depth = 1;
+
+            while (depth > 0)
+            {
+                switch (r.next())
+                {
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        text.append(r.getText());
+                        if (markup != null)
+                            escape(r.getText(), markup);
+                        break;
+
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (markup == null)
+                        {
+                            markup = new StringBuilder();
+                            escape(text.toString(), markup);
+                        }
+
+                        depth++;
+                        appendStartTag(markup);
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        depth--;
+                        if (depth > 0)
+                        {
+                            markup.append("</");
+                            markup.append(qualifiedName());
+                            markup.append('>');
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+
+            return (markup == null) ? text.toString() : markup.toString();
+        }
+
+        private void appendStartTag(StringBuilder buf)
+        {
+            buf.append('<');
+            buf.append(qualifiedName());
+
+            for (int i = 0; i < r.getAttributeCount(); i++)
+            {
+                String prefix = r.getAttributePrefix(i);
+                buf.append(' ');
+                if ((prefix != null) && (prefix.length() > 0))
+                {
+                    buf.append(prefix);
+                    buf.append(':');
+                }
+
+                buf.append(r.getAttributeLocalName(i));
+                buf.append("=\"");
+                escape(r.getAttributeValue(i), buf);
+                buf.append('"');
+            }
+
+            buf.append('>');
+        }
+
+        private String qualifiedName()
+        {
+            String prefix = r.getPrefix();
+            String name = r.getLocalName();
+
+            if ((prefix != null) && (prefix.length() > 0))
+                name = prefix + ":" + name;
+
+            return name;
+        }
+
+        private void escape(String s, StringBuilder buf)
+        {
+            for (int i = 0; i < s.length(); i++)
+            {
+                char c = s.charAt(i);
+                switch (c)
+                {
+                    case '<':
+                        buf.append("&lt;");
+                        break;
+
+                    case '>':
+                        buf.append("&gt;");
+                        break;
+
+                    case '&':
+                        buf.append("&amp;");
+                        break;
+
+                    case '"':
+                        buf.append("&quot;");
+                        break;
+
+                    default:
+                        buf.append(c);
+                        break;
+                }
+            }
+        }
+
+        /*------------------------------------------------------------------*\
+                                Field utilities
+        \*------------------------------------------------------------------*/
+
+        private String normalize(String s)
+        {
+            // Same treatment the ROME adapter gives titles and descriptions:
+            // strip leading and trailing white space and map embedded
+            // newlines to spaces.
+
+            return ParserUtil.normalizeCharacterData(s);
+        }
+
+        private String trim(String s)
+        {
+            String result = null;
+
+            if (s != null)
+            {
+                s = s.trim();
+                if (s.length() > 0)
+                    result = s;
+            }
+
+            return result;
+        }
+
+        private URL toURL(String s)
+        {
+            URL url = null;
+
+            if ((s = trim(s)) != null)
+            {
+                try
+                {
+                    url = new URL(s);
+                }
+
+                catch (MalformedURLException ex)
+                {
+                    // Might be relative to the feed.
+
+                    try
+                    {
+                        if (feedURL != null)
+                            url = new URL(feedURL, s);
+                    }
+
+                    catch (MalformedURLException ex2)
+                    {
+                        url = null;
+                    }
+
+                    if (url == null)
+                        log.error("Feed \"" + feedURL + "\": Bad URL \"" +
+                                  s + "\" (" + ex.toString() + ")");
+                }
+            }
+
+            return url;
+        }
+
+        private RSSLink newLink(URL url)
+        {
+            // Like the ROME adapter, mark the (single) link as "self".
+
+            return new RSSLink(url,
+                               ParserUtil.getLinkMIMEType(url),
+                               RSSLink.Type.SELF);
+        }
+
+        private void addLink(StAXRSSChannel channel, String s)
+        {
+            URL url = toURL(s);
+
+            // ROME keeps only one link per channel.
+
+            if ((url != null) && channel.getLinks().isEmpty())
+                channel.addLink(newLink(url));
+        }
+
+        private boolean addLink(StAXRSSItem item, String s)
+        {
+            URL url = toURL(s);
+            boolean added = false;
+
+            // ROME keeps only one link per item.
+
+            if ((url != null) && item.getLinks().isEmpty())
+            {
+                item.addLink(newLink(url));
+                added = true;
+            }
+
+            return added;
+        }
+
+        private void addAuthor(StAXRSSChannel channel, String author)
+        {
+            if ((author = trim(author)) != null)
+                channel.addAuthor(author);
+        }
+
+        private void addAuthor(StAXRSSItem item, String author)
+        {
+            if ((author = trim(author)) != null)
+                item.addAuthor(author);
+        }
+
+        private void addCategory(StAXRSSItem item, String category)
+        {
+            if ((category = trim(category)) != null)
+                item.addCategory(category);
+        }
+
+        private void setDate(StAXRSSChannel channel, String s)
+        {
+            Date date = parseDate(s);
+            if ((date != null) && (channel.getPublicationDate() == null))
+                channel.setPublicationDate(date);
+        }
+
+        private void setDate(StAXRSSItem item, String s)
+        {
+            Date date = parseDate(s);
+            if ((date != null) && (item.getPublicationDate() == null))
+                item.setPublicationDate(date);
+        }
+
+        private Date parseDate(String s)
+        {
+            return ((s = trim(s)) == null) ? null : ParserUtil.parseDate(s);
+        }
+    }
+}
@@ -50,6 +50,7 @@ import org.clapper.util.logging.Logger;
 import java.util.HashMap;
 import java.util.Map;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 
 /**
  * The <tt>AllowEmbeddedHTMLPlugIn</tt> handles stripping (or not
@@ -86,7 +87,8 @@ import org.clapper.curn.FeedCache;
 public class AllowEmbeddedHTMLPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -43,6 +43,7 @@ import org.clapper.curn.FeedConfigItemPlugIn;
 import org.clapper.curn.PostFeedProcessPlugIn;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
+import org.clapper.curn.parser.RSSItemPredicate;
 
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
@@ -64,6 +65,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 import org.clapper.util.misc.MultiValueMap;
 
 /**
@@ -177,7 +179,8 @@ import org.clapper.util.misc.MultiValueMap;
  */
 public class ArticleFilterPlugIn
     implements FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -476,32 +479,33 @@ public class ArticleFilterPlugIn
      * @see RSSChannel
      * @see FeedInfo
      */
-    public boolean runPostFeedProcessPlugIn(FeedInfo   feedInfo,
-                                          FeedCache  feedCache,
-                                          RSSChannel channel)
+    public boolean runPostFeedProcessPlugIn(final FeedInfo   feedInfo,
+                                            FeedCache        feedCache,
+                                            RSSChannel       channel)
         throws CurnException
     {
-        Collection<FeedFilterRuleset> rules =
+        final Collection<FeedFilterRuleset> rules =
             perFeedMatchRules.getCollection(feedInfo);
 
         if ((rules != null) && (rules.size() > 0))
         {
-            for (RSSItem item : channel.getItems())
+            channel.removeItems(new RSSItemPredicate()
             {
-                if (nukeItem(item, rules, feedInfo))
+                public boolean test(RSSItem item)
                 {
-                    // Since getItems() returns a copy of the list of
-                    // items, this call will not cause a
-                    // ConcurrentModificationException to be thrown.
-
-                    log.debug("Feed \"" +
-                              feedInfo.getURL() +
-                              "\": Filtering out item \"" +
-                              item.getTitle() +
-                              "\"");
-                    channel.removeItem(item);
+                    boolean nuke = nukeItem(item, rules, feedInfo);
+                    if (nuke)
+                    {
+                        log.debug("Feed \"" +
+                                  feedInfo.getURL() +
+                                  "\": Filtering out item \"" +
+                                  item.getTitle() +
+                                  "\"");
+                    }
+
+                    return nuke;
                 }
-            }
+            });
         }
 
         return true;
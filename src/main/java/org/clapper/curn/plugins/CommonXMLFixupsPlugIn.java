@@ -40,7 +40,7 @@ import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
 import org.clapper.curn.MainConfigItemPlugIn;
 import org.clapper.curn.FeedConfigItemPlugIn;
-import org.clapper.curn.PostFeedDownloadPlugIn;
+import org.clapper.curn.SelectivePostFeedDownloadPlugIn;
 
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
@@ -105,7 +105,7 @@ public class CommonXMLFixupsPlugIn
     extends AbstractXMLEditPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedDownloadPlugIn
+               SelectivePostFeedDownloadPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -380,6 +380,23 @@ public class CommonXMLFixupsPlugIn
                                              File     feedDataFile,
                                              String   encoding)
         throws CurnException
+    {
+        if (isEnabledForFeed(feedInfo))
+            editXML(feedInfo, feedDataFile, encoding, Arrays.asList(EDITS));
+
+        return true;
+    }
+
+    /**
+     * Determine whether this plug-in wants to see the downloaded data for a
+     * feed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     *
+     * @return <tt>true</tt> if the fixups are enabled for the feed,
+     *         <tt>false</tt> otherwise
+     */
+    public boolean isEnabledForFeed(FeedInfo feedInfo)
     {
         Boolean enabledBoxed = perFeedEnabledFlag.get(feedInfo);
         boolean enabled = globallyEnabled;
@@ -387,10 +404,7 @@ public class CommonXMLFixupsPlugIn
         if (enabledBoxed != null)
             enabled = enabledBoxed;
 
-        if (enabled)
-            editXML(feedInfo, feedDataFile, encoding, Arrays.asList(EDITS));
-
-        return true;
+        return enabled;
     }
 
     /*----------------------------------------------------------------------*\
@@ -52,6 +52,7 @@ import org.clapper.util.logging.Logger;
 import java.util.HashMap;
 import java.util.Map;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 
 /**
  * The <tt>EmptyArticleSummaryPlugIn</tt> provides a way to handle an empty
@@ -100,7 +101,8 @@ import org.clapper.curn.FeedCache;
 public class EmptyArticleSummaryPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
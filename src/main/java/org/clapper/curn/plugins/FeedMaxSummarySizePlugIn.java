@@ -52,6 +52,7 @@ import org.clapper.util.html.HTMLUtil;
 import java.util.HashMap;
 import java.util.Map;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 
 /**
  * The <tt>FeedMaxSummarySizePlugIn</tt> optionally truncates a feed's
@@ -86,7 +87,8 @@ import org.clapper.curn.FeedCache;
 public class FeedMaxSummarySizePlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
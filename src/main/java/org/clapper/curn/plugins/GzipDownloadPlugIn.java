@@ -42,6 +42,7 @@ import org.clapper.curn.MainConfigItemPlugIn;
 import org.clapper.curn.FeedConfigItemPlugIn;
 import org.clapper.curn.PreFeedDownloadPlugIn;
 import org.clapper.curn.CurnUtil;
+import org.clapper.curn.ThreadSafePlugIn;
 
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
@@ -82,7 +83,8 @@ import java.util.HashMap;
 public class GzipDownloadPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PreFeedDownloadPlugIn
+               PreFeedDownloadPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -51,6 +51,7 @@ import org.clapper.util.logging.Logger;
 import java.util.HashMap;
 import java.util.Map;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 
 /**
  * The <tt>IgnoreDuplicateArticlesPlugIn</tt> handles removing duplicate
@@ -73,7 +74,8 @@ import org.clapper.curn.FeedCache;
  */
 public class IgnoreDuplicateArticlesPlugIn
     implements FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
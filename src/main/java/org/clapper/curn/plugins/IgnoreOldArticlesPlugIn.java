@@ -45,6 +45,7 @@ import org.clapper.curn.PostFeedProcessPlugIn;
 import org.clapper.curn.MainConfigItemPlugIn;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
+import org.clapper.curn.parser.RSSItemPredicate;
 
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
@@ -53,6 +54,7 @@ import org.clapper.util.logging.Logger;
 import java.util.HashMap;
 import java.util.Map;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 import org.clapper.util.text.Duration;
 
 /**
@@ -133,7 +135,8 @@ import org.clapper.util.text.Duration;
 public class IgnoreOldArticlesPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -372,45 +375,50 @@ public class IgnoreOldArticlesPlugIn
 
         if (duration != null)
         {
-            String feedURL = feedInfo.getURL().toString();
-            String sDuration = duration.format();
-            long durationMillis = duration.getDuration();
+            final String feedURL = feedInfo.getURL().toString();
+            final String sDuration = duration.format();
+            final long durationMillis = duration.getDuration();
 
             log.debug("Ignoring all articles in " + feedURL + " older than " +
                       sDuration);
 
-            long now = System.currentTimeMillis();
-            for (RSSItem item : channel.getItems())
+            final long now = System.currentTimeMillis();
+            channel.removeItems(new RSSItemPredicate()
             {
-                Date itemDate = item.getPublicationDate();
-                if (itemDate == null)
+                public boolean test(RSSItem item)
                 {
-                    log.debug("Item " + item.getURL() + " has no date. " +
-                              "Assuming it's current. NOT ignoring it.");
-                    continue;
-                }
+                    Date itemDate = item.getPublicationDate();
+                    if (itemDate == null)
+                    {
+                        log.debug("Item " + item.getURL() + " has no date. " +
+                                  "Assuming it's current. NOT ignoring it.");
+                        return false;
+                    }
 
-                long itemDateMillis = itemDate.getTime();
-                long itemDateAgeMillis = now - itemDateMillis;
+                    long itemDateMillis = itemDate.getTime();
+                    long itemDateAgeMillis = now - itemDateMillis;
 
-                // Account for articles dated in the future. (There's no
-                // reason some doofus feed couldn't do that. And then there's
-                // always machine clock-skew.)
+                    // Account for articles dated in the future. (There's no
+                    // reason some doofus feed couldn't do that. And then
+                    // there's always machine clock-skew.)
 
-                if (itemDateAgeMillis < 0)
-                    itemDateAgeMillis = 0;
+                    if (itemDateAgeMillis < 0)
+                        itemDateAgeMillis = 0;
 
-                // Is the feed older than permitted?
+                    // Is the feed older than permitted?
 
-                if (itemDateAgeMillis > durationMillis)
-                {
-                    log.info("In feed " + feedURL + ", article " +
-                             item.getURL() + " is dated " + itemDate +
-                             ", which is older than " + sDuration + ". " +
-                             "Suppressing article.");
-                    channel.removeItem(item);
+                    boolean tooOld = (itemDateAgeMillis > durationMillis);
+                    if (tooOld)
+                    {
+                        log.info("In feed " + feedURL + ", article " +
+                                 item.getURL() + " is dated " + itemDate +
+                                 ", which is older than " + sDuration + ". " +
+                                 "Suppressing article.");
+                    }
+
+                    return tooOld;
                 }
-            }
+            });
         }
 
         return true;
@@ -39,6 +39,7 @@ import org.clapper.curn.Constants;
 import org.clapper.curn.CurnConfig;
 import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
+import org.clapper.curn.FeedKey;
 import org.clapper.curn.FeedConfigItemPlugIn;
 import org.clapper.curn.MainConfigItemPlugIn;
 import org.clapper.curn.PostFeedProcessPlugIn;
@@ -56,6 +57,7 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 
 /**
  * The <tt>MaxArticlesPlugIn</tt> can be used to set an upper limit on the
@@ -110,7 +112,8 @@ import org.clapper.curn.FeedCache;
 public class MaxArticlesPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -125,8 +128,8 @@ public class MaxArticlesPlugIn
     /**
      * Feed sort-by data, by feed
      */
-    private Map<URL,Integer> perFeedMaxArticlesMap =
-        new HashMap<URL,Integer>();
+    private Map<FeedKey,Integer> perFeedMaxArticlesMap =
+        new HashMap<FeedKey,Integer>();
 
     /**
      * Default sort-by value
@@ -300,7 +303,7 @@ public class MaxArticlesPlugIn
                 }
 
                 URL feedURL = feedInfo.getURL();
-                perFeedMaxArticlesMap.put(feedURL, val);
+                perFeedMaxArticlesMap.put(feedInfo.getKey(), val);
                 log.debug(feedURL + ": " + VAR_MAX_ARTICLES + "=" + val);
             }
 
@@ -346,7 +349,7 @@ public class MaxArticlesPlugIn
         URL feedURL = feedInfo.getURL();
         log.debug("Post feed parse: " + feedURL.toString());
 
-        Integer max = perFeedMaxArticlesMap.get(feedURL);
+        Integer max = perFeedMaxArticlesMap.get(feedInfo.getKey());
         if (max == null)
             max = defaultMaxArticlesToShow;
 
@@ -66,6 +66,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.clapper.curn.CurnUtil;
+import org.clapper.curn.DOMConsumerPlugIn;
 import org.clapper.curn.FeedCache;
 import org.clapper.curn.PostFeedProcessPlugIn;
 import org.clapper.curn.parser.RSSChannel;
@@ -108,7 +109,8 @@ import org.jdom.output.XMLOutputter;
 public class PruneOriginalRSSPlugIn
     implements FeedConfigItemPlugIn,
                PostConfigPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               DOMConsumerPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -310,6 +312,20 @@ public class PruneOriginalRSSPlugIn
         }
     }
 
+    /**
+     * Determine whether this plug-in will want the DOM for a feed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     *
+     * @return <tt>true</tt> if the feed is to be pruned, <tt>false</tt>
+     *         if not
+     */
+    public boolean needsDOM(final FeedInfo feedInfo)
+    {
+        PruneInfo pruneInfo = perFeedSaveAsMap.get(feedInfo);
+        return (pruneInfo != null) && (pruneInfo.pruneToFile != null);
+    }
+
     /**
      * <p>Called just after the feed has been parsed, but before it is
      * otherwise processed.
@@ -39,7 +39,7 @@ import org.clapper.curn.CurnConfig;
 import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
 import org.clapper.curn.FeedConfigItemPlugIn;
-import org.clapper.curn.PostFeedDownloadPlugIn;
+import org.clapper.curn.SelectivePostFeedDownloadPlugIn;
 
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
@@ -73,7 +73,7 @@ import org.clapper.util.io.FileUtil;
 public class RawFeedEditPlugIn
     extends AbstractXMLEditPlugIn
     implements FeedConfigItemPlugIn,
-               PostFeedDownloadPlugIn
+               SelectivePostFeedDownloadPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -280,6 +280,21 @@ public class RawFeedEditPlugIn
         return true;
     }
 
+    /**
+     * Determine whether this plug-in wants to see the downloaded data for a
+     * feed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     *
+     * @return <tt>true</tt> if the feed has edit commands, <tt>false</tt>
+     *         otherwise
+     */
+    public boolean isEnabledForFeed(FeedInfo feedInfo)
+    {
+        FeedEditInfo editInfo  = perFeedEditInfoMap.get (feedInfo);
+        return (editInfo != null) && (editInfo.editCommands.size() > 0);
+    }
+
     /*----------------------------------------------------------------------*\
                              Protected Methods
     \*----------------------------------------------------------------------*/
@@ -42,7 +42,7 @@ import org.clapper.curn.FeedInfo;
 import org.clapper.curn.FeedConfigItemPlugIn;
 import org.clapper.curn.PostConfigPlugIn;
 import org.clapper.curn.PreFeedDownloadPlugIn;
-import org.clapper.curn.PostFeedDownloadPlugIn;
+import org.clapper.curn.SelectivePostFeedDownloadPlugIn;
 
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
@@ -98,7 +98,7 @@ import org.clapper.util.text.TextUtil;
 public class RawFeedSaveAsPlugIn
     implements FeedConfigItemPlugIn,
                PostConfigPlugIn,
-               PostFeedDownloadPlugIn
+               SelectivePostFeedDownloadPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -411,6 +411,21 @@ public class RawFeedSaveAsPlugIn
         return keepGoing;
     }
 
+    /**
+     * Determine whether this plug-in wants to see the downloaded data for a
+     * feed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     *
+     * @return <tt>true</tt> if the feed is to be saved, <tt>false</tt>
+     *         otherwise
+     */
+    public boolean isEnabledForFeed(FeedInfo feedInfo)
+    {
+        FeedSaveInfo saveInfo = perFeedSaveAsMap.get (feedInfo);
+        return (saveInfo != null) && (saveInfo.saveAsFile != null);
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
@@ -47,9 +47,11 @@ import org.clapper.curn.FeedCache;
 import org.clapper.curn.FeedCacheEntry;
 import org.clapper.curn.FeedConfigItemPlugIn;
 import org.clapper.curn.FeedInfo;
+import org.clapper.curn.FeedKey;
 import org.clapper.curn.ForceFeedDownloadPlugIn;
 import org.clapper.curn.MainConfigItemPlugIn;
 import org.clapper.curn.PostFeedParsePlugIn;
+import org.clapper.curn.ThreadSafePlugIn;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
 import org.clapper.util.classutil.ClassUtil;
@@ -129,7 +131,8 @@ public class RetainArticlesPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
                ForceFeedDownloadPlugIn,
-               PostFeedParsePlugIn
+               PostFeedParsePlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                                Private Constants
@@ -144,8 +147,8 @@ public class RetainArticlesPlugIn
     /**
      * Feed duration data, by feed URL. This map contains configuration data.
      */
-    private Map<URL,Duration> perFeedDuration =
-        new HashMap<URL,Duration>();
+    private Map<FeedKey,Duration> perFeedDuration =
+        new HashMap<FeedKey,Duration>();
 
     /**
      * The global default
@@ -300,7 +303,7 @@ public class RetainArticlesPlugIn
                                                                     paramName);
                     Duration duration = new Duration(sDuration);
                     URL feedURL = CurnUtil.normalizeURL(feedInfo.getURL());
-                    perFeedDuration.put(feedURL, duration);
+                    perFeedDuration.put(feedInfo.getKey(), duration);
                     if (log.isDebugEnabled())
                     {
                         log.debug("[" + sectionName + "] (" +
@@ -346,8 +349,7 @@ public class RetainArticlesPlugIn
     public boolean forceFeedDownload(FeedInfo feedInfo, FeedCache feedCache)
         throws CurnException
     {
-        URL feedURL = CurnUtil.normalizeURL(feedInfo.getURL());
-        Duration duration = perFeedDuration.get(feedURL);
+        Duration duration = perFeedDuration.get(feedInfo.getKey());
         if (duration == null)
             duration = globalDefault;
 
@@ -384,9 +386,9 @@ public class RetainArticlesPlugIn
                                           RSSChannel channel)
         throws CurnException
     {
-        URL feedURL = CurnUtil.normalizeURL(feedInfo.getURL());
+        URL feedURL = feedInfo.getURL();
         log.debug("Checking parsed feed \"" + feedURL.toString() + "\"");
-        Duration duration = perFeedDuration.get(feedURL);
+        Duration duration = perFeedDuration.get(feedInfo.getKey());
         if (duration == null)
             duration = globalDefault;
 
@@ -51,6 +51,7 @@ import org.clapper.util.logging.Logger;
 import java.util.HashMap;
 import java.util.Map;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 
 /**
  * The <tt>ShowAuthorsPlugIn</tt> handles enabling/disabling display of the
@@ -82,7 +83,8 @@ import org.clapper.curn.FeedCache;
 public class ShowAuthorsPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -39,6 +39,7 @@ import org.clapper.curn.Constants;
 import org.clapper.curn.CurnConfig;
 import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
+import org.clapper.curn.FeedKey;
 import org.clapper.curn.FeedConfigItemPlugIn;
 import org.clapper.curn.MainConfigItemPlugIn;
 import org.clapper.curn.PostFeedProcessPlugIn;
@@ -60,6 +61,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 
 /**
  * The <tt>SortArticlesPlugIn</tt> handles per-feed SortBy settings.
@@ -84,7 +86,8 @@ import org.clapper.curn.FeedCache;
 public class SortArticlesPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -184,8 +187,8 @@ public class SortArticlesPlugIn
     /**
      * Feed sort-by data, by feed
      */
-    private Map<URL,SortBy> perFeedSortByMap =
-        new HashMap<URL,SortBy>();
+    private Map<FeedKey,SortBy> perFeedSortByMap =
+        new HashMap<FeedKey,SortBy>();
 
     /**
      * Default sort-by value
@@ -327,7 +330,7 @@ public class SortArticlesPlugIn
                                                             paramName);
                 SortBy sortBy = parseSortByValue(sectionName, value);
                 URL feedURL = feedInfo.getURL();
-                perFeedSortByMap.put(feedURL, sortBy);
+                perFeedSortByMap.put(feedInfo.getKey(), sortBy);
                 log.debug(feedURL + ": SortBy=" + sortBy);
             }
 
@@ -425,7 +428,7 @@ public class SortArticlesPlugIn
         log.debug("Feed " + feedURL + ": total items=" + total);
         if (total > 0)
         {
-            SortBy sortBy = perFeedSortByMap.get(feedURL);
+            SortBy sortBy = perFeedSortByMap.get(feedInfo.getKey());
             log.debug("feed " + feedURL + ": SortBy=" + sortBy);
             if (sortBy == null)
                 sortBy = defaultSortBy;
@@ -49,6 +49,7 @@ import org.clapper.util.logging.Logger;
 import java.util.HashMap;
 import java.util.Map;
 import org.clapper.curn.FeedCache;
+import org.clapper.curn.ThreadSafePlugIn;
 
 /**
  * The <tt>TitleOverridePlugIn</tt> handles overriding the title of a feed.
@@ -70,7 +71,8 @@ import org.clapper.curn.FeedCache;
  */
 public class TitleOverridePlugIn
     implements FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -43,6 +43,7 @@ import org.clapper.curn.FeedConfigItemPlugIn;
 import org.clapper.curn.PostConfigPlugIn;
 import org.clapper.curn.PreFeedDownloadPlugIn;
 import org.clapper.curn.Version;
+import org.clapper.curn.ThreadSafePlugIn;
 
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
@@ -83,7 +84,8 @@ public class UserAgentPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
                PostConfigPlugIn,
-               PreFeedDownloadPlugIn
+               PreFeedDownloadPlugIn,
+               ThreadSafePlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants